@@ -10,6 +10,7 @@ import static datadog.trace.util.AgentThreadFactory.newAgentThread;
 
 import datadog.trace.util.AgentTaskScheduler;
 import datadog.trace.util.AgentThreadFactory.AgentThread;
+import java.io.File;
 import java.lang.instrument.Instrumentation;
 import java.lang.management.ManagementFactory;
 import java.lang.reflect.Constructor;
@@ -17,8 +18,13 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.EnumSet;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -133,6 +139,53 @@ public class Agent {
     }
   }
 
+  /**
+   * Loads and links every class of the agent jar with the classloaders the agent uses, without
+   * starting anything, so a JVM dumping a class data sharing archive at exit includes all of them.
+   */
+  public static void loadAgentClasses(final URL bootstrapURL) throws Exception {
+    createParentClassloader(bootstrapURL);
+    final Map<String, ClassLoader> classLoaders = new HashMap<>();
+    classLoaders.put("shared", PARENT_CLASSLOADER);
+    classLoaders.put("inst", createDelegateClassLoader("inst", bootstrapURL, PARENT_CLASSLOADER));
+    classLoaders.put(
+        "metrics", createDelegateClassLoader("metrics", bootstrapURL, PARENT_CLASSLOADER));
+    classLoaders.put("profiling", getProfilingClassloader(bootstrapURL));
+
+    int loaded = 0;
+    int failed = 0;
+    try (final JarFile jarFile = new JarFile(new File(bootstrapURL.toURI()), false)) {
+      final Enumeration<JarEntry> entries = jarFile.entries();
+      while (entries.hasMoreElements()) {
+        final String name = entries.nextElement().getName();
+        final int end = name.indexOf('/');
+        final String className;
+        final ClassLoader classLoader;
+        if (end > 0
+            && name.endsWith(".classdata")
+            && classLoaders.containsKey(name.substring(0, end))) {
+          className = name.substring(end + 1, name.length() - ".classdata".length());
+          classLoader = classLoaders.get(name.substring(0, end));
+        } else if (name.endsWith(".class") && !name.startsWith("META-INF/")) {
+          className = name.substring(0, name.length() - ".class".length());
+          classLoader = null; // bootstrap
+        } else {
+          continue;
+        }
+        try {
+          // reflecting on the fields links the class without initializing it
+          Class.forName(className.replace('/', '.'), false, classLoader).getDeclaredFields();
+          loaded++;
+        } catch (final Throwable e) {
+          // e.g. instrumentation helpers referring to the libraries they instrument
+          log.debug("Unable to load {}: {}", className, e.toString());
+          failed++;
+        }
+      }
+    }
+    log.info("Loaded {} agent classes, {} could not be loaded", loaded, failed);
+  }
+
   private static void registerLogManagerCallback(final ClassLoadCallBack callback) {
     try {
       final Class<?> agentInstallerClass =
@@ -0,0 +1,125 @@
+package datadog.trace.agent.tooling.bytebuddy.matcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ProviderNotFoundException;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Matches the names of 50k classes from the JDK and the benchmark's classpath against the global
+ * ignores, as the agent does on every class load, so the score is the cost per class. The classes
+ * are matched in the order they appear in their jars, which is close to the order they are loaded
+ * in; shuffling them makes every name a cache miss, which isn't the case when the agent matches a
+ * class it has just parsed. Configured excludes are added to the same trie, so the cost per class
+ * shouldn't change with their number.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GlobalIgnoresMatcherBenchmark {
+  private static final int CLASSES = 50_000;
+
+  @Param({"0", "100"})
+  int excludes;
+
+  ElementMatcher<TypeDescription> matcher;
+  TypeDescription[] types;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    final List<String> excludedClasses = new ArrayList<>();
+    for (int i = 0; i < excludes; ++i) {
+      excludedClasses.add("com.example.excluded" + i + ".*");
+    }
+    matcher = GlobalIgnoresMatcher.globalIgnoresMatcher(false, excludedClasses);
+
+    final List<String> names = classNames();
+    types = new TypeDescription[CLASSES];
+    for (int i = 0; i < CLASSES; ++i) {
+      types[i] = new TypeDescription.Latent(names.get(i % names.size()), 0, null);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CLASSES)
+  public void matchClasses(final Blackhole blackhole) {
+    for (final TypeDescription type : types) {
+      blackhole.consume(matcher.matches(type));
+    }
+  }
+
+  private static List<String> classNames() throws IOException {
+    final List<String> names = new ArrayList<>();
+    final String path =
+        System.getProperty("java.class.path")
+            + File.pathSeparator
+            + System.getProperty("sun.boot.class.path", "");
+    for (final String entry : path.split(File.pathSeparator)) {
+      if (entry.endsWith(".jar") && new File(entry).isFile()) {
+        try (final JarFile jar = new JarFile(entry)) {
+          final Enumeration<JarEntry> entries = jar.entries();
+          while (entries.hasMoreElements()) {
+            addClassName(names, entries.nextElement().getName());
+          }
+        }
+      }
+    }
+    // the JDK's own classes are in modules from Java 9
+    FileSystem jrt = null;
+    try {
+      jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+    } catch (final FileSystemNotFoundException | ProviderNotFoundException e) {
+      // before Java 9
+    }
+    if (null != jrt) {
+      for (final Path module : jrt.getRootDirectories()) {
+        Files.walkFileTree(
+            module.resolve("modules"),
+            new SimpleFileVisitor<Path>() {
+              @Override
+              public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                // modules/<module>/<class file>
+                if (file.getNameCount() > 2) {
+                  addClassName(names, file.subpath(2, file.getNameCount()).toString());
+                }
+                return FileVisitResult.CONTINUE;
+              }
+            });
+      }
+    }
+    return names;
+  }
+
+  private static void addClassName(final List<String> names, final String file) {
+    if (file.endsWith(".class") && !file.endsWith("module-info.class")) {
+      names.add(file.substring(0, file.length() - ".class".length()).replace('/', '.'));
+    }
+  }
+}
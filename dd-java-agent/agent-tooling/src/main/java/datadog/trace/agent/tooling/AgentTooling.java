@@ -2,6 +2,7 @@ package datadog.trace.agent.tooling;
 
 import datadog.trace.agent.tooling.bytebuddy.DDCachingPoolStrategy;
 import datadog.trace.agent.tooling.bytebuddy.DDLocationStrategy;
+import datadog.trace.agent.tooling.bytebuddy.PersistentHierarchyCache;
 import datadog.trace.api.Config;
 import datadog.trace.api.Platform;
 import datadog.trace.bootstrap.WeakCache;
@@ -57,7 +58,9 @@ public class AgentTooling {
 
   private static final DDLocationStrategy LOCATION_STRATEGY = new DDLocationStrategy();
   private static final DDCachingPoolStrategy POOL_STRATEGY =
-      new DDCachingPoolStrategy(Config.get().isResolverUseLoadClassEnabled());
+      new DDCachingPoolStrategy(
+          Config.get().isResolverUseLoadClassEnabled(),
+          PersistentHierarchyCache.open(Config.get().getResolverCacheDir()));
 
   public static <K, V> WeakCache<K, V> newWeakCache() {
     return newWeakCache(DEFAULT_CACHE_CAPACITY);
@@ -10,6 +10,7 @@ import static net.bytebuddy.matcher.ElementMatchers.not;
 
 import datadog.trace.agent.tooling.bytebuddy.DDTransformers;
 import datadog.trace.agent.tooling.bytebuddy.ExceptionHandlers;
+import datadog.trace.agent.tooling.bytebuddy.matcher.NameMatchers;
 import datadog.trace.agent.tooling.context.FieldBackedContextProvider;
 import datadog.trace.agent.tooling.context.FieldBackedProvider;
 import datadog.trace.agent.tooling.context.InstrumentationContextProvider;
@@ -142,6 +143,11 @@ public interface Instrumenter {
 
     @Override
     public final AgentBuilder instrument(final AgentBuilder parentAgentBuilder) {
+      return instrument(parentAgentBuilder, null);
+    }
+
+    final AgentBuilder instrument(
+        final AgentBuilder parentAgentBuilder, final InstrumenterIndex index) {
       if (!isEnabled()) {
         log.debug("Instrumentation {} is disabled", this);
         return parentAgentBuilder;
@@ -149,12 +155,24 @@ public interface Instrumenter {
 
       lazyInit();
 
+      ElementMatcher<TypeDescription> typeMatcher =
+          failSafe(
+              typeMatcher(),
+              "Instrumentation type matcher unexpected exception: " + getClass().getName());
+      final String[] indexKeys = null == index ? null : getInstrumentationIndexKeys();
+      if (null != indexKeys) {
+        // the keys were generated at build time, the matcher could have changed with the config
+        if (Arrays.equals(indexKeys, NameMatchers.indexKeys(typeMatcher))) {
+          typeMatcher = new IndexedTypeMatcher(index, index.register(indexKeys), typeMatcher);
+        } else {
+          log.debug("Not indexing instrumentation {}, its type matcher has changed", this);
+        }
+      }
+
       AgentBuilder.Identified.Extendable agentBuilder =
           parentAgentBuilder
               .type(
-                  failSafe(
-                      typeMatcher(),
-                      "Instrumentation type matcher unexpected exception: " + getClass().getName()),
+                  typeMatcher,
                   failSafe(
                       classLoaderMatcher(),
                       "Instrumentation class loader matcher unexpected exception: "
@@ -240,6 +258,28 @@ public interface Instrumenter {
       }
     }
 
+    /** Only tries the type matcher on types the index says it could match. */
+    private static final class IndexedTypeMatcher
+        extends ElementMatcher.Junction.AbstractBase<TypeDescription> {
+      private final InstrumenterIndex index;
+      private final int id;
+      private final ElementMatcher<TypeDescription> typeMatcher;
+
+      IndexedTypeMatcher(
+          final InstrumenterIndex index,
+          final int id,
+          final ElementMatcher<TypeDescription> typeMatcher) {
+        this.index = index;
+        this.id = id;
+        this.typeMatcher = typeMatcher;
+      }
+
+      @Override
+      public boolean matches(final TypeDescription target) {
+        return index.isCandidate(id, target.getActualName()) && typeMatcher.matches(target);
+      }
+    }
+
     private class PostMatchHook implements AgentBuilder.RawMatcher {
       @Override
       public boolean matches(
@@ -262,6 +302,17 @@ public interface Instrumenter {
       return null;
     }
 
+    /**
+     * The names of the types {@link #typeMatcher()} can match, and the prefixes of their names
+     * followed by {@code *}, or null if it can match other types. This method is implemented
+     * dynamically by compile-time bytecode transformations.
+     *
+     * <p>{@see datadog.trace.agent.tooling.muzzle.MuzzleGradlePlugin}
+     */
+    protected String[] getInstrumentationIndexKeys() {
+      return null;
+    }
+
     /** @return Class names of helpers to inject into the user's classloader */
     public String[] helperClassNames() {
       return new String[0];
@@ -0,0 +1,94 @@
+package datadog.trace.agent.tooling;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the names and name prefixes which instrumenters' type matchers can match to those
+ * instrumenters, so a type is only handed to the few instrumenters which could match it. The keys
+ * are worked out when each instrumenter is built, see {@link
+ * datadog.trace.agent.tooling.muzzle.MuzzleVisitor}.
+ *
+ * <p>The agent tries each type against every instrumenter in turn on the same thread, so the
+ * candidates for the last type seen on each thread are kept, and the index is only consulted once
+ * per type.
+ */
+final class InstrumenterIndex {
+  private static final BitSet NONE = new BitSet();
+
+  private final Map<String, BitSet> names = new HashMap<>();
+  private final List<String> prefixes = new ArrayList<>();
+  private final List<BitSet> prefixIds = new ArrayList<>();
+  private int nextId;
+
+  private final ThreadLocal<Candidates> lastCandidates =
+      new ThreadLocal<Candidates>() {
+        @Override
+        protected Candidates initialValue() {
+          return new Candidates();
+        }
+      };
+
+  /**
+   * Adds an instrumenter's keys to the index. This must happen before the agent is installed.
+   *
+   * @param keys exact names, or prefixes followed by {@code *}
+   * @return the instrumenter's id
+   */
+  int register(final String[] keys) {
+    final int id = nextId++;
+    for (final String key : keys) {
+      if (key.endsWith("*")) {
+        final String prefix = key.substring(0, key.length() - 1);
+        int position = prefixes.indexOf(prefix);
+        if (position < 0) {
+          position = prefixes.size();
+          prefixes.add(prefix);
+          prefixIds.add(new BitSet());
+        }
+        prefixIds.get(position).set(id);
+      } else {
+        BitSet ids = names.get(key);
+        if (null == ids) {
+          ids = new BitSet();
+          names.put(key, ids);
+        }
+        ids.set(id);
+      }
+    }
+    return id;
+  }
+
+  boolean isCandidate(final int id, final String name) {
+    final Candidates candidates = lastCandidates.get();
+    if (!name.equals(candidates.name)) {
+      candidates.name = name;
+      candidates.ids = candidates(name);
+    }
+    return candidates.ids.get(id);
+  }
+
+  private BitSet candidates(final String name) {
+    BitSet candidates = names.get(name);
+    for (int i = 0; i < prefixes.size(); ++i) {
+      if (name.startsWith(prefixes.get(i))) {
+        if (null == candidates) {
+          candidates = prefixIds.get(i);
+        } else {
+          // don't modify the index
+          candidates = (BitSet) candidates.clone();
+          candidates.or(prefixIds.get(i));
+        }
+      }
+    }
+    return null == candidates ? NONE : candidates;
+  }
+
+  private static final class Candidates {
+    String name;
+    BitSet ids;
+  }
+}
@@ -7,7 +7,11 @@ import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 import datadog.trace.agent.tooling.AgentTooling;
 import datadog.trace.api.Function;
 import datadog.trace.bootstrap.WeakCache;
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import lombok.extern.slf4j.Slf4j;
 import net.bytebuddy.description.annotation.AnnotationList;
@@ -17,6 +21,7 @@ import net.bytebuddy.description.type.TypeDescription;
 import net.bytebuddy.description.type.TypeList;
 import net.bytebuddy.dynamic.ClassFileLocator;
 import net.bytebuddy.pool.TypePool;
+import net.bytebuddy.utility.StreamDrainer;
 
 /**
  * NEW (Jan 2020) Custom Pool strategy.
@@ -40,6 +45,12 @@ import net.bytebuddy.pool.TypePool;
  *
  * <p>Eviction is handled almost entirely through a size restriction; however, softValues are still
  * used as a further safeguard.
+ *
+ * <p>Optionally, the hierarchies of types loaded from jars are also kept across runs in a {@link
+ * PersistentHierarchyCache}. Types found there are described from the cache, and only parsed from
+ * their class file if something other than their modifiers, super class or interfaces is needed.
+ * These descriptions are kept in a separate cache of the same size, so that the type being
+ * transformed is still parsed from its class file when it was described from the cache before.
  */
 @Slf4j
 public class DDCachingPoolStrategy implements PoolStrategy {
@@ -77,12 +88,30 @@ public class DDCachingPoolStrategy implements PoolStrategy {
 
   private final boolean fallBackToLoadClass;
 
+  private final PersistentHierarchyCache hierarchyCache;
+
+  /** Types described from the hierarchy cache -- uses the same composite key */
+  private final ConcurrentMap<TypeCacheKey, TypePool.Resolution> hierarchyResolutionCache;
+
   public DDCachingPoolStrategy() {
     this(true);
   }
 
   public DDCachingPoolStrategy(boolean fallBackToLoadClass) {
+    this(fallBackToLoadClass, null);
+  }
+
+  public DDCachingPoolStrategy(
+      boolean fallBackToLoadClass, PersistentHierarchyCache hierarchyCache) {
     this.fallBackToLoadClass = fallBackToLoadClass;
+    this.hierarchyCache = hierarchyCache;
+    this.hierarchyResolutionCache =
+        null == hierarchyCache
+            ? null
+            : new ConcurrentLinkedHashMap.Builder<TypeCacheKey, TypePool.Resolution>()
+                .maximumWeightedCapacity(TYPE_CAPACITY)
+                .concurrencyLevel(CONCURRENCY_LEVEL)
+                .build();
     bootstrapCacheProvider =
         new SharedResolutionCacheAdapter(
             BOOTSTRAP_HASH, null, sharedResolutionCache, fallBackToLoadClass);
@@ -109,7 +138,7 @@ public class DDCachingPoolStrategy implements PoolStrategy {
     return createCachingTypePool(loaderHash, loaderRef, classFileLocator);
   }
 
-  private TypePool.CacheProvider createCacheProvider(
+  private SharedResolutionCacheAdapter createCacheProvider(
       final int loaderHash, final WeakReference<ClassLoader> loaderRef) {
     return new SharedResolutionCacheAdapter(
         loaderHash, loaderRef, sharedResolutionCache, fallBackToLoadClass);
@@ -119,10 +148,13 @@ public class DDCachingPoolStrategy implements PoolStrategy {
       final int loaderHash,
       final WeakReference<ClassLoader> loaderRef,
       final ClassFileLocator classFileLocator) {
+    final SharedResolutionCacheAdapter cacheProvider = createCacheProvider(loaderHash, loaderRef);
+    if (null != hierarchyCache) {
+      return cacheProvider.withHierarchyCache(
+          hierarchyCache, hierarchyResolutionCache, classFileLocator, true);
+    }
     return new TypePool.Default.WithLazyResolution(
-        createCacheProvider(loaderHash, loaderRef),
-        classFileLocator,
-        TypePool.Default.ReaderMode.FAST);
+        cacheProvider, classFileLocator, TypePool.Default.ReaderMode.FAST);
   }
 
   private TypePool createCachingTypePool(
@@ -221,6 +253,18 @@ public class DDCachingPoolStrategy implements PoolStrategy {
     private final ConcurrentMap<TypeCacheKey, TypePool.Resolution> sharedResolutionCache;
     private final boolean fallBackToLoadClass;
 
+    // Only set when hierarchies are kept across runs. Each type pool has its own adapter, and is
+    // used by one thread at a time, apart from the ones used to look up the hierarchies of types
+    // described from the cache.
+    private PersistentHierarchyCache hierarchyCache;
+    private ConcurrentMap<TypeCacheKey, TypePool.Resolution> hierarchyResolutionCache;
+    private ClassFileLocator classFileLocator;
+    // the type being transformed, which must be described from its class file
+    private boolean firstClassDescribed;
+    private String firstClassName;
+    // types which weren't in the hierarchy cache, until they are parsed
+    private ConcurrentMap<String, Miss> misses;
+
     SharedResolutionCacheAdapter(
         final int loaderHash,
         final WeakReference<ClassLoader> loaderRef,
@@ -232,10 +276,31 @@ public class DDCachingPoolStrategy implements PoolStrategy {
       this.fallBackToLoadClass = fallBackToLoadClass;
     }
 
+    /**
+     * @param transforming whether the pool describes a type being transformed first, rather than
+     *     only looking up the hierarchies of types described from the cache
+     * @return a type pool which describes types from the hierarchy cache where it can
+     */
+    TypePool withHierarchyCache(
+        final PersistentHierarchyCache hierarchyCache,
+        final ConcurrentMap<TypeCacheKey, TypePool.Resolution> hierarchyResolutionCache,
+        final ClassFileLocator classFileLocator,
+        final boolean transforming) {
+      this.hierarchyCache = hierarchyCache;
+      this.hierarchyResolutionCache = hierarchyResolutionCache;
+      this.classFileLocator = classFileLocator;
+      this.firstClassDescribed = !transforming;
+      this.misses = new ConcurrentHashMap<>();
+      return new TypePool.Default.WithLazyResolution(
+          this,
+          new MissedClassFileLocator(this, classFileLocator),
+          TypePool.Default.ReaderMode.FAST);
+    }
+
     @Override
     public TypePool.Resolution find(final String className) {
-      final TypePool.Resolution existingResolution =
-          sharedResolutionCache.get(new TypeCacheKey(loaderHash, loaderRef, className));
+      final TypeCacheKey key = new TypeCacheKey(loaderHash, loaderRef, className);
+      final TypePool.Resolution existingResolution = sharedResolutionCache.get(key);
       if (existingResolution != null) {
         return existingResolution;
       }
@@ -244,21 +309,81 @@ public class DDCachingPoolStrategy implements PoolStrategy {
         return OBJECT_RESOLUTION;
       }
 
+      if (null != hierarchyCache) {
+        // the agent builder describes the type being transformed first, and that has to match
+        // the bytes being transformed
+        if (!firstClassDescribed) {
+          firstClassDescribed = true;
+          firstClassName = className;
+        } else if (!className.equals(firstClassName) && !misses.containsKey(className)) {
+          return findInHierarchyCache(key, className);
+        }
+      }
+
       return null;
     }
 
+    private TypePool.Resolution findInHierarchyCache(
+        final TypeCacheKey key, final String className) {
+      TypePool.Resolution resolution = hierarchyResolutionCache.get(key);
+      if (null != resolution) {
+        return resolution;
+      }
+      final ClassLoader classLoader = null == loaderRef ? null : loaderRef.get();
+      if (null == classLoader) {
+        return null;
+      }
+      final URL url = PersistentHierarchyCache.classFile(classLoader, className);
+      if (null == url) {
+        return null;
+      }
+      final PersistentHierarchyCache.JarTypes jar = hierarchyCache.locate(url);
+      final PersistentHierarchyCache.TypeFacts facts = null == jar ? null : jar.get(className);
+      if (null != facts) {
+        resolution =
+            new TypePool.Resolution.Simple(new CachedHierarchyTypeDescription(facts, this));
+        hierarchyResolutionCache.put(key, resolution);
+        return resolution;
+      }
+      // the class file is read from where it was found, rather than looked up again
+      misses.put(className, new Miss(url, jar));
+      return null;
+    }
+
+    // Types described from the cache may be shared with other threads, so they use new type pools
+    // rather than the one this adapter belongs to.
+
+    /** @return a type pool which looks up types from the hierarchy cache where it can */
+    TypePool hierarchyTypePool() {
+      return new SharedResolutionCacheAdapter(
+              loaderHash, loaderRef, sharedResolutionCache, fallBackToLoadClass)
+          .withHierarchyCache(hierarchyCache, hierarchyResolutionCache, classFileLocator, false);
+    }
+
+    /** @return a type pool which parses types instead of using the hierarchy cache */
+    TypePool parsingTypePool() {
+      return new TypePool.Default.WithLazyResolution(
+          new SharedResolutionCacheAdapter(
+              loaderHash, loaderRef, sharedResolutionCache, fallBackToLoadClass),
+          classFileLocator,
+          TypePool.Default.ReaderMode.FAST);
+    }
+
     @Override
     public TypePool.Resolution register(final String className, TypePool.Resolution resolution) {
       if (OBJECT_NAME.equals(className)) {
         return resolution;
       }
 
+      final Miss miss = null == misses ? null : misses.remove(className);
       if (fallBackToLoadClass && resolution instanceof TypePool.Resolution.Illegal) {
         // If the normal pool only resolution have failed then fall back to creating the type
         // description from a loaded type by trying to load the class. This case is very rare and is
         // here to handle classes that are injected directly via calls to defineClass without
         // providing a way to get the class bytes.
         resolution = new CachingResolutionForMaybeLoadableType(loaderRef, className);
+      } else if (null != miss && null != miss.jar) {
+        resolution = new CachingResolution(resolution, className, miss.jar);
       } else {
         resolution = new CachingResolution(resolution);
       }
@@ -273,6 +398,48 @@ public class DDCachingPoolStrategy implements PoolStrategy {
     }
   }
 
+  /** Where the class file of a type which wasn't in the hierarchy cache was found. */
+  private static final class Miss {
+    final URL url;
+    // null if the type isn't loaded from a jar
+    final PersistentHierarchyCache.JarTypes jar;
+
+    Miss(final URL url, final PersistentHierarchyCache.JarTypes jar) {
+      this.url = url;
+      this.jar = jar;
+    }
+  }
+
+  /** Reads the class files of types missed by the hierarchy cache from where they were found. */
+  private static final class MissedClassFileLocator implements ClassFileLocator {
+    private final SharedResolutionCacheAdapter cacheProvider;
+    private final ClassFileLocator delegate;
+
+    MissedClassFileLocator(
+        final SharedResolutionCacheAdapter cacheProvider, final ClassFileLocator delegate) {
+      this.cacheProvider = cacheProvider;
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Resolution locate(final String className) throws IOException {
+      final Miss miss = cacheProvider.misses.get(className);
+      if (null != miss) {
+        try (InputStream in = miss.url.openStream()) {
+          return new Resolution.Explicit(StreamDrainer.DEFAULT.drain(in));
+        } catch (final IOException e) {
+          // fall back to looking it up again
+        }
+      }
+      return delegate.locate(className);
+    }
+
+    @Override
+    public void close() throws IOException {
+      delegate.close();
+    }
+  }
+
   private static class CachingResolutionForMaybeLoadableType implements TypePool.Resolution {
     private final WeakReference<ClassLoader> loaderRef;
     private final String className;
@@ -334,10 +501,22 @@ public class DDCachingPoolStrategy implements PoolStrategy {
 
   private static class CachingResolution implements TypePool.Resolution {
     private final TypePool.Resolution delegate;
+    private final String className;
+    private final PersistentHierarchyCache.JarTypes jar;
     private TypeDescription cachedResolution;
 
     public CachingResolution(final TypePool.Resolution delegate) {
+      this(delegate, null, null);
+    }
+
+    /** Also adds the type's hierarchy to the jar's types once it is resolved. */
+    public CachingResolution(
+        final TypePool.Resolution delegate,
+        final String className,
+        final PersistentHierarchyCache.JarTypes jar) {
       this.delegate = delegate;
+      this.className = className;
+      this.jar = jar;
     }
 
     @Override
@@ -350,6 +529,13 @@ public class DDCachingPoolStrategy implements PoolStrategy {
       // Intentionally not "thread safe". Duplicate work deemed an acceptable trade-off.
       if (cachedResolution == null) {
         cachedResolution = new CachingTypeDescription(delegate.resolve());
+        if (null != jar) {
+          try {
+            jar.record(className, cachedResolution);
+          } catch (final Exception e) {
+            log.debug("Hierarchy of {} could not be cached", className, e);
+          }
+        }
       }
       return cachedResolution;
     }
@@ -416,4 +602,74 @@ public class DDCachingPoolStrategy implements PoolStrategy {
       return delegate.getName();
     }
   }
+
+  /**
+   * TypeDescription implementation which answers the calls made by hierarchy matchers from the
+   * hierarchy cache, and parses the type's class file for anything else.
+   */
+  private static class CachedHierarchyTypeDescription
+      extends TypeDescription.AbstractBase.OfSimpleType.WithDelegation {
+    private final PersistentHierarchyCache.TypeFacts facts;
+    private final SharedResolutionCacheAdapter hierarchyTypes;
+
+    // These fields are intentionally not "thread safe".
+    // Duplicate work deemed an acceptable trade-off.
+    private TypeDescription delegate;
+    private TypePool typePool;
+    private Generic superClass;
+    private TypeList.Generic interfaces;
+
+    CachedHierarchyTypeDescription(
+        final PersistentHierarchyCache.TypeFacts facts,
+        final SharedResolutionCacheAdapter hierarchyTypes) {
+      this.facts = facts;
+      this.hierarchyTypes = hierarchyTypes;
+    }
+
+    @Override
+    protected TypeDescription delegate() {
+      if (delegate == null) {
+        delegate = hierarchyTypes.parsingTypePool().describe(facts.name).resolve();
+      }
+      return delegate;
+    }
+
+    @Override
+    public Generic getSuperClass() {
+      // types are parsed in the FAST reader mode, which doesn't keep generic types either
+      if (null == superClass && null != facts.superName) {
+        superClass = describe(facts.superName);
+      }
+      return superClass;
+    }
+
+    @Override
+    public TypeList.Generic getInterfaces() {
+      if (null == interfaces) {
+        final Generic[] interfaceTypes = new Generic[facts.interfaceNames.length];
+        for (int i = 0; i < interfaceTypes.length; ++i) {
+          interfaceTypes[i] = describe(facts.interfaceNames[i]);
+        }
+        interfaces = new TypeList.Generic.Explicit(interfaceTypes);
+      }
+      return interfaces;
+    }
+
+    @Override
+    public int getModifiers() {
+      return facts.modifiers;
+    }
+
+    @Override
+    public String getName() {
+      return facts.name;
+    }
+
+    private Generic describe(final String name) {
+      if (null == typePool) {
+        typePool = hierarchyTypes.hierarchyTypePool();
+      }
+      return typePool.describe(name).resolve().asGenericType();
+    }
+  }
 }
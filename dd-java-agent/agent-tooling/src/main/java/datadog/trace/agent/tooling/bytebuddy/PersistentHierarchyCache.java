@@ -0,0 +1,421 @@
+package datadog.trace.agent.tooling.bytebuddy;
+
+import static datadog.trace.bootstrap.AgentClassLoading.LOCATING_CLASS;
+import static datadog.trace.util.AgentThreadFactory.AgentThread.RESOLVER_CACHE_WRITER;
+import static datadog.trace.util.AgentThreadFactory.newAgentThread;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import lombok.extern.slf4j.Slf4j;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.description.type.TypeList;
+
+/**
+ * Keeps the modifiers, super class and interfaces of types loaded from jars in a file, so that
+ * later runs can match types against their hierarchy without reading and parsing their class files.
+ *
+ * <p>The types are grouped by jar, and each jar's types are only trusted while the jar has the same
+ * size and last modified time as when they were recorded. The file is memory mapped when the agent
+ * starts and a jar's types are only read when a type from that jar is first looked up. Types which
+ * were parsed during the run are added, and the file is rewritten when the JVM shuts down.
+ */
+@Slf4j
+public final class PersistentHierarchyCache {
+  private static final String FILE_NAME = "type-hierarchy.bin";
+  private static final int MAGIC = 0xDD7C4C5E;
+  private static final int VERSION = 1;
+
+  /** Marks jars whose types can't be cached, for example because they aren't files. */
+  private static final JarTypes UNCACHEABLE = new JarTypes("", 0, 0);
+
+  private final File file;
+  private final ByteBuffer buffer;
+  // the jars in the file, which are read when they are first needed
+  private final Map<String, Section> sections;
+  private final ConcurrentMap<String, JarTypes> jars = new ConcurrentHashMap<>();
+
+  /**
+   * Loads the cache from the directory, creating it if necessary, and arranges for it to be saved
+   * when the JVM shuts down.
+   *
+   * @return the cache, or null if the directory is null or can't be used
+   */
+  public static PersistentHierarchyCache open(final String directory) {
+    if (null == directory) {
+      return null;
+    }
+    final File dir = new File(directory);
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      log.debug("Resolver cache directory {} could not be created", dir);
+      return null;
+    }
+    final PersistentHierarchyCache cache = new PersistentHierarchyCache(new File(dir, FILE_NAME));
+    try {
+      Runtime.getRuntime()
+          .addShutdownHook(
+              newAgentThread(
+                  RESOLVER_CACHE_WRITER,
+                  new Runnable() {
+                    @Override
+                    public void run() {
+                      cache.save();
+                    }
+                  }));
+    } catch (final IllegalStateException e) {
+      // the JVM is already shutting down
+    }
+    return cache;
+  }
+
+  PersistentHierarchyCache(final File file) {
+    this.file = file;
+    ByteBuffer buffer = null;
+    Map<String, Section> sections = Collections.emptyMap();
+    if (file.isFile()) {
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        sections = readSections(buffer);
+      } catch (final Exception e) {
+        log.debug("Resolver cache {} could not be read", file, e);
+        sections = Collections.emptyMap();
+      }
+    }
+    this.buffer = buffer;
+    this.sections = sections;
+  }
+
+  /**
+   * Finds the jar the class loader loads the class from.
+   *
+   * @return the jar's types, or null if the class isn't loaded from a jar file
+   */
+  JarTypes locate(final ClassLoader classLoader, final String className) {
+    return locate(classFile(classLoader, className));
+  }
+
+  /** @return where the class loader loads the class file from, or null if it can't be found */
+  static URL classFile(final ClassLoader classLoader, final String className) {
+    LOCATING_CLASS.begin();
+    try {
+      return classLoader.getResource(className.replace('.', '/') + ".class");
+    } catch (final Throwable e) {
+      return null;
+    } finally {
+      LOCATING_CLASS.end();
+    }
+  }
+
+  /** @return the types of the jar holding the class file, or null if it isn't in a jar file */
+  JarTypes locate(final URL url) {
+    if (null == url || !"jar".equals(url.getProtocol())) {
+      return null;
+    }
+    final String path = url.getFile();
+    final int entry = path.lastIndexOf("!/");
+    if (entry < 0) {
+      return null;
+    }
+    // nested jars are identified by the outer jar and their path in it
+    final String key = path.substring(0, entry);
+    JarTypes jar = jars.get(key);
+    if (null == jar) {
+      jar = load(key);
+      final JarTypes existing = jars.putIfAbsent(key, jar);
+      if (null != existing) {
+        jar = existing;
+      }
+    }
+    return jar == UNCACHEABLE ? null : jar;
+  }
+
+  private JarTypes load(final String key) {
+    final File jarFile = jarFile(key);
+    if (null == jarFile || !jarFile.isFile()) {
+      return UNCACHEABLE;
+    }
+    final long size = jarFile.length();
+    final long lastModified = jarFile.lastModified();
+    final JarTypes jar = new JarTypes(key, size, lastModified);
+    final Section section = sections.get(key);
+    if (null != section && section.size == size && section.lastModified == lastModified) {
+      try {
+        readTypes(section, jar);
+      } catch (final Exception e) {
+        log.debug("Resolver cache entries for {} could not be read", key, e);
+        jar.types.clear();
+      }
+    }
+    return jar;
+  }
+
+  /** Rewrites the file, if any types were added. */
+  void save() {
+    boolean changed = false;
+    for (final JarTypes jar : jars.values()) {
+      changed |= jar.changed;
+    }
+    if (!changed) {
+      return;
+    }
+    Path temp = null;
+    try {
+      // each JVM sharing the directory writes its own file, and the last one to finish wins
+      temp = Files.createTempFile(file.getParentFile().toPath(), FILE_NAME, ".tmp");
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        write(out);
+      }
+      try {
+        Files.move(
+            temp,
+            file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (final IOException e) {
+        Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (final Exception e) {
+      log.debug("Resolver cache {} could not be written", file, e);
+      if (null != temp) {
+        temp.toFile().delete();
+      }
+    }
+  }
+
+  private void write(final DataOutputStream out) throws IOException {
+    final Set<String> keys = new LinkedHashSet<>(sections.keySet());
+    keys.addAll(jars.keySet());
+    final Map<String, byte[]> entries = new HashMap<>();
+    for (final String key : keys) {
+      final JarTypes jar = jars.get(key);
+      if (jar == UNCACHEABLE) {
+        continue;
+      }
+      if (null == jar || !jar.changed) {
+        // copy the types of jars which weren't added to, unless the jar has been modified
+        final Section section = sections.get(key);
+        final File jarFile = jarFile(key);
+        if (null != section
+            && null != jarFile
+            && jarFile.length() == section.size
+            && jarFile.lastModified() == section.lastModified) {
+          entries.put(key, section.copy(buffer));
+        }
+      } else {
+        entries.put(key, jar.toBytes());
+      }
+    }
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(entries.size());
+    for (final Map.Entry<String, byte[]> entry : entries.entrySet()) {
+      final JarTypes jar = jars.get(entry.getKey());
+      final Section section = sections.get(entry.getKey());
+      final boolean recorded = null != jar && jar.changed;
+      writeString(out, entry.getKey());
+      out.writeLong(recorded ? jar.size : section.size);
+      out.writeLong(recorded ? jar.lastModified : section.lastModified);
+      out.writeInt(entry.getValue().length);
+      out.write(entry.getValue());
+    }
+  }
+
+  private static Map<String, Section> readSections(final ByteBuffer buffer) {
+    if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+      return Collections.emptyMap();
+    }
+    // a section is at least its key's length, the jar's size and last modified time, and its length
+    final int count = checkCount(buffer, buffer.getInt(), 24);
+    final Map<String, Section> sections = new HashMap<>(count * 2);
+    for (int i = 0; i < count; ++i) {
+      final String key = readString(buffer);
+      final long size = buffer.getLong();
+      final long lastModified = buffer.getLong();
+      final int length = checkCount(buffer, buffer.getInt(), 1);
+      sections.put(key, new Section(size, lastModified, buffer.position(), length));
+      buffer.position(buffer.position() + length);
+    }
+    return sections;
+  }
+
+  private void readTypes(final Section section, final JarTypes jar) {
+    final ByteBuffer in = buffer.duplicate();
+    in.limit(section.offset + section.length);
+    in.position(section.offset);
+    // a type is at least the length of its name, its modifiers, its super class and interfaces
+    final int count = checkCount(in, in.getInt(), 16);
+    for (int i = 0; i < count; ++i) {
+      final String name = readString(in);
+      final int modifiers = in.getInt();
+      final String superName = readString(in);
+      final String[] interfaceNames = new String[checkCount(in, in.getInt(), 4)];
+      for (int j = 0; j < interfaceNames.length; ++j) {
+        interfaceNames[j] = readString(in);
+      }
+      jar.types.put(name, new TypeFacts(name, modifiers, superName, interfaceNames));
+    }
+  }
+
+  /** @return the file of the outermost jar, or null if it isn't a local file */
+  private static File jarFile(final String key) {
+    final int nested = key.indexOf("!/");
+    try {
+      return new File(new URI(nested < 0 ? key : key.substring(0, nested)));
+    } catch (final Exception e) {
+      return null;
+    }
+  }
+
+  private static String readString(final ByteBuffer in) {
+    final int length = in.getInt();
+    if (length < 0) {
+      return null;
+    }
+    final byte[] bytes = new byte[checkCount(in, length, 1)];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Checks a count read from the file against the bytes left to read, so that a corrupt file can't
+   * make the cache allocate more than the file holds.
+   *
+   * @param minBytes the fewest bytes each counted item takes
+   */
+  private static int checkCount(final ByteBuffer in, final int count, final int minBytes) {
+    if (count < 0 || count > in.remaining() / minBytes) {
+      throw new IllegalStateException("Corrupt resolver cache, " + count + " items don't fit");
+    }
+    return count;
+  }
+
+  private static void writeString(final DataOutputStream out, final String value)
+      throws IOException {
+    if (null == value) {
+      out.writeInt(-1);
+    } else {
+      final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static final class Section {
+    final long size;
+    final long lastModified;
+    final int offset;
+    final int length;
+
+    Section(final long size, final long lastModified, final int offset, final int length) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    byte[] copy(final ByteBuffer buffer) {
+      final ByteBuffer in = buffer.duplicate();
+      in.position(offset);
+      final byte[] bytes = new byte[length];
+      in.get(bytes);
+      return bytes;
+    }
+  }
+
+  /** The known types of one jar. */
+  static final class JarTypes {
+    final String key;
+    final long size;
+    final long lastModified;
+    final ConcurrentMap<String, TypeFacts> types = new ConcurrentHashMap<>();
+    // whether types were added during this run
+    volatile boolean changed;
+
+    JarTypes(final String key, final long size, final long lastModified) {
+      this.key = key;
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+
+    TypeFacts get(final String className) {
+      return types.get(className);
+    }
+
+    /** Records the hierarchy of a type which was parsed from this jar. */
+    void record(final String className, final TypeDescription type) {
+      if (types.containsKey(className)) {
+        return;
+      }
+      final TypeDescription.Generic superClass = type.getSuperClass();
+      final TypeList interfaces = type.getInterfaces().asErasures();
+      final String[] interfaceNames = new String[interfaces.size()];
+      for (int i = 0; i < interfaceNames.length; ++i) {
+        interfaceNames[i] = interfaces.get(i).getName();
+      }
+      types.put(
+          className,
+          new TypeFacts(
+              className,
+              type.getModifiers(),
+              null == superClass ? null : superClass.asErasure().getName(),
+              interfaceNames));
+      changed = true;
+    }
+
+    byte[] toBytes() throws IOException {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final DataOutputStream out = new DataOutputStream(bytes);
+      final TypeFacts[] snapshot = types.values().toArray(new TypeFacts[0]);
+      out.writeInt(snapshot.length);
+      for (final TypeFacts type : snapshot) {
+        writeString(out, type.name);
+        out.writeInt(type.modifiers);
+        writeString(out, type.superName);
+        out.writeInt(type.interfaceNames.length);
+        for (final String interfaceName : type.interfaceNames) {
+          writeString(out, interfaceName);
+        }
+      }
+      out.flush();
+      return bytes.toByteArray();
+    }
+  }
+
+  /** What the hierarchy matchers need to know about a type. */
+  static final class TypeFacts {
+    final String name;
+    final int modifiers;
+    final String superName;
+    final String[] interfaceNames;
+
+    TypeFacts(
+        final String name,
+        final int modifiers,
+        final String superName,
+        final String[] interfaceNames) {
+      this.name = name;
+      this.modifiers = modifiers;
+      this.superName = superName;
+      this.interfaceNames = interfaceNames;
+    }
+  }
+}
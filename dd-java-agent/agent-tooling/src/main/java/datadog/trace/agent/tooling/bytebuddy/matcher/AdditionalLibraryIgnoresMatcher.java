@@ -1,5 +1,8 @@
 package datadog.trace.agent.tooling.bytebuddy.matcher;
 
+import static datadog.trace.agent.tooling.bytebuddy.matcher.GlobalIgnoresMatcher.ALLOW;
+import static datadog.trace.agent.tooling.bytebuddy.matcher.GlobalIgnoresMatcher.IGNORE;
+
 import net.bytebuddy.description.type.TypeDescription;
 import net.bytebuddy.matcher.ElementMatcher;
 
@@ -18,294 +21,224 @@ public class AdditionalLibraryIgnoresMatcher<T extends TypeDescription>
     return new AdditionalLibraryIgnoresMatcher<>();
   }
 
+  private static final ClassNameTrie IGNORES = addIgnores(new ClassNameTrie.Builder(), 0).build();
+
   /**
    * Be very careful about the types of matchers used in this section as they are called on every
-   * class load, so they must be fast. Generally speaking try to only use name matchers as they
-   * don't have to load additional info.
+   * class load, so they must be fast. The rules are compiled into a trie which is looked up in one
+   * pass over the name.
    */
   @Override
   public boolean matches(final T target) {
-    final String name = target.getActualName();
-
-    if (name.startsWith("com.beust.jcommander.")
-        || name.startsWith("com.fasterxml.classmate.")
-        || name.startsWith("com.github.mustachejava.")
-        || name.startsWith("com.jayway.jsonpath.")
-        || name.startsWith("com.lightbend.lagom.")
-        || name.startsWith("javax.el.")
-        || name.startsWith("net.sf.cglib.")
-        || name.startsWith("org.apache.lucene.")
-        || name.startsWith("org.apache.tartarus.")
-        || name.startsWith("org.json.simple.")
-        || name.startsWith("org.yaml.snakeyaml.")) {
-      return true;
-    }
+    return IGNORES.apply(target.getActualName()) == IGNORE;
+  }
 
-    if (name.startsWith("org.springframework.")) {
-      if ((name.startsWith("org.springframework.aop.")
-              && !name.equals("org.springframework.aop.interceptor.AsyncExecutionInterceptor"))
-          || name.startsWith("org.springframework.cache.")
-          || name.startsWith("org.springframework.dao.")
-          || name.startsWith("org.springframework.ejb.")
-          || name.startsWith("org.springframework.expression.")
-          || name.startsWith("org.springframework.format.")
-          || name.startsWith("org.springframework.jca.")
-          || name.startsWith("org.springframework.jdbc.")
-          || name.startsWith("org.springframework.jmx.")
-          || name.startsWith("org.springframework.jndi.")
-          || name.startsWith("org.springframework.lang.")
-          || name.startsWith("org.springframework.messaging.")
-          || name.startsWith("org.springframework.objenesis.")
-          || name.startsWith("org.springframework.orm.")
-          || name.startsWith("org.springframework.remoting.")
-          || name.startsWith("org.springframework.scripting.")
-          || name.startsWith("org.springframework.stereotype.")
-          || name.startsWith("org.springframework.transaction.")
-          || name.startsWith("org.springframework.ui.")
-          || name.startsWith("org.springframework.validation.")) {
-        return true;
-      }
-
-      if (name.startsWith("org.springframework.data.")) {
-        if (name.equals("org.springframework.data.repository.core.support.RepositoryFactorySupport")
-            || name.startsWith(
-                "org.springframework.data.convert.ClassGeneratingEntityInstantiator$")
-            || name.equals(
-                "org.springframework.data.jpa.repository.config.InspectionClassLoader")) {
-          return false;
-        }
-        return true;
-      }
-
-      if (name.startsWith("org.springframework.amqp.")) {
-        if (name.startsWith("org.springframework.amqp.rabbit.connection.")) {
-          return false;
-        }
-        return true;
-      }
-
-      if (name.startsWith("org.springframework.beans.")) {
-        if (name.equals("org.springframework.beans.factory.support.DisposableBeanAdapter")
-            || name.startsWith(
-                "org.springframework.beans.factory.groovy.GroovyBeanDefinitionReader$")
-            || name.equals("org.springframework.beans.factory.support.AbstractBeanFactory")
-            || name.equals(
-                "org.springframework.beans.factory.support.AbstractAutowireCapableBeanFactory")
-            || name.equals(
-                "org.springframework.beans.factory.support.DefaultListableBeanFactory")) {
-          return false;
-        }
-        return true;
-      }
-
-      if (name.startsWith("org.springframework.boot.")) {
+  /**
+   * Adds the rules to a trie, with {@link GlobalIgnoresMatcher#IGNORE} or {@link
+   * GlobalIgnoresMatcher#ALLOW} in the 2-bit field at {@code shift}. The longest matching rule
+   * wins, so exceptions are added as longer rules under the prefix they are an exception to.
+   */
+  static ClassNameTrie.Builder addIgnores(final ClassNameTrie.Builder rules, final int shift) {
+    final int ignore = IGNORE << shift;
+    final int allow = ALLOW << shift;
+
+    rules
+        .put("com.beust.jcommander.*", ignore)
+        .put("com.fasterxml.classmate.*", ignore)
+        .put("com.github.mustachejava.*", ignore)
+        .put("com.jayway.jsonpath.*", ignore)
+        .put("com.lightbend.lagom.*", ignore)
+        .put("javax.el.*", ignore)
+        .put("net.sf.cglib.*", ignore)
+        .put("org.apache.lucene.*", ignore)
+        .put("org.apache.tartarus.*", ignore)
+        .put("org.json.simple.*", ignore)
+        .put("org.yaml.snakeyaml.*", ignore);
+
+    rules
+        .put("org.springframework.aop.*", ignore)
+        .put("org.springframework.aop.interceptor.AsyncExecutionInterceptor", allow)
+        .put("org.springframework.cache.*", ignore)
+        .put("org.springframework.dao.*", ignore)
+        .put("org.springframework.ejb.*", ignore)
+        .put("org.springframework.expression.*", ignore)
+        .put("org.springframework.format.*", ignore)
+        .put("org.springframework.jca.*", ignore)
+        .put("org.springframework.jdbc.*", ignore)
+        .put("org.springframework.jmx.*", ignore)
+        .put("org.springframework.jndi.*", ignore)
+        .put("org.springframework.lang.*", ignore)
+        .put("org.springframework.messaging.*", ignore)
+        .put("org.springframework.objenesis.*", ignore)
+        .put("org.springframework.orm.*", ignore)
+        .put("org.springframework.remoting.*", ignore)
+        .put("org.springframework.scripting.*", ignore)
+        .put("org.springframework.stereotype.*", ignore)
+        .put("org.springframework.transaction.*", ignore)
+        .put("org.springframework.ui.*", ignore)
+        .put("org.springframework.validation.*", ignore);
+
+    rules
+        .put("org.springframework.data.*", ignore)
+        .put("org.springframework.data.repository.core.support.RepositoryFactorySupport", allow)
+        .put("org.springframework.data.convert.ClassGeneratingEntityInstantiator$*", allow)
+        .put("org.springframework.data.jpa.repository.config.InspectionClassLoader", allow);
+
+    rules
+        .put("org.springframework.amqp.*", ignore)
+        .put("org.springframework.amqp.rabbit.connection.*", allow);
+
+    rules
+        .put("org.springframework.beans.*", ignore)
+        .put("org.springframework.beans.factory.support.DisposableBeanAdapter", allow)
+        .put("org.springframework.beans.factory.groovy.GroovyBeanDefinitionReader$*", allow)
+        .put("org.springframework.beans.factory.support.AbstractBeanFactory", allow)
+        .put("org.springframework.beans.factory.support.AbstractAutowireCapableBeanFactory", allow)
+        .put("org.springframework.beans.factory.support.DefaultListableBeanFactory", allow);
+
+    rules
+        .put("org.springframework.boot.*", ignore)
         // More runnables to deal with
-        if (name.startsWith("org.springframework.boot.autoconfigure.BackgroundPreinitializer$")
-            || name.startsWith("org.springframework.boot.autoconfigure.condition.OnClassCondition$")
-            || name.startsWith("org.springframework.boot.web.embedded.netty.NettyWebServer$")
-            || name.startsWith("org.springframework.boot.web.embedded.tomcat.TomcatWebServer$1")
-            || name.startsWith(
-                "org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainer$")
-            || name.equals(
-                "org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedWebappClassLoader")
-            || name.equals(
-                "org.springframework.boot.web.embedded.tomcat.TomcatEmbeddedWebappClassLoader")
-            || name.equals(
-                "org.springframework.boot.context.embedded.EmbeddedWebApplicationContext")
-            || name.equals(
-                "org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext")
-            || name.equals(
-                "org.springframework.boot.context.embedded.AnnotationConfigEmbeddedWebApplicationContext")
-            || name.equals(
-                "org.springframework.boot.web.servlet.context.AnnotationConfigServletWebServerApplicationContext")) {
-          return false;
-        }
-        return true;
-      }
-
-      if (name.startsWith("org.springframework.cglib.")) {
+        .put("org.springframework.boot.autoconfigure.BackgroundPreinitializer$*", allow)
+        .put("org.springframework.boot.autoconfigure.condition.OnClassCondition$*", allow)
+        .put("org.springframework.boot.web.embedded.netty.NettyWebServer$*", allow)
+        .put("org.springframework.boot.web.embedded.tomcat.TomcatWebServer$1*", allow)
+        .put(
+            "org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainer$*",
+            allow)
+        .put(
+            "org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedWebappClassLoader",
+            allow)
+        .put("org.springframework.boot.web.embedded.tomcat.TomcatEmbeddedWebappClassLoader", allow)
+        .put("org.springframework.boot.context.embedded.EmbeddedWebApplicationContext", allow)
+        .put(
+            "org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext",
+            allow)
+        .put(
+            "org.springframework.boot.context.embedded.AnnotationConfigEmbeddedWebApplicationContext",
+            allow)
+        .put(
+            "org.springframework.boot.web.servlet.context.AnnotationConfigServletWebServerApplicationContext",
+            allow);
+
+    rules
+        .put("org.springframework.cglib.*", ignore)
         // This class contains nested Callable instance that we'd happily not touch, but
         // unfortunately our field injection code is not flexible enough to realize that, so instead
         // we instrument this Callable to make tests happy.
-        if (name.startsWith("org.springframework.cglib.core.internal.LoadingCache$")) {
-          return false;
-        }
-        return true;
-      }
+        .put("org.springframework.cglib.core.internal.LoadingCache$*", allow);
 
-      if (name.startsWith("org.springframework.context.")) {
+    rules
+        .put("org.springframework.context.*", ignore)
         // More runnables to deal with
-        if (name.startsWith("org.springframework.context.support.AbstractApplicationContext$")) {
-          return false;
-        }
-        return true;
-      }
-
-      if (name.startsWith("org.springframework.core.")) {
-        if (name.startsWith("org.springframework.core.task.")) {
-          return false;
-        }
-        return true;
-      }
-
-      if (name.startsWith("org.springframework.instrument.")) {
-        return true;
-      }
-
-      if (name.startsWith("org.springframework.http.")) {
-        // There are some Mono implementation that get instrumented
-        if (name.startsWith("org.springframework.http.server.reactive.")) {
-          return false;
-        }
-        return true;
-      }
-
-      if (name.startsWith("org.springframework.jms.")) {
-        if (name.startsWith("org.springframework.jms.listener.")) {
-          return false;
-        }
-        return true;
-      }
-
-      if (name.startsWith("org.springframework.util.")) {
-        if (name.startsWith("org.springframework.util.concurrent.")) {
-          return false;
-        }
-        return true;
-      }
-
-      if (name.startsWith("org.springframework.web.")) {
-        if (name.startsWith("org.springframework.web.servlet.")
-            || name.startsWith("org.springframework.web.reactive.")
-            || name.startsWith("org.springframework.web.context.request.async.")
-            || name.equals(
-                "org.springframework.web.context.support.AbstractRefreshableWebApplicationContext")
-            || name.equals("org.springframework.web.context.support.GenericWebApplicationContext")
-            || name.equals("org.springframework.web.context.support.XmlWebApplicationContext")) {
-          return false;
-        }
-        return true;
-      }
-
-      return false;
-    }
-
-    // xml-apis, xerces, xalan
-    if (name.startsWith("javax.xml.")
-        || name.startsWith("org.apache.bcel.")
-        || name.startsWith("org.apache.html.")
-        || name.startsWith("org.apache.regexp.")
-        || name.startsWith("org.apache.wml.")
-        || name.startsWith("org.apache.xalan.")
-        || name.startsWith("org.apache.xerces.")
-        || name.startsWith("org.apache.xml.")
-        || name.startsWith("org.apache.xpath.")
-        || name.startsWith("org.xml.")) {
-      return true;
-    }
+        .put("org.springframework.context.support.AbstractApplicationContext$*", allow);
 
-    if (name.startsWith("ch.qos.logback.")) {
-      // We instrument this Runnable
-      if (name.equals("ch.qos.logback.core.AsyncAppenderBase$Worker")) {
-        return false;
-      }
-      // for inserting service, env, version in MDC of every thread
-      if (name.equals("ch.qos.logback.classic.util.LogbackMDCAdapter")) {
-        return false;
-      }
+    rules.put("org.springframework.core.*", ignore).put("org.springframework.core.task.*", allow);
 
-      return true;
-    }
-
-    if (name.startsWith("com.codahale.metrics.")) {
-      // We instrument servlets
-      if (name.startsWith("com.codahale.metrics.servlets.")) {
-        return false;
-      }
-      return true;
-    }
+    rules.put("org.springframework.instrument.*", ignore);
 
-    if (name.startsWith("com.couchbase.client.deps.")) {
-      // Couchbase library includes some packaged dependencies, unfortunately some of them are
-      // instrumented by java-concurrent instrumentation
-      if (name.startsWith("com.couchbase.client.deps.io.netty.")
-          || name.startsWith("com.couchbase.client.deps.org.LatencyUtils.")
-          || name.startsWith("com.couchbase.client.deps.com.lmax.disruptor.")) {
-        return false;
-      }
-      return true;
-    }
+    rules
+        .put("org.springframework.http.*", ignore)
+        // There are some Mono implementation that get instrumented
+        .put("org.springframework.http.server.reactive.*", allow);
 
-    if (name.startsWith("com.google.cloud.")
-        || name.startsWith("com.google.instrumentation.")
-        || name.startsWith("com.google.j2objc.")
-        || name.startsWith("com.google.gson.")
-        || name.startsWith("com.google.logging.")
-        || name.startsWith("com.google.longrunning.")
-        || name.startsWith("com.google.protobuf.")
-        || name.startsWith("com.google.rpc.")
-        || name.startsWith("com.google.thirdparty.")
-        || name.startsWith("com.google.type.")) {
-      return true;
-    }
-    if (name.startsWith("com.google.common.")) {
-      if (name.startsWith("com.google.common.util.concurrent.")
-          || name.equals("com.google.common.base.internal.Finalizer")) {
-        return false;
-      }
-      return true;
-    }
-    if (name.startsWith("com.google.inject.")) {
-      // We instrument Runnable there
-      if (name.startsWith("com.google.inject.internal.AbstractBindingProcessor$")
-          || name.startsWith("com.google.inject.internal.BytecodeGen$")
-          || name.startsWith("com.google.inject.internal.cglib.core.internal.$LoadingCache$")) {
-        return false;
-      }
-      return true;
-    }
-    if (name.startsWith("com.google.api.")) {
-      if (name.startsWith("com.google.api.client.http.HttpRequest")) {
-        return false;
-      }
-      return true;
-    }
+    rules.put("org.springframework.jms.*", ignore).put("org.springframework.jms.listener.*", allow);
 
-    if (name.startsWith("org.h2.")) {
-      if (name.equals("org.h2.Driver")
-          || name.startsWith("org.h2.jdbc.")
-          || name.startsWith("org.h2.jdbcx.")
-          // Some runnables that get instrumented
-          || name.equals("org.h2.util.Task")
-          || name.equals("org.h2.util.MathUtils$1")
-          || name.equals("org.h2.store.FileLock")
-          || name.equals("org.h2.engine.DatabaseCloser")
-          || name.equals("org.h2.engine.OnExitDatabaseCloser")) {
-        return false;
-      }
-      return true;
-    }
+    rules
+        .put("org.springframework.util.*", ignore)
+        .put("org.springframework.util.concurrent.*", allow);
 
-    if (name.startsWith("com.carrotsearch.hppc.")) {
-      if (name.startsWith("com.carrotsearch.hppc.HashOrderMixing$")) {
-        return false;
-      }
-      return true;
-    }
+    rules
+        .put("org.springframework.web.*", ignore)
+        .put("org.springframework.web.servlet.*", allow)
+        .put("org.springframework.web.reactive.*", allow)
+        .put("org.springframework.web.context.request.async.*", allow)
+        .put(
+            "org.springframework.web.context.support.AbstractRefreshableWebApplicationContext",
+            allow)
+        .put("org.springframework.web.context.support.GenericWebApplicationContext", allow)
+        .put("org.springframework.web.context.support.XmlWebApplicationContext", allow);
 
-    if (name.startsWith("com.fasterxml.jackson.")) {
-      if (name.equals("com.fasterxml.jackson.module.afterburner.util.MyClassLoader")) {
-        return false;
-      }
-      return true;
-    }
+    // xml-apis, xerces, xalan
+    rules
+        .put("javax.xml.*", ignore)
+        .put("org.apache.bcel.*", ignore)
+        .put("org.apache.html.*", ignore)
+        .put("org.apache.regexp.*", ignore)
+        .put("org.apache.wml.*", ignore)
+        .put("org.apache.xalan.*", ignore)
+        .put("org.apache.xerces.*", ignore)
+        .put("org.apache.xml.*", ignore)
+        .put("org.apache.xpath.*", ignore)
+        .put("org.xml.*", ignore);
+
+    rules
+        .put("ch.qos.logback.*", ignore)
+        // We instrument this Runnable
+        .put("ch.qos.logback.core.AsyncAppenderBase$Worker", allow)
+        // for inserting service, env, version in MDC of every thread
+        .put("ch.qos.logback.classic.util.LogbackMDCAdapter", allow);
+
+    rules
+        .put("com.codahale.metrics.*", ignore)
+        // We instrument servlets
+        .put("com.codahale.metrics.servlets.*", allow);
+
+    rules
+        .put("com.couchbase.client.deps.*", ignore)
+        // Couchbase library includes some packaged dependencies, unfortunately some of them are
+        // instrumented by java-concurrent instrumentation
+        .put("com.couchbase.client.deps.io.netty.*", allow)
+        .put("com.couchbase.client.deps.org.LatencyUtils.*", allow)
+        .put("com.couchbase.client.deps.com.lmax.disruptor.*", allow);
+
+    rules
+        .put("com.google.cloud.*", ignore)
+        .put("com.google.instrumentation.*", ignore)
+        .put("com.google.j2objc.*", ignore)
+        .put("com.google.gson.*", ignore)
+        .put("com.google.logging.*", ignore)
+        .put("com.google.longrunning.*", ignore)
+        .put("com.google.protobuf.*", ignore)
+        .put("com.google.rpc.*", ignore)
+        .put("com.google.thirdparty.*", ignore)
+        .put("com.google.type.*", ignore);
+    rules
+        .put("com.google.common.*", ignore)
+        .put("com.google.common.util.concurrent.*", allow)
+        .put("com.google.common.base.internal.Finalizer", allow);
+    rules
+        .put("com.google.inject.*", ignore)
+        // We instrument Runnable there
+        .put("com.google.inject.internal.AbstractBindingProcessor$*", allow)
+        .put("com.google.inject.internal.BytecodeGen$*", allow)
+        .put("com.google.inject.internal.cglib.core.internal.$LoadingCache$*", allow);
+    rules.put("com.google.api.*", ignore).put("com.google.api.client.http.HttpRequest*", allow);
+
+    rules
+        .put("org.h2.*", ignore)
+        .put("org.h2.Driver", allow)
+        .put("org.h2.jdbc.*", allow)
+        .put("org.h2.jdbcx.*", allow)
+        // Some runnables that get instrumented
+        .put("org.h2.util.Task", allow)
+        .put("org.h2.util.MathUtils$1", allow)
+        .put("org.h2.store.FileLock", allow)
+        .put("org.h2.engine.DatabaseCloser", allow)
+        .put("org.h2.engine.OnExitDatabaseCloser", allow);
+
+    rules
+        .put("com.carrotsearch.hppc.*", ignore)
+        .put("com.carrotsearch.hppc.HashOrderMixing$*", allow);
+
+    rules
+        .put("com.fasterxml.jackson.*", ignore)
+        .put("com.fasterxml.jackson.module.afterburner.util.MyClassLoader", allow);
 
     // kotlin, note we do not ignore kotlinx because we instrument coroutins code
-    if (name.startsWith("kotlin.")) {
-      return true;
-    }
+    rules.put("kotlin.*", ignore);
 
-    return false;
+    return rules;
   }
 
   @Override
@@ -0,0 +1,173 @@
+package datadog.trace.agent.tooling.bytebuddy.matcher;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable trie over class names, looked up in a single pass over the name.
+ *
+ * <p>Each key is either an exact class name or a prefix followed by {@code *}, and carries an int
+ * value split into 2-bit fields, so several independent sets of rules can share one trie. Where
+ * more than one key matches a name, a field is taken from the longest key which sets it, an exact
+ * name counting as longer than a prefix of the same length. Fields no key sets are zero.
+ */
+final class ClassNameTrie {
+  private static final int LOW_BITS = 0x55555555;
+
+  /*
+   * The nodes are laid out one after another, each as:
+   *
+   *   label length, label characters...,
+   *   prefix value, exact value, lowest child character, child table size, child offsets...
+   *
+   * A node's label starts with the character leading to it from its parent, and chains of nodes
+   * with a single child and no values are merged into one label, so a lookup compares runs of
+   * characters instead of stepping through the trie one character at a time. The child table is
+   * indexed by the first character of the child's label less the lowest such character, and holds
+   * the offset of the child or zero where there is none. The root is at offset zero and has an
+   * empty label.
+   */
+  private static final int PREFIX_VALUE = 0;
+  private static final int EXACT_VALUE = 1;
+  private static final int LOWEST_CHILD = 2;
+  private static final int CHILD_TABLE_SIZE = 3;
+  private static final int CHILD_TABLE = 4;
+
+  private final int[] trie;
+
+  private ClassNameTrie(final int[] trie) {
+    this.trie = trie;
+  }
+
+  /** @return the fields of the longest keys matching the name */
+  int apply(final String name) {
+    final int[] trie = this.trie;
+    final int length = name.length();
+    int value = 0;
+    int position = 0;
+    // the fields of the root, which has an empty label
+    int node = 1;
+    while (true) {
+      final int prefixValue = trie[node + PREFIX_VALUE];
+      if (prefixValue != 0) {
+        value = overlay(value, prefixValue);
+      }
+      if (position == length) {
+        return overlay(value, trie[node + EXACT_VALUE]);
+      }
+      final int index = name.charAt(position) - trie[node + LOWEST_CHILD];
+      if (index < 0 || index >= trie[node + CHILD_TABLE_SIZE]) {
+        return value;
+      }
+      final int child = trie[node + CHILD_TABLE + index];
+      if (child == 0) {
+        return value;
+      }
+      final int labelLength = trie[child];
+      if (position + labelLength > length) {
+        return value;
+      }
+      // the first character has already been matched by the child table
+      for (int i = 1; i < labelLength; ++i) {
+        if (name.charAt(position + i) != trie[child + 1 + i]) {
+          return value;
+        }
+      }
+      position += labelLength;
+      node = child + 1 + labelLength;
+    }
+  }
+
+  /** @return the value with the non-zero 2-bit fields of the update replacing its own */
+  private static int overlay(final int value, final int update) {
+    final int low = (update | (update >>> 1)) & LOW_BITS;
+    return (value & ~(low | (low << 1))) | update;
+  }
+
+  static final class Builder {
+    private final Entry root = new Entry();
+
+    /**
+     * Adds a key to the trie, replacing the non-zero fields of any value the key already has.
+     *
+     * @param key an exact class name, or a prefix followed by {@code *}
+     */
+    Builder put(final String key, final int value) {
+      final boolean prefix = key.endsWith("*");
+      final int length = prefix ? key.length() - 1 : key.length();
+      Entry entry = root;
+      for (int i = 0; i < length; ++i) {
+        final char c = key.charAt(i);
+        Entry child = entry.children.get(c);
+        if (null == child) {
+          child = new Entry();
+          entry.children.put(c, child);
+        }
+        entry = child;
+      }
+      if (prefix) {
+        entry.prefixValue = overlay(entry.prefixValue, value);
+      } else {
+        entry.exactValue = overlay(entry.exactValue, value);
+      }
+      return this;
+    }
+
+    ClassNameTrie build() {
+      final Layout layout = new Layout();
+      layout.add("", root);
+      return new ClassNameTrie(Arrays.copyOf(layout.trie, layout.size));
+    }
+
+    private static final class Entry {
+      final TreeMap<Character, Entry> children = new TreeMap<>();
+      int prefixValue;
+      int exactValue;
+    }
+
+    private static final class Layout {
+      int[] trie = new int[256];
+      int size;
+
+      /** @return the offset of the node */
+      int add(final String label, final Entry entry) {
+        final int offset = size;
+        final int tableSize =
+            entry.children.isEmpty() ? 0 : entry.children.lastKey() - entry.children.firstKey() + 1;
+        reserve(1 + label.length() + CHILD_TABLE + tableSize);
+        trie[offset] = label.length();
+        for (int i = 0; i < label.length(); ++i) {
+          trie[offset + 1 + i] = label.charAt(i);
+        }
+        final int node = offset + 1 + label.length();
+        trie[node + PREFIX_VALUE] = entry.prefixValue;
+        trie[node + EXACT_VALUE] = entry.exactValue;
+        trie[node + CHILD_TABLE_SIZE] = tableSize;
+        if (tableSize > 0) {
+          final char lowestChild = entry.children.firstKey();
+          trie[node + LOWEST_CHILD] = lowestChild;
+          for (final Map.Entry<Character, Entry> child : entry.children.entrySet()) {
+            final StringBuilder childLabel = new StringBuilder().append(child.getKey());
+            Entry next = child.getValue();
+            while (next.children.size() == 1 && next.prefixValue == 0 && next.exactValue == 0) {
+              final Map.Entry<Character, Entry> only = next.children.firstEntry();
+              childLabel.append(only.getKey());
+              next = only.getValue();
+            }
+            final int childOffset = add(childLabel.toString(), next);
+            trie[node + CHILD_TABLE + child.getKey() - lowestChild] = childOffset;
+          }
+        }
+        return offset;
+      }
+
+      private void reserve(final int length) {
+        if (size + length > trie.length) {
+          trie = Arrays.copyOf(trie, Math.max(trie.length * 2, size + length));
+        }
+        size += length;
+      }
+    }
+  }
+}
@@ -1,6 +1,6 @@
 package datadog.trace.agent.tooling.bytebuddy.matcher;
 
-import java.util.regex.Pattern;
+import java.util.List;
 import net.bytebuddy.description.type.TypeDescription;
 import net.bytebuddy.matcher.ElementMatcher;
 
@@ -19,177 +19,159 @@ import net.bytebuddy.matcher.ElementMatcher;
  *   Uses {@link AdditionalLibraryIgnoresMatcher} to also ignore additional classes to minimize
  *   number of classes we apply expensive matchers to.
  * </ul>
+ *
+ * <ul>
+ *   Ignore the classes excluded by the user.
+ * </ul>
+ *
+ * <p>The rules of all three are compiled into one {@link ClassNameTrie} when the matcher is built.
  */
 public class GlobalIgnoresMatcher<T extends TypeDescription>
     extends ElementMatcher.Junction.AbstractBase<T> {
 
-  private static final Pattern COM_MCHANGE_PROXY =
-      Pattern.compile("^com\\.mchange\\.v2\\.c3p0\\..*Proxy$");
+  /** The outcomes of the rules, held in 2-bit fields of the trie's values. */
+  static final int IGNORE = 1;
+
+  static final int ALLOW = 2;
+
+  // where each set of rules keeps its outcome in the trie's values
+  private static final int GLOBAL = 0;
+  private static final int ADDITIONAL = 2;
+  private static final int EXCLUDED = 4;
+
+  private static final int OUTCOME = 3;
 
   public static <T extends TypeDescription> ElementMatcher.Junction<T> globalIgnoresMatcher(
-      final boolean skipAdditionalLibraryMatcher) {
-    return new GlobalIgnoresMatcher<>(skipAdditionalLibraryMatcher);
+      final boolean skipAdditionalLibraryMatcher, final List<String> excludedClasses) {
+    return new GlobalIgnoresMatcher<>(skipAdditionalLibraryMatcher, excludedClasses);
   }
 
-  private final ElementMatcher<T> additionalLibraryIgnoreMatcher =
-      AdditionalLibraryIgnoresMatcher.additionalLibraryIgnoresMatcher();
   private final boolean skipAdditionalLibraryMatcher;
+  private final List<String> excludedClasses;
+  private final ClassNameTrie ignores;
 
-  private final ElementMatcher<T> springClassLoaderIgnores =
-      NameMatchers.namedOneOf(
-          "org.springframework.context.support.ContextTypeMatchClassLoader",
-          "org.springframework.core.OverridingClassLoader",
-          "org.springframework.core.DecoratingClassLoader",
-          "org.springframework.instrument.classloading.SimpleThrowawayClassLoader",
-          "org.springframework.instrument.classloading.ShadowingClassLoader");
-
-  private GlobalIgnoresMatcher(final boolean skipAdditionalLibraryMatcher) {
+  /**
+   * @param excludedClasses class names to ignore, or prefixes followed by {@code *}, as configured
+   *     by the user
+   */
+  private GlobalIgnoresMatcher(
+      final boolean skipAdditionalLibraryMatcher, final List<String> excludedClasses) {
     this.skipAdditionalLibraryMatcher = skipAdditionalLibraryMatcher;
+    this.excludedClasses = excludedClasses;
+    final ClassNameTrie.Builder rules = addIgnores(new ClassNameTrie.Builder());
+    if (!skipAdditionalLibraryMatcher) {
+      AdditionalLibraryIgnoresMatcher.addIgnores(rules, ADDITIONAL);
+    }
+    for (final String excludedClass : excludedClasses) {
+      rules.put(excludedClass.trim(), IGNORE << EXCLUDED);
+    }
+    this.ignores = rules.build();
+  }
+
+  private static ClassNameTrie.Builder addIgnores(final ClassNameTrie.Builder rules) {
+    final int ignore = IGNORE << GLOBAL;
+    final int allow = ALLOW << GLOBAL;
+
+    rules
+        .put("com.p6spy.*", ignore)
+        .put("com.newrelic.*", ignore)
+        .put("com.dynatrace.*", ignore)
+        .put("com.jloadtrace.*", ignore)
+        .put("com.appdynamics.*", ignore)
+        .put("com.singularity.*", ignore)
+        .put("com.jinspired.*", ignore)
+        .put("com.intellij.rt.debugger.*", ignore);
+
+    rules
+        .put("com.sun.*", ignore)
+        .put("com.sun.messaging.*", allow)
+        .put("com.sun.jersey.api.client*", allow);
+
+    rules.put("clojure.*", ignore).put("cinnamon.*", ignore);
+
+    rules
+        .put("datadog.opentracing.*", ignore)
+        .put("datadog.trace.core.*", ignore)
+        .put("datadog.slf4j.*", ignore)
+        .put("datadog.trace.*", ignore)
+        // FIXME: We should remove this once
+        // https://github.com/raphw/byte-buddy/issues/558 is fixed
+        .put("datadog.trace.bootstrap.instrumentation.java.concurrent.RunnableWrapper", allow);
+
+    rules.put("io.micronaut.tracing.*", ignore).put("io.micrometer.*", ignore);
+
+    rules
+        .put("jdk.*", ignore)
+        .put("java.*", ignore)
+        // allow exception profiling instrumentation
+        .put("java.lang.Throwable", allow)
+        .put("java.net.URL", allow)
+        .put("java.net.HttpURLConnection", allow)
+        .put("java.rmi.*", allow)
+        .put("java.util.concurrent.*", allow)
+        .put("java.util.logging.*", allow)
+        // Concurrent instrumentation modifies the structure of
+        // Cleaner class incompatibly with java9+ modules.
+        // Working around until a long-term fix for modules can be
+        // put in place.
+        .put("java.util.logging.LogManager$Cleaner", ignore);
+
+    rules.put("net.bytebuddy.*", ignore);
+
+    rules
+        .put("org.aspectj.*", ignore)
+        .put("org.jinspired.*", ignore)
+        // groovy
+        .put("org.groovy.*", ignore)
+        .put("org.apache.groovy.*", ignore)
+        .put("org.codehaus.groovy.*", ignore)
+        // We seem to instrument some classes in runtime
+        .put("org.codehaus.groovy.runtime.*", allow)
+        .put("org.apache.log4j.*", ignore)
+        .put("org.apache.log4j.MDC", allow);
+
+    rules
+        .put("org.springframework.context.support.ContextTypeMatchClassLoader", ignore)
+        .put("org.springframework.core.OverridingClassLoader", ignore)
+        .put("org.springframework.core.DecoratingClassLoader", ignore)
+        .put("org.springframework.instrument.classloading.SimpleThrowawayClassLoader", ignore)
+        .put("org.springframework.instrument.classloading.ShadowingClassLoader", ignore);
+
+    rules
+        .put("sun.*", ignore)
+        .put("sun.net.www.protocol.*", allow)
+        .put("sun.rmi.server*", allow)
+        .put("sun.rmi.transport*", allow)
+        .put("sun.net.www.http.HttpClient", allow);
+
+    return rules;
   }
 
   /**
    * Be very careful about the types of matchers used in this section as they are called on every
    * class load, so they must be fast. Generally speaking try to only use name matchers as they
-   * don't have to load additional info.
+   * don't have to load additional info, and add any rule which can be expressed as a name or a
+   * prefix to the trie, which is looked up in one pass over the name however many rules there are.
    */
   @Override
   public boolean matches(final T target) {
     final String name = target.getActualName();
-    switch (name.charAt(0) - 'a') {
-        // starting at zero to get a tableswitch from javac, though it looks horrendous
-      case 'a' - 'a':
-        break;
-      case 'b' - 'a':
-        break;
-      case 'c' - 'a':
-        if (name.startsWith("com.")) {
-          if (name.startsWith("com.p6spy.")
-              || name.startsWith("com.newrelic.")
-              || name.startsWith("com.dynatrace.")
-              || name.startsWith("com.jloadtrace.")
-              || name.startsWith("com.appdynamics.")
-              || name.startsWith("com.singularity.")
-              || name.startsWith("com.jinspired.")
-              || name.startsWith("com.intellij.rt.debugger.")) {
-            return true;
-          }
-          if (name.startsWith("com.sun.")) {
-            return !name.startsWith("com.sun.messaging.")
-                && !name.startsWith("com.sun.jersey.api.client");
-          }
-          if (COM_MCHANGE_PROXY.matcher(name).matches()) {
-            return true;
-          }
-        }
-        if (name.startsWith("clojure.")) {
-          return true;
-        }
-        if (name.startsWith("cinnamon.")) {
-          return true;
-        }
-        break;
-      case 'd' - 'a':
-        if (name.startsWith("datadog.")) {
-          if (name.startsWith("datadog.opentracing.")
-              || name.startsWith("datadog.trace.core.")
-              || name.startsWith("datadog.slf4j.")) {
-            return true;
-          }
-          if (name.startsWith("datadog.trace.")) {
-            // FIXME: We should remove this once
-            // https://github.com/raphw/byte-buddy/issues/558 is fixed
-            return !name.equals(
-                "datadog.trace.bootstrap.instrumentation.java.concurrent.RunnableWrapper");
-          }
-        }
-        break;
-      case 'e' - 'a':
-        break;
-      case 'f' - 'a':
-        break;
-      case 'g' - 'a':
-        break;
-      case 'h' - 'a':
-        break;
-      case 'i' - 'a':
-        if (name.startsWith("io.micronaut.tracing.") || name.startsWith("io.micrometer.")) {
-          return true;
-        }
-        break;
-      case 'j' - 'a':
-        if (name.startsWith("jdk.")) {
-          return true;
-        }
-        if (name.startsWith("java.")) {
-          // allow exception profiling instrumentation
-          if (name.equals("java.lang.Throwable")) {
-            return false;
-          }
-          if (name.equals("java.net.URL") || name.equals("java.net.HttpURLConnection")) {
-            return false;
-          }
-          if (name.startsWith("java.rmi.") || name.startsWith("java.util.concurrent.")) {
-            return false;
-          }
-          // Concurrent instrumentation modifies the structure of
-          // Cleaner class incompatibly with java9+ modules.
-          // Working around until a long-term fix for modules can be
-          // put in place.
-          return !name.startsWith("java.util.logging.")
-              || name.equals("java.util.logging.LogManager$Cleaner");
-        }
-        break;
-      case 'k' - 'a':
-        break;
-      case 'l' - 'a':
-        break;
-      case 'm' - 'a':
-        break;
-      case 'n' - 'a':
-        if (name.startsWith("net.bytebuddy.")) {
-          return true;
-        }
-        break;
-      case 'o' - 'a':
-        if (name.startsWith("org.")) {
-          if (name.startsWith("org.aspectj.") || name.startsWith("org.jinspired.")) {
-            return true;
-          }
-          // groovy
-          if (name.startsWith("org.groovy.") || name.startsWith("org.apache.groovy.")) {
-            return true;
-          }
-          if (name.startsWith("org.codehaus.groovy.")) {
-            // We seem to instrument some classes in runtime
-            return !name.startsWith("org.codehaus.groovy.runtime.");
-          }
-          if (name.startsWith("org.apache.log4j.")) {
-            return !name.equals("org.apache.log4j.MDC");
-          }
-          if (name.startsWith("org.springframework.")) {
-            if (springClassLoaderIgnores.matches(target)) {
-              return true;
-            }
-          }
-        }
-        break;
-      case 'p' - 'a':
-        break;
-      case 'q' - 'a':
-        break;
-      case 'r' - 'a':
-        break;
-      case 's' - 'a':
-        if (name.startsWith("sun.")) {
-          return !name.startsWith("sun.net.www.protocol.")
-              && !name.startsWith("sun.rmi.server")
-              && !name.startsWith("sun.rmi.transport")
-              && !name.equals("sun.net.www.http.HttpClient");
-        }
-        break;
+    final int outcomes = ignores.apply(name);
+    if ((outcomes >>> EXCLUDED & OUTCOME) == IGNORE) {
+      return true;
+    }
+    switch (outcomes >>> GLOBAL & OUTCOME) {
+      case IGNORE:
+        return true;
+      case ALLOW:
+        return false;
       default:
     }
 
+    if (name.startsWith("com.mchange.v2.c3p0.") && name.endsWith("Proxy")) {
+      return true;
+    }
+
     final int firstDollar = name.indexOf('$');
     if (firstDollar > -1) {
       // clojure class patterns
@@ -216,12 +198,15 @@ public class GlobalIgnoresMatcher<T extends TypeDescription>
       return true;
     }
 
-    return !skipAdditionalLibraryMatcher && additionalLibraryIgnoreMatcher.matches(target);
+    return (outcomes >>> ADDITIONAL & OUTCOME) == IGNORE;
   }
 
   @Override
   public String toString() {
-    return "globalIgnoresMatcher(" + additionalLibraryIgnoreMatcher.toString() + ")";
+    return "globalIgnoresMatcher("
+        + (skipAdditionalLibraryMatcher ? "" : "additionalLibraryIgnoresMatcher(), ")
+        + excludedClasses
+        + ")";
   }
 
   @Override
@@ -233,13 +218,14 @@ public class GlobalIgnoresMatcher<T extends TypeDescription>
     } else if (getClass() != other.getClass()) {
       return false;
     } else {
-      return additionalLibraryIgnoreMatcher.equals(
-          ((GlobalIgnoresMatcher) other).additionalLibraryIgnoreMatcher);
+      final GlobalIgnoresMatcher<?> that = (GlobalIgnoresMatcher<?>) other;
+      return skipAdditionalLibraryMatcher == that.skipAdditionalLibraryMatcher
+          && excludedClasses.equals(that.excludedClasses);
     }
   }
 
   @Override
   public int hashCode() {
-    return 17 * 31 + additionalLibraryIgnoreMatcher.hashCode();
+    return 31 * (skipAdditionalLibraryMatcher ? 1 : 0) + excludedClasses.hashCode();
   }
 }
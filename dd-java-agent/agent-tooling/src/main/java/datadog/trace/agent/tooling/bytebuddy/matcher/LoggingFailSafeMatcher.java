@@ -48,6 +48,11 @@ class LoggingFailSafeMatcher<T> extends ElementMatcher.Junction.AbstractBase<T>
     }
   }
 
+  /** @return the delegate matcher, unless an exception counts as a match */
+  ElementMatcher<? super T> strictMatcher() {
+    return fallback ? null : matcher;
+  }
+
   @Override
   public String toString() {
     return "failSafe(try(" + matcher + ") or " + fallback + ")";
@@ -1,9 +1,11 @@
 package datadog.trace.agent.tooling.bytebuddy.matcher;
 
+import java.lang.reflect.Field;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import net.bytebuddy.description.NamedElement;
 import net.bytebuddy.matcher.ElementMatcher;
@@ -77,6 +79,65 @@ public final class NameMatchers {
     return NameMatcher.of(name);
   }
 
+  /**
+   * Works out which names a type matcher can match without looking at the type's hierarchy: the
+   * exact names it matches, and the prefixes it matches followed by {@code *}. Only the matchers
+   * from this class, fail-safe matchers, and conjunctions and disjunctions of them are understood.
+   *
+   * @param matcher The type matcher.
+   * @return the names and prefixes, sorted, or null if the matcher could match any name
+   */
+  public static String[] indexKeys(ElementMatcher<?> matcher) {
+    Set<String> keys = new TreeSet<>();
+    return addIndexKeys(matcher, keys) ? keys.toArray(new String[0]) : null;
+  }
+
+  private static boolean addIndexKeys(ElementMatcher<?> matcher, Set<String> keys) {
+    if (matcher instanceof NameMatcher) {
+      keys.add(((NameMatcher<?>) matcher).name);
+      return true;
+    } else if (matcher instanceof SetMatcher && ((SetMatcher<?>) matcher).include) {
+      keys.addAll(((SetMatcher<?>) matcher).values);
+      return true;
+    } else if (matcher instanceof PrefixMatcher) {
+      keys.add(((PrefixMatcher<?>) matcher).prefix + "*");
+      return true;
+    } else if (matcher instanceof LoggingFailSafeMatcher) {
+      ElementMatcher<?> delegate = ((LoggingFailSafeMatcher<?>) matcher).strictMatcher();
+      return null != delegate && addIndexKeys(delegate, keys);
+    } else if (matcher instanceof ElementMatcher.Junction.Disjunction) {
+      // either side can match, so both need to be indexed
+      Set<String> left = new HashSet<>();
+      Set<String> right = new HashSet<>();
+      if (addIndexKeys(operand(ElementMatcher.Junction.Disjunction.class, matcher, "left"), left)
+          && addIndexKeys(
+              operand(ElementMatcher.Junction.Disjunction.class, matcher, "right"), right)) {
+        keys.addAll(left);
+        keys.addAll(right);
+        return true;
+      }
+      return false;
+    } else if (matcher instanceof ElementMatcher.Junction.Conjunction) {
+      // both sides have to match, so the keys from either side will do
+      return addIndexKeys(operand(ElementMatcher.Junction.Conjunction.class, matcher, "left"), keys)
+          || addIndexKeys(
+              operand(ElementMatcher.Junction.Conjunction.class, matcher, "right"), keys);
+    }
+    return false;
+  }
+
+  private static ElementMatcher<?> operand(
+      Class<?> junctionType, ElementMatcher<?> junction, String name) {
+    try {
+      // the junctions don't expose their operands
+      Field field = junctionType.getDeclaredField(name);
+      field.setAccessible(true);
+      return (ElementMatcher<?>) field.get(junction);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
   private static class SetMatcher<T extends NamedElement>
       extends ElementMatcher.Junction.AbstractBase<T> {
 
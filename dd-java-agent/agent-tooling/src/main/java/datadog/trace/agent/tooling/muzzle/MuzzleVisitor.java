@@ -2,6 +2,7 @@ package datadog.trace.agent.tooling.muzzle;
 
 import datadog.trace.agent.tooling.Instrumenter;
 import datadog.trace.agent.tooling.Utils;
+import datadog.trace.agent.tooling.bytebuddy.matcher.NameMatchers;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -22,10 +23,14 @@ import net.bytebuddy.jar.asm.Opcodes;
 import net.bytebuddy.jar.asm.Type;
 import net.bytebuddy.pool.TypePool;
 
-/** Visit a class and add: a private instrumenationMuzzle field and getter */
+/**
+ * Visit a class and add: a private instrumenationMuzzle field and getter, and a getter for the
+ * names its type matcher can match
+ */
 public class MuzzleVisitor implements AsmVisitorWrapper {
   public static final String MUZZLE_FIELD_NAME = "instrumentationMuzzle";
   public static final String MUZZLE_METHOD_NAME = "getInstrumentationMuzzle";
+  public static final String INDEX_KEYS_METHOD_NAME = "getInstrumentationIndexKeys";
 
   @Override
   public int mergeWriter(int flags) {
@@ -106,7 +111,7 @@ public class MuzzleVisitor implements AsmVisitorWrapper {
         final String descriptor,
         final String signature,
         final String[] exceptions) {
-      if (MUZZLE_METHOD_NAME.equals(name)) {
+      if (MUZZLE_METHOD_NAME.equals(name) || INDEX_KEYS_METHOD_NAME.equals(name)) {
         // muzzle getter has been generated
         // by previous compilation
         // ignore and recompute in visitEnd
@@ -143,6 +148,15 @@ public class MuzzleVisitor implements AsmVisitorWrapper {
       return references.values().toArray(new Reference[0]);
     }
 
+    /**
+     * @return the names and prefixes the type matcher can match, or null if it can match other
+     *     names. The agent checks the matcher it builds at runtime still has the same keys before
+     *     using them, since it could depend on the agent's configuration.
+     */
+    public String[] generateIndexKeys() {
+      return NameMatchers.indexKeys(instrumenter.typeMatcher());
+    }
+
     @Override
     public void visitEnd() {
       { // generate getInstrumentationMuzzle method
@@ -452,6 +466,32 @@ public class MuzzleVisitor implements AsmVisitorWrapper {
         }
       }
 
+      final String[] indexKeys = generateIndexKeys();
+      if (null != indexKeys) { // generate getInstrumentationIndexKeys method
+        /*
+         * protected String[] getInstrumentationIndexKeys() {
+         *   return new String[]{
+         *                       //names and prefixes
+         *                      };
+         * }
+         */
+        final MethodVisitor mv =
+            super.visitMethod(
+                Opcodes.ACC_PROTECTED, INDEX_KEYS_METHOD_NAME, "()[Ljava/lang/String;", null, null);
+        mv.visitCode();
+        mv.visitLdcInsn(indexKeys.length);
+        mv.visitTypeInsn(Opcodes.ANEWARRAY, "java/lang/String");
+        for (int i = 0; i < indexKeys.length; ++i) {
+          mv.visitInsn(Opcodes.DUP);
+          mv.visitLdcInsn(i);
+          mv.visitLdcInsn(indexKeys[i]);
+          mv.visitInsn(Opcodes.AASTORE);
+        }
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0); // recomputed
+        mv.visitEnd();
+      }
+
       super.visitField(
           Opcodes.ACC_PRIVATE + Opcodes.ACC_VOLATILE,
           MUZZLE_FIELD_NAME,
@@ -0,0 +1,264 @@
+package datadog.trace.agent.tooling.muzzle;
+
+import static datadog.trace.util.AgentThreadFactory.AgentThread.MUZZLE_VERIFIER;
+
+import datadog.trace.agent.tooling.AgentTooling;
+import datadog.trace.api.Config;
+import datadog.trace.api.Function;
+import datadog.trace.bootstrap.WeakCache;
+import datadog.trace.util.AgentThreadFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Checks references against classloaders once for all the instrumenters which share them.
+ *
+ * <p>Instrumenters often reference the same classes in the same way, so identical references are
+ * checked once per classloader, and instrumenters which need exactly the same references share
+ * their result for each classloader.
+ *
+ * <p>When {@code muzzle.threads} is set, the references an instrumenter needs are checked on that
+ * many agent threads. The thread which triggered the check waits only for those references, and
+ * checks any which haven't been started yet itself, so it is never left waiting for a queue. If it
+ * holds the classloader's lock, as it does while a classloader which isn't parallel capable loads a
+ * class, it checks all the references itself, because the agent threads would block on that lock.
+ */
+@Slf4j
+final class ReferenceChecks {
+  // how long a verification waits in all for checks other threads are running before repeating
+  // them, in case those threads are blocked on a lock held by the waiting thread
+  private static final long WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+  private static final ConcurrentMap<String, Check> CHECKS = new ConcurrentHashMap<>();
+  private static final ConcurrentMap<String, CheckSet> CHECK_SETS = new ConcurrentHashMap<>();
+  private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+  // the checks started for each classloader, shared by all the check sets
+  private static final WeakCache<ClassLoader, ConcurrentMap<Check, FutureTask<Boolean>>> STARTED =
+      AgentTooling.newWeakCache();
+
+  private static final Function<ClassLoader, ConcurrentMap<Check, FutureTask<Boolean>>>
+      NEW_STARTED =
+          new Function<ClassLoader, ConcurrentMap<Check, FutureTask<Boolean>>>() {
+            @Override
+            public ConcurrentMap<Check, FutureTask<Boolean>> apply(final ClassLoader loader) {
+              return new ConcurrentHashMap<>();
+            }
+          };
+
+  private static volatile Executor executor;
+  private static volatile boolean executorCreated;
+
+  /** @return the checks of the references which aren't to helper classes */
+  static CheckSet checkSet(final Set<String> helperClassNames, final Reference[] references) {
+    final SortedMap<Integer, Check> checks = new TreeMap<>();
+    for (final Reference reference : references) {
+      // Don't reference-check helper classes.
+      // They will be injected by the instrumentation's HelperInjector.
+      if (!helperClassNames.contains(reference.getClassName())) {
+        final Check check = check(reference);
+        checks.put(check.id, check);
+      }
+    }
+    // the same references in any order share a check set
+    final StringBuilder key = new StringBuilder();
+    for (final Integer id : checks.keySet()) {
+      key.append(id).append(',');
+    }
+    final CheckSet checkSet = new CheckSet(checks.values().toArray(new Check[0]));
+    final CheckSet existing = CHECK_SETS.putIfAbsent(key.toString(), checkSet);
+    return null == existing ? checkSet : existing;
+  }
+
+  private static Check check(final Reference reference) {
+    final String key = describe(reference);
+    Check check = CHECKS.get(key);
+    if (null == check) {
+      check = new Check(reference, NEXT_ID.getAndIncrement());
+      final Check existing = CHECKS.putIfAbsent(key, check);
+      if (null != existing) {
+        check = existing;
+      }
+    }
+    return check;
+  }
+
+  /** @return what is checked for the reference, which doesn't include its sources */
+  private static String describe(final Reference reference) {
+    final StringBuilder description = new StringBuilder(reference.getClassName());
+    description.append(new TreeSet<>(reference.getFlags()));
+    final Set<String> fields = new TreeSet<>();
+    for (final Reference.Field field : reference.getFields()) {
+      fields.add(
+          field.getName()
+              + ':'
+              + field.getType().getDescriptor()
+              + new TreeSet<>(field.getFlags()));
+    }
+    description.append(fields);
+    final Set<String> methods = new TreeSet<>();
+    for (final Reference.Method method : reference.getMethods()) {
+      methods.add(method.getName() + method.getDescriptor() + new TreeSet<>(method.getFlags()));
+    }
+    return description.append(methods).toString();
+  }
+
+  private static Executor executor() {
+    if (!executorCreated) {
+      synchronized (ReferenceChecks.class) {
+        if (!executorCreated) {
+          final int threads = Config.get().getMuzzleThreads();
+          if (threads > 0) {
+            final ThreadPoolExecutor pool =
+                new ThreadPoolExecutor(
+                    threads,
+                    threads,
+                    10,
+                    TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new AgentThreadFactory(MUZZLE_VERIFIER));
+            // most checks happen while the application starts
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+          }
+          executorCreated = true;
+        }
+      }
+    }
+    return executor;
+  }
+
+  /** A set of references, whose result for each classloader is cached. */
+  static final class CheckSet {
+    private final Check[] checks;
+    private final WeakCache<ClassLoader, Boolean> results = AgentTooling.newWeakCache();
+
+    private final Function<ClassLoader, Boolean> verify =
+        new Function<ClassLoader, Boolean>() {
+          @Override
+          public Boolean apply(final ClassLoader loader) {
+            return verify(loader);
+          }
+        };
+
+    CheckSet(final Check[] checks) {
+      this.checks = checks;
+    }
+
+    boolean matches(final ClassLoader loader) {
+      return results.computeIfAbsent(loader, verify);
+    }
+
+    private boolean verify(final ClassLoader loader) {
+      final ConcurrentMap<Check, FutureTask<Boolean>> started =
+          STARTED.computeIfAbsent(loader, NEW_STARTED);
+      // the agent threads would block on the lock of a classloader which isn't parallel capable
+      final Executor executor = Thread.holdsLock(loader) ? null : executor();
+      final List<FutureTask<Boolean>> tasks;
+      if (null == executor) {
+        tasks = Collections.emptyList();
+      } else {
+        tasks = new ArrayList<>(checks.length);
+        for (final Check check : checks) {
+          tasks.add(start(started, check, loader, executor));
+        }
+      }
+      final long deadline = System.nanoTime() + WAIT_NANOS;
+      for (int i = 0; i < checks.length; ++i) {
+        final FutureTask<Boolean> task =
+            null == executor ? start(started, checks[i], loader, null) : tasks.get(i);
+        // does nothing if the check has already been started
+        task.run();
+        if (!result(task, checks[i], loader, deadline)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static FutureTask<Boolean> start(
+      final ConcurrentMap<Check, FutureTask<Boolean>> started,
+      final Check check,
+      final ClassLoader loader,
+      final Executor executor) {
+    FutureTask<Boolean> task = started.get(check);
+    if (null == task) {
+      task = new FutureTask<>(check.against(loader));
+      final FutureTask<Boolean> existing = started.putIfAbsent(check, task);
+      if (null != existing) {
+        return existing;
+      }
+      if (null != executor) {
+        executor.execute(task);
+      }
+    }
+    return task;
+  }
+
+  private static boolean result(
+      final FutureTask<Boolean> task,
+      final Check check,
+      final ClassLoader loader,
+      final long deadline) {
+    try {
+      // once the deadline has passed, checks which are still running elsewhere are repeated
+      return task.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    } catch (final TimeoutException e) {
+      log.debug("Repeating muzzle check of {} on {}", check.reference, loader);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (final ExecutionException e) {
+      log.debug("Muzzle check of {} on {} failed", check.reference, loader, e.getCause());
+      return false;
+    }
+    return check.matches(loader);
+  }
+
+  /** A reference shared by instrumenters, without the sources which tell them apart. */
+  static final class Check {
+    final Reference reference;
+    final int id;
+
+    Check(final Reference reference, final int id) {
+      this.reference = reference;
+      this.id = id;
+    }
+
+    boolean matches(final ClassLoader loader) {
+      return ReferenceMatcher.checkMatch(reference, loader, new ArrayList<Reference.Mismatch>());
+    }
+
+    Callable<Boolean> against(final ClassLoader loader) {
+      // the started checks are kept by classloader, so mustn't hold on to it
+      final WeakReference<ClassLoader> loaderRef = new WeakReference<>(loader);
+      return new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          final ClassLoader loader = loaderRef.get();
+          return null != loader && matches(loader);
+        }
+      };
+    }
+  }
+
+  private ReferenceChecks() {}
+}
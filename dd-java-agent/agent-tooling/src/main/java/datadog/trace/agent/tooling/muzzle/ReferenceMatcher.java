@@ -6,8 +6,6 @@ import datadog.trace.agent.tooling.AgentTooling;
 import datadog.trace.agent.tooling.Utils;
 import datadog.trace.agent.tooling.muzzle.Reference.Mismatch;
 import datadog.trace.agent.tooling.muzzle.Reference.Source;
-import datadog.trace.api.Function;
-import datadog.trace.bootstrap.WeakCache;
 import datadog.trace.bootstrap.instrumentation.api.Pair;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -26,9 +24,9 @@ import net.bytebuddy.pool.TypePool;
 @Slf4j
 public final class ReferenceMatcher {
   private static final Source[] EMPTY_SOURCES = new Source[0];
-  private final WeakCache<ClassLoader, Boolean> mismatchCache = AgentTooling.newWeakCache();
   private final Reference[] references;
   private final Set<String> helperClassNames;
+  private volatile ReferenceChecks.CheckSet checkSet;
 
   public ReferenceMatcher(final Reference... references) {
     this(new String[0], references);
@@ -44,7 +42,9 @@ public final class ReferenceMatcher {
   }
 
   /**
-   * Matcher used by ByteBuddy. Fails fast and only caches empty results, or complete results
+   * Matcher used by ByteBuddy. Fails fast and only caches empty results, or complete results. The
+   * results are shared with other matchers which need the same references, see {@link
+   * ReferenceChecks}.
    *
    * @param loader Classloader to validate against (or null for bootstrap)
    * @return true if all references match the classpath of loader
@@ -53,30 +53,12 @@ public final class ReferenceMatcher {
     if (loader == BOOTSTRAP_LOADER) {
       loader = Utils.getBootstrapProxy();
     }
-    return mismatchCache.computeIfAbsent(
-        loader,
-        // Can't use a function reference because of Java7 support
-        new Function<ClassLoader, Boolean>() {
-          @Override
-          public Boolean apply(ClassLoader key) {
-            return doesMatch(key);
-          }
-        });
-  }
-
-  private boolean doesMatch(final ClassLoader loader) {
-    final List<Mismatch> mismatches = new ArrayList<>();
-    for (final Reference reference : references) {
-      // Don't reference-check helper classes.
-      // They will be injected by the instrumentation's HelperInjector.
-      if (!helperClassNames.contains(reference.getClassName())) {
-        if (!checkMatch(reference, loader, mismatches)) {
-          return false;
-        }
-      }
+    ReferenceChecks.CheckSet checkSet = this.checkSet;
+    if (null == checkSet) {
+      checkSet = ReferenceChecks.checkSet(helperClassNames, references);
+      this.checkSet = checkSet;
     }
-
-    return true;
+    return checkSet.matches(loader);
   }
 
   /**
@@ -107,7 +89,7 @@ public final class ReferenceMatcher {
    * @param loader
    * @return A list of mismatched sources. A list of size 0 means the reference matches the class.
    */
-  private static boolean checkMatch(
+  static boolean checkMatch(
       final Reference reference, final ClassLoader loader, final List<Mismatch> mismatches) {
     final TypePool typePool =
         AgentTooling.poolStrategy()
@@ -0,0 +1,70 @@
+package datadog.trace.agent.tooling
+
+import datadog.trace.test.util.DDSpecification
+import net.bytebuddy.agent.builder.AgentBuilder
+import net.bytebuddy.description.type.TypeDescription
+import net.bytebuddy.matcher.ElementMatcher
+
+import static datadog.trace.agent.tooling.bytebuddy.matcher.NameMatchers.named
+
+class InstrumenterIndexTest extends DDSpecification {
+
+  def "instrumenters are candidates for the names and prefixes they were registered with"() {
+    setup:
+    def index = new InstrumenterIndex()
+    def ids = [
+      index.register(["foo.Bar", "foo.Baz"] as String[]),
+      index.register(["foo.*"] as String[]),
+      index.register(["foo.Bar", "bar.*"] as String[]),
+    ]
+
+    expect:
+    ids.findAll { index.isCandidate(it, name) } == candidates.collect { ids[it] }
+
+    where:
+    name      | candidates
+    "foo.Bar" | [0, 1, 2]
+    "foo.Baz" | [0, 1]
+    "foo.Qux" | [1]
+    "bar.Foo" | [2]
+    "baz.Foo" | []
+  }
+
+  def "instrumenters are only indexed while their type matcher has the generated keys"() {
+    setup:
+    def index = new InstrumenterIndex()
+
+    when:
+    new KeyedInstrumenter(["foo.Bar"], named("foo.Bar")).instrument(new AgentBuilder.Default(), index)
+    new KeyedInstrumenter(["foo.Bar"], named("foo.Baz")).instrument(new AgentBuilder.Default(), index)
+
+    then:
+    index.register(["bar.*"] as String[]) == 1
+  }
+
+  static class KeyedInstrumenter extends Instrumenter.Tracing {
+    final String[] keys
+    final ElementMatcher<TypeDescription> matcher
+
+    KeyedInstrumenter(List<String> keys, ElementMatcher<TypeDescription> matcher) {
+      super("keyed")
+      this.keys = keys as String[]
+      this.matcher = matcher
+    }
+
+    @Override
+    protected String[] getInstrumentationIndexKeys() {
+      return keys
+    }
+
+    @Override
+    ElementMatcher<? super TypeDescription> typeMatcher() {
+      return matcher
+    }
+
+    @Override
+    Map<ElementMatcher, String> transformers() {
+      return Collections.emptyMap()
+    }
+  }
+}
@@ -0,0 +1,208 @@
+package datadog.trace.agent.tooling.bytebuddy
+
+import datadog.trace.agent.tooling.bytebuddy.matcher.testclasses.A
+import datadog.trace.agent.tooling.bytebuddy.matcher.testclasses.B
+import datadog.trace.agent.tooling.bytebuddy.matcher.testclasses.C
+import datadog.trace.agent.tooling.bytebuddy.matcher.testclasses.D
+import datadog.trace.agent.tooling.bytebuddy.matcher.testclasses.E
+import datadog.trace.agent.tooling.bytebuddy.matcher.testclasses.F
+import datadog.trace.agent.tooling.bytebuddy.matcher.testclasses.G
+import datadog.trace.agent.tooling.bytebuddy.matcher.testclasses.UntracedClass
+import datadog.trace.test.util.DDSpecification
+import net.bytebuddy.dynamic.ClassFileLocator
+
+import java.lang.reflect.Modifier
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.util.jar.JarEntry
+import java.util.jar.JarOutputStream
+
+import static datadog.trace.agent.tooling.bytebuddy.matcher.DDElementMatchers.implementsInterface
+import static datadog.trace.agent.tooling.bytebuddy.matcher.NameMatchers.named
+
+class PersistentHierarchyCacheTest extends DDSpecification {
+
+  static final List<Class> TYPES = [A, B, C, D, E, F, G, UntracedClass]
+
+  File dir = Files.createTempDirectory("hierarchy").toFile()
+  File jar = new File(dir, "types.jar")
+  File cacheFile = new File(dir, "type-hierarchy.bin")
+
+  def setup() {
+    writeJar()
+  }
+
+  def cleanup() {
+    dir.deleteDir()
+  }
+
+  def "hierarchies of parsed types are kept across runs"() {
+    setup:
+    def loader = new URLClassLoader([jar.toURI().toURL()] as URL[], (ClassLoader) null)
+    def cache = new PersistentHierarchyCache(cacheFile)
+
+    when:
+    def matched = matchesA(loader, cache)
+    cache.save()
+    def types = new PersistentHierarchyCache(cacheFile).locate(loader, G.name)
+
+    then:
+    matched
+    types.get(G.name).superName == F.name
+    types.get(G.name).modifiers & Modifier.ABSTRACT
+    types.get(E.name).interfaceNames as List == [B.name, C.name, D.name]
+    types.get(B.name).interfaceNames as List == [A.name]
+    // the type being transformed is described from its class file
+    types.get(UntracedClass.name) == null
+  }
+
+  def "cached hierarchies are matched without parsing the types"() {
+    setup:
+    def loader = new URLClassLoader([jar.toURI().toURL()] as URL[], (ClassLoader) null)
+    def cache = new PersistentHierarchyCache(cacheFile)
+    matchesA(loader, cache)
+    cache.save()
+    def nextRun = new PersistentHierarchyCache(cacheFile)
+    def pool = new DDCachingPoolStrategy(true, nextRun).typePool(locator(loader), loader)
+
+    when:
+    pool.describe(UntracedClass.name).resolve()
+    def g = pool.describe(G.name).resolve()
+
+    then:
+    g.class.simpleName == "CachedHierarchyTypeDescription"
+    g.superClass.asErasure().name == F.name
+    g.isAbstract()
+    implementsInterface(named(A.name)).matches(g)
+    // anything else comes from the class file
+    g.declaredMethods.filter(named("g")).size() == 1
+  }
+
+  def "types described from the cache are only looked up once"() {
+    setup:
+    def cache = new PersistentHierarchyCache(cacheFile)
+    matchesA(new URLClassLoader([jar.toURI().toURL()] as URL[], (ClassLoader) null), cache)
+    cache.save()
+    def strategy = new DDCachingPoolStrategy(true, new PersistentHierarchyCache(cacheFile))
+    def loader = new CountingClassLoader(jar)
+
+    when:
+    def matched = (1..3).collect {
+      def pool = strategy.typePool(locator(loader), loader)
+      pool.describe(UntracedClass.name).resolve()
+      implementsInterface(named(A.name)).matches(pool.describe(G.name).resolve())
+    }
+
+    then:
+    matched == [true, true, true]
+    loader.lookups[G.name] == 1
+    loader.lookups[A.name] == 1
+  }
+
+  def "types missing from the cache are only looked up once"() {
+    setup:
+    def loader = new CountingClassLoader(jar)
+
+    when:
+    def matched = matchesA(loader, new PersistentHierarchyCache(cacheFile))
+
+    then:
+    matched
+    TYPES.every { loader.lookups[it.name] == 1 }
+  }
+
+  def "types of modified jars are not used"() {
+    setup:
+    def loader = new URLClassLoader([jar.toURI().toURL()] as URL[], (ClassLoader) null)
+    def cache = new PersistentHierarchyCache(cacheFile)
+    matchesA(loader, cache)
+    cache.save()
+
+    when:
+    writeJar(F)
+    jar.setLastModified(jar.lastModified() + 2000)
+    def nextLoader = new URLClassLoader([jar.toURI().toURL()] as URL[], (ClassLoader) null)
+    def types = new PersistentHierarchyCache(cacheFile).locate(nextLoader, G.name)
+
+    then:
+    types.get(G.name) == null
+  }
+
+  def "corrupt counts are rejected before anything is allocated"() {
+    setup:
+    def loader = new URLClassLoader([jar.toURI().toURL()] as URL[], (ClassLoader) null)
+    def cache = new PersistentHierarchyCache(cacheFile)
+    matchesA(loader, cache)
+    cache.save()
+    def bytes = cacheFile.bytes
+    def buffer = ByteBuffer.wrap(bytes)
+    // skip the header, the jar's key, size, last modified time and length to its count of types
+    int typesOffset = 12 + 4 + buffer.getInt(12) + 8 + 8 + 4
+    buffer.putInt(typesOffset, Integer.MAX_VALUE)
+    cacheFile.bytes = bytes
+
+    when:
+    def types = new PersistentHierarchyCache(cacheFile).locate(loader, G.name)
+
+    then:
+    types.get(G.name) == null
+
+    when:
+    buffer.putInt(8, Integer.MAX_VALUE)
+    cacheFile.bytes = bytes
+    types = new PersistentHierarchyCache(cacheFile).locate(loader, G.name)
+
+    then:
+    types.get(G.name) == null
+  }
+
+  def "saving leaves no temporary file behind"() {
+    setup:
+    def loader = new URLClassLoader([jar.toURI().toURL()] as URL[], (ClassLoader) null)
+    def cache = new PersistentHierarchyCache(cacheFile)
+    matchesA(loader, cache)
+
+    when:
+    cache.save()
+
+    then:
+    cacheFile.isFile()
+    dir.list().findAll { it.endsWith(".tmp") }.isEmpty()
+  }
+
+  boolean matchesA(ClassLoader loader, PersistentHierarchyCache cache) {
+    def pool = new DDCachingPoolStrategy(true, cache).typePool(locator(loader), loader)
+    return implementsInterface(named(A.name)).matches(pool.describe(UntracedClass.name).resolve())
+  }
+
+  static ClassFileLocator locator(ClassLoader loader) {
+    return ClassFileLocator.ForClassLoader.of(loader)
+  }
+
+  static class CountingClassLoader extends URLClassLoader {
+    final Map<String, Integer> lookups = [:].withDefault { 0 }
+
+    CountingClassLoader(File jar) {
+      super([jar.toURI().toURL()] as URL[], (ClassLoader) null)
+    }
+
+    @Override
+    URL getResource(String name) {
+      if (name.endsWith(".class")) {
+        lookups[name.substring(0, name.length() - 6).replace('/', '.')]++
+      }
+      return super.getResource(name)
+    }
+  }
+
+  void writeJar(Class... excluded) {
+    new JarOutputStream(new FileOutputStream(jar)).withCloseable { out ->
+      TYPES.findAll { !excluded.contains(it) }.each { type ->
+        def resource = type.name.replace('.', '/') + ".class"
+        out.putNextEntry(new JarEntry(resource))
+        out.write(type.classLoader.getResourceAsStream(resource).bytes)
+        out.closeEntry()
+      }
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package datadog.trace.agent.tooling.bytebuddy.matcher
+
+import datadog.trace.test.util.DDSpecification
+import net.bytebuddy.description.type.TypeDescription
+
+import static datadog.trace.agent.tooling.bytebuddy.matcher.GlobalIgnoresMatcher.globalIgnoresMatcher
+
+class GlobalIgnoresMatcherTest extends DDSpecification {
+
+  def "longest matching key wins"() {
+    setup:
+    def trie = new ClassNameTrie.Builder()
+      .put("com.*", 1)
+      .put("com.foo.*", 2)
+      .put("com.foo.Bar", 1)
+      .put("com.foo.Bar*", 4)
+      .put("*", 16)
+      .build()
+
+    expect:
+    trie.apply(name) == expected
+
+    where:
+    name            | expected
+    ""              | 16
+    "org.Foo"       | 16
+    "com"           | 16
+    "com."          | 17
+    "com.Baz"       | 17
+    "com.foo.Baz"   | 18
+    "com.foo.Bar"   | 21
+    "com.foo.Bar\$1" | 22
+  }
+
+  def "test global ignores"() {
+    setup:
+    def matcher = globalIgnoresMatcher(false, [])
+
+    expect:
+    matcher.matches(type(name)) == ignored
+
+    where:
+    name                                                                 | ignored
+    "com.p6spy.engine.spy.P6DataSource"                                  | true
+    "com.sun.net.httpserver.HttpServer"                                  | true
+    "com.sun.messaging.jms.Session"                                      | false
+    "com.sun.jersey.api.client.Client"                                   | false
+    "com.mchange.v2.c3p0.impl.NewProxyConnection"                        | false
+    "com.mchange.v2.c3p0.impl.NewConnectionProxy"                        | true
+    "datadog.trace.api.Config"                                           | true
+    "datadog.trace.bootstrap.instrumentation.java.concurrent.RunnableWrapper" | false
+    "java.lang.String"                                                   | true
+    "java.lang.Throwable"                                                | false
+    "java.util.concurrent.ThreadPoolExecutor"                            | false
+    "java.util.logging.LogManager"                                       | false
+    "java.util.logging.LogManager\$Cleaner"                              | true
+    "sun.rmi.transport.Transport"                                        | false
+    "sun.net.www.http.HttpClient"                                        | false
+    "sun.misc.Unsafe"                                                    | true
+    "org.codehaus.groovy.runtime.InvokerHelper"                          | false
+    "org.apache.log4j.MDC"                                               | false
+    "org.apache.log4j.Logger"                                            | true
+    "org.springframework.core.OverridingClassLoader"                     | true
+    // allowed by the global rules, before the dollar checks
+    "java.util.concurrent.Foo\$fn__1"                                    | false
+    // not decided by the global rules
+    "com.example.Service\$\$EnhancerBySpringCGLIB\$\$1"                  | true
+    "com.example.Service\$fn__1"                                         | true
+    "org.example.asm.Type"                                               | true
+    "com.example.Service"                                                | false
+    // additional library rules
+    "org.springframework.data.Repository"                                | true
+    "org.springframework.data.repository.core.support.RepositoryFactorySupport" | false
+    "org.springframework.boot.web.embedded.tomcat.TomcatWebServer\$1\$2" | false
+    "org.springframework.web.servlet.DispatcherServlet"                  | false
+    "org.springframework.web.bind.WebDataBinder"                         | true
+    "org.springframework.stereotype.Component"                           | true
+    "com.google.common.base.Strings"                                     | true
+    "com.google.common.util.concurrent.AbstractFuture"                   | false
+    "org.h2.Driver"                                                      | false
+    "org.h2.command.Parser"                                              | true
+    "kotlin.collections.CollectionsKt"                                   | true
+    "kotlinx.coroutines.Job"                                             | false
+  }
+
+  def "additional library rules can be skipped"() {
+    setup:
+    def matcher = globalIgnoresMatcher(true, [])
+
+    expect:
+    !matcher.matches(type("com.google.common.base.Strings"))
+    matcher.matches(type("java.lang.String"))
+  }
+
+  def "test configured excludes"() {
+    setup:
+    def matcher = globalIgnoresMatcher(false, ["com.example.Excluded", " java.util.concurrent.*", "org.h2.D*"])
+
+    expect:
+    matcher.matches(type(name)) == ignored
+
+    where:
+    name                                      | ignored
+    "com.example.Excluded"                    | true
+    "com.example.Excluded\$1"                 | false
+    "com.example.Service"                     | false
+    // excludes apply whatever the other rules say
+    "java.util.concurrent.ThreadPoolExecutor" | true
+    "org.h2.Driver"                           | true
+  }
+
+  def "additional library matcher on its own"() {
+    expect:
+    AdditionalLibraryIgnoresMatcher.additionalLibraryIgnoresMatcher().matches(type(name)) == ignored
+
+    where:
+    name                                             | ignored
+    "ch.qos.logback.core.AsyncAppenderBase\$Worker"  | false
+    "ch.qos.logback.core.Appender"                   | true
+    "com.example.Service"                            | false
+    "java.lang.String"                               | false
+  }
+
+  static TypeDescription type(String name) {
+    return new TypeDescription.Latent(name, 0, null)
+  }
+}
@@ -3,6 +3,16 @@ package datadog.trace.agent.tooling.bytebuddy.matcher
 import datadog.trace.test.util.DDSpecification
 import net.bytebuddy.description.NamedElement
 
+import static datadog.trace.agent.tooling.bytebuddy.matcher.DDElementMatchers.failSafe
+import static datadog.trace.agent.tooling.bytebuddy.matcher.DDElementMatchers.safeHasSuperType
+import static datadog.trace.agent.tooling.bytebuddy.matcher.NameMatchers.nameEndsWith
+import static datadog.trace.agent.tooling.bytebuddy.matcher.NameMatchers.nameStartsWith
+import static datadog.trace.agent.tooling.bytebuddy.matcher.NameMatchers.named
+import static datadog.trace.agent.tooling.bytebuddy.matcher.NameMatchers.namedNoneOf
+import static datadog.trace.agent.tooling.bytebuddy.matcher.NameMatchers.namedOneOf
+import static net.bytebuddy.matcher.ElementMatchers.isInterface
+import static net.bytebuddy.matcher.ElementMatchers.not
+
 class NameMatchersTest extends DDSpecification {
 
   def "test namedOneOf"() {
@@ -43,4 +53,23 @@ class NameMatchersTest extends DDSpecification {
     "bar"     | false
     "missing" | true
   }
+
+  def "test indexKeys"() {
+    expect:
+    NameMatchers.indexKeys(matcher) == (keys as String[])
+
+    where:
+    matcher                                                  | keys
+    named("foo")                                             | ["foo"]
+    namedOneOf("foo", "bar")                                 | ["bar", "foo"]
+    nameStartsWith("foo.")                                   | ["foo.*"]
+    failSafe(named("foo"), "")                               | ["foo"]
+    named("foo").or(nameStartsWith("bar."))                  | ["bar.*", "foo"]
+    named("foo").and(not(isInterface()))                     | ["foo"]
+    not(isInterface()).and(namedOneOf("foo", "bar"))         | ["bar", "foo"]
+    named("foo").or(safeHasSuperType(named("bar")))          | null
+    namedNoneOf("foo")                                       | null
+    nameEndsWith("foo")                                      | null
+    not(named("foo"))                                        | null
+  }
 }
@@ -8,6 +8,9 @@ import datadog.trace.test.util.DDSpecification
 import net.bytebuddy.jar.asm.Type
 import spock.lang.Shared
 
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicInteger
+
 import static datadog.trace.agent.tooling.muzzle.Reference.Flag.INTERFACE
 import static datadog.trace.agent.tooling.muzzle.Reference.Flag.NON_INTERFACE
 import static datadog.trace.agent.tooling.muzzle.Reference.Flag.NON_STATIC
@@ -46,6 +49,92 @@ class ReferenceMatcherTest extends DDSpecification {
     getMismatchClassSet(refMatcher.getMismatchedReferenceSources(unsafeClasspath)) == new HashSet<>([MissingClass])
   }
 
+  def "matchers with the same references share their results"() {
+    setup:
+    Reference[] refs = ReferenceCreator.createReferencesFrom(MethodBodyAdvice.getName(), this.getClass().getClassLoader()).values().toArray(new Reference[0])
+    ReferenceMatcher refMatcher1 = new ReferenceMatcher(refs)
+    ReferenceMatcher refMatcher2 = new ReferenceMatcher(refs.reverse() as Reference[])
+    // with every reference to a helper class there is nothing to check
+    ReferenceMatcher refMatcher3 = new ReferenceMatcher(refs*.className as String[], refs)
+
+    expect:
+    refMatcher1.matches(safeClasspath)
+    !refMatcher1.matches(unsafeClasspath)
+    refMatcher2.matches(safeClasspath)
+    refMatcher3.matches(unsafeClasspath)
+    refMatcher1.checkSet.is(refMatcher2.checkSet)
+    !refMatcher1.checkSet.is(refMatcher3.checkSet)
+  }
+
+  def "identical references from different sources are checked once"() {
+    setup:
+    def source1 = new Source("Advice1.java", 1)
+    def source2 = new Source("Advice2.java", 2)
+    Reference ref1 = new Reference.Builder(MethodBodyAdvice.B.getName())
+      .withSource("Advice1.java", 1)
+      .withMethod([source1] as Source[], [] as Flag[], "aMethod", Type.getType(String), Type.getType(String))
+      .build()
+    Reference ref2 = new Reference.Builder(MethodBodyAdvice.B.getName())
+      .withSource("Advice2.java", 2)
+      .withMethod([source2] as Source[], [] as Flag[], "aMethod", Type.getType(String), Type.getType(String))
+      .build()
+
+    expect:
+    ReferenceChecks.checkSet([] as Set, [ref1] as Reference[])
+      .is(ReferenceChecks.checkSet([] as Set, [ref2] as Reference[]))
+  }
+
+  def "references are checked on the calling thread while it holds the classloader's lock"() {
+    setup:
+    def executed = new AtomicInteger()
+    def executor = { Runnable task ->
+      executed.incrementAndGet()
+      new Thread(task).start()
+    } as Executor
+    def executorField = ReferenceChecks.getDeclaredField("executor")
+    def createdField = ReferenceChecks.getDeclaredField("executorCreated")
+    executorField.accessible = true
+    createdField.accessible = true
+    def previousExecutor = executorField.get(null)
+    def previousCreated = createdField.get(null)
+    executorField.set(null, executor)
+    createdField.set(null, true)
+    Reference[] refs = ReferenceCreator.createReferencesFrom(MethodBodyAdvice.getName(), this.getClass().getClassLoader()).values().toArray(new Reference[0])
+    ReferenceMatcher refMatcher = new ReferenceMatcher(refs)
+    ClassLoader locked = newSafeClasspath()
+    boolean matched
+
+    when:
+    synchronized (locked) {
+      matched = refMatcher.matches(locked)
+    }
+
+    then:
+    matched
+    executed.get() == 0
+
+    when: "the lock isn't held"
+    matched = refMatcher.matches(newSafeClasspath())
+
+    then:
+    matched
+    executed.get() > 0
+
+    cleanup:
+    executorField.set(null, previousExecutor)
+    createdField.set(null, previousCreated)
+  }
+
+  private static ClassLoader newSafeClasspath() {
+    return new URLClassLoader([ClasspathUtils.createJarWithClasses(MethodBodyAdvice.A,
+      MethodBodyAdvice.B,
+      MethodBodyAdvice.SomeInterface,
+      MethodBodyAdvice.SkipLevel,
+      MethodBodyAdvice.HasMethod,
+      MethodBodyAdvice.SomeImplementation)] as URL[],
+      (ClassLoader) null)
+  }
+
   def "matching does not hold a strong reference to classloaders"() {
     expect:
     MuzzleWeakReferenceTest.classLoaderRefIsGarbageCollected()
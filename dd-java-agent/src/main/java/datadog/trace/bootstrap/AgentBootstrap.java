@@ -8,6 +8,7 @@ import java.lang.instrument.Instrumentation;
 import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.net.JarURLConnection;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
@@ -80,6 +81,15 @@ public final class AgentBootstrap {
       }
     }
 
+    if (thisClass.getClassLoader() == null) {
+      // The agent jar is already on the bootstrap classpath, added with -Xbootclasspath/a to load
+      // its classes from a class data sharing archive. Appending it again would only stop the JVM
+      // from sharing the classes of the system and platform classloaders.
+      ddJavaAgentJarURL = getBootstrapClassPathJar();
+      checkJarManifestMainClassIsThis(ddJavaAgentJarURL);
+      return ddJavaAgentJarURL;
+    }
+
     System.out.println("Could not get bootstrap jar from code source, using -javaagent arg");
 
     // ManagementFactory indirectly references java.util.logging.LogManager
@@ -163,6 +173,13 @@ public final class AgentBootstrap {
     }
   }
 
+  /** @return the jar this class was loaded from, when it's on the bootstrap classpath */
+  private static URL getBootstrapClassPathJar() throws IOException {
+    final URL classFile =
+        ClassLoader.getSystemResource(thisClass.getName().replace('.', '/') + ".class");
+    return ((JarURLConnection) classFile.openConnection()).getJarFileURL();
+  }
+
   private static boolean checkJarManifestMainClassIsThis(final URL jarUrl) throws IOException {
     final URL manifestUrl = new URL("jar:" + jarUrl + "!/META-INF/MANIFEST.MF");
     final String mainClassLine = "Main-Class: " + thisClass.getCanonicalName();
@@ -190,6 +207,10 @@ public final class AgentBootstrap {
    * @param args command line agruments
    */
   public static void main(final String... args) {
+    if (args.length > 0 && "--cds-training".equals(args[0])) {
+      loadAgentClasses();
+      return;
+    }
     try {
       System.out.println(getAgentVersion());
     } catch (final Exception e) {
@@ -198,6 +219,34 @@ public final class AgentBootstrap {
     }
   }
 
+  /**
+   * Loads the agent's classes without starting it, for a JVM to archive at exit. The agent jar must
+   * be on the bootstrap classpath and the application classpath left empty, so the archive can be
+   * used by any application:
+   *
+   * <pre>
+   * java -Xbootclasspath/a:dd-java-agent.jar -XX:ArchiveClassesAtExit=dd-java-agent.jsa \
+   *   datadog.trace.bootstrap.AgentBootstrap --cds-training
+   * </pre>
+   *
+   * <p>Applications then use it with {@code -XX:SharedArchiveFile=dd-java-agent.jsa} and the same
+   * {@code -Xbootclasspath/a} next to {@code -javaagent}. Requires Java 13 or later.
+   */
+  private static void loadAgentClasses() {
+    try {
+      final URL ddJavaAgentJarURL = getBootstrapClassPathJar();
+      checkJarManifestMainClassIsThis(ddJavaAgentJarURL);
+
+      final Class<?> agentClass =
+          ClassLoader.getSystemClassLoader().loadClass("datadog.trace.bootstrap.Agent");
+      final Method loadMethod = agentClass.getMethod("loadAgentClasses", URL.class);
+      loadMethod.invoke(null, ddJavaAgentJarURL);
+    } catch (final Throwable ex) {
+      System.err.println("ERROR " + thisClass.getName());
+      ex.printStackTrace();
+    }
+  }
+
   /**
    * Read version file out of the agent jar.
    *
@@ -40,10 +40,23 @@ public final class ConfigDefaults {
   static final boolean DEFAULT_DB_CLIENT_HOST_SPLIT_BY_INSTANCE = false;
   static final int DEFAULT_SCOPE_DEPTH_LIMIT = 100;
   static final int DEFAULT_PARTIAL_FLUSH_MIN_SPANS = 1000;
+  static final boolean DEFAULT_SPAN_STREAMING_ENABLED = false;
+  static final int DEFAULT_SPAN_STREAMING_CHUNK_SIZE = 64;
   static final String DEFAULT_PROPAGATION_STYLE_EXTRACT = PropagationStyle.DATADOG.name();
   static final String DEFAULT_PROPAGATION_STYLE_INJECT = PropagationStyle.DATADOG.name();
   static final boolean DEFAULT_JMX_FETCH_ENABLED = true;
   static final boolean DEFAULT_TRACE_AGENT_V05_ENABLED = false;
+  static final int DEFAULT_TRACE_SERIALIZATION_SHARDS = 1;
+  static final int DEFAULT_TRACE_SERIALIZATION_BUFFERS = 2;
+  static final boolean DEFAULT_TRACE_SERIALIZATION_DIRECT_BUFFERS = false;
+  static final boolean DEFAULT_TRACE_SPAN_RECYCLING_ENABLED = false;
+  static final int DEFAULT_TRACE_SPOOL_MAX_SIZE = 64 << 20; // bytes
+  static final int DEFAULT_TRACE_SPOOL_MAX_AGE = 600; // seconds
+  static final boolean DEFAULT_TRACE_ADAPTIVE_FLUSH_ENABLED = false;
+  static final boolean DEFAULT_TRACE_TAIL_SAMPLING_ENABLED = false;
+  static final int DEFAULT_TRACE_TAIL_SAMPLING_LATENCY_THRESHOLD = 1000; // milliseconds
+  static final int DEFAULT_TRACE_TAIL_SAMPLING_BASELINE_RATE = 10; // traces per second
+  static final int DEFAULT_TRACE_TAIL_SAMPLING_BUFFER_SIZE = 1024; // trace chunks
 
   static final int DEFAULT_JMX_FETCH_STATSD_PORT = 8125;
 
@@ -53,6 +53,8 @@ public final class TraceInstrumentationConfig {
   public static final String TEMP_JARS_CLEAN_ON_BOOT = "temp.jars.clean.on.boot";
 
   public static final String RESOLVER_USE_LOADCLASS = "resolver.use.loadclass";
+  public static final String RESOLVER_CACHE_DIR = "resolver.cache.dir";
+  public static final String MUZZLE_THREADS = "muzzle.threads";
 
   private TraceInstrumentationConfig() {}
 }
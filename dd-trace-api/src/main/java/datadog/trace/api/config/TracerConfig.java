@@ -31,6 +31,10 @@ public final class TracerConfig {
   public static final String TRACE_ANALYTICS_ENABLED = "trace.analytics.enabled";
   public static final String TRACE_SAMPLING_SERVICE_RULES = "trace.sampling.service.rules";
   public static final String TRACE_SAMPLING_OPERATION_RULES = "trace.sampling.operation.rules";
+  public static final String TRACE_SAMPLING_SERVICE_RULE_LIMITS =
+      "trace.sampling.service.rule.limits";
+  public static final String TRACE_SAMPLING_OPERATION_RULE_LIMITS =
+      "trace.sampling.operation.rule.limits";
   public static final String TRACE_SAMPLE_RATE = "trace.sample.rate";
   public static final String TRACE_RATE_LIMIT = "trace.rate.limit";
   public static final String TRACE_REPORT_HOSTNAME = "trace.report-hostname";
@@ -46,10 +50,34 @@ public final class TracerConfig {
       "trace.scope.inherit.async.propagation";
   public static final String PARTIAL_FLUSH_MIN_SPANS = "trace.partial.flush.min.spans";
   public static final String TRACE_STRICT_WRITES_ENABLED = "trace.strict.writes.enabled";
+  public static final String SPAN_STREAMING_ENABLED = "trace.span.streaming.enabled";
+  public static final String SPAN_STREAMING_CHUNK_SIZE = "trace.span.streaming.chunk.size";
   public static final String PROPAGATION_STYLE_EXTRACT = "propagation.style.extract";
   public static final String PROPAGATION_STYLE_INJECT = "propagation.style.inject";
 
   public static final String ENABLE_TRACE_AGENT_V05 = "trace.agent.v0.5.enabled";
+  public static final String TRACE_SERIALIZATION_SHARDS = "trace.serialization.shards";
+  /**
+   * The number of buffers each serialization shard fills while earlier payloads are sent from a
+   * separate thread. With 1 or less, payloads are sent synchronously from a single reused buffer.
+   */
+  public static final String TRACE_SERIALIZATION_BUFFERS = "trace.serialization.buffers";
+
+  public static final String TRACE_SERIALIZATION_DIRECT_BUFFERS =
+      "trace.serialization.direct.buffers";
+  public static final String TRACE_SPAN_RECYCLING_ENABLED = "trace.span.recycling.enabled";
+  public static final String TRACE_SPOOL_DIR = "trace.spool.dir";
+  public static final String TRACE_SPOOL_MAX_SIZE = "trace.spool.max.size";
+  public static final String TRACE_SPOOL_MAX_AGE = "trace.spool.max.age";
+  public static final String TRACE_ADAPTIVE_FLUSH_ENABLED = "trace.adaptive.flush.enabled";
+  public static final String TRACE_AGENT_COMPRESSION = "trace.agent.compression";
+  public static final String TRACE_TAIL_SAMPLING_ENABLED = "trace.tail.sampling.enabled";
+  public static final String TRACE_TAIL_SAMPLING_LATENCY_THRESHOLD =
+      "trace.tail.sampling.latency.threshold";
+  public static final String TRACE_TAIL_SAMPLING_TAGS = "trace.tail.sampling.tags";
+  public static final String TRACE_TAIL_SAMPLING_BASELINE_RATE =
+      "trace.tail.sampling.baseline.rate";
+  public static final String TRACE_TAIL_SAMPLING_BUFFER_SIZE = "trace.tail.sampling.buffer.size";
 
   private TracerConfig() {}
 }
@@ -0,0 +1,137 @@
+package datadog.trace.common.metrics;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import datadog.trace.common.writer.ListWriter;
+import datadog.trace.core.CoreSpan;
+import datadog.trace.core.CoreTracer;
+import datadog.trace.core.DDSpan;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Publishes top level spans to a {@link ConflatingMetricsAggregator} from 1 to 32 threads. The
+ * spans cycle through {@code keyCount} distinct aggregation keys, so once every key has been seen
+ * publishing only adds durations to the pending batches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConflatingMetricsAggregatorBenchmark {
+
+  @Param({"64"})
+  int keyCount;
+
+  ConflatingMetricsAggregator aggregator;
+  List<List<DDSpan>> traces;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    CoreTracer tracer = CoreTracer.builder().writer(new ListWriter()).build();
+    traces = new ArrayList<>(keyCount);
+    for (int i = 0; i < keyCount; ++i) {
+      DDSpan span =
+          (DDSpan)
+              tracer
+                  .buildSpan("operation")
+                  .withServiceName("service" + (i % 4))
+                  .withResourceName("resource" + i)
+                  .withSpanType("web")
+                  .start();
+      span.finish();
+      traces.add(Collections.singletonList(span));
+    }
+    aggregator =
+        new ConflatingMetricsAggregator(
+            new NullSink(), new NullMetricWriter(), 1000, 2048, 1, SECONDS);
+    aggregator.start();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    aggregator.close();
+  }
+
+  @State(Scope.Thread)
+  public static class Publisher {
+    int next;
+
+    List<? extends CoreSpan<?>> nextTrace(ConflatingMetricsAggregatorBenchmark benchmark) {
+      List<DDSpan> trace = benchmark.traces.get(next);
+      next = (next + 1) % benchmark.keyCount;
+      return trace;
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean publish1(Publisher publisher) {
+    return aggregator.publish(publisher.nextTrace(this));
+  }
+
+  @Benchmark
+  @Threads(2)
+  public boolean publish2(Publisher publisher) {
+    return aggregator.publish(publisher.nextTrace(this));
+  }
+
+  @Benchmark
+  @Threads(4)
+  public boolean publish4(Publisher publisher) {
+    return aggregator.publish(publisher.nextTrace(this));
+  }
+
+  @Benchmark
+  @Threads(8)
+  public boolean publish8(Publisher publisher) {
+    return aggregator.publish(publisher.nextTrace(this));
+  }
+
+  @Benchmark
+  @Threads(16)
+  public boolean publish16(Publisher publisher) {
+    return aggregator.publish(publisher.nextTrace(this));
+  }
+
+  @Benchmark
+  @Threads(32)
+  public boolean publish32(Publisher publisher) {
+    return aggregator.publish(publisher.nextTrace(this));
+  }
+
+  static final class NullSink implements Sink {
+    @Override
+    public void register(EventListener listener) {}
+
+    @Override
+    public void accept(int messageCount, ByteBuffer buffer) {}
+  }
+
+  static final class NullMetricWriter implements MetricWriter {
+    @Override
+    public void startBucket(int metricCount, long start, long duration) {}
+
+    @Override
+    public void add(MetricKey key, AggregateMetric aggregate) {}
+
+    @Override
+    public void finishBucket() {}
+
+    @Override
+    public void reset() {}
+  }
+}
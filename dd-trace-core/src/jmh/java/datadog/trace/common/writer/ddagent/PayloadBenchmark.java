@@ -0,0 +1,98 @@
+package datadog.trace.common.writer.ddagent;
+
+import datadog.trace.bootstrap.instrumentation.api.AgentSpan;
+import datadog.trace.common.writer.ListWriter;
+import datadog.trace.core.CoreTracer;
+import datadog.trace.core.DDSpan;
+import datadog.trace.core.serialization.GrowableBuffer;
+import datadog.trace.core.serialization.msgpack.MsgPackWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Builds a payload of {@code traceCount} traces of 10 spans each, then resets the mapper as the
+ * dispatcher does once the payload has been handed over to be sent. The same traces are written
+ * to every payload, so for v0.5 this measures how much of the string dictionary has to be built
+ * again for each payload.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PayloadBenchmark {
+
+  private static final int SPANS_PER_TRACE = 10;
+
+  @Param({"v0.4", "v0.5"})
+  String endpoint;
+
+  @Param({"1000"})
+  int traceCount;
+
+  List<List<DDSpan>> traces;
+  TraceMapper mapper;
+  GrowableBuffer buffer;
+  MsgPackWriter writer;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    CoreTracer tracer = CoreTracer.builder().writer(new ListWriter()).build();
+    String[] resources = new String[SPANS_PER_TRACE];
+    for (int i = 0; i < resources.length; ++i) {
+      resources[i] = "SELECT * FROM table" + i;
+    }
+    traces = new ArrayList<>(traceCount);
+    for (int i = 0; i < traceCount; ++i) {
+      List<DDSpan> trace = new ArrayList<>(SPANS_PER_TRACE);
+      AgentSpan root = tracer.buildSpan("servlet.request").withResourceName("GET /").start();
+      trace.add(tag((DDSpan) root));
+      for (int j = 1; j < SPANS_PER_TRACE; ++j) {
+        trace.add(
+            tag(
+                (DDSpan)
+                    tracer
+                        .buildSpan("jdbc.query")
+                        .asChildOf(root.context())
+                        .withResourceName(resources[j])
+                        .withSpanType("sql")
+                        .start()));
+      }
+      for (DDSpan span : trace) {
+        span.finish();
+      }
+      traces.add(trace);
+    }
+    mapper = "v0.5".equals(endpoint) ? new TraceMapperV0_5() : new TraceMapperV0_4();
+    buffer = new GrowableBuffer(mapper.messageBufferSize());
+    writer = new MsgPackWriter(buffer);
+  }
+
+  @Benchmark
+  public Payload buildPayload() {
+    for (List<DDSpan> trace : traces) {
+      writer.format(trace, mapper);
+    }
+    Payload payload = mapper.newPayload().withBody(buffer.messageCount(), buffer.slice());
+    mapper.reset();
+    buffer.reset();
+    return payload;
+  }
+
+  private static DDSpan tag(DDSpan span) {
+    span.setTag("component", "benchmark");
+    span.setTag("http.method", "GET");
+    span.setTag("http.status_code", 200);
+    span.setTag("peer.port", 5432);
+    span.setMetric("_dd.agent_psr", 1.0d);
+    return span;
+  }
+}
@@ -0,0 +1,91 @@
+package datadog.trace.common.writer.ddagent;
+
+import datadog.trace.bootstrap.instrumentation.api.AgentSpan;
+import datadog.trace.common.writer.ListWriter;
+import datadog.trace.core.CoreTracer;
+import datadog.trace.core.DDSpan;
+import datadog.trace.core.serialization.ByteBufferConsumer;
+import datadog.trace.core.serialization.FlushingBuffer;
+import datadog.trace.core.serialization.msgpack.MsgPackWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Serializes a finished trace of {@code spanCount} tagged spans with the v0.4 and v0.5 {@link
+ * TraceMapper}s, as the serializing thread does. The buffer is flushed and the mapper reset
+ * whenever the buffer fills up, which for v0.5 includes clearing the string dictionary. Each
+ * serializing thread has its own mapper and buffer, so this is only run single-threaded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TraceMapperBenchmark {
+
+  @Param({"v0.4", "v0.5"})
+  String endpoint;
+
+  @Param({"1", "10"})
+  int spanCount;
+
+  List<DDSpan> trace;
+  TraceMapper mapper;
+  MsgPackWriter writer;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    CoreTracer tracer = CoreTracer.builder().writer(new ListWriter()).build();
+    trace = new ArrayList<>(spanCount);
+    AgentSpan root = tracer.buildSpan("servlet.request").withResourceName("GET /").start();
+    trace.add(tag((DDSpan) root));
+    for (int i = 1; i < spanCount; ++i) {
+      trace.add(
+          tag(
+              (DDSpan)
+                  tracer
+                      .buildSpan("jdbc.query")
+                      .asChildOf(root.context())
+                      .withResourceName("SELECT * FROM table" + i)
+                      .withSpanType("sql")
+                      .start()));
+    }
+    for (DDSpan span : trace) {
+      span.finish();
+    }
+    mapper = "v0.5".equals(endpoint) ? new TraceMapperV0_5() : new TraceMapperV0_4();
+    writer =
+        new MsgPackWriter(
+            new FlushingBuffer(
+                mapper.messageBufferSize(),
+                new ByteBufferConsumer() {
+                  @Override
+                  public void accept(int messageCount, ByteBuffer buffer) {
+                    mapper.reset();
+                  }
+                }));
+  }
+
+  @Benchmark
+  public boolean serialize() {
+    return writer.format(trace, mapper);
+  }
+
+  private static DDSpan tag(DDSpan span) {
+    span.setTag("component", "benchmark");
+    span.setTag("http.method", "GET");
+    span.setTag("http.status_code", 200);
+    span.setTag("peer.port", 5432);
+    span.setMetric("_dd.agent_psr", 1.0d);
+    return span;
+  }
+}
@@ -0,0 +1,90 @@
+package datadog.trace.core;
+
+import datadog.trace.bootstrap.instrumentation.api.AgentSpan;
+import datadog.trace.common.writer.BlackholeWriter;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Starts root and child spans through {@link CoreTracer.CoreSpanBuilder} from 1 and 8 threads. The
+ * spans are never finished, so this only measures span creation. Run with {@code -prof gc} to see
+ * the bytes allocated per span.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CoreSpanBuilderBenchmark {
+
+  CoreTracer tracer;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    tracer = CoreTracer.builder().writer(new BlackholeWriter()).build();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    tracer.close();
+  }
+
+  @State(Scope.Thread)
+  public static class Parent {
+    AgentSpan span;
+
+    @Setup(Level.Iteration)
+    public void setup(CoreSpanBuilderBenchmark benchmark) {
+      span = benchmark.rootSpan();
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public AgentSpan rootSpan1() {
+    return rootSpan();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public AgentSpan rootSpan8() {
+    return rootSpan();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public AgentSpan childSpan1(Parent parent) {
+    return childSpan(parent.span);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public AgentSpan childSpan8(Parent parent) {
+    return childSpan(parent.span);
+  }
+
+  AgentSpan rootSpan() {
+    return tracer
+        .buildSpan("operation")
+        .withServiceName("service")
+        .withResourceName("resource")
+        .withSpanType("web")
+        .start();
+  }
+
+  private AgentSpan childSpan(AgentSpan parent) {
+    return tracer
+        .buildSpan("child")
+        .asChildOf(parent.context())
+        .withResourceName("resource")
+        .ignoreActiveSpan()
+        .start();
+  }
+}
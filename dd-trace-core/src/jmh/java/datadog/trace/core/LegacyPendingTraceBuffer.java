@@ -0,0 +1,89 @@
+package datadog.trace.core;
+
+import static datadog.trace.util.AgentThreadFactory.AgentThread.TRACE_MONITOR;
+import static datadog.trace.util.AgentThreadFactory.THREAD_JOIN_TIMOUT_MS;
+import static datadog.trace.util.AgentThreadFactory.newAgentThread;
+
+import java.util.concurrent.TimeUnit;
+import org.jctools.queues.MessagePassingQueue;
+import org.jctools.queues.MpscBlockingConsumerArrayQueue;
+
+/**
+ * The requeue and sleep implementation {@link PendingTraceBuffer} used before the timer wheel, kept
+ * as a baseline for {@link PendingTraceBufferBenchmark}.
+ */
+public class LegacyPendingTraceBuffer extends PendingTraceBuffer {
+  private static final long FORCE_SEND_DELAY_MS = TimeUnit.SECONDS.toMillis(5);
+  private static final long SEND_DELAY_NS = TimeUnit.MILLISECONDS.toNanos(500);
+  private static final long SLEEP_TIME_MS = 100;
+
+  private final MpscBlockingConsumerArrayQueue<Element> queue;
+  private final Thread worker;
+
+  private volatile boolean closed = false;
+
+  public LegacyPendingTraceBuffer(int bufferSize) {
+    this.queue = new MpscBlockingConsumerArrayQueue<>(bufferSize);
+    this.worker = newAgentThread(TRACE_MONITOR, new Worker());
+  }
+
+  @Override
+  public void enqueue(Element pendingTrace) {
+    if (!queue.offer(pendingTrace)) {
+      pendingTrace.write();
+    }
+  }
+
+  @Override
+  public void start() {
+    worker.start();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    worker.interrupt();
+    try {
+      worker.join(THREAD_JOIN_TIMOUT_MS);
+    } catch (InterruptedException ignored) {
+    }
+    queue.drain(
+        new MessagePassingQueue.Consumer<Element>() {
+          @Override
+          public void accept(Element pendingTrace) {
+            pendingTrace.write();
+          }
+        });
+  }
+
+  @Override
+  public void flush() {}
+
+  private final class Worker implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        while (!closed && !Thread.currentThread().isInterrupted()) {
+          Element pendingTrace = queue.take();
+
+          long finishTimestampMillis =
+              TimeUnit.NANOSECONDS.toMillis(pendingTrace.oldestFinishedTime());
+          if (finishTimestampMillis <= System.currentTimeMillis() - FORCE_SEND_DELAY_MS) {
+            pendingTrace.write();
+            continue;
+          }
+
+          if (pendingTrace.lastReferencedNanosAgo(SEND_DELAY_NS)) {
+            pendingTrace.write();
+          } else {
+            enqueue(pendingTrace);
+            Thread.sleep(SLEEP_TIME_MS);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
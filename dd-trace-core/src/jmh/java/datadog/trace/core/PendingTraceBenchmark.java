@@ -0,0 +1,63 @@
+package datadog.trace.core;
+
+import datadog.trace.bootstrap.instrumentation.api.AgentSpan;
+import datadog.trace.common.writer.BlackholeWriter;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Starts a root span with {@code spanCount - 1} children and finishes them all, from 1 and 8
+ * threads. Finishing the root span completes the {@link PendingTrace}, which writes it to a writer
+ * which discards it, so this measures span creation, finishing and trace completion.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PendingTraceBenchmark {
+
+  @Param({"1", "10"})
+  int spanCount;
+
+  CoreTracer tracer;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    tracer = CoreTracer.builder().writer(new BlackholeWriter()).build();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    tracer.close();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public AgentSpan finishTrace1() {
+    return finishTrace();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public AgentSpan finishTrace8() {
+    return finishTrace();
+  }
+
+  private AgentSpan finishTrace() {
+    AgentSpan root = tracer.buildSpan("root").withResourceName("resource").start();
+    for (int i = 1; i < spanCount; ++i) {
+      tracer.buildSpan("child").asChildOf(root.context()).ignoreActiveSpan().start().finish();
+    }
+    root.finish();
+    return root;
+  }
+}
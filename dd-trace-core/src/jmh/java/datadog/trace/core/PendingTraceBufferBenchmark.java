@@ -0,0 +1,127 @@
+package datadog.trace.core;
+
+import datadog.trace.core.util.Clock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Enqueues traces with a pending continuation into a {@link PendingTraceBuffer} at a fixed rate
+ * (100k traces/s by default) and counts how many were written by the buffer's worker once their
+ * send delay expired, and how many were written inline by the producer because the buffer was full.
+ * The legacy buffer requeues traces which are too new and sleeps, so at high rates it falls behind
+ * and overflows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PendingTraceBufferBenchmark {
+
+  @Param({"timerWheel", "legacy"})
+  String buffer;
+
+  @Param({"100000"})
+  int tracesPerSecond;
+
+  PendingTraceBuffer pendingTraceBuffer;
+  long intervalNanos;
+  final AtomicLong delayedWrites = new AtomicLong();
+  final AtomicLong inlineWrites = new AtomicLong();
+
+  @Setup(Level.Trial)
+  public void setup() {
+    pendingTraceBuffer =
+        "legacy".equals(buffer)
+            ? new LegacyPendingTraceBuffer(1 << 12)
+            : PendingTraceBuffer.delaying();
+    pendingTraceBuffer.start();
+    intervalNanos = TimeUnit.SECONDS.toNanos(1) / tracesPerSecond;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    pendingTraceBuffer.close();
+  }
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Writes {
+    private long delayedStart;
+    private long inlineStart;
+    private PendingTraceBufferBenchmark benchmark;
+    private long nextEnqueue;
+
+    @Setup(Level.Iteration)
+    public void setup(PendingTraceBufferBenchmark benchmark) {
+      this.benchmark = benchmark;
+      this.delayedStart = benchmark.delayedWrites.get();
+      this.inlineStart = benchmark.inlineWrites.get();
+      this.nextEnqueue = Clock.currentNanoTicks();
+    }
+
+    public long delayed() {
+      return null == benchmark ? 0 : benchmark.delayedWrites.get() - delayedStart;
+    }
+
+    public long inline() {
+      return null == benchmark ? 0 : benchmark.inlineWrites.get() - inlineStart;
+    }
+  }
+
+  @Benchmark
+  public void enqueue(Writes writes) {
+    // pace the producer to the configured rate
+    long now;
+    while ((now = Clock.currentNanoTicks()) < writes.nextEnqueue) {
+      Thread.yield();
+    }
+    writes.nextEnqueue = Math.max(writes.nextEnqueue + intervalNanos, now - intervalNanos);
+    pendingTraceBuffer.enqueue(new Trace(Thread.currentThread(), this));
+  }
+
+  static final class Trace implements PendingTraceBuffer.Element {
+    private final Thread producer;
+    private final PendingTraceBufferBenchmark benchmark;
+    private final long lastReferenced = Clock.currentNanoTicks();
+    private final long oldestFinishedTime = Clock.currentNanoTime();
+
+    Trace(Thread producer, PendingTraceBufferBenchmark benchmark) {
+      this.producer = producer;
+      this.benchmark = benchmark;
+    }
+
+    @Override
+    public long oldestFinishedTime() {
+      return oldestFinishedTime;
+    }
+
+    @Override
+    public long lastReferenced() {
+      return lastReferenced;
+    }
+
+    @Override
+    public boolean lastReferencedNanosAgo(long nanos) {
+      return nanos < Clock.currentNanoTicks() - lastReferenced;
+    }
+
+    @Override
+    public void write() {
+      if (Thread.currentThread() == producer) {
+        benchmark.inlineWrites.incrementAndGet();
+      } else {
+        benchmark.delayedWrites.incrementAndGet();
+      }
+    }
+  }
+}
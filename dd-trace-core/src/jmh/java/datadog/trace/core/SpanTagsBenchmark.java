@@ -0,0 +1,91 @@
+package datadog.trace.core;
+
+import datadog.trace.common.writer.ListWriter;
+import datadog.trace.common.writer.ddagent.TraceMapper;
+import datadog.trace.common.writer.ddagent.TraceMapperV0_4;
+import datadog.trace.common.writer.ddagent.TraceMapperV0_5;
+import datadog.trace.core.serialization.ByteBufferConsumer;
+import datadog.trace.core.serialization.FlushingBuffer;
+import datadog.trace.core.serialization.msgpack.MsgPackWriter;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Tags spans with a typical mix of string and numeric tags and metrics, and serializes a tagged
+ * span. Run with {@code -prof gc} to see the bytes allocated per span, which for serialization
+ * should be close to zero.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SpanTagsBenchmark {
+
+  @Param({"v0.4", "v0.5"})
+  String endpoint;
+
+  CoreTracer tracer;
+  List<DDSpan> trace;
+  TraceMapper mapper;
+  MsgPackWriter writer;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    tracer = CoreTracer.builder().writer(new ListWriter()).build();
+    trace = Collections.singletonList(tag(newSpan()));
+    mapper = "v0.5".equals(endpoint) ? new TraceMapperV0_5() : new TraceMapperV0_4();
+    writer =
+        new MsgPackWriter(
+            new FlushingBuffer(
+                mapper.messageBufferSize(),
+                new ByteBufferConsumer() {
+                  @Override
+                  public void accept(int messageCount, ByteBuffer buffer) {
+                    mapper.reset();
+                  }
+                }));
+  }
+
+  @Benchmark
+  public DDSpan tagSpan() {
+    return tag(newSpan());
+  }
+
+  @Benchmark
+  public boolean serialize() {
+    return writer.format(trace, mapper);
+  }
+
+  private DDSpan newSpan() {
+    return (DDSpan)
+        tracer
+            .buildSpan("operation")
+            .withServiceName("service")
+            .withResourceName("resource")
+            .withSpanType("web")
+            .start();
+  }
+
+  private static DDSpan tag(DDSpan span) {
+    span.setTag("component", "benchmark");
+    span.setTag("http.method", "GET");
+    span.setTag("http.status_code", 200);
+    span.setTag("peer.port", 8080);
+    span.setTag("db.row_count", 1000L);
+    span.setTag("ratio", 0.5d);
+    span.setMetric("_dd.agent_psr", 1.0d);
+    span.setMetric("_dd.limit_psr", 0.75d);
+    span.setMetric("retries", 3);
+    return span;
+  }
+}
@@ -0,0 +1,123 @@
+package datadog.trace.core.propagation;
+
+import datadog.trace.bootstrap.instrumentation.api.AgentPropagation;
+import datadog.trace.common.writer.BlackholeWriter;
+import datadog.trace.core.CoreTracer;
+import datadog.trace.core.DDSpanContext;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Injects a span context into, and extracts it from, a map of headers for each propagation style,
+ * from 1 and 8 threads. The headers extracted from also contain a few unrelated headers, which the
+ * extractors have to skip.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HttpCodecBenchmark {
+
+  @Param({"datadog", "b3", "haystack"})
+  String style;
+
+  CoreTracer tracer;
+  DDSpanContext context;
+  HttpCodec.Injector injector;
+  HttpCodec.Extractor extractor;
+  Map<String, String> headers;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    tracer = CoreTracer.builder().writer(new BlackholeWriter()).build();
+    context = (DDSpanContext) tracer.buildSpan("operation").start().context();
+    Map<String, String> tagMapping = Collections.emptyMap();
+    switch (style) {
+      case "b3":
+        injector = new B3HttpCodec.Injector();
+        extractor = B3HttpCodec.newExtractor(tagMapping);
+        break;
+      case "haystack":
+        injector = new HaystackHttpCodec.Injector();
+        extractor = HaystackHttpCodec.newExtractor(tagMapping);
+        break;
+      default:
+        injector = new DatadogHttpCodec.Injector();
+        extractor = DatadogHttpCodec.newExtractor(tagMapping);
+    }
+    headers = new HashMap<>();
+    headers.put("accept", "*/*");
+    headers.put("user-agent", "benchmark");
+    headers.put("host", "localhost:8080");
+    injector.inject(context, headers, MapSetter.INSTANCE);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    tracer.close();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Map<String, String> inject1() {
+    return inject();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public Map<String, String> inject8() {
+    return inject();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public TagContext extract1() {
+    return extractor.extract(headers, MapVisitor.INSTANCE);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public TagContext extract8() {
+    return extractor.extract(headers, MapVisitor.INSTANCE);
+  }
+
+  private Map<String, String> inject() {
+    Map<String, String> carrier = new HashMap<>();
+    injector.inject(context, carrier, MapSetter.INSTANCE);
+    return carrier;
+  }
+
+  enum MapSetter implements AgentPropagation.Setter<Map<String, String>> {
+    INSTANCE;
+
+    @Override
+    public void set(Map<String, String> carrier, String key, String value) {
+      carrier.put(key, value);
+    }
+  }
+
+  enum MapVisitor implements AgentPropagation.ContextVisitor<Map<String, String>> {
+    INSTANCE;
+
+    @Override
+    public void forEachKey(Map<String, String> carrier, AgentPropagation.KeyClassifier classifier) {
+      for (Map.Entry<String, String> entry : carrier.entrySet()) {
+        if (!classifier.accept(entry.getKey(), entry.getValue())) {
+          return;
+        }
+      }
+    }
+  }
+}
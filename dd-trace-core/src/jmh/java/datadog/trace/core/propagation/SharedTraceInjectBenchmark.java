@@ -0,0 +1,84 @@
+package datadog.trace.core.propagation;
+
+import datadog.trace.api.sampling.PrioritySampling;
+import datadog.trace.bootstrap.instrumentation.api.AgentSpan;
+import datadog.trace.common.writer.BlackholeWriter;
+import datadog.trace.core.CoreTracer;
+import datadog.trace.core.DDSpanContext;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Injects the contexts of sibling spans of one trace from 1 and 8 threads, each thread injecting
+ * its own span, as a service fanning a request out to downstream services does. Injection reads and
+ * locks the trace's sampling priority, which all the spans share.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SharedTraceInjectBenchmark {
+
+  CoreTracer tracer;
+  AgentSpan root;
+  HttpCodec.Injector injector;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    tracer = CoreTracer.builder().writer(new BlackholeWriter()).build();
+    root = tracer.buildSpan("root").start();
+    root.setSamplingPriority(PrioritySampling.SAMPLER_KEEP);
+    injector = new DatadogHttpCodec.Injector();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    root.finish();
+    tracer.close();
+  }
+
+  @State(Scope.Thread)
+  public static class Child {
+    DDSpanContext context;
+
+    @Setup(Level.Trial)
+    public void setup(SharedTraceInjectBenchmark benchmark) {
+      context =
+          (DDSpanContext)
+              benchmark
+                  .tracer
+                  .buildSpan("child")
+                  .asChildOf(benchmark.root.context())
+                  .start()
+                  .context();
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Map<String, String> inject1(Child child) {
+    return inject(child);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public Map<String, String> inject8(Child child) {
+    return inject(child);
+  }
+
+  private Map<String, String> inject(Child child) {
+    Map<String, String> carrier = new HashMap<>();
+    injector.inject(child.context, carrier, HttpCodecBenchmark.MapSetter.INSTANCE);
+    return carrier;
+  }
+}
@@ -0,0 +1,127 @@
+package datadog.trace.core.scopemanager;
+
+import datadog.trace.bootstrap.instrumentation.api.AgentScope;
+import datadog.trace.bootstrap.instrumentation.api.AgentSpan;
+import datadog.trace.bootstrap.instrumentation.api.ScopeSource;
+import datadog.trace.common.writer.BlackholeWriter;
+import datadog.trace.context.TraceScope;
+import datadog.trace.core.CoreTracer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Activates and closes scopes in the {@link ContinuableScopeManager} from 1 and 8 threads: a single
+ * scope, a stack of nested scopes, and a continuation which is captured and then activated, as
+ * happens when work is handed over to another thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ScopeManagerBenchmark {
+
+  private static final int DEPTH = 4;
+
+  CoreTracer tracer;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    tracer = CoreTracer.builder().writer(new BlackholeWriter()).build();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    tracer.close();
+  }
+
+  @State(Scope.Thread)
+  public static class Spans {
+    AgentSpan[] spans;
+
+    @Setup(Level.Iteration)
+    public void setup(ScopeManagerBenchmark benchmark) {
+      spans = new AgentSpan[DEPTH];
+      spans[0] = benchmark.tracer.buildSpan("root").start();
+      for (int i = 1; i < DEPTH; ++i) {
+        spans[i] =
+            benchmark
+                .tracer
+                .buildSpan("child")
+                .asChildOf(spans[i - 1].context())
+                .ignoreActiveSpan()
+                .start();
+      }
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public AgentSpan activate1(Spans spans) {
+    return activate(spans.spans[0]);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public AgentSpan activate8(Spans spans) {
+    return activate(spans.spans[0]);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public AgentSpan activateNested1(Spans spans) {
+    return activateNested(spans.spans);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public AgentSpan activateNested8(Spans spans) {
+    return activateNested(spans.spans);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public AgentSpan continuation1(Spans spans) {
+    return continuation(spans.spans[0]);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public AgentSpan continuation8(Spans spans) {
+    return continuation(spans.spans[0]);
+  }
+
+  private AgentSpan activate(AgentSpan span) {
+    AgentScope scope = tracer.activateSpan(span);
+    AgentSpan active = tracer.activeSpan();
+    scope.close();
+    return active;
+  }
+
+  private AgentSpan activateNested(AgentSpan[] spans) {
+    AgentScope[] scopes = new AgentScope[DEPTH];
+    for (int i = 0; i < DEPTH; ++i) {
+      scopes[i] = tracer.activateSpan(spans[i]);
+    }
+    AgentSpan active = tracer.activeSpan();
+    for (int i = DEPTH - 1; i >= 0; --i) {
+      scopes[i].close();
+    }
+    return active;
+  }
+
+  private AgentSpan continuation(AgentSpan span) {
+    TraceScope.Continuation continuation = tracer.captureSpan(span, ScopeSource.INSTRUMENTATION);
+    TraceScope scope = continuation.activate();
+    AgentSpan active = tracer.activeSpan();
+    scope.close();
+    return active;
+  }
+}
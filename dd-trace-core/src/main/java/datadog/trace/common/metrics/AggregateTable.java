@@ -0,0 +1,340 @@
+package datadog.trace.common.metrics;
+
+import datadog.trace.bootstrap.instrumentation.api.UTF8BytesString;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Lock-free tables of pending batches, one per stripe, where publishing threads are assigned a
+ * stripe by their id. Each table is an open addressing hash table which can be searched with the
+ * raw values of a span, so looking up the batch of a key which has already been seen in the stripe
+ * doesn't allocate. Entries are only added by publishing threads, and the aggregator replaces the
+ * tables with ones containing only the recently used entries when it reports.
+ */
+final class AggregateTable {
+
+  interface EntryVisitor {
+    void visit(Entry entry);
+  }
+
+  interface EntryFilter {
+    boolean retain(Entry entry);
+  }
+
+  private static final int MAX_STRIPES = 64;
+
+  private final AtomicReferenceArray<Table> stripes;
+  // tables which have been replaced but might still be published to, only used by the aggregator
+  private final Table[] retired;
+  private final int stripeMask;
+  private final int maxEntries;
+
+  /** @param maxEntries the number of keys each stripe can hold between reports */
+  AggregateTable(int maxEntries) {
+    this(maxEntries, Runtime.getRuntime().availableProcessors() * 2);
+  }
+
+  AggregateTable(int maxEntries, int stripes) {
+    int stripeCount = nextPowerOfTwo(Math.min(Math.max(stripes, 1), MAX_STRIPES));
+    this.stripes = new AtomicReferenceArray<>(stripeCount);
+    this.retired = new Table[stripeCount];
+    this.stripeMask = stripeCount - 1;
+    this.maxEntries = Math.max(maxEntries, 1);
+  }
+
+  /** @return the entry for the key in the calling thread's stripe, or null if there isn't one */
+  Entry find(
+      CharSequence resource,
+      CharSequence service,
+      CharSequence operationName,
+      CharSequence type,
+      int httpStatusCode,
+      UTF8BytesString[] dimensions) {
+    Table table = stripes.get(stripeIndex());
+    return null == table
+        ? null
+        : table.find(
+            MetricKey.hash(resource, service, operationName, type, httpStatusCode, dimensions),
+            resource,
+            service,
+            operationName,
+            type,
+            httpStatusCode,
+            dimensions);
+  }
+
+  /**
+   * @return the entry for the key in the calling thread's stripe, or failing that in any other
+   *     stripe, or null if there isn't one
+   */
+  Entry findInAnyStripe(
+      CharSequence resource,
+      CharSequence service,
+      CharSequence operationName,
+      CharSequence type,
+      int httpStatusCode,
+      UTF8BytesString[] dimensions) {
+    int hash = MetricKey.hash(resource, service, operationName, type, httpStatusCode, dimensions);
+    int first = stripeIndex();
+    for (int i = 0; i < stripes.length(); ++i) {
+      Table table = stripes.get((first + i) & stripeMask);
+      if (null != table) {
+        Entry entry =
+            table.find(hash, resource, service, operationName, type, httpStatusCode, dimensions);
+        if (null != entry) {
+          return entry;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Adds an entry for the key to the calling thread's stripe, unless another thread added one
+   * first, in which case that entry is returned.
+   *
+   * @return the entry for the key, or null if the stripe is full
+   */
+  Entry insert(MetricKey key, Batch batch) {
+    int index = stripeIndex();
+    Table table = stripes.get(index);
+    if (null == table) {
+      stripes.compareAndSet(index, null, new Table(maxEntries));
+      table = stripes.get(index);
+    }
+    return table.insert(key, batch);
+  }
+
+  /**
+   * Visits the entries of every table, including tables retired by the last call to {@link
+   * #retain(EntryFilter)}, in the order they were added to each table. Must only be called by the
+   * aggregator.
+   */
+  void forEach(EntryVisitor visitor) {
+    for (int i = 0; i < retired.length; ++i) {
+      if (null != retired[i]) {
+        retired[i].forEach(visitor);
+      }
+      Table table = stripes.get(i);
+      if (null != table) {
+        table.forEach(visitor);
+      }
+    }
+  }
+
+  /**
+   * Replaces each table with a table containing only the entries accepted by the filter. Values can
+   * still be published to the replaced tables by threads which have already loaded them, so they
+   * are retired, and visited once more, rather than discarded. Must only be called by the
+   * aggregator.
+   */
+  void retain(EntryFilter filter) {
+    for (int i = 0; i < retired.length; ++i) {
+      Table table = stripes.get(i);
+      if (null == table) {
+        retired[i] = null;
+        continue;
+      }
+      // a stripe without any retained entries is emptied until it is next published to
+      Table replacement = table.copy(filter);
+      // only publishers install a table in an empty stripe, so this can't fail
+      stripes.compareAndSet(i, table, replacement);
+      retired[i] = table;
+    }
+  }
+
+  void clear() {
+    for (int i = 0; i < retired.length; ++i) {
+      stripes.set(i, null);
+      retired[i] = null;
+    }
+  }
+
+  private int stripeIndex() {
+    return (int) Thread.currentThread().getId() & stripeMask;
+  }
+
+  private static int nextPowerOfTwo(int value) {
+    return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+  }
+
+  /**
+   * Pairs a key with the batch currently accumulating its values. When the batch fills up it is
+   * replaced and sent to the aggregator by the thread which replaced it, and when the aggregator
+   * reports it takes any partial batch.
+   */
+  static final class Entry {
+
+    private static final AtomicReferenceFieldUpdater<Entry, Batch> BATCH =
+        AtomicReferenceFieldUpdater.newUpdater(Entry.class, Batch.class, "batch");
+
+    private final MetricKey key;
+    private volatile Batch batch;
+    // only accessed by the aggregator
+    private boolean active;
+    // the p99 latency of the key as of the last report it had enough data for
+    private volatile long latencyThreshold = Long.MAX_VALUE;
+
+    Entry(MetricKey key, Batch batch) {
+      this.key = key;
+      this.batch = batch;
+    }
+
+    MetricKey getKey() {
+      return key;
+    }
+
+    Batch getBatch() {
+      return batch;
+    }
+
+    boolean replaceBatch(Batch expected, Batch replacement) {
+      return BATCH.compareAndSet(this, expected, replacement);
+    }
+
+    long getLatencyThreshold() {
+      return latencyThreshold;
+    }
+
+    void setLatencyThreshold(long latencyThreshold) {
+      this.latencyThreshold = latencyThreshold;
+    }
+
+    void markActive() {
+      active = true;
+    }
+
+    /** @return whether the entry was marked active since this was last called */
+    boolean resetActive() {
+      boolean wasActive = active;
+      active = false;
+      return wasActive;
+    }
+
+    boolean matches(
+        CharSequence resource,
+        CharSequence service,
+        CharSequence operationName,
+        CharSequence type,
+        int httpStatusCode,
+        UTF8BytesString[] dimensions) {
+      return key.getHttpStatusCode() == httpStatusCode
+          && contentEquals(key.getResource(), resource)
+          && contentEquals(key.getOperationName(), operationName)
+          && contentEquals(key.getService(), service)
+          && contentEquals(key.getType(), type)
+          && key.hasDimensions(dimensions);
+    }
+
+    private static boolean contentEquals(UTF8BytesString expected, CharSequence actual) {
+      if (null == actual) {
+        return expected.length() == 0;
+      }
+      if (actual instanceof String || actual instanceof UTF8BytesString) {
+        return expected.toString().equals(actual.toString());
+      }
+      return expected.toString().contentEquals(actual);
+    }
+  }
+
+  private static final class Table {
+
+    private final AtomicReferenceArray<Entry> slots;
+    // entries in the order they were added, so older keys are aggregated first
+    private final AtomicReferenceArray<Entry> entries;
+    private final AtomicInteger size = new AtomicInteger();
+    private final int mask;
+
+    Table(int maxEntries) {
+      // keep the load factor at or below 0.5 so probe sequences stay short
+      int capacity = nextPowerOfTwo(maxEntries * 2);
+      this.slots = new AtomicReferenceArray<>(capacity);
+      this.entries = new AtomicReferenceArray<>(maxEntries);
+      this.mask = capacity - 1;
+    }
+
+    Entry find(
+        int hash,
+        CharSequence resource,
+        CharSequence service,
+        CharSequence operationName,
+        CharSequence type,
+        int httpStatusCode,
+        UTF8BytesString[] dimensions) {
+      for (int i = spread(hash); ; ++i) {
+        Entry entry = slots.get(i & mask);
+        if (null == entry) {
+          return null;
+        }
+        if (entry.getKey().hashCode() == hash
+            && entry.matches(resource, service, operationName, type, httpStatusCode, dimensions)) {
+          return entry;
+        }
+      }
+    }
+
+    Entry insert(MetricKey key, Batch batch) {
+      int position = size.getAndIncrement();
+      if (position >= entries.length()) {
+        return null;
+      }
+      Entry entry = new Entry(key, batch);
+      int hash = key.hashCode();
+      for (int i = spread(hash); ; ++i) {
+        Entry existing = slots.get(i & mask);
+        if (null == existing) {
+          if (slots.compareAndSet(i & mask, null, entry)) {
+            entries.lazySet(position, entry);
+            return entry;
+          }
+          existing = slots.get(i & mask);
+        }
+        if (existing.getKey().equals(key)) {
+          // lost the race to add the key, the claimed position stays empty
+          return existing;
+        }
+      }
+    }
+
+    void forEach(EntryVisitor visitor) {
+      int count = Math.min(size.get(), entries.length());
+      for (int i = 0; i < count; ++i) {
+        Entry entry = entries.get(i);
+        if (null != entry) {
+          visitor.visit(entry);
+        }
+      }
+    }
+
+    /** @return a table containing the entries accepted by the filter, or null if there are none */
+    Table copy(EntryFilter filter) {
+      Table copy = null;
+      int count = Math.min(size.get(), entries.length());
+      for (int i = 0; i < count; ++i) {
+        Entry entry = entries.get(i);
+        if (null != entry && filter.retain(entry)) {
+          if (null == copy) {
+            copy = new Table(entries.length());
+          }
+          copy.add(entry);
+        }
+      }
+      return copy;
+    }
+
+    private void add(Entry entry) {
+      int position = size.getAndIncrement();
+      entries.lazySet(position, entry);
+      for (int i = spread(entry.getKey().hashCode()); ; ++i) {
+        if (slots.compareAndSet(i & mask, null, entry)) {
+          return;
+        }
+      }
+    }
+
+    private static int spread(int hash) {
+      return hash ^ (hash >>> 16);
+    }
+  }
+}
@@ -5,22 +5,30 @@ import static datadog.trace.common.metrics.ConflatingMetricsAggregator.POISON_PI
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import datadog.trace.core.util.LRUCache;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 final class Aggregator implements Runnable {
 
+  static final int MIN_LATENCY_THRESHOLD_HITS = 20;
+
   private final Queue<Batch> batchPool;
   private final BlockingQueue<Batch> inbox;
   private final LRUCache<MetricKey, AggregateMetric> aggregates;
-  private final ConcurrentHashMap<MetricKey, Batch> pending;
+  private final AggregateTable pending;
+  private final MetricDimensions dimensions;
+  private final Sweeper sweeper = new Sweeper();
+  private final EvictInactive evictInactive = new EvictInactive();
+  private final UpdateLatencyThresholds updateLatencyThresholds = new UpdateLatencyThresholds();
+  // only populated while reporting, so the histograms can be cleared before they are published
+  private final Map<MetricKey, Long> latencyThresholds = new HashMap<>();
   private final Set<MetricKey> commonKeys;
   private final MetricWriter writer;
   // the reporting interval controls how much history will be buffered
@@ -34,7 +42,8 @@ final class Aggregator implements Runnable {
       MetricWriter writer,
       Queue<Batch> batchPool,
       BlockingQueue<Batch> inbox,
-      ConcurrentHashMap<MetricKey, Batch> pending,
+      AggregateTable pending,
+      MetricDimensions dimensions,
       final Set<MetricKey> commonKeys,
       int maxAggregates,
       long reportingInterval,
@@ -47,6 +56,7 @@ final class Aggregator implements Runnable {
         new LRUCache<>(
             new CommonKeyCleaner(commonKeys), maxAggregates * 4 / 3, 0.75f, maxAggregates);
     this.pending = pending;
+    this.dimensions = dimensions;
     this.reportingIntervalNanos = reportingIntervalTimeUnit.toNanos(reportingInterval);
   }
 
@@ -66,18 +76,7 @@ final class Aggregator implements Runnable {
         } else if (batch == REPORT) {
           report(wallClockTime());
         } else {
-          MetricKey key = batch.getKey();
-          // important that it is still *this* batch pending, must not remove otherwise
-          pending.remove(key, batch);
-          AggregateMetric aggregate = aggregates.get(key);
-          if (null == aggregate) {
-            aggregate = new AggregateMetric();
-            aggregates.put(key, aggregate);
-          }
-          batch.contributeTo(aggregate);
-          dirty = true;
-          // return the batch for reuse
-          batchPool.offer(batch);
+          contribute(batch);
         }
       } catch (InterruptedException e) {
         currentThread.interrupt();
@@ -85,7 +84,26 @@ final class Aggregator implements Runnable {
     }
   }
 
+  private void contribute(Batch batch) {
+    MetricKey key = batch.getKey();
+    AggregateMetric aggregate = aggregates.get(key);
+    if (null == aggregate) {
+      aggregate = new AggregateMetric();
+      aggregates.put(key, aggregate);
+    }
+    batch.contributeTo(aggregate);
+    dirty = true;
+    // return the batch for reuse
+    batchPool.offer(batch);
+  }
+
   private void report(long when) {
+    // merge the batches which were still being published to, then forget the keys which
+    // weren't published to since the last report
+    pending.forEach(sweeper);
+    pending.retain(evictInactive);
+    // the cardinality of the dimensions is limited per reporting interval
+    dimensions.reset();
     if (dirty) {
       try {
         expungeStaleAggregates();
@@ -93,6 +111,7 @@ final class Aggregator implements Runnable {
           writer.startBucket(aggregates.size(), when, reportingIntervalNanos);
           for (Map.Entry<MetricKey, AggregateMetric> aggregate : aggregates.entrySet()) {
             writer.add(aggregate.getKey(), aggregate.getValue());
+            recordLatencyThreshold(aggregate.getKey(), aggregate.getValue());
             aggregate.getValue().clear();
           }
           // note that this may do IO and block
@@ -103,6 +122,15 @@ final class Aggregator implements Runnable {
         log.debug("Error publishing metrics. Dropping payload", error);
       }
       dirty = false;
+      pending.forEach(updateLatencyThresholds);
+      latencyThresholds.clear();
+    }
+  }
+
+  private void recordLatencyThreshold(MetricKey key, AggregateMetric aggregate) {
+    // too few values make for a noisy quantile, so keep the previous threshold instead
+    if (aggregate.getHitCount() - aggregate.getErrorCount() >= MIN_LATENCY_THRESHOLD_HITS) {
+      latencyThresholds.put(key, (long) aggregate.getOkLatencies().valueAtQuantile(0.99));
     }
   }
 
@@ -122,6 +150,48 @@ final class Aggregator implements Runnable {
     return MILLISECONDS.toNanos(System.currentTimeMillis());
   }
 
+  private Batch newBatch(MetricKey key) {
+    Batch batch = batchPool.poll();
+    if (null == batch) {
+      return new Batch(key);
+    }
+    return batch.reset(key);
+  }
+
+  private final class Sweeper implements AggregateTable.EntryVisitor {
+    @Override
+    public void visit(AggregateTable.Entry entry) {
+      Batch batch = entry.getBatch();
+      if (batch.hasValues()) {
+        entry.markActive();
+        Batch replacement = newBatch(entry.getKey());
+        if (entry.replaceBatch(batch, replacement)) {
+          contribute(batch);
+        } else {
+          // a publisher filled the batch and has sent it to the inbox
+          batchPool.offer(replacement);
+        }
+      }
+    }
+  }
+
+  private final class UpdateLatencyThresholds implements AggregateTable.EntryVisitor {
+    @Override
+    public void visit(AggregateTable.Entry entry) {
+      Long threshold = latencyThresholds.get(entry.getKey());
+      if (null != threshold) {
+        entry.setLatencyThreshold(threshold);
+      }
+    }
+  }
+
+  private static final class EvictInactive implements AggregateTable.EntryFilter {
+    @Override
+    public boolean retain(AggregateTable.Entry entry) {
+      return entry.resetActive();
+    }
+  }
+
   private static final class CommonKeyCleaner
       implements LRUCache.ExpiryListener<MetricKey, AggregateMetric> {
 
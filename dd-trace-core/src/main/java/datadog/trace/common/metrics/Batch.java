@@ -56,6 +56,11 @@ public final class Batch {
     return this.count.get() < 0;
   }
 
+  /** @return whether values have been added to this batch since it was last reset or consumed */
+  public boolean hasValues() {
+    return this.count.get() > 0;
+  }
+
   public boolean add(long tag, long durationNanos) {
     // technically this would be wrong if there were 2^31 unsuccessful
     // attempts to add a value, but this an acceptable risk
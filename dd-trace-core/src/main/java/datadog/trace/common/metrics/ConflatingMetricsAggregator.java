@@ -36,7 +36,10 @@ public final class ConflatingMetricsAggregator implements MetricsAggregator, Eve
   static final Batch POISON_PILL = Batch.NULL;
 
   private final Queue<Batch> batchPool;
-  private final ConcurrentHashMap<MetricKey, Batch> pending;
+  private final AggregateTable pending;
+  private final MetricDimensions dimensions;
+  // scratch space to resolve the dimensions of a span into without allocating
+  private final ThreadLocal<UTF8BytesString[]> dimensionValues;
   private final ConcurrentHashMap<MetricKey, MetricKey> keys;
   private final Thread thread;
   private final BlockingQueue<Batch> inbox;
@@ -51,29 +54,65 @@ public final class ConflatingMetricsAggregator implements MetricsAggregator, Eve
   public ConflatingMetricsAggregator(Config config) {
     this(
         config.getWellKnownTags(),
+        new MetricDimensions(
+            config.getTracerMetricsExtraDimensions(),
+            config.getTracerMetricsDimensionCardinality()),
         new OkHttpSink(
             config.getAgentUrl(),
             config.getAgentTimeout(),
             config.isTracerMetricsBufferingEnabled()),
         config.getTracerMetricsMaxAggregates(),
-        config.getTracerMetricsMaxPending());
+        config.getTracerMetricsMaxPending(),
+        10,
+        SECONDS);
   }
 
   ConflatingMetricsAggregator(
-      WellKnownTags wellKnownTags, Sink sink, int maxAggregates, int queueSize) {
-    this(wellKnownTags, sink, maxAggregates, queueSize, 10, SECONDS);
+      WellKnownTags wellKnownTags,
+      Sink sink,
+      int maxAggregates,
+      int queueSize,
+      long reportingInterval,
+      TimeUnit timeUnit) {
+    this(
+        wellKnownTags,
+        MetricDimensions.NONE,
+        sink,
+        maxAggregates,
+        queueSize,
+        reportingInterval,
+        timeUnit);
   }
 
   ConflatingMetricsAggregator(
       WellKnownTags wellKnownTags,
+      MetricDimensions dimensions,
+      Sink sink,
+      int maxAggregates,
+      int queueSize,
+      long reportingInterval,
+      TimeUnit timeUnit) {
+    this(
+        sink,
+        new SerializingMetricWriter(wellKnownTags, dimensions, sink),
+        dimensions,
+        maxAggregates,
+        queueSize,
+        reportingInterval,
+        timeUnit);
+  }
+
+  ConflatingMetricsAggregator(
       Sink sink,
+      MetricWriter metricWriter,
       int maxAggregates,
       int queueSize,
       long reportingInterval,
       TimeUnit timeUnit) {
     this(
         sink,
-        new SerializingMetricWriter(wellKnownTags, sink),
+        metricWriter,
+        MetricDimensions.NONE,
         maxAggregates,
         queueSize,
         reportingInterval,
@@ -83,13 +122,24 @@ public final class ConflatingMetricsAggregator implements MetricsAggregator, Eve
   ConflatingMetricsAggregator(
       Sink sink,
       MetricWriter metricWriter,
+      MetricDimensions dimensions,
       int maxAggregates,
       int queueSize,
       long reportingInterval,
       TimeUnit timeUnit) {
+    this.dimensions = dimensions;
+    this.dimensionValues =
+        new ThreadLocal<UTF8BytesString[]>() {
+          @Override
+          protected UTF8BytesString[] initialValue() {
+            return ConflatingMetricsAggregator.this.dimensions.newValues();
+          }
+        };
     this.inbox = new MpscBlockingConsumerArrayQueue<>(queueSize);
     this.batchPool = new SpmcArrayQueue<>(maxAggregates);
-    this.pending = new ConcurrentHashMap<>(maxAggregates * 4 / 3, 0.75f);
+    // the headroom keeps keys in the order they were first seen unless far more keys
+    // than can be aggregated are published in a single reporting interval
+    this.pending = new AggregateTable(maxAggregates * 2);
     this.keys = new ConcurrentHashMap<>();
     this.sink = sink;
     this.aggregator =
@@ -98,6 +148,7 @@ public final class ConflatingMetricsAggregator implements MetricsAggregator, Eve
             batchPool,
             inbox,
             pending,
+            dimensions,
             keys.keySet(),
             maxAggregates,
             reportingInterval,
@@ -128,6 +179,11 @@ public final class ConflatingMetricsAggregator implements MetricsAggregator, Eve
     } while (!published);
   }
 
+  @Override
+  public boolean isEnabled() {
+    return enabled;
+  }
+
   @Override
   public boolean publish(List<? extends CoreSpan<?>> trace) {
     boolean forceKeep = false;
@@ -142,45 +198,88 @@ public final class ConflatingMetricsAggregator implements MetricsAggregator, Eve
   }
 
   private boolean publish(CoreSpan<?> span) {
-    MetricKey newKey =
-        new MetricKey(
-            span.getResourceName(),
-            SERVICE_NAMES.computeIfAbsent(span.getServiceName(), UTF8_ENCODE),
-            span.getOperationName(),
-            span.getType(),
-            span.getTag(Tags.HTTP_STATUS, ZERO));
-    boolean isNewKey = false;
-    MetricKey key = keys.putIfAbsent(newKey, newKey);
-    if (null == key) {
-      key = newKey;
-      isNewKey = true;
-    }
+    CharSequence resource = span.getResourceName();
+    String service = span.getServiceName();
+    CharSequence operationName = span.getOperationName();
+    CharSequence type = span.getType();
+    int httpStatusCode = span.getTag(Tags.HTTP_STATUS, ZERO);
     long tag = span.getError() > 0 ? ERROR_TAG : 0L;
     long durationNanos = span.getDurationNano();
-    Batch batch = pending.get(key);
-    if (null != batch) {
-      // there is a pending batch, try to win the race to add to it
-      // returning false means that either the batch can't take any
-      // more data, or it has already been consumed
+    UTF8BytesString[] dimensionValues = MetricDimensions.NO_VALUES;
+    if (dimensions.size() > 0) {
+      dimensionValues = this.dimensionValues.get();
+      dimensions.resolve(span, dimensionValues);
+    }
+    // the common case: this thread's stripe already has an entry for the key
+    AggregateTable.Entry entry =
+        pending.find(resource, service, operationName, type, httpStatusCode, dimensionValues);
+    boolean isNewKey = false;
+    if (null == entry) {
+      MetricKey newKey =
+          new MetricKey(
+              resource,
+              SERVICE_NAMES.computeIfAbsent(service, UTF8_ENCODE),
+              operationName,
+              type,
+              httpStatusCode,
+              dimensionValues);
+      MetricKey key = keys.putIfAbsent(newKey, newKey);
+      if (null == key) {
+        key = newKey;
+        isNewKey = true;
+      }
+      Batch batch = newBatch(key);
+      batch.add(tag, durationNanos);
+      entry = pending.insert(key, batch);
+      if (null == entry) {
+        // the stripe is full until the next report, send the batch straight to the aggregator
+        inbox.offer(batch);
+        return isNewKey || span.getError() > 0;
+      }
+      if (entry.getBatch() == batch) {
+        return isNewKey;
+      }
+      // another thread added the key first, so add to its batch instead
+    }
+    while (true) {
+      Batch batch = entry.getBatch();
+      // returning false means that the batch can't take any more data
       if (batch.add(tag, durationNanos)) {
-        // added to a pending batch prior to consumption
-        // so skip publishing to the queue (we also know
-        // the key isn't rare enough to override the sampler)
-        return false;
+        // we also know the key isn't rare enough to override the sampler
+        return isNewKey;
       }
-      // recycle the older key
-      key = batch.getKey();
-      isNewKey = false;
+      Batch replacement = newBatch(entry.getKey());
+      replacement.add(tag, durationNanos);
+      if (entry.replaceBatch(batch, replacement)) {
+        // only the thread which replaced the full batch sends it to the aggregator
+        inbox.offer(batch);
+        // force keep keys we haven't seen before or errors
+        return isNewKey || span.getError() > 0;
+      }
+      // another thread replaced the batch first, only the aggregator returns batches to the pool
+    }
+  }
+
+  @Override
+  public boolean isLatencyOutlier(CoreSpan<?> span) {
+    if (!enabled) {
+      return false;
+    }
+    UTF8BytesString[] dimensionValues = MetricDimensions.NO_VALUES;
+    if (dimensions.size() > 0) {
+      dimensionValues = this.dimensionValues.get();
+      dimensions.resolve(span, dimensionValues);
     }
-    batch = newBatch(key);
-    batch.add(tag, durationNanos);
-    // overwrite the last one if present, it was already full
-    // or had been consumed by the time we tried to add to it
-    pending.put(key, batch);
-    // must offer to the queue after adding to pending
-    inbox.offer(batch);
-    // force keep keys we haven't seen before or errors
-    return isNewKey || span.getError() > 0;
+    // traces can be prioritized on a different thread from the one which published them
+    AggregateTable.Entry entry =
+        pending.findInAnyStripe(
+            span.getResourceName(),
+            span.getServiceName(),
+            span.getOperationName(),
+            span.getType(),
+            span.getTag(Tags.HTTP_STATUS, ZERO),
+            dimensionValues);
+    return null != entry && span.getDurationNano() > entry.getLatencyThreshold();
   }
 
   private Batch newBatch(MetricKey key) {
@@ -0,0 +1,113 @@
+package datadog.trace.common.metrics;
+
+import static datadog.trace.bootstrap.instrumentation.api.UTF8BytesString.EMPTY;
+
+import datadog.trace.bootstrap.instrumentation.api.UTF8BytesString;
+import datadog.trace.core.CoreSpan;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The span tags, in addition to resource, service, operation name, type and HTTP status code, which
+ * metrics are aggregated by. The number of distinct values of each tag is limited in each reporting
+ * interval, and values seen after the limit is reached are aggregated together as {@link #OTHER}.
+ */
+@Slf4j
+public final class MetricDimensions {
+
+  static final int MAX_DIMENSIONS = 8;
+
+  static final UTF8BytesString OTHER = UTF8BytesString.create("other");
+
+  static final UTF8BytesString[] NO_VALUES = new UTF8BytesString[0];
+
+  public static final MetricDimensions NONE =
+      new MetricDimensions(Collections.<String>emptyList(), 0);
+
+  private final Dimension[] dimensions;
+
+  public MetricDimensions(List<String> tagKeys, int maxCardinality) {
+    int count = Math.min(tagKeys.size(), MAX_DIMENSIONS);
+    if (count < tagKeys.size()) {
+      log.warn(
+          "Only the first {} of {} metric dimensions will be used: {}",
+          MAX_DIMENSIONS,
+          tagKeys.size(),
+          tagKeys.subList(0, count));
+    }
+    this.dimensions = new Dimension[count];
+    for (int i = 0; i < count; ++i) {
+      dimensions[i] = new Dimension(tagKeys.get(i), Math.max(maxCardinality, 1));
+    }
+  }
+
+  public int size() {
+    return dimensions.length;
+  }
+
+  public String getTagKey(int index) {
+    return dimensions[index].tagKey;
+  }
+
+  /** @return an array to resolve values into, which must not be shared between threads */
+  UTF8BytesString[] newValues() {
+    return dimensions.length == 0 ? NO_VALUES : new UTF8BytesString[dimensions.length];
+  }
+
+  /**
+   * Writes the value of each dimension's tag on the span to the array, in the configured order.
+   * Missing tags resolve to the empty string and values past the cardinality limit to {@link
+   * #OTHER}. A value which has already been seen resolves to the same instance each time.
+   */
+  void resolve(CoreSpan<?> span, UTF8BytesString[] values) {
+    for (int i = 0; i < dimensions.length; ++i) {
+      values[i] = dimensions[i].resolve(span.getTag(dimensions[i].tagKey));
+    }
+  }
+
+  /** Forgets the values seen so far, so each reporting interval can have new values. */
+  void reset() {
+    for (Dimension dimension : dimensions) {
+      dimension.reset();
+    }
+  }
+
+  private static final class Dimension {
+    private final String tagKey;
+    private final int maxCardinality;
+    private final ConcurrentHashMap<String, UTF8BytesString> values;
+    private final AtomicInteger cardinality = new AtomicInteger();
+
+    private Dimension(String tagKey, int maxCardinality) {
+      this.tagKey = tagKey;
+      this.maxCardinality = maxCardinality;
+      this.values = new ConcurrentHashMap<>(maxCardinality * 4 / 3 + 1);
+    }
+
+    UTF8BytesString resolve(Object tag) {
+      if (null == tag) {
+        return EMPTY;
+      }
+      String value = tag instanceof String ? (String) tag : String.valueOf(tag);
+      UTF8BytesString resolved = values.get(value);
+      if (null != resolved) {
+        return resolved;
+      }
+      // may overshoot under contention, but never admits more than the limit
+      if (cardinality.get() >= maxCardinality || cardinality.incrementAndGet() > maxCardinality) {
+        return OTHER;
+      }
+      resolved = UTF8BytesString.create(value);
+      UTF8BytesString existing = values.putIfAbsent(value, resolved);
+      return null == existing ? resolved : existing;
+    }
+
+    void reset() {
+      values.clear();
+      cardinality.set(0);
+    }
+  }
+}
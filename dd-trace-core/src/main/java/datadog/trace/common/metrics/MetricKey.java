@@ -3,6 +3,7 @@ package datadog.trace.common.metrics;
 import static datadog.trace.bootstrap.instrumentation.api.UTF8BytesString.EMPTY;
 
 import datadog.trace.bootstrap.instrumentation.api.UTF8BytesString;
+import java.util.Arrays;
 
 /** The aggregation key for tracked metrics. */
 public final class MetricKey {
@@ -11,6 +12,7 @@ public final class MetricKey {
   private final UTF8BytesString operationName;
   private final UTF8BytesString type;
   private final int httpStatusCode;
+  private final UTF8BytesString[] dimensions;
   private final int hash;
 
   public MetricKey(
@@ -19,19 +21,70 @@ public final class MetricKey {
       CharSequence operationName,
       CharSequence type,
       int httpStatusCode) {
+    this(resource, service, operationName, type, httpStatusCode, MetricDimensions.NO_VALUES);
+  }
+
+  /**
+   * @param dimensions the values of the configured {@link MetricDimensions}, in the same order,
+   *     which are copied
+   */
+  public MetricKey(
+      CharSequence resource,
+      CharSequence service,
+      CharSequence operationName,
+      CharSequence type,
+      int httpStatusCode,
+      UTF8BytesString[] dimensions) {
     this.resource = null == resource ? EMPTY : UTF8BytesString.create(resource);
     this.service = null == service ? EMPTY : UTF8BytesString.create(service);
     this.operationName = null == operationName ? EMPTY : UTF8BytesString.create(operationName);
     this.type = null == type ? EMPTY : UTF8BytesString.create(type);
     this.httpStatusCode = httpStatusCode;
+    this.dimensions = dimensions.length == 0 ? dimensions : dimensions.clone();
+    this.hash =
+        hash(
+            this.resource,
+            this.service,
+            this.operationName,
+            this.type,
+            this.httpStatusCode,
+            this.dimensions);
+  }
+
+  /**
+   * Computes the hash code of the key which would be created from these values, without creating
+   * it.
+   */
+  static int hash(
+      CharSequence resource,
+      CharSequence service,
+      CharSequence operationName,
+      CharSequence type,
+      int httpStatusCode,
+      UTF8BytesString[] dimensions) {
     // unrolled polynomial hashcode which avoids allocating varargs
     // the constants are 31^4, 31^3, 31^2, 31^1, 31^0
-    this.hash =
-        923521 * this.resource.hashCode()
-            + 29791 * this.service.hashCode()
-            + 961 * this.operationName.hashCode()
-            + 31 * this.type.hashCode()
+    int hash =
+        923521 * hashOf(resource)
+            + 29791 * hashOf(service)
+            + 961 * hashOf(operationName)
+            + 31 * hashOf(type)
             + httpStatusCode;
+    for (UTF8BytesString dimension : dimensions) {
+      hash = 31 * hash + dimension.hashCode();
+    }
+    return hash;
+  }
+
+  private static int hashOf(CharSequence value) {
+    if (null == value) {
+      return EMPTY.hashCode();
+    }
+    // both hash the same as the string they contain
+    if (value instanceof String || value instanceof UTF8BytesString) {
+      return value.hashCode();
+    }
+    return value.toString().hashCode();
   }
 
   public UTF8BytesString getResource() {
@@ -54,6 +107,27 @@ public final class MetricKey {
     return httpStatusCode;
   }
 
+  public int getDimensionCount() {
+    return dimensions.length;
+  }
+
+  public UTF8BytesString getDimension(int index) {
+    return dimensions[index];
+  }
+
+  /** @return whether the key has the same dimension values, compared by identity first */
+  boolean hasDimensions(UTF8BytesString[] values) {
+    if (values.length != dimensions.length) {
+      return false;
+    }
+    for (int i = 0; i < values.length; ++i) {
+      if (values[i] != dimensions[i] && !dimensions[i].equals(values[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -66,7 +140,8 @@ public final class MetricKey {
           && resource.equals(metricKey.resource)
           && service.equals(metricKey.service)
           && operationName.equals(metricKey.operationName)
-          && type.equals(metricKey.type);
+          && type.equals(metricKey.type)
+          && Arrays.equals(dimensions, metricKey.dimensions);
     }
     return false;
   }
@@ -8,5 +8,14 @@ public interface MetricsAggregator extends AutoCloseable {
 
   void report();
 
+  /** @return whether published traces are counted in the stats computed by the client */
+  boolean isEnabled();
+
   boolean publish(List<? extends CoreSpan<?>> trace);
+
+  /**
+   * @return whether the span took longer than the 99th percentile latency of its key over the last
+   *     reporting interval with enough data
+   */
+  boolean isLatencyOutlier(CoreSpan<?> span);
 }
@@ -5,7 +5,7 @@ import java.util.List;
 
 public final class NoOpMetricsAggregator implements MetricsAggregator {
 
-  static final NoOpMetricsAggregator INSTANCE = new NoOpMetricsAggregator();
+  public static final NoOpMetricsAggregator INSTANCE = new NoOpMetricsAggregator();
 
   @Override
   public void start() {}
@@ -13,11 +13,21 @@ public final class NoOpMetricsAggregator implements MetricsAggregator {
   @Override
   public void report() {}
 
+  @Override
+  public boolean isEnabled() {
+    return false;
+  }
+
   @Override
   public boolean publish(List<? extends CoreSpan<?>> trace) {
     return false;
   }
 
+  @Override
+  public boolean isLatencyOutlier(CoreSpan<?> span) {
+    return false;
+  }
+
   @Override
   public void close() {}
 }
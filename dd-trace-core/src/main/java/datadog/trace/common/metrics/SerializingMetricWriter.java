@@ -26,18 +26,31 @@ public final class SerializingMetricWriter implements MetricWriter {
   private static final byte[] STATS = "Stats".getBytes(ISO_8859_1);
   private static final byte[] OK_SUMMARY = "OkSummary".getBytes(ISO_8859_1);
   private static final byte[] ERROR_SUMMARY = "ErrorSummary".getBytes(ISO_8859_1);
+  private static final byte[] TAGS = "Tags".getBytes(ISO_8859_1);
 
   private final WellKnownTags wellKnownTags;
+  private final MetricDimensions dimensions;
   private final WritableFormatter writer;
   private final Sink sink;
   private final GrowableBuffer buffer;
 
   public SerializingMetricWriter(WellKnownTags wellKnownTags, Sink sink) {
-    this(wellKnownTags, sink, 512 * 1024);
+    this(wellKnownTags, MetricDimensions.NONE, sink);
+  }
+
+  public SerializingMetricWriter(
+      WellKnownTags wellKnownTags, MetricDimensions dimensions, Sink sink) {
+    this(wellKnownTags, dimensions, sink, 512 * 1024);
   }
 
   public SerializingMetricWriter(WellKnownTags wellKnownTags, Sink sink, int initialCapacity) {
+    this(wellKnownTags, MetricDimensions.NONE, sink, initialCapacity);
+  }
+
+  public SerializingMetricWriter(
+      WellKnownTags wellKnownTags, MetricDimensions dimensions, Sink sink, int initialCapacity) {
     this.wellKnownTags = wellKnownTags;
+    this.dimensions = dimensions;
     this.buffer = new GrowableBuffer(initialCapacity);
     this.writer = new MsgPackWriter(buffer);
     this.sink = sink;
@@ -73,8 +86,9 @@ public final class SerializingMetricWriter implements MetricWriter {
 
   @Override
   public void add(MetricKey key, AggregateMetric aggregate) {
+    int dimensionCount = Math.min(key.getDimensionCount(), dimensions.size());
 
-    writer.startMap(10);
+    writer.startMap(dimensionCount > 0 ? 11 : 10);
 
     writer.writeUTF8(NAME);
     writer.writeUTF8(key.getOperationName());
@@ -105,6 +119,15 @@ public final class SerializingMetricWriter implements MetricWriter {
 
     writer.writeUTF8(ERROR_SUMMARY);
     writer.writeBinary(aggregate.getErrorLatencies().serialize());
+
+    if (dimensionCount > 0) {
+      // each extra dimension is written as a tag:value string
+      writer.writeUTF8(TAGS);
+      writer.startArray(dimensionCount);
+      for (int i = 0; i < dimensionCount; ++i) {
+        writer.writeString(dimensions.getTagKey(i) + ":" + key.getDimension(i), null);
+      }
+    }
   }
 
   @Override
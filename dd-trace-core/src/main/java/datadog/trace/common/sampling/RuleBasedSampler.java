@@ -14,10 +14,9 @@ import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class RuleBasedSampler<T extends CoreSpan<T>> implements Sampler<T>, PrioritySampler<T> {
-  private final List<SamplingRule<T>> samplingRules;
+  private final SamplingRuleIndex<T> samplingRules;
   private final PrioritySampler<T> fallbackSampler;
   private final SimpleRateLimiter rateLimiter;
-  private final long rateLimit;
 
   public static final String SAMPLING_RULE_RATE = "_dd.rule_psr";
   public static final String SAMPLING_LIMIT_RATE = "_dd.limit_psr";
@@ -26,16 +25,29 @@ public class RuleBasedSampler<T extends CoreSpan<T>> implements Sampler<T>, Prio
       final List<SamplingRule<T>> samplingRules,
       final long rateLimit,
       final PrioritySampler<T> fallbackSampler) {
-    this.samplingRules = samplingRules;
+    this.samplingRules = new SamplingRuleIndex<>(samplingRules);
     this.fallbackSampler = fallbackSampler;
     rateLimiter = new SimpleRateLimiter(rateLimit);
+  }
 
-    this.rateLimit = rateLimit;
+  public static <T extends CoreSpan<T>> RuleBasedSampler<T> build(
+      final Map<String, String> serviceRules,
+      final Map<String, String> operationRules,
+      final Double defaultRate,
+      final long rateLimit) {
+    return build(serviceRules, operationRules, null, null, defaultRate, rateLimit);
   }
 
+  /**
+   * @param serviceRuleLimits rate limits for service rules, by the rule's pattern, which apply
+   *     instead of {@code rateLimit} to the traces the rule keeps
+   * @param operationRuleLimits rate limits for operation rules, by the rule's pattern
+   */
   public static <T extends CoreSpan<T>> RuleBasedSampler<T> build(
       final Map<String, String> serviceRules,
       final Map<String, String> operationRules,
+      final Map<String, String> serviceRuleLimits,
+      final Map<String, String> operationRuleLimits,
       final Double defaultRate,
       final long rateLimit) {
 
@@ -46,7 +58,10 @@ public class RuleBasedSampler<T extends CoreSpan<T>> implements Sampler<T>, Prio
         try {
           final double rateForEntry = Double.parseDouble(entry.getValue());
           final SamplingRule<T> samplingRule =
-              new ServiceSamplingRule<>(entry.getKey(), new DeterministicSampler<T>(rateForEntry));
+              new ServiceSamplingRule<>(
+                  entry.getKey(),
+                  new DeterministicSampler<T>(rateForEntry),
+                  rateLimiterFor(entry.getKey(), serviceRuleLimits));
           samplingRules.add(samplingRule);
         } catch (final NumberFormatException e) {
           log.error("Unable to parse rate for service: {}", entry, e);
@@ -60,7 +75,9 @@ public class RuleBasedSampler<T extends CoreSpan<T>> implements Sampler<T>, Prio
           final double rateForEntry = Double.parseDouble(entry.getValue());
           final SamplingRule<T> samplingRule =
               new OperationSamplingRule<>(
-                  entry.getKey(), new DeterministicSampler<T>(rateForEntry));
+                  entry.getKey(),
+                  new DeterministicSampler<T>(rateForEntry),
+                  rateLimiterFor(entry.getKey(), operationRuleLimits));
           samplingRules.add(samplingRule);
         } catch (final NumberFormatException e) {
           log.error("Unable to parse rate for operation: {}", entry, e);
@@ -77,6 +94,19 @@ public class RuleBasedSampler<T extends CoreSpan<T>> implements Sampler<T>, Prio
     return new RuleBasedSampler<>(samplingRules, rateLimit, new RateByServiceSampler<T>());
   }
 
+  private static SimpleRateLimiter rateLimiterFor(
+      final String pattern, final Map<String, String> ruleLimits) {
+    final String limit = null == ruleLimits ? null : ruleLimits.get(pattern);
+    if (null != limit) {
+      try {
+        return new SimpleRateLimiter(Long.parseLong(limit));
+      } catch (final NumberFormatException e) {
+        log.error("Unable to parse rate limit for rule: {}", pattern, e);
+      }
+    }
+    return null;
+  }
+
   @Override
   public boolean sample(final T span) {
     return true;
@@ -84,20 +114,15 @@ public class RuleBasedSampler<T extends CoreSpan<T>> implements Sampler<T>, Prio
 
   @Override
   public void setSamplingPriority(final T span) {
-    SamplingRule<T> matchedRule = null;
-
-    for (final SamplingRule<T> samplingRule : samplingRules) {
-      if (samplingRule.matches(span)) {
-        matchedRule = samplingRule;
-        break;
-      }
-    }
+    final SamplingRule<T> matchedRule = samplingRules.firstMatch(span);
 
     if (matchedRule == null) {
       fallbackSampler.setSamplingPriority(span);
     } else {
       if (matchedRule.sample(span)) {
-        if (rateLimiter.tryAcquire()) {
+        final SimpleRateLimiter limiter =
+            null == matchedRule.getRateLimiter() ? rateLimiter : matchedRule.getRateLimiter();
+        if (limiter.tryAcquire()) {
           span.setSamplingPriority(
               PrioritySampling.SAMPLER_KEEP,
               SAMPLING_RULE_RATE,
@@ -108,7 +133,7 @@ public class RuleBasedSampler<T extends CoreSpan<T>> implements Sampler<T>, Prio
               SAMPLING_RULE_RATE,
               matchedRule.getSampler().getSampleRate());
         }
-        span.setMetric(SAMPLING_LIMIT_RATE, rateLimit);
+        span.setMetric(SAMPLING_LIMIT_RATE, limiter.getEffectiveRate());
       } else {
         span.setSamplingPriority(
             PrioritySampling.SAMPLER_DROP,
@@ -37,6 +37,8 @@ public interface Sampler<T extends CoreSpan<T>> {
                 RuleBasedSampler.build(
                     serviceRules,
                     operationRules,
+                    config.getTraceSamplingServiceRuleLimits(),
+                    config.getTraceSamplingOperationRuleLimits(),
                     config.getTraceSampleRate(),
                     config.getTraceRateLimit());
           } catch (final IllegalArgumentException e) {
@@ -1,13 +1,21 @@
 package datadog.trace.common.sampling;
 
 import datadog.trace.core.CoreSpan;
+import datadog.trace.core.util.SimpleRateLimiter;
 import java.util.regex.Pattern;
 
 public abstract class SamplingRule<T extends CoreSpan<T>> {
   private final RateSampler<T> sampler;
+  private final SimpleRateLimiter rateLimiter;
 
   public SamplingRule(final RateSampler<T> sampler) {
+    this(sampler, null);
+  }
+
+  /** @param rateLimiter limits the traces kept by this rule, instead of the sampler's limit */
+  public SamplingRule(final RateSampler<T> sampler, final SimpleRateLimiter rateLimiter) {
     this.sampler = sampler;
+    this.rateLimiter = rateLimiter;
   }
 
   public abstract boolean matches(T span);
@@ -20,6 +28,10 @@ public abstract class SamplingRule<T extends CoreSpan<T>> {
     return sampler;
   }
 
+  public SimpleRateLimiter getRateLimiter() {
+    return rateLimiter;
+  }
+
   public static class AlwaysMatchesSamplingRule<T extends CoreSpan<T>> extends SamplingRule<T> {
 
     public AlwaysMatchesSamplingRule(final RateSampler<T> sampler) {
@@ -37,7 +49,12 @@ public abstract class SamplingRule<T extends CoreSpan<T>> {
     private final Pattern pattern;
 
     public PatternMatchSamplingRule(final String regex, final RateSampler<T> sampler) {
-      super(sampler);
+      this(regex, sampler, null);
+    }
+
+    public PatternMatchSamplingRule(
+        final String regex, final RateSampler<T> sampler, final SimpleRateLimiter rateLimiter) {
+      super(sampler, rateLimiter);
       this.pattern = Pattern.compile(regex);
     }
 
@@ -48,6 +65,10 @@ public abstract class SamplingRule<T extends CoreSpan<T>> {
     }
 
     protected abstract CharSequence getRelevantString(T span);
+
+    public Pattern getPattern() {
+      return pattern;
+    }
   }
 
   public static class ServiceSamplingRule<T extends CoreSpan<T>>
@@ -56,6 +77,11 @@ public abstract class SamplingRule<T extends CoreSpan<T>> {
       super(regex, sampler);
     }
 
+    public ServiceSamplingRule(
+        final String regex, final RateSampler<T> sampler, final SimpleRateLimiter rateLimiter) {
+      super(regex, sampler, rateLimiter);
+    }
+
     @Override
     protected String getRelevantString(final T span) {
       return span.getServiceName();
@@ -68,6 +94,11 @@ public abstract class SamplingRule<T extends CoreSpan<T>> {
       super(regex, sampler);
     }
 
+    public OperationSamplingRule(
+        final String regex, final RateSampler<T> sampler, final SimpleRateLimiter rateLimiter) {
+      super(regex, sampler, rateLimiter);
+    }
+
     @Override
     protected CharSequence getRelevantString(final T span) {
       return span.getOperationName();
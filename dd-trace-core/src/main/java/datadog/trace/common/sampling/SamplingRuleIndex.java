@@ -0,0 +1,337 @@
+package datadog.trace.common.sampling;
+
+import datadog.trace.api.Function;
+import datadog.trace.api.cache.DDCache;
+import datadog.trace.api.cache.DDCaches;
+import datadog.trace.common.sampling.SamplingRule.AlwaysMatchesSamplingRule;
+import datadog.trace.common.sampling.SamplingRule.OperationSamplingRule;
+import datadog.trace.common.sampling.SamplingRule.PatternMatchSamplingRule;
+import datadog.trace.common.sampling.SamplingRule.ServiceSamplingRule;
+import datadog.trace.core.CoreSpan;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the first of a list of sampling rules which matches a span, without trying every rule in
+ * turn. Service and operation rules are compiled according to their regular expression:
+ *
+ * <ul>
+ *   <li>literals, such as {@code my-service}, are looked up by name
+ *   <li>patterns which only use the {@code .} and {@code .*} wildcards, such as {@code
+ *       my-service-.*}, are indexed by their literal prefix in a trie and matched without a regular
+ *       expression
+ *   <li>anything else is matched with its regular expression
+ * </ul>
+ *
+ * Each lookup only tries candidates which come before the best match found so far, so the first
+ * matching rule wins as before. Which rule matches then only depends on the service and operation
+ * names, so the result is memoized by name. Rules of any other type may depend on anything about
+ * the span, so when there are any, the rules are tried in order instead.
+ */
+final class SamplingRuleIndex<T extends CoreSpan<T>> {
+
+  private static final int NO_MATCH = Integer.MAX_VALUE;
+
+  private static final int ANY_CHAR = -1;
+  private static final int ANY_SEQUENCE = -2;
+
+  private final List<SamplingRule<T>> rules;
+  private final boolean indexed;
+
+  private int alwaysMatches = NO_MATCH;
+  private final Map<String, Integer> services = new HashMap<>();
+  private final Map<String, Integer> operations = new HashMap<>();
+  private final Node serviceGlobs = new Node();
+  private final Node operationGlobs = new Node();
+  // rules which need their regular expression, in order
+  private final List<PatternMatchSamplingRule<T>> patternRules = new ArrayList<>();
+  private final List<Integer> patternRuleIndices = new ArrayList<>();
+
+  private final DDCache<Names, Integer> cache = DDCaches.newFixedSizeCache(256);
+  private final Function<Names, Integer> firstMatch =
+      new Function<Names, Integer>() {
+        @Override
+        public Integer apply(Names names) {
+          return firstMatch(names.service, names.operation);
+        }
+      };
+
+  SamplingRuleIndex(List<SamplingRule<T>> rules) {
+    this.rules = rules;
+    boolean indexed = true;
+    for (int i = 0; i < rules.size() && indexed; ++i) {
+      SamplingRule<T> rule = rules.get(i);
+      if (rule instanceof AlwaysMatchesSamplingRule) {
+        alwaysMatches = Math.min(alwaysMatches, i);
+      } else if (rule instanceof ServiceSamplingRule) {
+        add(i, (ServiceSamplingRule<T>) rule, services, serviceGlobs);
+      } else if (rule instanceof OperationSamplingRule) {
+        add(i, (OperationSamplingRule<T>) rule, operations, operationGlobs);
+      } else {
+        indexed = false;
+      }
+    }
+    this.indexed = indexed;
+  }
+
+  SamplingRule<T> firstMatch(T span) {
+    if (!indexed) {
+      for (SamplingRule<T> rule : rules) {
+        if (rule.matches(span)) {
+          return rule;
+        }
+      }
+      return null;
+    }
+    CharSequence operation = span.getOperationName();
+    int index =
+        cache.computeIfAbsent(
+            new Names(span.getServiceName(), null == operation ? null : operation.toString()),
+            firstMatch);
+    return index == NO_MATCH ? null : rules.get(index);
+  }
+
+  private int firstMatch(String service, String operation) {
+    int first = alwaysMatches;
+    if (null != service) {
+      first = Math.min(first, indexOf(services, service));
+      first = serviceGlobs.firstMatch(service, first);
+    }
+    if (null != operation) {
+      first = Math.min(first, indexOf(operations, operation));
+      first = operationGlobs.firstMatch(operation, first);
+    }
+    for (int i = 0; i < patternRules.size() && patternRuleIndices.get(i) < first; ++i) {
+      PatternMatchSamplingRule<T> rule = patternRules.get(i);
+      String name = rule instanceof ServiceSamplingRule ? service : operation;
+      if (null != name && rule.getPattern().matcher(name).matches()) {
+        return patternRuleIndices.get(i);
+      }
+    }
+    return first;
+  }
+
+  private void add(
+      int index, PatternMatchSamplingRule<T> rule, Map<String, Integer> literals, Node globs) {
+    Pattern pattern = rule.getPattern();
+    int[] tokens = 0 == pattern.flags() ? compile(pattern.pattern()) : null;
+    if (null == tokens) {
+      patternRules.add(rule);
+      patternRuleIndices.add(index);
+      return;
+    }
+    int prefixLength = 0;
+    while (prefixLength < tokens.length && tokens[prefixLength] >= 0) {
+      ++prefixLength;
+    }
+    if (prefixLength == tokens.length) {
+      String literal = new String(tokens, 0, tokens.length);
+      if (!literals.containsKey(literal)) {
+        literals.put(literal, index);
+      }
+    } else {
+      globs.add(new Glob(index, pattern, tokens, prefixLength));
+    }
+  }
+
+  private static int indexOf(Map<String, Integer> literals, String name) {
+    Integer index = literals.get(name);
+    return null == index ? NO_MATCH : index;
+  }
+
+  /**
+   * @return the regular expression as characters and wildcards, or null if it uses anything other
+   *     than literals, {@code .} and {@code .*}
+   */
+  static int[] compile(String regex) {
+    int[] tokens = new int[regex.length()];
+    int length = 0;
+    for (int i = 0; i < regex.length(); ++i) {
+      char c = regex.charAt(i);
+      switch (c) {
+        case '\\':
+          if (i + 1 == regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+            return null;
+          }
+          tokens[length++] = regex.charAt(++i);
+          break;
+        case '.':
+          if (i + 1 < regex.length() && regex.charAt(i + 1) == '*') {
+            tokens[length++] = ANY_SEQUENCE;
+            ++i;
+          } else {
+            tokens[length++] = ANY_CHAR;
+          }
+          break;
+        case '[':
+        case ']':
+        case '(':
+        case ')':
+        case '{':
+        case '}':
+        case '*':
+        case '+':
+        case '?':
+        case '^':
+        case '$':
+        case '|':
+          return null;
+        default:
+          if (Character.isSurrogate(c)) {
+            // a wildcard would only match half of the code point
+            return null;
+          }
+          tokens[length++] = c;
+      }
+    }
+    return Arrays.copyOf(tokens, length);
+  }
+
+  private static final class Glob {
+    final int rule;
+    final Pattern pattern;
+    // the literal prefix, which has already been matched by the trie
+    final int prefixLength;
+    final int[] tokens;
+
+    Glob(int rule, Pattern pattern, int[] tokens, int prefixLength) {
+      this.rule = rule;
+      this.pattern = pattern;
+      this.tokens = tokens;
+      this.prefixLength = prefixLength;
+    }
+
+    boolean matches(String name) {
+      int n = prefixLength;
+      int t = prefixLength;
+      // where to resume when the last .* needs to match more characters
+      int sequenceToken = -1;
+      int sequenceEnd = 0;
+      while (n < name.length()) {
+        if (t < tokens.length && (tokens[t] == ANY_CHAR || tokens[t] == name.charAt(n))) {
+          ++t;
+          ++n;
+        } else if (t < tokens.length && tokens[t] == ANY_SEQUENCE) {
+          sequenceToken = t++;
+          sequenceEnd = n;
+        } else if (sequenceToken >= 0) {
+          t = sequenceToken + 1;
+          n = ++sequenceEnd;
+        } else {
+          return false;
+        }
+      }
+      while (t < tokens.length && tokens[t] == ANY_SEQUENCE) {
+        ++t;
+      }
+      return t == tokens.length;
+    }
+  }
+
+  /** A trie of globs by their literal prefix, each node's globs are in rule order. */
+  private static final class Node {
+    private char[] keys = new char[0];
+    private Node[] children = new Node[0];
+    private Glob[] globs = new Glob[0];
+
+    void add(Glob glob) {
+      Node node = this;
+      for (int i = 0; i < glob.prefixLength; ++i) {
+        char c = (char) glob.tokens[i];
+        Node child = node.child(c);
+        if (null == child) {
+          child = new Node();
+          int position = -Arrays.binarySearch(node.keys, c) - 1;
+          node.keys = insert(node.keys, position, c);
+          Node[] children = Arrays.copyOf(node.children, node.children.length + 1);
+          System.arraycopy(
+              children, position, children, position + 1, node.keys.length - 1 - position);
+          children[position] = child;
+          node.children = children;
+        }
+        node = child;
+      }
+      node.globs = Arrays.copyOf(node.globs, node.globs.length + 1);
+      node.globs[node.globs.length - 1] = glob;
+    }
+
+    int firstMatch(String name, int first) {
+      // the wildcards match any char, whereas . matches a code point other than a line terminator
+      boolean plain = isPlain(name);
+      Node node = this;
+      for (int i = 0; null != node; ++i) {
+        for (Glob glob : node.globs) {
+          if (glob.rule >= first) {
+            break;
+          }
+          if (plain ? glob.matches(name) : glob.pattern.matcher(name).matches()) {
+            first = glob.rule;
+            break;
+          }
+        }
+        if (i == name.length()) {
+          break;
+        }
+        node = node.child(name.charAt(i));
+      }
+      return first;
+    }
+
+    private static boolean isPlain(String name) {
+      for (int i = 0; i < name.length(); ++i) {
+        char c = name.charAt(i);
+        if (Character.isSurrogate(c)
+            || c == '\n'
+            || c == '\r'
+            || c == '\u0085'
+            || c == '\u2028'
+            || c == '\u2029') {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private Node child(char c) {
+      int position = Arrays.binarySearch(keys, c);
+      return position < 0 ? null : children[position];
+    }
+
+    private static char[] insert(char[] keys, int position, char c) {
+      char[] inserted = new char[keys.length + 1];
+      System.arraycopy(keys, 0, inserted, 0, position);
+      inserted[position] = c;
+      System.arraycopy(keys, position, inserted, position + 1, keys.length - position);
+      return inserted;
+    }
+  }
+
+  private static final class Names {
+    final String service;
+    final String operation;
+
+    Names(String service, String operation) {
+      this.service = service;
+      this.operation = operation;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Names that = (Names) o;
+      return Objects.equals(service, that.service) && Objects.equals(operation, that.operation);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (null == service ? 0 : service.hashCode())
+          + (null == operation ? 0 : operation.hashCode());
+    }
+  }
+}
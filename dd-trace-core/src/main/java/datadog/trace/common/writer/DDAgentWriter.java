@@ -7,18 +7,25 @@ import static datadog.trace.api.ConfigDefaults.DEFAULT_TRACE_AGENT_PORT;
 import static datadog.trace.api.sampling.PrioritySampling.UNSET;
 import static datadog.trace.common.writer.ddagent.Prioritization.FAST_LANE;
 import static datadog.trace.core.http.OkHttpUtils.buildHttpClient;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 import com.timgroup.statsd.NoOpStatsDClient;
 import datadog.trace.api.Config;
+import datadog.trace.common.metrics.MetricsAggregator;
+import datadog.trace.common.metrics.NoOpMetricsAggregator;
 import datadog.trace.common.writer.ddagent.DDAgentApi;
 import datadog.trace.common.writer.ddagent.DDAgentFeaturesDiscovery;
 import datadog.trace.common.writer.ddagent.DDAgentResponseListener;
 import datadog.trace.common.writer.ddagent.PayloadDispatcher;
+import datadog.trace.common.writer.ddagent.PayloadSender;
 import datadog.trace.common.writer.ddagent.Prioritization;
 import datadog.trace.common.writer.ddagent.TraceProcessingWorker;
+import datadog.trace.common.writer.ddagent.TraceSpool;
 import datadog.trace.core.DDSpan;
 import datadog.trace.core.monitor.HealthMetrics;
 import datadog.trace.core.monitor.Monitoring;
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import lombok.extern.slf4j.Slf4j;
@@ -29,7 +36,7 @@ import okhttp3.OkHttpClient;
  * This writer buffers traces and sends them to the provided DDApi instance. Buffering is done with
  * a distruptor to limit blocking the application threads. Internally, the trace is serialized and
  * put onto a separate disruptor that does block to decouple the CPU intensive from the IO bound
- * threads.
+ * threads. Serialization can be spread over several threads with {@code serializationShards}.
  *
  * <p>[Application] -> [trace processing buffer] -> [serialized trace batching buffer] -> [dd-agent]
  *
@@ -65,6 +72,15 @@ public class DDAgentWriter implements Writer {
     Monitoring monitoring = Monitoring.DISABLED;
     boolean traceAgentV05Enabled = Config.get().isTraceAgentV05Enabled();
     boolean metricsReportingEnabled = Config.get().isTracerMetricsEnabled();
+    int serializationShards = Config.get().getTraceSerializationShards();
+    int serializationBuffers = Config.get().getTraceSerializationBuffers();
+    boolean serializationDirectBuffers = Config.get().isTraceSerializationDirectBuffers();
+    boolean spanRecycling = Config.get().isTraceSpanRecyclingEnabled();
+    String spoolDir = Config.get().getTraceSpoolDir();
+    int spoolMaxSize = Config.get().getTraceSpoolMaxSize();
+    int spoolMaxAgeSeconds = Config.get().getTraceSpoolMaxAge();
+    boolean adaptiveFlush = Config.get().isTraceAdaptiveFlushEnabled();
+    String agentCompression = Config.get().getTraceAgentCompression();
   }
 
   @lombok.Builder
@@ -82,7 +98,17 @@ public class DDAgentWriter implements Writer {
       final Monitoring monitoring,
       final boolean traceAgentV05Enabled,
       boolean metricsReportingEnabled,
-      DDAgentFeaturesDiscovery featureDiscovery) {
+      DDAgentFeaturesDiscovery featureDiscovery,
+      int serializationShards,
+      int serializationBuffers,
+      boolean serializationDirectBuffers,
+      boolean spanRecycling,
+      String spoolDir,
+      int spoolMaxSize,
+      int spoolMaxAgeSeconds,
+      MetricsAggregator metricsAggregator,
+      boolean adaptiveFlush,
+      String agentCompression) {
     HttpUrl agentUrl = HttpUrl.get("http://" + agentHost + ":" + traceAgentPort);
     OkHttpClient client =
         null == featureDiscovery || null == agentApi
@@ -94,23 +120,53 @@ public class DDAgentWriter implements Writer {
     }
     if (null == agentApi) {
       this.api =
-          new DDAgentApi(client, agentUrl, featureDiscovery, monitoring, metricsReportingEnabled);
+          new DDAgentApi(
+              client,
+              agentUrl,
+              featureDiscovery,
+              monitoring,
+              metricsReportingEnabled,
+              agentCompression);
     } else {
       this.api = agentApi;
     }
     this.discovery = featureDiscovery;
     this.healthMetrics = healthMetrics;
-    this.dispatcher = new PayloadDispatcher(featureDiscovery, api, healthMetrics, monitoring);
+    TraceSpool spool =
+        createSpool(spoolDir, spoolMaxSize, spoolMaxAgeSeconds, featureDiscovery, healthMetrics);
+    // each shard serializes into one of its buffers while the others wait to be sent, with a
+    // single buffer each shard sends its payloads itself
+    PayloadSender sender =
+        serializationBuffers > 1
+            ? new PayloadSender(
+                api, healthMetrics, serializationShards * (serializationBuffers - 1), spool)
+            : new PayloadSender(api, healthMetrics, spool);
+    this.dispatcher =
+        PayloadDispatcher.builder()
+            .featuresDiscovery(featureDiscovery)
+            .api(api)
+            .healthMetrics(healthMetrics)
+            .monitoring(monitoring)
+            .sender(sender)
+            .bufferCount(Math.max(1, serializationBuffers))
+            .directBuffers(serializationDirectBuffers)
+            .adaptiveFlush(adaptiveFlush)
+            .build();
     this.traceProcessingWorker =
-        new TraceProcessingWorker(
-            traceBufferSize,
-            healthMetrics,
-            monitoring,
-            dispatcher,
-            featureDiscovery,
-            null == prioritization ? FAST_LANE : prioritization,
-            flushFrequencySeconds,
-            TimeUnit.SECONDS);
+        TraceProcessingWorker.builder()
+            .capacity(traceBufferSize)
+            .healthMetrics(healthMetrics)
+            .monitoring(monitoring)
+            .dispatcher(dispatcher)
+            .droppingPolicy(featureDiscovery)
+            .prioritization(null == prioritization ? FAST_LANE : prioritization)
+            .flushInterval(flushFrequencySeconds)
+            .timeUnit(TimeUnit.SECONDS)
+            .shardCount(serializationShards)
+            .recycleSpans(spanRecycling)
+            .metricsAggregator(
+                null == metricsAggregator ? NoOpMetricsAggregator.INSTANCE : metricsAggregator)
+            .build();
   }
 
   private DDAgentWriter(
@@ -123,7 +179,13 @@ public class DDAgentWriter implements Writer {
     this.discovery = discovery;
     this.healthMetrics = healthMetrics;
     this.traceProcessingWorker = worker;
-    this.dispatcher = new PayloadDispatcher(discovery, api, healthMetrics, monitoring);
+    this.dispatcher =
+        PayloadDispatcher.builder()
+            .featuresDiscovery(discovery)
+            .api(api)
+            .healthMetrics(healthMetrics)
+            .monitoring(monitoring)
+            .build();
   }
 
   private DDAgentWriter(
@@ -139,6 +201,24 @@ public class DDAgentWriter implements Writer {
     this.dispatcher = dispatcher;
   }
 
+  private TraceSpool createSpool(
+      String spoolDir,
+      int maxSize,
+      int maxAgeSeconds,
+      DDAgentFeaturesDiscovery discovery,
+      HealthMetrics healthMetrics) {
+    if (null == spoolDir) {
+      return null;
+    }
+    try {
+      return new TraceSpool(
+          new File(spoolDir), maxSize, maxAgeSeconds, SECONDS, api, discovery, healthMetrics);
+    } catch (IOException e) {
+      log.warn("Traces which can't be sent will not be spooled to {}", spoolDir, e);
+      return null;
+    }
+  }
+
   public void addResponseListener(final DDAgentResponseListener listener) {
     api.addResponseListener(listener);
   }
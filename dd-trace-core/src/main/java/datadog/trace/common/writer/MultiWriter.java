@@ -4,6 +4,7 @@ import static datadog.trace.bootstrap.instrumentation.api.WriterConstants.MULTI_
 
 import com.timgroup.statsd.StatsDClient;
 import datadog.trace.api.Config;
+import datadog.trace.common.metrics.NoOpMetricsAggregator;
 import datadog.trace.common.sampling.Sampler;
 import datadog.trace.core.DDSpan;
 import datadog.trace.core.monitor.Monitoring;
@@ -25,8 +26,16 @@ public class MultiWriter implements Writer {
     int i = 0;
 
     for (String writerConfig : writerConfigs) {
+      // every writer is given the same traces, so none of them can recycle the spans
       writers[i] =
-          WriterFactory.createWriter(config, sampler, statsDClient, monitoring, writerConfig);
+          WriterFactory.createWriter(
+              config,
+              sampler,
+              statsDClient,
+              monitoring,
+              writerConfig,
+              false,
+              NoOpMetricsAggregator.INSTANCE);
       i++;
     }
   }
@@ -0,0 +1,302 @@
+package datadog.trace.common.writer;
+
+import static datadog.trace.api.sampling.PrioritySampling.SAMPLER_KEEP;
+import static datadog.trace.api.sampling.PrioritySampling.USER_DROP;
+import static datadog.trace.api.sampling.PrioritySampling.USER_KEEP;
+
+import datadog.trace.api.Config;
+import datadog.trace.api.DDId;
+import datadog.trace.common.metrics.MetricsAggregator;
+import datadog.trace.core.DDSpan;
+import datadog.trace.core.util.SimpleRateLimiter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which traces to send once they are complete, rather than when their root span starts, and
+ * drops the rest before they are serialized. A trace is kept when any of its spans:
+ *
+ * <ul>
+ *   <li>is an error
+ *   <li>took at least the latency threshold
+ *   <li>has one of the configured tags, with the configured value or any value for {@code *}
+ * </ul>
+ *
+ * or the metrics aggregator forced it to be kept, and otherwise up to a baseline rate of traces per
+ * second is kept, so that there are ordinary traces to compare with. Traces which the user
+ * explicitly kept or dropped are left alone. Kept traces are given a keep priority, so the agent
+ * keeps them too.
+ *
+ * <p>Chunks of partially flushed traces are held until the chunk with the local root span arrives,
+ * so the whole trace gets one decision; once a held chunk matches a rule, the rest of its trace is
+ * sent straight away. At most {@code bufferSize} chunks are held, when there are more the oldest
+ * trace is sent undecided rather than dropped. Held chunks are also sent undecided when the writer
+ * is flushed or closed. A trace dropped here is counted once, with the spans of all of its chunks.
+ *
+ * <p>The metrics aggregator sees traces before they are written, so client computed stats still
+ * include the traces dropped here. The agent can only compute stats from the traces it is sent, so
+ * every trace is sent while the aggregator is disabled.
+ */
+public class TailSamplingWriter implements Writer {
+
+  private static final String ANY_VALUE = "*";
+
+  private final Writer delegate;
+  private final MetricsAggregator metricsAggregator;
+  private final long latencyThresholdNanos;
+  private final Map<String, String> tags;
+  private final SimpleRateLimiter baseline;
+  private final int bufferSize;
+
+  // incomplete traces, oldest first, guarded by itself
+  private final LinkedHashMap<DDId, HeldTrace> held = new LinkedHashMap<>();
+  private int heldChunks;
+  // whether anything is held, so complete traces usually don't need the lock
+  private volatile boolean holding;
+
+  public TailSamplingWriter(Writer delegate, Config config, MetricsAggregator metricsAggregator) {
+    this(
+        delegate,
+        metricsAggregator,
+        config.getTraceTailSamplingLatencyThreshold(),
+        TimeUnit.MILLISECONDS,
+        config.getTraceTailSamplingTags(),
+        new SimpleRateLimiter(config.getTraceTailSamplingBaselineRate()),
+        config.getTraceTailSamplingBufferSize());
+  }
+
+  TailSamplingWriter(
+      Writer delegate,
+      MetricsAggregator metricsAggregator,
+      long latencyThreshold,
+      TimeUnit unit,
+      Map<String, String> tags,
+      SimpleRateLimiter baseline,
+      int bufferSize) {
+    this.delegate = delegate;
+    this.metricsAggregator = metricsAggregator;
+    this.latencyThresholdNanos = unit.toNanos(latencyThreshold);
+    this.tags = tags;
+    this.baseline = baseline;
+    this.bufferSize = Math.max(1, bufferSize);
+  }
+
+  @Override
+  public void write(List<DDSpan> trace) {
+    if (!metricsAggregator.isEnabled()) {
+      // without client computed stats, the agent's stats would miss the traces dropped here
+      sendUndecided(removeAll());
+      delegate.write(trace);
+      return;
+    }
+    DDSpan first = trace.get(0);
+    DDSpan root = first.getLocalRootSpan();
+    DDSpan sampled = null == root ? first : root;
+    int priority = sampled.samplingPriority();
+    boolean matched =
+        USER_KEEP == priority
+            || (USER_DROP != priority && (sampled.isForceKeep() || matches(trace)));
+    if (null == root || contains(trace, root)) {
+      // the trace is complete
+      HeldTrace heldTrace = remove(first.getTraceId());
+      if (USER_DROP != priority
+          && (matched || (null != heldTrace && heldTrace.kept) || baseline.tryAcquire())) {
+        keep(root);
+        if (null != heldTrace) {
+          writeAll(heldTrace.chunks);
+        }
+        delegate.write(trace);
+      } else {
+        delegate.incrementDropCounts(
+            null == heldTrace ? trace.size() : heldTrace.droppedSpans() + trace.size());
+      }
+    } else if (USER_DROP == priority) {
+      // counted with the rest of the trace, once the chunk with the root span arrives
+      holdDropped(first.getTraceId(), trace.size());
+    } else {
+      hold(first.getTraceId(), trace, matched, root);
+    }
+  }
+
+  private void hold(DDId traceId, List<DDSpan> trace, boolean matched, DDSpan root) {
+    List<List<DDSpan>> decided = null;
+    List<HeldTrace> evicted;
+    boolean kept;
+    synchronized (held) {
+      HeldTrace heldTrace = held.get(traceId);
+      if (null == heldTrace) {
+        heldTrace = new HeldTrace();
+        held.put(traceId, heldTrace);
+        holding = true;
+      }
+      if (matched && !heldTrace.kept) {
+        heldTrace.kept = true;
+        decided = heldTrace.chunks;
+        heldChunks -= decided.size();
+        heldTrace.chunks = new ArrayList<>(0);
+      }
+      kept = heldTrace.kept;
+      if (!kept) {
+        heldTrace.chunks.add(trace);
+        ++heldChunks;
+      }
+      evicted = evictIfFull();
+    }
+    if (kept) {
+      keep(root);
+      if (null != decided) {
+        writeAll(decided);
+      }
+      delegate.write(trace);
+    }
+    sendUndecided(evicted);
+  }
+
+  private void holdDropped(DDId traceId, int spanCount) {
+    List<HeldTrace> evicted;
+    synchronized (held) {
+      HeldTrace heldTrace = held.get(traceId);
+      if (null == heldTrace) {
+        heldTrace = new HeldTrace();
+        held.put(traceId, heldTrace);
+        holding = true;
+      }
+      heldTrace.droppedSpanCount += spanCount;
+      evicted = evictIfFull();
+    }
+    sendUndecided(evicted);
+  }
+
+  private HeldTrace remove(DDId traceId) {
+    if (!holding) {
+      return null;
+    }
+    synchronized (held) {
+      HeldTrace heldTrace = held.remove(traceId);
+      if (null != heldTrace) {
+        heldChunks -= heldTrace.chunks.size();
+        holding = !held.isEmpty();
+      }
+      return heldTrace;
+    }
+  }
+
+  private List<HeldTrace> removeAll() {
+    if (!holding) {
+      return Collections.emptyList();
+    }
+    synchronized (held) {
+      List<HeldTrace> removed = new ArrayList<>(held.values());
+      held.clear();
+      heldChunks = 0;
+      holding = false;
+      return removed;
+    }
+  }
+
+  private List<HeldTrace> evictIfFull() {
+    List<HeldTrace> evicted = Collections.emptyList();
+    Iterator<HeldTrace> it = held.values().iterator();
+    while ((heldChunks > bufferSize || held.size() > bufferSize) && it.hasNext()) {
+      HeldTrace oldest = it.next();
+      it.remove();
+      heldChunks -= oldest.chunks.size();
+      if (evicted.isEmpty()) {
+        evicted = new ArrayList<>();
+      }
+      evicted.add(oldest);
+    }
+    holding = !held.isEmpty();
+    return evicted;
+  }
+
+  private boolean matches(List<DDSpan> trace) {
+    for (DDSpan span : trace) {
+      if (span.isError() || span.getDurationNano() >= latencyThresholdNanos) {
+        return true;
+      }
+      for (Map.Entry<String, String> tag : tags.entrySet()) {
+        Object value = span.getTag(tag.getKey());
+        if (null != value
+            && (ANY_VALUE.equals(tag.getValue()) || tag.getValue().equals(String.valueOf(value)))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean contains(List<DDSpan> trace, DDSpan root) {
+    for (DDSpan span : trace) {
+      if (span == root) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void keep(DDSpan root) {
+    if (null != root && root.samplingPriority() <= 0) {
+      root.context().forceSamplingPriority(SAMPLER_KEEP);
+    }
+  }
+
+  private void writeAll(List<List<DDSpan>> chunks) {
+    for (List<DDSpan> chunk : chunks) {
+      delegate.write(chunk);
+    }
+  }
+
+  private void sendUndecided(List<HeldTrace> heldTraces) {
+    for (HeldTrace heldTrace : heldTraces) {
+      writeAll(heldTrace.chunks);
+      if (heldTrace.droppedSpanCount > 0) {
+        delegate.incrementDropCounts(heldTrace.droppedSpanCount);
+      }
+    }
+  }
+
+  @Override
+  public void start() {
+    delegate.start();
+  }
+
+  @Override
+  public boolean flush() {
+    // anything still held is sent undecided, as when it is evicted, rather than left behind
+    sendUndecided(removeAll());
+    return delegate.flush();
+  }
+
+  @Override
+  public void close() {
+    sendUndecided(removeAll());
+    delegate.close();
+  }
+
+  @Override
+  public void incrementDropCounts(int spanCount) {
+    delegate.incrementDropCounts(spanCount);
+  }
+
+  private static final class HeldTrace {
+    List<List<DDSpan>> chunks = new ArrayList<>();
+    // a chunk matched a rule, so the rest of the trace is sent as it arrives
+    boolean kept;
+    // spans of chunks the user dropped, which are only counted
+    int droppedSpanCount;
+
+    int droppedSpans() {
+      int spanCount = droppedSpanCount;
+      for (List<DDSpan> chunk : chunks) {
+        spanCount += chunk.size();
+      }
+      return spanCount;
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package datadog.trace.common.writer;
 
+import static datadog.trace.api.config.GeneralConfig.TRACER_METRICS_ENABLED;
 import static datadog.trace.api.config.TracerConfig.PRIORITIZATION_TYPE;
 import static datadog.trace.bootstrap.instrumentation.api.WriterConstants.*;
 import static datadog.trace.common.writer.ddagent.Prioritization.ENSURE_TRACE;
@@ -11,6 +12,8 @@ import datadog.common.container.ServerlessInfo;
 import datadog.trace.api.Config;
 import datadog.trace.api.ConfigDefaults;
 import datadog.trace.api.config.TracerConfig;
+import datadog.trace.common.metrics.MetricsAggregator;
+import datadog.trace.common.metrics.NoOpMetricsAggregator;
 import datadog.trace.common.sampling.Sampler;
 import datadog.trace.common.writer.ddagent.DDAgentApi;
 import datadog.trace.common.writer.ddagent.DDAgentFeaturesDiscovery;
@@ -34,12 +37,61 @@ public class WriterFactory {
     return createWriter(config, sampler, statsDClient, monitoring, config.getWriterType());
   }
 
+  public static Writer createWriter(
+      final Config config,
+      final Sampler sampler,
+      final StatsDClient statsDClient,
+      final Monitoring monitoring,
+      final MetricsAggregator metricsAggregator) {
+    Writer writer =
+        createWriter(
+            config,
+            sampler,
+            statsDClient,
+            monitoring,
+            config.getWriterType(),
+            config.isTraceSpanRecyclingEnabled(),
+            metricsAggregator);
+    if (config.isTraceTailSamplingEnabled()) {
+      if (metricsAggregator.isEnabled()) {
+        return new TailSamplingWriter(writer, config, metricsAggregator);
+      }
+      log.warn(
+          "Tail sampling is disabled because it needs tracer metrics, enable them with {}",
+          TRACER_METRICS_ENABLED);
+    }
+    return writer;
+  }
+
   public static Writer createWriter(
       final Config config,
       final Sampler sampler,
       final StatsDClient statsDClient,
       final Monitoring monitoring,
       final String configuredType) {
+    return createWriter(
+        config,
+        sampler,
+        statsDClient,
+        monitoring,
+        configuredType,
+        config.isTraceSpanRecyclingEnabled(),
+        NoOpMetricsAggregator.INSTANCE);
+  }
+
+  /**
+   * @param spanRecycling whether a {@link DDAgentWriter} may recycle spans after serializing them,
+   *     which must be false when other writers are given the same traces
+   * @param metricsAggregator the aggregator the tracer publishes traces to before writing them
+   */
+  static Writer createWriter(
+      final Config config,
+      final Sampler sampler,
+      final StatsDClient statsDClient,
+      final Monitoring monitoring,
+      final String configuredType,
+      final boolean spanRecycling,
+      final MetricsAggregator metricsAggregator) {
 
     if (LOGGING_WRITER_TYPE.equals(configuredType)) {
       return new LoggingWriter();
@@ -82,7 +134,12 @@ public class WriterFactory {
 
     DDAgentApi ddAgentApi =
         new DDAgentApi(
-            client, agentUrl, featuresDiscovery, monitoring, Config.get().isTracerMetricsEnabled());
+            client,
+            agentUrl,
+            featuresDiscovery,
+            monitoring,
+            Config.get().isTracerMetricsEnabled(),
+            config.getTraceAgentCompression());
 
     Prioritization prioritization =
         config.getEnumValue(PRIORITIZATION_TYPE, Prioritization.class, FAST_LANE);
@@ -98,6 +155,8 @@ public class WriterFactory {
             .prioritization(prioritization)
             .healthMetrics(new HealthMetrics(statsDClient))
             .monitoring(monitoring)
+            .spanRecycling(spanRecycling)
+            .metricsAggregator(metricsAggregator)
             .build();
 
     if (sampler instanceof DDAgentResponseListener) {
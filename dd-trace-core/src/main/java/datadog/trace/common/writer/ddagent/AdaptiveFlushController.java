@@ -0,0 +1,62 @@
+package datadog.trace.common.writer.ddagent;
+
+/**
+ * Tunes when a {@link PayloadDispatcher} sends what it has serialized, from the span rate and
+ * payload sizes it observes and the agent's response latency.
+ *
+ * <ul>
+ *   <li>The flush interval is the configured one, unless the agent is slow to respond, in which
+ *       case it is stretched to a few round trips (up to {@link #MAX_INTERVAL_MULTIPLE} times the
+ *       configured interval) so that fewer requests are in flight.
+ *   <li>The target payload size is what the observed span rate is expected to serialize in one
+ *       interval. At low load the interval elapses first, so traces are sent as promptly as before;
+ *       as load rises the payloads grow, up to just below the buffer's capacity, so the request
+ *       count stays low. A burst is flushed at a trace boundary when it reaches the target, rather
+ *       than overflowing the buffer part way through a trace.
+ * </ul>
+ *
+ * The rates are measured over the same periods as the {@code tracer.trace.buffer.fill.time} timer,
+ * from one payload to the next. Not thread-safe, each dispatcher has its own controller.
+ */
+final class AdaptiveFlushController {
+
+  static final int MIN_TARGET_SIZE = 64 << 10;
+  static final int MAX_INTERVAL_MULTIPLE = 4;
+  // the interval is kept to at least this many agent round trips
+  static final int LATENCY_MULTIPLE = 4;
+
+  private final int maxTargetSize;
+  private final PayloadSender sender;
+
+  private double spansPerNano;
+  private double bytesPerSpan;
+
+  /** @param bufferSize the capacity of the buffers the payloads are serialized into */
+  AdaptiveFlushController(int bufferSize, PayloadSender sender) {
+    // leave headroom for the trace being serialized when the target is reached
+    this.maxTargetSize = Math.max(MIN_TARGET_SIZE, bufferSize - (bufferSize >> 3));
+    this.sender = sender;
+  }
+
+  void onPayload(int sizeInBytes, int spanCount, long fillTimeNanos) {
+    if (spanCount > 0 && fillTimeNanos > 0) {
+      spansPerNano = smooth(spansPerNano, spanCount / (double) fillTimeNanos);
+      bytesPerSpan = smooth(bytesPerSpan, sizeInBytes / (double) spanCount);
+    }
+  }
+
+  long flushIntervalNanos(long baseIntervalNanos) {
+    long interval = LATENCY_MULTIPLE * sender.averageLatencyNanos();
+    return Math.min(
+        MAX_INTERVAL_MULTIPLE * baseIntervalNanos, Math.max(baseIntervalNanos, interval));
+  }
+
+  int targetSize(long flushIntervalNanos) {
+    double expected = spansPerNano * bytesPerSpan * flushIntervalNanos;
+    return (int) Math.min(maxTargetSize, Math.max(MIN_TARGET_SIZE, expected));
+  }
+
+  private static double smooth(double average, double sample) {
+    return average == 0 ? sample : average + (sample - average) / 4;
+  }
+}
@@ -1,5 +1,6 @@
 package datadog.trace.common.writer.ddagent;
 
+import static datadog.trace.core.http.OkHttpUtils.lz4RequestBodyOf;
 import static datadog.trace.core.http.OkHttpUtils.prepareRequest;
 
 import com.squareup.moshi.JsonAdapter;
@@ -31,6 +32,8 @@ public class DDAgentApi {
   private static final String DATADOG_DROPPED_TRACE_COUNT = "Datadog-Client-Dropped-P0-Traces";
   private static final String DATADOG_DROPPED_SPAN_COUNT = "Datadog-Client-Dropped-P0-Spans";
   private static final String DATADOG_AGENT_STATE = "Datadog-Agent-State";
+  private static final String CONTENT_ENCODING = "Content-Encoding";
+  static final String LZ4 = "lz4";
 
   private final List<DDAgentResponseListener> responseListeners = new ArrayList<>();
 
@@ -55,6 +58,7 @@ public class DDAgentApi {
   private final OkHttpClient httpClient;
   private final HttpUrl agentUrl;
   private final boolean metricsEnabled;
+  private final String compression;
 
   private final IOLogger ioLogger = new IOLogger(log);
 
@@ -64,12 +68,32 @@ public class DDAgentApi {
       DDAgentFeaturesDiscovery featuresDiscovery,
       Monitoring monitoring,
       boolean metricsEnabled) {
+    this(client, agentUrl, featuresDiscovery, monitoring, metricsEnabled, null);
+  }
+
+  /**
+   * @param compression the encoding to compress payloads with when the agent supports it, only
+   *     {@code lz4} is supported, null to send payloads uncompressed
+   */
+  public DDAgentApi(
+      OkHttpClient client,
+      HttpUrl agentUrl,
+      DDAgentFeaturesDiscovery featuresDiscovery,
+      Monitoring monitoring,
+      boolean metricsEnabled,
+      String compression) {
     this.featuresDiscovery = featuresDiscovery;
     this.agentUrl = agentUrl;
     this.httpClient = client;
     this.sendPayloadTimer = monitoring.newTimer("trace.agent.send.time");
     this.agentErrorCounter = monitoring.newCounter("trace.agent.error.counter");
     this.metricsEnabled = metricsEnabled;
+    if (null == compression || LZ4.equalsIgnoreCase(compression)) {
+      this.compression = compression;
+    } else {
+      log.warn("Unsupported compression {}, payloads will be sent uncompressed", compression);
+      this.compression = null;
+    }
   }
 
   public void addResponseListener(final DDAgentResponseListener listener) {
@@ -93,7 +117,7 @@ public class DDAgentApi {
 
     HttpUrl tracesUrl = agentUrl.resolve(tracesEndpoint);
     try {
-      final Request request =
+      final Request.Builder builder =
           prepareRequest(tracesUrl)
               .addHeader(DATADOG_CLIENT_COMPUTED_TOP_LEVEL, "true")
               .addHeader(
@@ -101,9 +125,14 @@ public class DDAgentApi {
                   metricsEnabled && featuresDiscovery.supportsMetrics() ? "true" : "")
               .addHeader(X_DATADOG_TRACE_COUNT, Integer.toString(payload.traceCount()))
               .addHeader(DATADOG_DROPPED_TRACE_COUNT, Long.toString(payload.droppedTraces()))
-              .addHeader(DATADOG_DROPPED_SPAN_COUNT, Long.toString(payload.droppedSpans()))
-              .put(payload.toRequest())
-              .build();
+              .addHeader(DATADOG_DROPPED_SPAN_COUNT, Long.toString(payload.droppedSpans()));
+      // compression is only negotiated once the agent has been discovered
+      if (null != compression && featuresDiscovery.supportsContentEncoding(compression)) {
+        builder.addHeader(CONTENT_ENCODING, compression).put(lz4RequestBodyOf(payload.toRequest()));
+      } else {
+        builder.put(payload.toRequest());
+      }
+      final Request request = builder.build();
       this.totalTraces += payload.traceCount();
       this.receivedTraces += payload.traceCount();
       try (final Recording recording = sendPayloadTimer.start();
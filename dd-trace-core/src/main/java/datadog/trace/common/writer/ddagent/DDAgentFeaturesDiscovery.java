@@ -8,6 +8,7 @@ import datadog.trace.core.monitor.Monitoring;
 import datadog.trace.core.monitor.Recording;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.ListIterator;
@@ -41,6 +42,8 @@ public class DDAgentFeaturesDiscovery implements DroppingPolicy {
   private volatile String metricsEndpoint;
   private volatile boolean supportsDropping;
   private volatile String state;
+  private volatile boolean agentReachable;
+  private volatile List<String> contentEncodings = Collections.emptyList();
 
   private final String[] traceEndpoints;
   private final String[] metricsEndpoints = {V5_METRICS_ENDPOINT};
@@ -62,10 +65,13 @@ public class DDAgentFeaturesDiscovery implements DroppingPolicy {
     // 3. fallback if the endpoint couldn't be found or the response couldn't be parsed
     try (Recording recording = discoveryTimer.start()) {
       boolean fallback = true;
+      boolean reachable = false;
       try (Response response =
           client
               .newCall(new Request.Builder().url(agentBaseUrl.resolve("info").url()).build())
               .execute()) {
+        // any response, even from an agent without the info endpoint, means the agent is up
+        reachable = true;
         if (response.isSuccessful()) {
           fallback = !processInfoResponse(response.body().string());
         }
@@ -74,6 +80,7 @@ public class DDAgentFeaturesDiscovery implements DroppingPolicy {
       }
       if (fallback) {
         this.supportsDropping = false;
+        this.contentEncodings = Collections.emptyList();
         log.debug("Falling back to probing, client dropping will be disabled");
         this.metricsEndpoint = probeTracerMetricsEndpoint();
         // don't want to rewire the traces pipeline
@@ -81,6 +88,7 @@ public class DDAgentFeaturesDiscovery implements DroppingPolicy {
           this.traceEndpoint = probeTracesEndpoint();
         }
       }
+      this.agentReachable = reachable;
     }
   }
 
@@ -163,6 +171,9 @@ public class DDAgentFeaturesDiscovery implements DroppingPolicy {
       this.supportsDropping =
           null != canDrop
               && ("true".equalsIgnoreCase(String.valueOf(canDrop)) || Boolean.TRUE.equals(canDrop));
+      List<String> encodings = (List<String>) map.get("content_encodings");
+      this.contentEncodings =
+          null == encodings ? Collections.<String>emptyList() : new ArrayList<>(encodings);
       return true;
     } catch (Throwable error) {
       log.debug("Error parsing trace agent /info response", error);
@@ -178,6 +189,16 @@ public class DDAgentFeaturesDiscovery implements DroppingPolicy {
     return supportsDropping;
   }
 
+  /** @return whether the agent accepts trace payloads compressed with the encoding */
+  public boolean supportsContentEncoding(String encoding) {
+    for (String supported : contentEncodings) {
+      if (supported.equalsIgnoreCase(encoding)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   public String getMetricsEndpoint() {
     return metricsEndpoint;
   }
@@ -186,6 +207,11 @@ public class DDAgentFeaturesDiscovery implements DroppingPolicy {
     return traceEndpoint;
   }
 
+  /** @return whether the agent responded the last time features were discovered */
+  public boolean isAgentReachable() {
+    return agentReachable;
+  }
+
   private void errorQueryingEndpoint(String endpoint, Throwable t) {
     log.debug("Error querying {} at {}", endpoint, agentBaseUrl, t);
   }
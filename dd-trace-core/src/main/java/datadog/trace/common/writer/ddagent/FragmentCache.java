@@ -0,0 +1,122 @@
+package datadog.trace.common.writer.ddagent;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import datadog.trace.bootstrap.instrumentation.api.UTF8BytesString;
+import datadog.trace.core.serialization.GrowableBuffer;
+import datadog.trace.core.serialization.msgpack.MsgPackWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Caches msgpack encoded key-value pairs, so a field whose value is usually one of a few instances,
+ * such as the service name, can be written with a single bulk put. The cache is direct mapped by
+ * the identity of the value, so finding a value which has been seen before is a pointer compare. A
+ * value which collides with another is not cached until the cache is cleared, so values which are
+ * never repeated are rejected before anything is encoded, rather than each replacing the last. Not
+ * thread-safe, each mapper has its own caches.
+ */
+final class FragmentCache {
+
+  // longer values are unlikely to be repeated often enough to be worth caching
+  private static final int MAX_VALUE_LENGTH = 128;
+
+  // null when only the values are cached, such as for tag keys
+  private final byte[] key;
+  private final Object[] values;
+  private final byte[][] fragments;
+  private final int mask;
+
+  /** @param capacity a power of two */
+  FragmentCache(int capacity) {
+    this(null, capacity);
+  }
+
+  /** @param capacity a power of two */
+  FragmentCache(byte[] key, int capacity) {
+    this.key = key;
+    this.values = new Object[capacity];
+    this.fragments = new byte[capacity][];
+    this.mask = capacity - 1;
+  }
+
+  /** @return the encoded key, if there is one, and value, or null if the value can't be cached */
+  byte[] get(CharSequence value) {
+    if (null == value) {
+      return null;
+    }
+    int hash = System.identityHashCode(value);
+    int slot = (hash ^ (hash >>> 16)) & mask;
+    Object cached = values[slot];
+    if (cached == value) {
+      return fragments[slot];
+    }
+    if (null != cached || value.length() > MAX_VALUE_LENGTH) {
+      return null;
+    }
+    byte[] utf8;
+    // other implementations may be mutable
+    if (value instanceof UTF8BytesString) {
+      utf8 = ((UTF8BytesString) value).getUtf8Bytes();
+    } else if (value instanceof String) {
+      utf8 = ((String) value).getBytes(UTF_8);
+    } else {
+      return null;
+    }
+    if (utf8.length > MAX_VALUE_LENGTH) {
+      return null;
+    }
+    byte[] fragment;
+    if (null == key) {
+      fragment = encode(utf8);
+    } else {
+      fragment = new byte[encodedLength(key) + encodedLength(utf8)];
+      writeString(utf8, fragment, writeString(key, fragment, 0));
+    }
+    values[slot] = value;
+    fragments[slot] = fragment;
+    return fragment;
+  }
+
+  /** Makes room for the values seen from now on */
+  void clear() {
+    Arrays.fill(values, null);
+    Arrays.fill(fragments, null);
+  }
+
+  /** @return the key encoded as a msgpack string */
+  static byte[] encode(byte[] key) {
+    byte[] encoded = new byte[encodedLength(key)];
+    writeString(key, encoded, 0);
+    return encoded;
+  }
+
+  /** @return the key and value encoded as a msgpack string and integer */
+  static byte[] encode(byte[] key, int value) {
+    GrowableBuffer buffer = new GrowableBuffer(64);
+    MsgPackWriter writer = new MsgPackWriter(buffer);
+    writer.writeUTF8(key);
+    writer.writeInt(value);
+    ByteBuffer encoded = buffer.slice();
+    byte[] fragment = new byte[encoded.remaining()];
+    encoded.get(fragment);
+    return fragment;
+  }
+
+  private static int encodedLength(byte[] utf8) {
+    // only fixstr and str8 headers are needed for strings of at most 255 bytes, and the same
+    // headers are chosen as MsgPackWriter would
+    return (utf8.length < 0x10 ? 1 : 2) + utf8.length;
+  }
+
+  private static int writeString(byte[] utf8, byte[] target, int position) {
+    if (utf8.length < 0x10) {
+      target[position++] = (byte) (MsgPackWriter.FIXSTR | utf8.length);
+    } else {
+      target[position++] = MsgPackWriter.STR8;
+      target[position++] = (byte) utf8.length;
+    }
+    System.arraycopy(utf8, 0, target, position, utf8.length);
+    return position + utf8.length;
+  }
+}
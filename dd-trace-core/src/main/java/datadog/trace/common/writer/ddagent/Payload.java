@@ -4,6 +4,7 @@ import static datadog.trace.core.serialization.msgpack.MsgPackWriter.ARRAY16;
 import static datadog.trace.core.serialization.msgpack.MsgPackWriter.ARRAY32;
 import static datadog.trace.core.serialization.msgpack.MsgPackWriter.FIXARRAY;
 
+import datadog.trace.core.serialization.BufferPool;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
@@ -17,6 +18,7 @@ public abstract class Payload {
   private long droppedTraces = 0;
   private long droppedSpans = 0;
   protected ByteBuffer body = EMPTY_ARRAY.duplicate();
+  private BufferPool bufferPool;
 
   public Payload withBody(int traceCount, ByteBuffer body) {
     this.traceCount = traceCount;
@@ -48,12 +50,44 @@ public abstract class Payload {
     return droppedSpans;
   }
 
+  /**
+   * Marks the body as acquired from the pool, so it is released back to the pool once the payload
+   * has been sent.
+   */
+  public Payload withBufferPool(BufferPool bufferPool) {
+    this.bufferPool = bufferPool;
+    return this;
+  }
+
+  /**
+   * Copies any buffers of this payload which still belong to the mapper and are overwritten once it
+   * is reset, so that the payload can be sent after serialization has moved on.
+   */
+  Payload detach() {
+    return this;
+  }
+
+  /** Releases the body to the pool it was acquired from, if any. */
+  void release() {
+    if (null != bufferPool) {
+      bufferPool.release(body);
+      bufferPool = null;
+    }
+  }
+
   abstract int sizeInBytes();
 
   abstract void writeTo(WritableByteChannel channel) throws IOException;
 
   abstract RequestBody toRequest();
 
+  protected static ByteBuffer copyOf(ByteBuffer buffer) {
+    ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+    copy.put(buffer.duplicate());
+    copy.flip();
+    return copy;
+  }
+
   protected int msgpackArrayHeaderSize(int count) {
     if (count < 0x10) {
       return 1;
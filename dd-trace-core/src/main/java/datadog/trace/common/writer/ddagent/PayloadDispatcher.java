@@ -4,21 +4,21 @@ import datadog.trace.core.CoreSpan;
 import datadog.trace.core.monitor.HealthMetrics;
 import datadog.trace.core.monitor.Monitoring;
 import datadog.trace.core.monitor.Recording;
+import datadog.trace.core.serialization.BufferPool;
 import datadog.trace.core.serialization.ByteBufferConsumer;
 import datadog.trace.core.serialization.FlushingBuffer;
 import datadog.trace.core.serialization.WritableFormatter;
 import datadog.trace.core.serialization.msgpack.MsgPackWriter;
 import java.nio.ByteBuffer;
 import java.util.List;
-import lombok.extern.slf4j.Slf4j;
 import org.jctools.counters.CountersFactory;
 import org.jctools.counters.FixedSizeStripedLongCounter;
 
-@Slf4j
 public class PayloadDispatcher implements ByteBufferConsumer {
 
   private final DDAgentApi api;
   private final DDAgentFeaturesDiscovery featuresDiscovery;
+  private final SharedDiscovery sharedDiscovery;
   private final HealthMetrics healthMetrics;
   private final Monitoring monitoring;
 
@@ -26,20 +26,90 @@ public class PayloadDispatcher implements ByteBufferConsumer {
   private TraceMapper traceMapper;
   private WritableFormatter packer;
 
-  private final FixedSizeStripedLongCounter droppedSpanCount =
-      CountersFactory.createFixedSizeStripedCounter(8);
-  private final FixedSizeStripedLongCounter droppedTraceCount =
-      CountersFactory.createFixedSizeStripedCounter(8);
+  private final PayloadSender sender;
+  private final int bufferCount;
+  private final boolean directBuffers;
+  private BufferPool bufferPool;
 
-  public PayloadDispatcher(
+  private final boolean adaptiveFlush;
+  private AdaptiveFlushController flushController;
+  private FlushingBuffer flushingBuffer;
+  private long flushIntervalNanos;
+  private long fillStartNanos;
+  private int spanCount;
+
+  private final FixedSizeStripedLongCounter droppedSpanCount;
+  private final FixedSizeStripedLongCounter droppedTraceCount;
+
+  // Apply defaults to the class generated by lombok.
+  public static class PayloadDispatcherBuilder {
+    int bufferCount = 1;
+    FixedSizeStripedLongCounter droppedSpanCount = CountersFactory.createFixedSizeStripedCounter(8);
+    FixedSizeStripedLongCounter droppedTraceCount =
+        CountersFactory.createFixedSizeStripedCounter(8);
+  }
+
+  /**
+   * @param sender sends the payloads, when it is asynchronous serialization continues into one of
+   *     {@code bufferCount} buffers while earlier payloads are being sent. Defaults to a
+   *     synchronous sender.
+   * @param directBuffers whether those buffers are allocated off heap
+   * @param adaptiveFlush whether the payload size and flush interval are tuned to the traffic, see
+   *     {@link AdaptiveFlushController}
+   * @param sharedDiscovery shared by the shards of a dispatcher, see {@link #newShard()}
+   * @param droppedSpanCount shared by the shards of a dispatcher, see {@link #newShard()}
+   * @param droppedTraceCount shared by the shards of a dispatcher, see {@link #newShard()}
+   */
+  @lombok.Builder
+  private PayloadDispatcher(
       DDAgentFeaturesDiscovery featuresDiscovery,
       DDAgentApi api,
       HealthMetrics healthMetrics,
-      Monitoring monitoring) {
+      Monitoring monitoring,
+      PayloadSender sender,
+      int bufferCount,
+      boolean directBuffers,
+      boolean adaptiveFlush,
+      SharedDiscovery sharedDiscovery,
+      FixedSizeStripedLongCounter droppedSpanCount,
+      FixedSizeStripedLongCounter droppedTraceCount) {
     this.featuresDiscovery = featuresDiscovery;
+    this.sharedDiscovery =
+        null == sharedDiscovery ? new SharedDiscovery(featuresDiscovery) : sharedDiscovery;
     this.api = api;
     this.healthMetrics = healthMetrics;
     this.monitoring = monitoring;
+    this.sender = null == sender ? new PayloadSender(api, healthMetrics) : sender;
+    this.bufferCount = bufferCount;
+    this.directBuffers = directBuffers;
+    this.adaptiveFlush = adaptiveFlush;
+    this.droppedSpanCount = droppedSpanCount;
+    this.droppedTraceCount = droppedTraceCount;
+  }
+
+  /**
+   * Creates a dispatcher with its own serialization buffer, which can be used concurrently with
+   * this one. The new dispatcher shares this dispatcher's sender, dropped trace counts, and the
+   * discovery of the agent's features.
+   */
+  PayloadDispatcher newShard() {
+    return builder()
+        .featuresDiscovery(featuresDiscovery)
+        .api(api)
+        .healthMetrics(healthMetrics)
+        .monitoring(monitoring)
+        .sender(sender)
+        .bufferCount(bufferCount)
+        .directBuffers(directBuffers)
+        .adaptiveFlush(adaptiveFlush)
+        .sharedDiscovery(sharedDiscovery)
+        .droppedSpanCount(droppedSpanCount)
+        .droppedTraceCount(droppedTraceCount)
+        .build();
+  }
+
+  PayloadSender getSender() {
+    return sender;
   }
 
   void flush() {
@@ -48,6 +118,18 @@ public class PayloadDispatcher implements ByteBufferConsumer {
     }
   }
 
+  /**
+   * @return how long to wait between flushes, which is {@code baseIntervalNanos} unless the flush
+   *     interval is adaptive
+   */
+  long flushIntervalNanos(long baseIntervalNanos) {
+    if (null == flushController) {
+      return baseIntervalNanos;
+    }
+    this.flushIntervalNanos = flushController.flushIntervalNanos(baseIntervalNanos);
+    return flushIntervalNanos;
+  }
+
   public void onDroppedTrace(int spanCount) {
     droppedSpanCount.inc(spanCount);
     droppedTraceCount.inc();
@@ -60,6 +142,7 @@ public class PayloadDispatcher implements ByteBufferConsumer {
     // introducing an unbound queue and another thread to do the IO
     // however, we can't block the application threads from here.
     if (null != traceMapper) {
+      spanCount += trace.size();
       packer.format(trace, traceMapper);
     } else {
       healthMetrics.onFailedPublish(trace.get(0).samplingPriority());
@@ -68,8 +151,7 @@ public class PayloadDispatcher implements ByteBufferConsumer {
 
   private void selectTraceMapper() {
     if (null == traceMapper) {
-      featuresDiscovery.discover();
-      String tracesUrl = featuresDiscovery.getTraceEndpoint();
+      String tracesUrl = sharedDiscovery.traceEndpoint();
       if (DDAgentFeaturesDiscovery.V5_ENDPOINT.equalsIgnoreCase(tracesUrl)) {
         this.traceMapper = new TraceMapperV0_5();
       } else if (null != tracesUrl) {
@@ -79,8 +161,21 @@ public class PayloadDispatcher implements ByteBufferConsumer {
         this.batchTimer =
             monitoring.newTimer(
                 "tracer.trace.buffer.fill.time", "endpoint:" + traceMapper.endpoint());
-        this.packer = new MsgPackWriter(new FlushingBuffer(traceMapper.messageBufferSize(), this));
+        if (sender.isAsync()) {
+          this.bufferPool =
+              new BufferPool(
+                  traceMapper.messageBufferSize(), bufferCount, directBuffers, healthMetrics);
+          this.flushingBuffer = new FlushingBuffer(bufferPool, this);
+        } else {
+          this.flushingBuffer = new FlushingBuffer(traceMapper.messageBufferSize(), this);
+        }
+        this.packer = new MsgPackWriter(flushingBuffer);
+        if (adaptiveFlush) {
+          this.flushController =
+              new AdaptiveFlushController(traceMapper.messageBufferSize(), sender);
+        }
         batchTimer.start();
+        this.fillStartNanos = System.nanoTime();
       }
     }
   }
@@ -100,22 +195,60 @@ public class PayloadDispatcher implements ByteBufferConsumer {
     if (messageCount > 0) {
       batchTimer.reset();
       Payload payload = newPayload(messageCount, buffer);
-      final int sizeInBytes = payload.sizeInBytes();
-      healthMetrics.onSerialize(sizeInBytes);
-      DDAgentApi.Response response = api.sendSerializedTraces(payload);
-      traceMapper.reset();
-      if (response.success()) {
-        if (log.isDebugEnabled()) {
-          log.debug("Successfully sent {} traces to the API", messageCount);
-        }
-        healthMetrics.onSend(messageCount, sizeInBytes, response);
+      healthMetrics.onSerialize(payload.sizeInBytes());
+      onPayload(payload.sizeInBytes());
+      if (null != bufferPool) {
+        // the body was handed over by the buffer, but the mapper's buffers are reused
+        sender.send(payload.withBufferPool(bufferPool).detach());
       } else {
-        if (log.isDebugEnabled()) {
-          log.debug(
-              "Failed to send {} traces of size {} bytes to the API", messageCount, sizeInBytes);
+        sender.send(payload);
+      }
+      traceMapper.reset();
+    }
+  }
+
+  private void onPayload(int sizeInBytes) {
+    long now = System.nanoTime();
+    if (null != flushController) {
+      flushController.onPayload(sizeInBytes, spanCount, now - fillStartNanos);
+      // until the serializer has asked for the interval, there's nothing to size payloads from
+      if (flushIntervalNanos > 0) {
+        flushingBuffer.setFlushThreshold(flushController.targetSize(flushIntervalNanos));
+      }
+    }
+    this.fillStartNanos = now;
+    this.spanCount = 0;
+  }
+
+  /**
+   * Discovers the agent's features for all the shards of a dispatcher, so the agent is queried once
+   * rather than once per shard. While the agent can't be discovered, it is queried again for the
+   * next trace of any shard, but shards which were waiting for an attempt use its answer.
+   */
+  static final class SharedDiscovery {
+    private final DDAgentFeaturesDiscovery featuresDiscovery;
+    private volatile int attempts;
+    private volatile String traceEndpoint;
+
+    SharedDiscovery(DDAgentFeaturesDiscovery featuresDiscovery) {
+      this.featuresDiscovery = featuresDiscovery;
+    }
+
+    /** @return the trace endpoint, or null if the agent couldn't be discovered */
+    String traceEndpoint() {
+      int seen = attempts;
+      String endpoint = traceEndpoint;
+      if (null == endpoint) {
+        synchronized (this) {
+          if (seen == attempts) {
+            featuresDiscovery.discover();
+            traceEndpoint = featuresDiscovery.getTraceEndpoint();
+            attempts = seen + 1;
+          }
+          endpoint = traceEndpoint;
         }
-        healthMetrics.onFailedSend(messageCount, sizeInBytes, response);
       }
+      return endpoint;
     }
   }
 }
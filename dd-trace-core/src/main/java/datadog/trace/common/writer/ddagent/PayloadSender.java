@@ -0,0 +1,180 @@
+package datadog.trace.common.writer.ddagent;
+
+import static datadog.trace.util.AgentThreadFactory.AgentThread.TRACE_SENDER;
+import static datadog.trace.util.AgentThreadFactory.THREAD_JOIN_TIMOUT_MS;
+import static datadog.trace.util.AgentThreadFactory.newAgentThread;
+
+import datadog.trace.core.monitor.HealthMetrics;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sends serialized payloads to the agent. A sender created with a capacity sends from a dedicated
+ * thread, so that the IO bound requests are decoupled from the CPU bound serialization. Payloads
+ * are handed over through a small bounded queue: a single slow request does not hold up the
+ * serializers, but if the agent can't keep up the serializers block rather than discard work which
+ * has already been serialized. A sender created without a capacity sends on the calling thread.
+ */
+@Slf4j
+public class PayloadSender implements Runnable, AutoCloseable {
+
+  private final DDAgentApi api;
+  private final HealthMetrics healthMetrics;
+  private final BlockingQueue<Object> queue;
+  private final Thread senderThread;
+  private final TraceSpool spool;
+
+  // smoothed duration of the requests to the agent
+  private volatile long averageLatencyNanos;
+
+  public PayloadSender(DDAgentApi api, HealthMetrics healthMetrics) {
+    this(api, healthMetrics, (TraceSpool) null);
+  }
+
+  /** @param spool keeps payloads which couldn't be sent to replay them later, may be null */
+  public PayloadSender(DDAgentApi api, HealthMetrics healthMetrics, TraceSpool spool) {
+    this.api = api;
+    this.healthMetrics = healthMetrics;
+    this.queue = null;
+    this.senderThread = null;
+    this.spool = spool;
+  }
+
+  public PayloadSender(DDAgentApi api, HealthMetrics healthMetrics, int capacity) {
+    this(api, healthMetrics, capacity, null);
+  }
+
+  /** @param spool keeps payloads which couldn't be sent to replay them later, may be null */
+  public PayloadSender(
+      DDAgentApi api, HealthMetrics healthMetrics, int capacity, TraceSpool spool) {
+    this.api = api;
+    this.healthMetrics = healthMetrics;
+    this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    this.senderThread = newAgentThread(TRACE_SENDER, this);
+    this.spool = spool;
+  }
+
+  /** @return whether payloads are sent asynchronously, in which case they must be detached */
+  boolean isAsync() {
+    return null != senderThread;
+  }
+
+  public void start() {
+    if (null != senderThread) {
+      senderThread.start();
+    }
+    if (null != spool) {
+      spool.start();
+    }
+  }
+
+  @Override
+  public void close() {
+    if (null != senderThread) {
+      senderThread.interrupt();
+      try {
+        senderThread.join(THREAD_JOIN_TIMOUT_MS);
+      } catch (InterruptedException ignored) {
+      }
+    }
+    if (null != spool) {
+      spool.close();
+    }
+  }
+
+  /**
+   * Sends the payload, or when asynchronous queues it to be sent, blocking while the queue is full.
+   * A queued payload must not share buffers with the serializer which produced it.
+   */
+  void send(Payload payload) {
+    if (null == queue) {
+      sendNow(payload);
+      return;
+    }
+    try {
+      queue.put(payload);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.debug("Interrupted while queueing {} traces to send", payload.traceCount());
+      payload.release();
+    }
+  }
+
+  /** @return the smoothed duration of the requests sent to the agent, or 0 before the first one */
+  long averageLatencyNanos() {
+    return averageLatencyNanos;
+  }
+
+  /** Syncs the flush event once all payloads queued before it have been sent. */
+  void sync(FlushEvent flush) {
+    if (null == queue) {
+      flush.sync();
+      return;
+    }
+    try {
+      queue.put(flush);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void run() {
+    Thread thread = Thread.currentThread();
+    try {
+      while (!thread.isInterrupted()) {
+        Object event = queue.take();
+        if (event instanceof Payload) {
+          sendNow((Payload) event);
+        } else if (event instanceof FlushEvent) {
+          ((FlushEvent) event).sync();
+        }
+      }
+    } catch (InterruptedException e) {
+      thread.interrupt();
+    }
+    log.debug("Datadog trace sender exited. Sending traces stopped");
+  }
+
+  private void sendNow(Payload payload) {
+    final int messageCount = payload.traceCount();
+    final int sizeInBytes = payload.sizeInBytes();
+    DDAgentApi.Response response;
+    boolean spooled = false;
+    try {
+      long start = System.nanoTime();
+      response = api.sendSerializedTraces(payload);
+      recordLatency(System.nanoTime() - start);
+      // the payload is spooled before its buffers are released
+      spooled =
+          !response.success()
+              && null != spool
+              && TraceSpool.isRetriable(response)
+              && spool.append(payload);
+    } finally {
+      payload.release();
+    }
+    if (response.success()) {
+      if (log.isDebugEnabled()) {
+        log.debug("Successfully sent {} traces to the API", messageCount);
+      }
+      healthMetrics.onSend(messageCount, sizeInBytes, response);
+    } else {
+      if (log.isDebugEnabled()) {
+        log.debug(
+            "Failed to send {} traces of size {} bytes to the API{}",
+            messageCount,
+            sizeInBytes,
+            spooled ? ", spooled to replay later" : "");
+      }
+      healthMetrics.onFailedSend(messageCount, sizeInBytes, response);
+    }
+  }
+
+  private void recordLatency(long latencyNanos) {
+    // a synchronous sender is shared by the serializers, but an update lost to a race is harmless
+    long average = averageLatencyNanos;
+    averageLatencyNanos = average == 0 ? latencyNanos : average + (latencyNanos - average) / 4;
+  }
+}
@@ -2,12 +2,27 @@ package datadog.trace.common.writer.ddagent;
 
 import static datadog.trace.common.sampling.PrioritySampling.SAMPLER_DROP;
 import static datadog.trace.common.sampling.PrioritySampling.USER_DROP;
+import static datadog.trace.common.sampling.PrioritySampling.USER_KEEP;
+import static datadog.trace.common.writer.ddagent.ShedReason.ERROR;
+import static datadog.trace.common.writer.ddagent.ShedReason.LATENCY_OUTLIER;
+import static datadog.trace.common.writer.ddagent.ShedReason.MANUAL_KEEP;
+import static datadog.trace.common.writer.ddagent.ShedReason.SAMPLED;
 
+import com.timgroup.statsd.NoOpStatsDClient;
+import datadog.trace.api.DDId;
+import datadog.trace.common.metrics.MetricsAggregator;
+import datadog.trace.common.metrics.NoOpMetricsAggregator;
 import datadog.trace.core.CoreSpan;
+import datadog.trace.core.monitor.HealthMetrics;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.TreeSet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import org.jctools.queues.MessagePassingQueue;
 
 public enum Prioritization {
   ENSURE_TRACE {
@@ -23,11 +38,55 @@ public enum Prioritization {
         final Queue<Object> primary, final Queue<Object> secondary, DroppingPolicy droppingPolicy) {
       return new FastLaneStrategy(primary, secondary, droppingPolicy);
     }
+  },
+  SCORED {
+    @Override
+    public PrioritizationStrategy create(
+        Queue<Object> primary, Queue<Object> secondary, DroppingPolicy droppingPolicy) {
+      // without an aggregator nothing is a latency outlier, and shed traces aren't reported
+      return create(
+          primary,
+          secondary,
+          droppingPolicy,
+          NoOpMetricsAggregator.INSTANCE,
+          new HealthMetrics(new NoOpStatsDClient()),
+          null);
+    }
+
+    @Override
+    public PrioritizationStrategy create(
+        Queue<Object> primary,
+        Queue<Object> secondary,
+        DroppingPolicy droppingPolicy,
+        MetricsAggregator metricsAggregator,
+        HealthMetrics healthMetrics,
+        PayloadDispatcher dispatcher) {
+      return new ScoredStrategy(
+          primary, secondary, droppingPolicy, metricsAggregator, healthMetrics, dispatcher);
+    }
   };
 
+  private static final int DEFAULT_RESERVE_CAPACITY = 1024;
+
   public abstract PrioritizationStrategy create(
       Queue<Object> primary, Queue<Object> secondary, DroppingPolicy droppingPolicy);
 
+  /**
+   * Creates a strategy which can score traces by comparing their latency with the metrics
+   * aggregated from earlier traces, and which can count traces it has already accepted as dropped.
+   *
+   * @param dispatcher counts the traces which are shed as dropped, unless it is null
+   */
+  public PrioritizationStrategy create(
+      Queue<Object> primary,
+      Queue<Object> secondary,
+      DroppingPolicy droppingPolicy,
+      MetricsAggregator metricsAggregator,
+      HealthMetrics healthMetrics,
+      PayloadDispatcher dispatcher) {
+    return create(primary, secondary, droppingPolicy);
+  }
+
   private abstract static class PrioritizationStrategyWithFlush implements PrioritizationStrategy {
 
     protected final Queue<Object> primary;
@@ -50,6 +109,9 @@ public enum Prioritization {
       }
     }
 
+    @Override
+    public void drain() {}
+
     protected void blockingOffer(final Queue<Object> queue, final Object event) {
       boolean offered;
       do {
@@ -106,4 +168,200 @@ public enum Prioritization {
       }
     }
   }
+
+  /**
+   * Sends traces to the same queues as {@link FastLaneStrategy}, but holds back kept traces which
+   * don't fit in the primary queue in a reserve as large as the queue. When the reserve is full the
+   * lowest scoring trace is shed, and reserved traces are moved to the primary queue highest
+   * scoring first whenever a trace is published, the serializer heartbeats or the writer is
+   * flushed. The chunks of a partially flushed trace are reserved, moved and shed together, in the
+   * order they were published.
+   */
+  private static final class ScoredStrategy extends PrioritizationStrategyWithFlush {
+
+    private final Queue<Object> secondary;
+    private final DroppingPolicy droppingPolicy;
+    private final MetricsAggregator metricsAggregator;
+    private final HealthMetrics healthMetrics;
+    private final PayloadDispatcher dispatcher;
+    private final int capacity;
+    // guarded by this
+    private final TreeSet<ReservedTrace> reserve = new TreeSet<>();
+    private final Map<DDId, ReservedTrace> reservedTraces = new HashMap<>();
+    private long sequence;
+    // only written while holding the lock, read without it to skip the reserve when it's empty
+    private volatile int reservedChunks;
+
+    private ScoredStrategy(
+        Queue<Object> primary,
+        Queue<Object> secondary,
+        DroppingPolicy droppingPolicy,
+        MetricsAggregator metricsAggregator,
+        HealthMetrics healthMetrics,
+        PayloadDispatcher dispatcher) {
+      super(primary);
+      this.secondary = secondary;
+      this.droppingPolicy = droppingPolicy;
+      this.metricsAggregator = metricsAggregator;
+      this.healthMetrics = healthMetrics;
+      this.dispatcher = dispatcher;
+      this.capacity =
+          primary instanceof MessagePassingQueue
+              ? ((MessagePassingQueue<?>) primary).capacity()
+              : DEFAULT_RESERVE_CAPACITY;
+    }
+
+    @Override
+    public <T extends CoreSpan<T>> boolean publish(T root, int priority, List<T> trace) {
+      if (!root.isForceKeep()) {
+        switch (priority) {
+          case SAMPLER_DROP:
+          case USER_DROP:
+            return !droppingPolicy.active() && secondary.offer(trace);
+          default:
+        }
+      }
+      // don't overtake traces which are already waiting
+      if (0 == reservedChunks && primary.offer(trace)) {
+        return true;
+      }
+      return reserve(root.getTraceId(), priority, trace, score(priority, trace));
+    }
+
+    @Override
+    public boolean flush(long timeout, TimeUnit timeUnit) {
+      drain();
+      return super.flush(timeout, timeUnit);
+    }
+
+    @Override
+    public void drain() {
+      // called on every heartbeat of the serializer, so don't take the lock unless needed
+      if (0 != reservedChunks) {
+        drainReserve();
+      }
+    }
+
+    private synchronized void drainReserve() {
+      while (!reserve.isEmpty()) {
+        ReservedTrace highest = reserve.last();
+        reservedChunks -= highest.moveTo(primary);
+        if (!highest.isEmpty()) {
+          return;
+        }
+        reserve.pollLast();
+        reservedTraces.remove(highest.traceId);
+      }
+    }
+
+    private <T extends CoreSpan<T>> int score(int priority, List<T> trace) {
+      int score = SAMPLED.bit();
+      if (USER_KEEP == priority) {
+        score |= MANUAL_KEEP.bit();
+      }
+      for (T span : trace) {
+        if (span.getError() > 0) {
+          score |= ERROR.bit();
+        } else if (span.isTopLevel() && metricsAggregator.isLatencyOutlier(span)) {
+          score |= LATENCY_OUTLIER.bit();
+        }
+      }
+      return score;
+    }
+
+    private synchronized boolean reserve(DDId traceId, int priority, List<?> trace, int score) {
+      drainReserve();
+      if (reserve.isEmpty() && primary.offer(trace)) {
+        return true;
+      }
+      ReservedTrace reserved = reservedTraces.get(traceId);
+      if (null == reserved) {
+        reserved = new ReservedTrace(traceId, sequence++);
+        reservedTraces.put(traceId, reserved);
+      } else {
+        // the score is part of the ordering, so can't change while the trace is in the set
+        reserve.remove(reserved);
+      }
+      reserved.add(trace, priority, score);
+      reserve.add(reserved);
+      ++reservedChunks;
+      boolean accepted = true;
+      while (reservedChunks > capacity) {
+        ReservedTrace lowest = reserve.pollFirst();
+        reservedTraces.remove(lowest.traceId);
+        reservedChunks -= lowest.size();
+        accepted &= lowest != reserved;
+        shed(lowest, trace);
+      }
+      return accepted;
+    }
+
+    private void shed(ReservedTrace shed, List<?> published) {
+      ShedReason reason = ShedReason.of(shed.score);
+      for (int i = shed.head; i < shed.chunks.size(); ++i) {
+        List<?> chunk = shed.chunks.get(i);
+        healthMetrics.onShedTrace(reason);
+        // the writer counts the trace being published as dropped when it isn't accepted
+        if (chunk != published) {
+          healthMetrics.onFailedPublish(shed.priorities.get(i));
+          if (null != dispatcher) {
+            dispatcher.onDroppedTrace(chunk.size());
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * The chunks of a trace waiting in the reserve, ordered by score and then by age, with newer
+   * traces first so the oldest of the highest scoring traces is sent first and the newest of the
+   * lowest scoring traces is shed first.
+   */
+  private static final class ReservedTrace implements Comparable<ReservedTrace> {
+
+    private final DDId traceId;
+    private final long sequence;
+    private final List<List<?>> chunks = new ArrayList<>(1);
+    private final List<Integer> priorities = new ArrayList<>(1);
+    // the first chunk which hasn't been moved to the primary queue yet
+    private int head;
+    private int score;
+
+    private ReservedTrace(DDId traceId, long sequence) {
+      this.traceId = traceId;
+      this.sequence = sequence;
+    }
+
+    void add(List<?> chunk, int priority, int score) {
+      chunks.add(chunk);
+      priorities.add(priority);
+      this.score |= score;
+    }
+
+    /** @return the number of chunks which were moved */
+    int moveTo(Queue<Object> queue) {
+      int moved = 0;
+      while (head < chunks.size() && queue.offer(chunks.get(head))) {
+        chunks.set(head++, null);
+        ++moved;
+      }
+      return moved;
+    }
+
+    int size() {
+      return chunks.size() - head;
+    }
+
+    boolean isEmpty() {
+      return head == chunks.size();
+    }
+
+    @Override
+    public int compareTo(ReservedTrace other) {
+      if (score != other.score) {
+        return score < other.score ? -1 : 1;
+      }
+      return Long.compare(other.sequence, sequence);
+    }
+  }
 }
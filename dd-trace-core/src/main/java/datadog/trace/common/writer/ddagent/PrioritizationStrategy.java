@@ -9,4 +9,7 @@ public interface PrioritizationStrategy {
   <T extends CoreSpan<T>> boolean publish(T root, int priority, List<T> trace);
 
   boolean flush(long timeout, TimeUnit timeUnit);
+
+  /** Moves any traces the strategy is holding back to the primary queue, as far as they fit. */
+  void drain();
 }
@@ -0,0 +1,35 @@
+package datadog.trace.common.writer.ddagent;
+
+/**
+ * The most valuable property of a trace shed by the {@link Prioritization#SCORED} strategy, in
+ * ascending order of value. A trace scores a bit for each property it has, so traces with more
+ * valuable properties are shed last.
+ */
+public enum ShedReason {
+  /** The trace was sampled but had nothing else to set it apart. */
+  SAMPLED("reason:sampled"),
+  /** A top level span took longer than the 99th percentile latency of its key. */
+  LATENCY_OUTLIER("reason:latency_outlier"),
+  /** A span had an error. */
+  ERROR("reason:error"),
+  /** The trace was kept manually. */
+  MANUAL_KEEP("reason:manual_keep");
+
+  private final String[] tags;
+
+  ShedReason(String tag) {
+    this.tags = new String[] {tag};
+  }
+
+  int bit() {
+    return 1 << ordinal();
+  }
+
+  public String[] getTags() {
+    return tags;
+  }
+
+  static ShedReason of(int score) {
+    return values()[31 - Integer.numberOfLeadingZeros(score)];
+  }
+}
@@ -5,11 +5,14 @@ import static datadog.trace.core.serialization.Util.integerToStringBuffer;
 import static datadog.trace.core.serialization.Util.writeLongAsString;
 import static java.nio.charset.StandardCharsets.ISO_8859_1;
 
+import datadog.trace.api.DDTags;
 import datadog.trace.bootstrap.instrumentation.api.InstrumentationTags;
+import datadog.trace.bootstrap.instrumentation.api.Tags;
 import datadog.trace.bootstrap.instrumentation.api.UTF8BytesString;
 import datadog.trace.core.CoreSpan;
 import datadog.trace.core.Metadata;
 import datadog.trace.core.MetadataConsumer;
+import datadog.trace.core.TagMap;
 import datadog.trace.core.serialization.Writable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -35,6 +38,34 @@ public final class TraceMapperV0_4 implements TraceMapper {
   public static final byte[] META = "meta".getBytes(ISO_8859_1);
 
   static final byte[] EMPTY = ByteBuffer.allocate(1).put((byte) 0x90).array();
+
+  // keys and key-value pairs which are the same for most spans, encoded with their headers
+  private static final byte[] ENCODED_RESOURCE = FragmentCache.encode(RESOURCE);
+  private static final byte[] ENCODED_TRACE_ID = FragmentCache.encode(TRACE_ID);
+  private static final byte[] ENCODED_SPAN_ID = FragmentCache.encode(SPAN_ID);
+  private static final byte[] ENCODED_PARENT_ID = FragmentCache.encode(PARENT_ID);
+  private static final byte[] ENCODED_START = FragmentCache.encode(START);
+  private static final byte[] ENCODED_DURATION = FragmentCache.encode(DURATION);
+  private static final byte[] ENCODED_METRICS = FragmentCache.encode(METRICS);
+  private static final byte[] ENCODED_META = FragmentCache.encode(META);
+  private static final byte[][] ENCODED_ERRORS = {
+    FragmentCache.encode(ERROR, 0), FragmentCache.encode(ERROR, 1)
+  };
+  private static final byte[] ENCODED_MEASURED =
+      FragmentCache.encode(InstrumentationTags.DD_MEASURED.getUtf8Bytes(), 1);
+  private static final byte[] ENCODED_TOP_LEVEL =
+      FragmentCache.encode(InstrumentationTags.DD_TOP_LEVEL.getUtf8Bytes(), 1);
+  // indexed by priority + 1, from USER_DROP to USER_KEEP
+  private static final byte[][] ENCODED_SAMPLING_PRIORITIES = {
+    FragmentCache.encode(SAMPLING_PRIORITY_KEY.getUtf8Bytes(), -1),
+    FragmentCache.encode(SAMPLING_PRIORITY_KEY.getUtf8Bytes(), 0),
+    FragmentCache.encode(SAMPLING_PRIORITY_KEY.getUtf8Bytes(), 1),
+    FragmentCache.encode(SAMPLING_PRIORITY_KEY.getUtf8Bytes(), 2)
+  };
+
+  private final FragmentCache serviceNames = new FragmentCache(SERVICE, 16);
+  private final FragmentCache operationNames = new FragmentCache(NAME, 64);
+  private final FragmentCache spanTypes = new FragmentCache(TYPE, 16);
   private final int size;
 
   public TraceMapperV0_4(int size) {
@@ -45,9 +76,17 @@ public final class TraceMapperV0_4 implements TraceMapper {
     this(5 << 20);
   }
 
-  private static final class MetaWriter extends MetadataConsumer {
+  private static final class MetaWriter extends MetadataConsumer implements TagMap.Visitor<String> {
 
     private final byte[] numberByteArray = integerToStringBuffer();
+    private final FragmentCache tagKeys = new FragmentCache(256);
+    private final FragmentCache threadNames = new FragmentCache(THREAD_NAME.getUtf8Bytes(), 64);
+    private final FragmentCache components =
+        new FragmentCache(Tags.COMPONENT.getBytes(ISO_8859_1), 64);
+    private final FragmentCache spanKinds =
+        new FragmentCache(Tags.SPAN_KIND.getBytes(ISO_8859_1), 8);
+    private final FragmentCache languages =
+        new FragmentCache(DDTags.LANGUAGE_TAG_KEY.getBytes(ISO_8859_1), 2);
     private Writable writable;
 
     MetaWriter withWritable(Writable writable) {
@@ -55,6 +94,14 @@ public final class TraceMapperV0_4 implements TraceMapper {
       return this;
     }
 
+    void clear() {
+      tagKeys.clear();
+      threadNames.clear();
+      components.clear();
+      spanKinds.clear();
+      languages.clear();
+    }
+
     @Override
     public void accept(Metadata metadata) {
       // since tags can "override" baggage, we need to count the non overlapping ones
@@ -84,27 +131,110 @@ public final class TraceMapperV0_4 implements TraceMapper {
         }
         ++i;
       }
-      writable.writeUTF8(THREAD_NAME);
-      writable.writeUTF8(metadata.getThreadName());
+      byte[] threadName = threadNames.get(metadata.getThreadName());
+      if (null != threadName) {
+        writable.writeEncoded(threadName);
+      } else {
+        writable.writeUTF8(THREAD_NAME);
+        writable.writeUTF8(metadata.getThreadName());
+      }
       writable.writeUTF8(THREAD_ID);
       writeLongAsString(metadata.getThreadId(), writable, numberByteArray);
-      for (Map.Entry<String, Object> entry : metadata.getTags().entrySet()) {
-        writable.writeString(entry.getKey(), null);
-        if (entry.getValue() instanceof Long || entry.getValue() instanceof Integer) {
-          // TODO it would be nice not to need to do this, either because
-          //  the agent would accept variably typed tag values, or numeric
-          //  tags get moved to the metrics
-          writeLongAsString(((Number) entry.getValue()).longValue(), writable, numberByteArray);
-        } else if (entry.getValue() instanceof UTF8BytesString) {
-          writable.writeUTF8((UTF8BytesString) entry.getValue());
-        } else {
-          writable.writeString(String.valueOf(entry.getValue()), null);
+      if (metadata.getTags() instanceof TagMap) {
+        ((TagMap<String, Object>) metadata.getTags()).visit(this);
+      } else {
+        for (Map.Entry<String, Object> entry : metadata.getTags().entrySet()) {
+          visit(entry.getKey(), entry.getValue());
         }
       }
     }
+
+    @Override
+    public void visit(String key, Object value) {
+      if (value instanceof CharSequence) {
+        FragmentCache wellKnownTag = wellKnownTag(key);
+        if (null != wellKnownTag) {
+          byte[] tag = wellKnownTag.get((CharSequence) value);
+          if (null != tag) {
+            writable.writeEncoded(tag);
+            return;
+          }
+        }
+      }
+      writeKey(writable, tagKeys, key);
+      if (value instanceof Long || value instanceof Integer) {
+        // TODO it would be nice not to need to do this, either because
+        //  the agent would accept variably typed tag values, or numeric
+        //  tags get moved to the metrics
+        writeLongAsString(((Number) value).longValue(), writable, numberByteArray);
+      } else if (value instanceof UTF8BytesString) {
+        writable.writeUTF8((UTF8BytesString) value);
+      } else {
+        writable.writeString(String.valueOf(value), null);
+      }
+    }
+
+    @Override
+    public void visit(String key, long value) {
+      writeKey(writable, tagKeys, key);
+      writeLongAsString(value, writable, numberByteArray);
+    }
+
+    private FragmentCache wellKnownTag(String key) {
+      switch (key) {
+        case Tags.COMPONENT:
+          return components;
+        case Tags.SPAN_KIND:
+          return spanKinds;
+        case DDTags.LANGUAGE_TAG_KEY:
+          return languages;
+        default:
+          return null;
+      }
+    }
+
+    @Override
+    public void visit(String key, double value) {
+      writeKey(writable, tagKeys, key);
+      writable.writeString(String.valueOf(value), null);
+    }
+  }
+
+  private static final class MetricWriter implements TagMap.Visitor<CharSequence> {
+
+    private final FragmentCache metricKeys = new FragmentCache(64);
+    private Writable writable;
+
+    MetricWriter withWritable(Writable writable) {
+      this.writable = writable;
+      return this;
+    }
+
+    void clear() {
+      metricKeys.clear();
+    }
+
+    @Override
+    public void visit(CharSequence key, Object value) {
+      writeKey(writable, metricKeys, key);
+      writable.writeObject(value, null);
+    }
+
+    @Override
+    public void visit(CharSequence key, long value) {
+      writeKey(writable, metricKeys, key);
+      writable.writeLong(value);
+    }
+
+    @Override
+    public void visit(CharSequence key, double value) {
+      writeKey(writable, metricKeys, key);
+      writable.writeDouble(value);
+    }
   }
 
   private final MetaWriter metaWriter = new MetaWriter();
+  private final MetricWriter metricWriter = new MetricWriter();
 
   @Override
   public void map(List<? extends CoreSpan<?>> trace, final Writable writable) {
@@ -112,45 +242,67 @@ public final class TraceMapperV0_4 implements TraceMapper {
     for (CoreSpan<?> span : trace) {
       writable.startMap(12);
       /* 1  */
-      writable.writeUTF8(SERVICE);
-      writable.writeString(span.getServiceName(), null);
+      writeCached(writable, serviceNames, SERVICE, span.getServiceName());
       /* 2  */
-      writable.writeUTF8(NAME);
-      writable.writeObject(span.getOperationName(), null);
+      writeCached(writable, operationNames, NAME, span.getOperationName());
       /* 3  */
-      writable.writeUTF8(RESOURCE);
+      writable.writeEncoded(ENCODED_RESOURCE);
       writable.writeObject(span.getResourceName(), null);
       /* 4  */
-      writable.writeUTF8(TRACE_ID);
+      writable.writeEncoded(ENCODED_TRACE_ID);
       writable.writeLong(span.getTraceId().toLong());
       /* 5  */
-      writable.writeUTF8(SPAN_ID);
+      writable.writeEncoded(ENCODED_SPAN_ID);
       writable.writeLong(span.getSpanId().toLong());
       /* 6  */
-      writable.writeUTF8(PARENT_ID);
+      writable.writeEncoded(ENCODED_PARENT_ID);
       writable.writeLong(span.getParentId().toLong());
       /* 7  */
-      writable.writeUTF8(START);
+      writable.writeEncoded(ENCODED_START);
       writable.writeLong(span.getStartTime());
       /* 8  */
-      writable.writeUTF8(DURATION);
+      writable.writeEncoded(ENCODED_DURATION);
       writable.writeLong(span.getDurationNano());
       /* 9  */
-      writable.writeUTF8(TYPE);
-      writable.writeString(span.getType(), null);
+      writeCached(writable, spanTypes, TYPE, span.getType());
       /* 10 */
-      writable.writeUTF8(ERROR);
-      writable.writeInt(span.getError());
+      int error = span.getError();
+      if (error == 0 || error == 1) {
+        writable.writeEncoded(ENCODED_ERRORS[error]);
+      } else {
+        writable.writeUTF8(ERROR);
+        writable.writeInt(error);
+      }
       /* 11 */
       writeMetrics(span, writable);
       /* 12 */
-      writable.writeUTF8(META);
+      writable.writeEncoded(ENCODED_META);
       span.processTagsAndBaggage(metaWriter.withWritable(writable));
     }
   }
 
-  private static void writeMetrics(CoreSpan<?> span, Writable writable) {
-    writable.writeUTF8(METRICS);
+  private static void writeKey(Writable writable, FragmentCache keys, CharSequence key) {
+    byte[] encoded = keys.get(key);
+    if (null != encoded) {
+      writable.writeEncoded(encoded);
+    } else {
+      writable.writeString(key, null);
+    }
+  }
+
+  private static void writeCached(
+      Writable writable, FragmentCache cache, byte[] key, CharSequence value) {
+    byte[] fragment = cache.get(value);
+    if (null != fragment) {
+      writable.writeEncoded(fragment);
+    } else {
+      writable.writeUTF8(key);
+      writable.writeString(value, null);
+    }
+  }
+
+  private void writeMetrics(CoreSpan<?> span, Writable writable) {
+    writable.writeEncoded(ENCODED_METRICS);
     Map<CharSequence, Number> metrics = span.getUnsafeMetrics();
     int elementCount = metrics.size();
     elementCount += (span.hasSamplingPriority() ? 1 : 0);
@@ -158,20 +310,26 @@ public final class TraceMapperV0_4 implements TraceMapper {
     elementCount += (span.isTopLevel() ? 1 : 0);
     writable.startMap(elementCount);
     if (span.hasSamplingPriority()) {
-      writable.writeUTF8(SAMPLING_PRIORITY_KEY);
-      writable.writeInt(span.samplingPriority());
+      int priority = span.samplingPriority();
+      if (priority >= -1 && priority <= 2) {
+        writable.writeEncoded(ENCODED_SAMPLING_PRIORITIES[priority + 1]);
+      } else {
+        writable.writeUTF8(SAMPLING_PRIORITY_KEY);
+        writable.writeInt(priority);
+      }
     }
     if (span.isMeasured()) {
-      writable.writeUTF8(InstrumentationTags.DD_MEASURED);
-      writable.writeInt(1);
+      writable.writeEncoded(ENCODED_MEASURED);
     }
     if (span.isTopLevel()) {
-      writable.writeUTF8(InstrumentationTags.DD_TOP_LEVEL);
-      writable.writeInt(1);
+      writable.writeEncoded(ENCODED_TOP_LEVEL);
     }
-    for (Map.Entry<CharSequence, Number> metric : metrics.entrySet()) {
-      writable.writeString(metric.getKey(), null);
-      writable.writeObject(metric.getValue(), null);
+    if (metrics instanceof TagMap) {
+      ((TagMap<CharSequence, Number>) metrics).visit(metricWriter.withWritable(writable));
+    } else {
+      for (Map.Entry<CharSequence, Number> metric : metrics.entrySet()) {
+        metricWriter.withWritable(writable).visit(metric.getKey(), metric.getValue());
+      }
     }
   }
 
@@ -186,7 +344,14 @@ public final class TraceMapperV0_4 implements TraceMapper {
   }
 
   @Override
-  public void reset() {}
+  public void reset() {
+    // the caches keep the first values they see, so let values seen since then take their place
+    serviceNames.clear();
+    operationNames.clear();
+    spanTypes.clear();
+    metaWriter.clear();
+    metricWriter.clear();
+  }
 
   @Override
   public String endpoint() {
@@ -9,6 +9,7 @@ import datadog.trace.bootstrap.instrumentation.api.UTF8BytesString;
 import datadog.trace.core.CoreSpan;
 import datadog.trace.core.Metadata;
 import datadog.trace.core.MetadataConsumer;
+import datadog.trace.core.TagMap;
 import datadog.trace.core.serialization.GrowableBuffer;
 import datadog.trace.core.serialization.Mapper;
 import datadog.trace.core.serialization.Writable;
@@ -28,12 +29,16 @@ public final class TraceMapperV0_5 implements TraceMapper {
   static final byte[] EMPTY =
       ByteBuffer.allocate(3).put((byte) 0x92).put((byte) 0x90).put((byte) 0x90).array();
 
+  private static final int INTERNED_STRINGS = 4096;
+
   private final WritableFormatter dictionaryWriter;
   private final DictionaryMapper dictionaryMapper = new DictionaryMapper();
   private final Map<Object, Integer> encoding = new HashMap<>();
+  private final IdentityDictionary interned = new IdentityDictionary(INTERNED_STRINGS);
   private final GrowableBuffer dictionary;
 
   private final MetaWriter metaWriter = new MetaWriter();
+  private final MetricWriter metricWriter = new MetricWriter();
   private final int size;
 
   public TraceMapperV0_5() {
@@ -59,11 +64,11 @@ public final class TraceMapperV0_5 implements TraceMapper {
     for (final CoreSpan<?> span : trace) {
       writable.startArray(12);
       /* 1  */
-      writeDictionaryEncoded(writable, span.getServiceName());
+      writeInterned(writable, span.getServiceName());
       /* 2  */
-      writeDictionaryEncoded(writable, span.getOperationName());
+      writeInterned(writable, span.getOperationName());
       /* 3  */
-      writeDictionaryEncoded(writable, span.getResourceName());
+      writeInterned(writable, span.getResourceName());
       /* 4  */
       writable.writeLong(span.getTraceId().toLong());
       /* 5  */
@@ -81,7 +86,7 @@ public final class TraceMapperV0_5 implements TraceMapper {
       /* 11  */
       writeMetrics(span, writable);
       /* 12 */
-      writeDictionaryEncoded(writable, span.getType());
+      writeInterned(writable, span.getType());
     }
   }
 
@@ -93,29 +98,58 @@ public final class TraceMapperV0_5 implements TraceMapper {
     elementCount += (span.isTopLevel() ? 1 : 0);
     writable.startMap(elementCount);
     if (span.hasSamplingPriority()) {
-      writeDictionaryEncoded(writable, SAMPLING_PRIORITY_KEY);
+      writeInterned(writable, SAMPLING_PRIORITY_KEY);
       writable.writeInt(span.samplingPriority());
     }
     if (span.isMeasured()) {
-      writeDictionaryEncoded(writable, InstrumentationTags.DD_MEASURED);
+      writeInterned(writable, InstrumentationTags.DD_MEASURED);
       writable.writeInt(1);
     }
     if (span.isTopLevel()) {
-      writeDictionaryEncoded(writable, InstrumentationTags.DD_TOP_LEVEL);
+      writeInterned(writable, InstrumentationTags.DD_TOP_LEVEL);
       writable.writeInt(1);
     }
-    for (Map.Entry<CharSequence, Number> metric : metrics.entrySet()) {
-      writeDictionaryEncoded(writable, metric.getKey());
-      writable.writeObject(metric.getValue(), null);
+    if (metrics instanceof TagMap) {
+      ((TagMap<CharSequence, Number>) metrics).visit(metricWriter.withWritable(writable));
+    } else {
+      for (Map.Entry<CharSequence, Number> metric : metrics.entrySet()) {
+        metricWriter.withWritable(writable).visit(metric.getKey(), metric.getValue());
+      }
     }
   }
 
+  /**
+   * Writes the dictionary code of a value which is likely to be the same instance whenever it is
+   * written, such as a service name or tag key, which can be found by identity.
+   */
+  private void writeInterned(final Writable writable, final Object value) {
+    if (value instanceof String || value instanceof UTF8BytesString) {
+      final int slot = interned.slotOf(value);
+      if (slot >= 0) {
+        if (!interned.isCurrent(slot)) {
+          interned.put(slot, value, addToDictionary(value));
+        }
+        writable.writeInt(interned.code(slot));
+        return;
+      }
+    }
+    writeEncoded(writable, value);
+  }
+
   private void writeDictionaryEncoded(final Writable writable, final Object value) {
+    if (value instanceof UTF8BytesString) {
+      // these are usually cached, unlike strings which are often built for each span
+      writeInterned(writable, value);
+    } else {
+      writeEncoded(writable, value);
+    }
+  }
+
+  private void writeEncoded(final Writable writable, final Object value) {
     final Object target = null == value ? "" : value;
     final Integer encoded = encoding.get(target);
     if (null == encoded) {
-      dictionaryWriter.format(target, dictionaryMapper);
-      final int dictionaryCode = dictionary.messageCount() - 1;
+      final int dictionaryCode = addToDictionary(target);
       encoding.put(target, dictionaryCode);
       // this call can fail, but the dictionary has been written to now
       // so should make sure dictionary state is consistent first
@@ -125,6 +159,11 @@ public final class TraceMapperV0_5 implements TraceMapper {
     }
   }
 
+  private int addToDictionary(final Object value) {
+    dictionaryWriter.format(value, dictionaryMapper);
+    return dictionary.messageCount() - 1;
+  }
+
   @Override
   public Payload newPayload() {
     return new PayloadV0_5(dictionary.slice(), dictionary.messageCount());
@@ -139,6 +178,7 @@ public final class TraceMapperV0_5 implements TraceMapper {
   public void reset() {
     dictionary.reset();
     encoding.clear();
+    interned.invalidate();
   }
 
   @Override
@@ -146,6 +186,76 @@ public final class TraceMapperV0_5 implements TraceMapper {
     return "v0.5";
   }
 
+  /**
+   * An open addressing table of dictionary codes keyed by identity, which outlives the dictionary
+   * of any one payload so values which are written to every payload aren't hashed and compared each
+   * time. Each slot is stamped with the generation of the dictionary its code belongs to, so
+   * resetting the dictionary only increments the generation, and a slot from an earlier generation
+   * can be reused by a different value. Values which can't be given a slot within a few probes fall
+   * back to the dictionary's own map.
+   */
+  private static final class IdentityDictionary {
+
+    private static final int MAX_PROBES = 8;
+
+    private final Object[] keys;
+    private final int[] codes;
+    private final int[] generations;
+    private final int mask;
+    private int generation = 1;
+
+    IdentityDictionary(int capacity) {
+      this.keys = new Object[capacity];
+      this.codes = new int[capacity];
+      this.generations = new int[capacity];
+      this.mask = capacity - 1;
+    }
+
+    /** @return the slot holding the value, a slot the value can be put in, or -1 if neither */
+    int slotOf(Object value) {
+      int hash = System.identityHashCode(value);
+      hash ^= hash >>> 16;
+      int available = -1;
+      for (int i = 0; i < MAX_PROBES; ++i) {
+        int slot = (hash + i) & mask;
+        Object key = keys[slot];
+        if (key == value) {
+          return slot;
+        }
+        if (null == key) {
+          return available < 0 ? slot : available;
+        }
+        if (available < 0 && generations[slot] != generation) {
+          available = slot;
+        }
+      }
+      return available;
+    }
+
+    boolean isCurrent(int slot) {
+      return generations[slot] == generation;
+    }
+
+    int code(int slot) {
+      return codes[slot];
+    }
+
+    void put(int slot, Object value, int code) {
+      keys[slot] = value;
+      codes[slot] = code;
+      generations[slot] = generation;
+    }
+
+    void invalidate() {
+      if (++generation == 0) {
+        // every slot would look current again after wrapping around
+        Arrays.fill(keys, null);
+        Arrays.fill(generations, 0);
+        generation = 1;
+      }
+    }
+  }
+
   private static class DictionaryMapper implements Mapper<Object> {
 
     private final byte[] numberByteArray = integerToStringBuffer();
@@ -165,7 +275,7 @@ public final class TraceMapperV0_5 implements TraceMapper {
 
   private static class PayloadV0_5 extends Payload {
 
-    private final ByteBuffer dictionary;
+    private ByteBuffer dictionary;
     private final int stringCount;
 
     private PayloadV0_5(ByteBuffer dictionary, int stringCount) {
@@ -173,6 +283,12 @@ public final class TraceMapperV0_5 implements TraceMapper {
       this.stringCount = stringCount;
     }
 
+    @Override
+    Payload detach() {
+      this.dictionary = copyOf(dictionary);
+      return super.detach();
+    }
+
     @Override
     int sizeInBytes() {
       return 1
@@ -207,7 +323,35 @@ public final class TraceMapperV0_5 implements TraceMapper {
     }
   }
 
-  private final class MetaWriter extends MetadataConsumer {
+  private final class MetricWriter implements TagMap.Visitor<CharSequence> {
+
+    private Writable writable;
+
+    MetricWriter withWritable(final Writable writable) {
+      this.writable = writable;
+      return this;
+    }
+
+    @Override
+    public void visit(final CharSequence key, final Object value) {
+      writeInterned(writable, key);
+      writable.writeObject(value, null);
+    }
+
+    @Override
+    public void visit(final CharSequence key, final long value) {
+      writeInterned(writable, key);
+      writable.writeLong(value);
+    }
+
+    @Override
+    public void visit(final CharSequence key, final double value) {
+      writeInterned(writable, key);
+      writable.writeDouble(value);
+    }
+  }
+
+  private final class MetaWriter extends MetadataConsumer implements TagMap.Visitor<String> {
 
     private Writable writable;
 
@@ -245,14 +389,36 @@ public final class TraceMapperV0_5 implements TraceMapper {
         }
         ++i;
       }
-      writeDictionaryEncoded(writable, THREAD_NAME);
-      writeDictionaryEncoded(writable, metadata.getThreadName());
-      writeDictionaryEncoded(writable, THREAD_ID);
+      writeInterned(writable, THREAD_NAME);
+      writeInterned(writable, metadata.getThreadName());
+      writeInterned(writable, THREAD_ID);
       writeDictionaryEncoded(writable, String.valueOf(metadata.getThreadId()));
-      for (final Map.Entry<String, Object> entry : metadata.getTags().entrySet()) {
-        writeDictionaryEncoded(writable, entry.getKey());
-        writeDictionaryEncoded(writable, entry.getValue());
+      if (metadata.getTags() instanceof TagMap) {
+        ((TagMap<String, Object>) metadata.getTags()).visit(this);
+      } else {
+        for (final Map.Entry<String, Object> entry : metadata.getTags().entrySet()) {
+          visit(entry.getKey(), entry.getValue());
+        }
       }
     }
+
+    @Override
+    public void visit(final String key, final Object value) {
+      writeInterned(writable, key);
+      writeDictionaryEncoded(writable, value);
+    }
+
+    @Override
+    public void visit(final String key, final long value) {
+      writeInterned(writable, key);
+      // the dictionary is keyed by value, so numbers have to be boxed
+      writeDictionaryEncoded(writable, value);
+    }
+
+    @Override
+    public void visit(final String key, final double value) {
+      writeInterned(writable, key);
+      writeDictionaryEncoded(writable, value);
+    }
   }
 }
@@ -5,6 +5,8 @@ import static datadog.trace.util.AgentThreadFactory.THREAD_JOIN_TIMOUT_MS;
 import static datadog.trace.util.AgentThreadFactory.newAgentThread;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+import datadog.trace.common.metrics.MetricsAggregator;
+import datadog.trace.common.metrics.NoOpMetricsAggregator;
 import datadog.trace.core.CoreSpan;
 import datadog.trace.core.DDSpan;
 import datadog.trace.core.monitor.HealthMetrics;
@@ -21,20 +23,35 @@ import org.jctools.queues.MpscBlockingConsumerArrayQueue;
  * Worker which applies rules to traces and serializes the results. Upon completion, the serialized
  * traces are published in batches to the Datadog Agent}.
  *
+ * <p>Serialization can be split across several shards, each with its own queues, serializing thread
+ * and {@link PayloadDispatcher}. Traces are assigned to a shard by their trace id, so the chunks of
+ * a partially flushed trace are serialized in order.
+ *
  * <p>publishing to the buffer will not block the calling thread, but instead will return false if
  * the buffer is full. This is to avoid impacting an application thread.
  */
 @Slf4j
 public class TraceProcessingWorker implements AutoCloseable {
 
-  private final PrioritizationStrategy prioritizationStrategy;
-  private final MpscBlockingConsumerArrayQueue<Object> primaryQueue;
-  private final MpscBlockingConsumerArrayQueue<Object> secondaryQueue;
-  private final TraceSerializingHandler serializingHandler;
-  private final Thread serializerThread;
+  private final Shard[] shards;
+  private final PayloadSender sender;
   private final int capacity;
 
-  public TraceProcessingWorker(
+  // Apply defaults to the class generated by lombok.
+  public static class TraceProcessingWorkerBuilder {
+    int shardCount = 1;
+    MetricsAggregator metricsAggregator = NoOpMetricsAggregator.INSTANCE;
+  }
+
+  /**
+   * @param shardCount the number of shards serializing traces, each with its own queues, thread and
+   *     dispatcher
+   * @param recycleSpans whether spans are recycled once they have been serialized
+   * @param metricsAggregator the aggregator the traces are published to before they are written,
+   *     which {@link Prioritization#SCORED} compares latencies with
+   */
+  @lombok.Builder
+  private TraceProcessingWorker(
       final int capacity,
       final HealthMetrics healthMetrics,
       final Monitoring monitoring,
@@ -42,35 +59,51 @@ public class TraceProcessingWorker implements AutoCloseable {
       final DroppingPolicy droppingPolicy,
       final Prioritization prioritization,
       final long flushInterval,
-      final TimeUnit timeUnit) {
+      final TimeUnit timeUnit,
+      final int shardCount,
+      final boolean recycleSpans,
+      final MetricsAggregator metricsAggregator) {
     this.capacity = capacity;
-    this.primaryQueue = createQueue(capacity);
-    this.secondaryQueue = createQueue(capacity);
-    this.prioritizationStrategy =
-        prioritization.create(primaryQueue, secondaryQueue, droppingPolicy);
-    this.serializingHandler =
-        new TraceSerializingHandler(
-            primaryQueue,
-            secondaryQueue,
-            healthMetrics,
-            monitoring,
-            dispatcher,
-            flushInterval,
-            timeUnit);
-    this.serializerThread = newAgentThread(TRACE_PROCESSOR, serializingHandler);
+    this.sender = dispatcher.getSender();
+    this.shards = new Shard[Math.max(1, shardCount)];
+    // the capacity is shared between the shards
+    int shardCapacity = Math.max(2, (capacity + shards.length - 1) / shards.length);
+    for (int i = 0; i < shards.length; ++i) {
+      shards[i] =
+          new Shard(
+              shardCapacity,
+              healthMetrics,
+              monitoring,
+              0 == i ? dispatcher : dispatcher.newShard(),
+              sender,
+              droppingPolicy,
+              prioritization,
+              flushInterval,
+              timeUnit,
+              recycleSpans,
+              metricsAggregator);
+    }
   }
 
   public void start() {
-    this.serializerThread.start();
+    if (null != sender) {
+      sender.start();
+    }
+    for (Shard shard : shards) {
+      shard.serializerThread.start();
+    }
   }
 
   public boolean flush(long timeout, TimeUnit timeUnit) {
-    CountDownLatch latch = new CountDownLatch(1);
+    CountDownLatch latch = new CountDownLatch(shards.length);
     FlushEvent flush = new FlushEvent(latch);
-    boolean offered;
-    do {
-      offered = primaryQueue.offer(flush);
-    } while (!offered && serializerThread.isAlive());
+    for (Shard shard : shards) {
+      shard.prioritizationStrategy.drain();
+      boolean offered;
+      do {
+        offered = shard.primaryQueue.offer(flush);
+      } while (!offered && shard.serializerThread.isAlive());
+    }
     try {
       return latch.await(timeout, timeUnit);
     } catch (InterruptedException e) {
@@ -81,16 +114,23 @@ public class TraceProcessingWorker implements AutoCloseable {
 
   @Override
   public void close() {
-    serializerThread.interrupt();
+    for (Shard shard : shards) {
+      shard.serializerThread.interrupt();
+    }
     try {
-      serializerThread.join(THREAD_JOIN_TIMOUT_MS);
+      for (Shard shard : shards) {
+        shard.serializerThread.join(THREAD_JOIN_TIMOUT_MS);
+      }
     } catch (InterruptedException ignored) {
     }
+    if (null != sender) {
+      sender.close();
+    }
   }
 
   public <T extends CoreSpan<T>> boolean publish(
       T root, int samplingPriority, final List<T> trace) {
-    return prioritizationStrategy.publish(root, samplingPriority, trace);
+    return shardOf(root).prioritizationStrategy.publish(root, samplingPriority, trace);
   }
 
   public int getCapacity() {
@@ -99,13 +139,69 @@ public class TraceProcessingWorker implements AutoCloseable {
 
   public long getRemainingCapacity() {
     // only advertise primary capacity (partly to keep test which aims to saturate the queue happy)
-    return primaryQueue.remainingCapacity();
+    long remaining = 0;
+    for (Shard shard : shards) {
+      remaining += shard.primaryQueue.remainingCapacity();
+    }
+    return remaining;
+  }
+
+  private <T extends CoreSpan<T>> Shard shardOf(T root) {
+    if (shards.length == 1) {
+      return shards[0];
+    }
+    return shards[(root.getTraceId().hashCode() & Integer.MAX_VALUE) % shards.length];
   }
 
   private static MpscBlockingConsumerArrayQueue<Object> createQueue(int capacity) {
     return new MpscBlockingConsumerArrayQueue<>(capacity);
   }
 
+  private static final class Shard {
+    private final MpscBlockingConsumerArrayQueue<Object> primaryQueue;
+    private final MpscBlockingConsumerArrayQueue<Object> secondaryQueue;
+    private final PrioritizationStrategy prioritizationStrategy;
+    private final Thread serializerThread;
+
+    private Shard(
+        final int capacity,
+        final HealthMetrics healthMetrics,
+        final Monitoring monitoring,
+        final PayloadDispatcher dispatcher,
+        final PayloadSender sender,
+        final DroppingPolicy droppingPolicy,
+        final Prioritization prioritization,
+        final long flushInterval,
+        final TimeUnit timeUnit,
+        final boolean recycleSpans,
+        final MetricsAggregator metricsAggregator) {
+      this.primaryQueue = createQueue(capacity);
+      this.secondaryQueue = createQueue(capacity);
+      this.prioritizationStrategy =
+          prioritization.create(
+              primaryQueue,
+              secondaryQueue,
+              droppingPolicy,
+              metricsAggregator,
+              healthMetrics,
+              dispatcher);
+      this.serializerThread =
+          newAgentThread(
+              TRACE_PROCESSOR,
+              new TraceSerializingHandler(
+                  primaryQueue,
+                  secondaryQueue,
+                  healthMetrics,
+                  monitoring,
+                  dispatcher,
+                  sender,
+                  flushInterval,
+                  timeUnit,
+                  recycleSpans,
+                  prioritizationStrategy));
+    }
+  }
+
   public static class TraceSerializingHandler
       implements Runnable, MessagePassingQueue.Consumer<Object> {
 
@@ -115,6 +211,9 @@ public class TraceProcessingWorker implements AutoCloseable {
     private final long ticksRequiredToFlush;
     private final boolean doTimeFlush;
     private final PayloadDispatcher payloadDispatcher;
+    private final PayloadSender payloadSender;
+    private final boolean recycleSpans;
+    private final PrioritizationStrategy prioritizationStrategy;
     private long lastTicks;
     private final Recording dutyCycleTimer;
 
@@ -124,14 +223,72 @@ public class TraceProcessingWorker implements AutoCloseable {
         final HealthMetrics healthMetrics,
         final Monitoring monitoring,
         final PayloadDispatcher payloadDispatcher,
+        final PayloadSender payloadSender,
         final long flushInterval,
         final TimeUnit timeUnit) {
+      this(
+          primaryQueue,
+          secondaryQueue,
+          healthMetrics,
+          monitoring,
+          payloadDispatcher,
+          payloadSender,
+          flushInterval,
+          timeUnit,
+          false);
+    }
+
+    /**
+     * @param recycleSpans whether to recycle spans once they have been serialized, which is only
+     *     safe when no other writer is given the same traces
+     */
+    public TraceSerializingHandler(
+        final MpscBlockingConsumerArrayQueue<Object> primaryQueue,
+        final MpscBlockingConsumerArrayQueue<Object> secondaryQueue,
+        final HealthMetrics healthMetrics,
+        final Monitoring monitoring,
+        final PayloadDispatcher payloadDispatcher,
+        final PayloadSender payloadSender,
+        final long flushInterval,
+        final TimeUnit timeUnit,
+        final boolean recycleSpans) {
+      this(
+          primaryQueue,
+          secondaryQueue,
+          healthMetrics,
+          monitoring,
+          payloadDispatcher,
+          payloadSender,
+          flushInterval,
+          timeUnit,
+          recycleSpans,
+          null);
+    }
+
+    /**
+     * @param prioritizationStrategy the strategy publishing to the primary queue, drained on every
+     *     heartbeat so traces it holds back are sent after publishing stops, unless it is null
+     */
+    public TraceSerializingHandler(
+        final MpscBlockingConsumerArrayQueue<Object> primaryQueue,
+        final MpscBlockingConsumerArrayQueue<Object> secondaryQueue,
+        final HealthMetrics healthMetrics,
+        final Monitoring monitoring,
+        final PayloadDispatcher payloadDispatcher,
+        final PayloadSender payloadSender,
+        final long flushInterval,
+        final TimeUnit timeUnit,
+        final boolean recycleSpans,
+        final PrioritizationStrategy prioritizationStrategy) {
       this.primaryQueue = primaryQueue;
       this.secondaryQueue = secondaryQueue;
       this.healthMetrics = healthMetrics;
       this.dutyCycleTimer = monitoring.newCPUTimer("tracer.duty.cycle");
       this.doTimeFlush = flushInterval > 0;
       this.payloadDispatcher = payloadDispatcher;
+      this.payloadSender = payloadSender;
+      this.recycleSpans = recycleSpans;
+      this.prioritizationStrategy = prioritizationStrategy;
       if (doTimeFlush) {
         this.lastTicks = System.nanoTime();
         this.ticksRequiredToFlush = timeUnit.toNanos(flushInterval);
@@ -150,9 +307,19 @@ public class TraceProcessingWorker implements AutoCloseable {
           List<DDSpan> trace = (List<DDSpan>) event;
           // TODO populate `_sample_rate` metric in a way that accounts for lost/dropped traces
           payloadDispatcher.addTrace(trace);
+          if (recycleSpans) {
+            for (DDSpan span : trace) {
+              span.recycle();
+            }
+          }
         } else if (event instanceof FlushEvent) {
           payloadDispatcher.flush();
-          ((FlushEvent) event).sync();
+          if (null != payloadSender) {
+            // sync once the flushed payload has been sent
+            payloadSender.sync((FlushEvent) event);
+          } else {
+            ((FlushEvent) event).sync();
+          }
         }
       } catch (final Throwable e) {
         if (log.isDebugEnabled()) {
@@ -206,6 +373,10 @@ public class TraceProcessingWorker implements AutoCloseable {
     }
 
     private void flushIfNecessary() {
+      if (null != prioritizationStrategy) {
+        // reserved traces are otherwise only moved when another trace is published
+        prioritizationStrategy.drain();
+      }
       if (shouldFlush()) {
         payloadDispatcher.flush();
       }
@@ -215,7 +386,11 @@ public class TraceProcessingWorker implements AutoCloseable {
       if (doTimeFlush) {
         long nanoTime = System.nanoTime();
         long ticks = nanoTime - lastTicks;
-        if (ticks > ticksRequiredToFlush) {
+        // the dispatcher may stretch the interval, but never shortens it
+        long interval =
+            Math.max(
+                ticksRequiredToFlush, payloadDispatcher.flushIntervalNanos(ticksRequiredToFlush));
+        if (ticks > interval) {
           lastTicks = nanoTime;
           return true;
         }
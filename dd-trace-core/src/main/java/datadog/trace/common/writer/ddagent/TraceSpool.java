@@ -0,0 +1,512 @@
+package datadog.trace.common.writer.ddagent;
+
+import static datadog.trace.core.http.OkHttpUtils.msgpackRequestBodyOf;
+import static datadog.trace.util.AgentThreadFactory.AgentThread.TRACE_SPOOL_REPLAYER;
+import static datadog.trace.util.AgentThreadFactory.THREAD_JOIN_TIMOUT_MS;
+import static datadog.trace.util.AgentThreadFactory.newAgentThread;
+
+import datadog.trace.core.monitor.HealthMetrics;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.RequestBody;
+
+/**
+ * Keeps serialized payloads which couldn't be sent because the agent was unavailable, and replays
+ * them once the agent is reachable again. Payloads are appended to memory-mapped segment files in
+ * the spool directory, so they survive a restart of the application as well as of the agent.
+ *
+ * <p>Disk use is bounded by {@code maxSize}: when a new segment would exceed it the oldest segment
+ * is deleted along with any payloads which haven't been replayed yet. Payloads older than {@code
+ * maxAge} are discarded rather than replayed, because the agent would reject or misattribute them.
+ * A payload is only replayed to the endpoint it was serialized for.
+ *
+ * <p>The replayer thread checks for the agent every few seconds while there are payloads to replay,
+ * and replays them oldest first until a send fails.
+ */
+@Slf4j
+public class TraceSpool implements Runnable, AutoCloseable {
+
+  private static final String SEGMENT_PREFIX = "traces-";
+  private static final String SEGMENT_SUFFIX = ".spool";
+
+  private static final int MIN_SEGMENT_SIZE = 1 << 20;
+  private static final int MAX_SEGMENT_SIZE = 16 << 20;
+
+  private static final long REPLAY_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+  // Each record is a header followed by the endpoint and the payload. A zero length marks the end
+  // of the records in a segment, and a negative length marks a record which has been replayed or
+  // discarded. The length is written last, so a record which was only partly written when the
+  // process died is never replayed.
+  private static final int LENGTH = 0;
+  private static final int TRACE_COUNT = 4;
+  private static final int DROPPED_TRACES = 8;
+  private static final int DROPPED_SPANS = 16;
+  private static final int TIMESTAMP = 24;
+  private static final int ENDPOINT_LENGTH = 32;
+  private static final int HEADER_SIZE = 33;
+
+  private final File directory;
+  private final int segmentSize;
+  private final int maxSegments;
+  private final long maxAgeMillis;
+  private final DDAgentApi api;
+  private final DDAgentFeaturesDiscovery discovery;
+  private final HealthMetrics healthMetrics;
+  private final Thread replayerThread;
+
+  // oldest first, the last segment is the one being appended to
+  private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+  private long nextSequence;
+
+  /**
+   * Creates a spool in the directory, picking up any payloads spooled by a previous process.
+   *
+   * @throws IOException if the directory can't be created or its segments can't be mapped
+   */
+  public TraceSpool(
+      File directory,
+      int maxSize,
+      long maxAge,
+      TimeUnit unit,
+      DDAgentApi api,
+      DDAgentFeaturesDiscovery discovery,
+      HealthMetrics healthMetrics)
+      throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create spool directory " + directory);
+    }
+    this.directory = directory;
+    this.segmentSize = Math.max(MIN_SEGMENT_SIZE, Math.min(MAX_SEGMENT_SIZE, maxSize / 4));
+    this.maxSegments = Math.max(1, maxSize / segmentSize);
+    this.maxAgeMillis = unit.toMillis(maxAge);
+    this.api = api;
+    this.discovery = discovery;
+    this.healthMetrics = healthMetrics;
+    this.replayerThread = newAgentThread(TRACE_SPOOL_REPLAYER, this);
+    recover();
+  }
+
+  public void start() {
+    replayerThread.start();
+  }
+
+  @Override
+  public void close() {
+    replayerThread.interrupt();
+    try {
+      replayerThread.join(THREAD_JOIN_TIMOUT_MS);
+    } catch (InterruptedException ignored) {
+    }
+    synchronized (this) {
+      for (Segment segment : segments) {
+        segment.buffer.force();
+      }
+    }
+  }
+
+  @Override
+  public void run() {
+    Thread thread = Thread.currentThread();
+    try {
+      while (!thread.isInterrupted()) {
+        Thread.sleep(REPLAY_INTERVAL_MILLIS);
+        replay();
+      }
+    } catch (InterruptedException e) {
+      thread.interrupt();
+    }
+    log.debug("Datadog trace spool replayer exited");
+  }
+
+  /** @return whether a payload which failed with this response might be accepted later */
+  static boolean isRetriable(DDAgentApi.Response response) {
+    Integer status = response.status();
+    // no status means the agent couldn't be reached at all, 404 is also returned when no agent
+    // has been discovered
+    return null == status || status == 404 || status == 408 || status == 429 || status >= 500;
+  }
+
+  /**
+   * Appends a payload which couldn't be sent. The payload must not have been released yet.
+   *
+   * @return whether the payload was spooled
+   */
+  synchronized boolean append(Payload payload) {
+    String endpoint = discovery.getTraceEndpoint();
+    if (null == endpoint) {
+      return false;
+    }
+    byte[] endpointBytes = endpoint.getBytes(StandardCharsets.ISO_8859_1);
+    int bodySize = payload.sizeInBytes();
+    int recordSize = HEADER_SIZE + endpointBytes.length + bodySize;
+    if (recordSize > segmentSize) {
+      log.debug("Payload of {} bytes is too large to spool", bodySize);
+      return false;
+    }
+    try {
+      Segment segment = segments.peekLast();
+      if (null == segment || segment.capacity() - segment.writePosition < recordSize) {
+        segment = newSegment();
+      }
+      int position = segment.writePosition;
+      long now = System.currentTimeMillis();
+      MappedByteBuffer buffer = segment.buffer;
+      buffer.putInt(position + TRACE_COUNT, payload.traceCount());
+      buffer.putLong(position + DROPPED_TRACES, payload.droppedTraces());
+      buffer.putLong(position + DROPPED_SPANS, payload.droppedSpans());
+      buffer.putLong(position + TIMESTAMP, now);
+      buffer.put(position + ENDPOINT_LENGTH, (byte) endpointBytes.length);
+      ByteBuffer target = buffer.duplicate();
+      target.limit(position + recordSize);
+      target.position(position + HEADER_SIZE);
+      target.put(endpointBytes);
+      payload.writeTo(new BufferChannel(target));
+      if (target.hasRemaining()) {
+        throw new IOException("Payload was smaller than its reported size");
+      }
+      buffer.putInt(position + LENGTH, bodySize);
+      segment.writePosition += recordSize;
+      segment.lastWriteMillis = now;
+      return true;
+    } catch (IOException e) {
+      log.debug("Failed to spool {} traces", payload.traceCount(), e);
+      return false;
+    }
+  }
+
+  /**
+   * Replays spooled payloads, oldest first, if the agent can be reached. Stops at the first payload
+   * which can't be sent.
+   */
+  void replay() {
+    long now = System.currentTimeMillis();
+    if (!expire(now)) {
+      return;
+    }
+    discovery.discover();
+    if (!discovery.isAgentReachable()) {
+      return;
+    }
+    Thread thread = Thread.currentThread();
+    SpooledPayload payload;
+    while (!thread.isInterrupted() && null != (payload = next(now))) {
+      if (!payload.endpoint.equals(discovery.getTraceEndpoint())) {
+        log.debug(
+            "Discarding {} spooled traces serialized for {}",
+            payload.traceCount(),
+            payload.endpoint);
+        remove(payload);
+        continue;
+      }
+      DDAgentApi.Response response = api.sendSerializedTraces(payload);
+      if (response.success()) {
+        healthMetrics.onSend(payload.traceCount(), payload.sizeInBytes(), response);
+        remove(payload);
+      } else {
+        if (!isRetriable(response)) {
+          log.debug("Discarding {} spooled traces rejected by the agent", payload.traceCount());
+          remove(payload);
+        }
+        break;
+      }
+    }
+  }
+
+  /**
+   * Deletes segments which only contain payloads older than the maximum age.
+   *
+   * @return whether there may be payloads left to replay
+   */
+  private synchronized boolean expire(long now) {
+    while (!segments.isEmpty() && segments.peekFirst().lastWriteMillis < now - maxAgeMillis) {
+      delete(segments.pollFirst(), "expired");
+    }
+    for (Segment segment : segments) {
+      if (segment.readPosition < segment.writePosition) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** @return the oldest payload which should be replayed, or null if there are none */
+  private synchronized SpooledPayload next(long now) {
+    while (!segments.isEmpty()) {
+      Segment segment = segments.peekFirst();
+      if (segment.readPosition < segment.writePosition) {
+        int position = segment.readPosition;
+        int length = segment.buffer.getInt(position + LENGTH);
+        if (length < 0) {
+          // already replayed
+          int endpointLength = segment.buffer.get(position + ENDPOINT_LENGTH) & 0xFF;
+          segment.readPosition = position + HEADER_SIZE + endpointLength - length;
+          continue;
+        }
+        SpooledPayload payload = read(segment, segment.readPosition);
+        if (payload.timestampMillis >= now - maxAgeMillis) {
+          return payload;
+        }
+        log.debug("Discarding {} spooled traces which are too old", payload.traceCount());
+        markReplayed(payload);
+      } else if (segments.size() > 1) {
+        delete(segments.pollFirst(), "replayed");
+      } else {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  private synchronized void remove(SpooledPayload payload) {
+    // the segment may have been evicted while the payload was being sent
+    if (!payload.segment.deleted) {
+      markReplayed(payload);
+    }
+  }
+
+  private void markReplayed(SpooledPayload payload) {
+    Segment segment = payload.segment;
+    segment.buffer.putInt(payload.position + LENGTH, -payload.sizeInBytes());
+    segment.readPosition = payload.position + payload.recordSize();
+  }
+
+  private SpooledPayload read(Segment segment, int position) {
+    MappedByteBuffer buffer = segment.buffer;
+    int bodySize = buffer.getInt(position + LENGTH);
+    int endpointLength = buffer.get(position + ENDPOINT_LENGTH) & 0xFF;
+    byte[] endpoint = new byte[endpointLength];
+    ByteBuffer source = buffer.duplicate();
+    source.position(position + HEADER_SIZE);
+    source.get(endpoint);
+    // copied, so that the payload stays valid if the segment is evicted while it's being sent
+    ByteBuffer body = ByteBuffer.allocate(bodySize);
+    source.limit(source.position() + bodySize);
+    body.put(source);
+    body.flip();
+    SpooledPayload payload =
+        new SpooledPayload(
+            segment,
+            position,
+            new String(endpoint, StandardCharsets.ISO_8859_1),
+            buffer.getLong(position + TIMESTAMP));
+    payload
+        .withBody(buffer.getInt(position + TRACE_COUNT), body)
+        .withDroppedTraces(buffer.getLong(position + DROPPED_TRACES))
+        .withDroppedSpans(buffer.getLong(position + DROPPED_SPANS));
+    return payload;
+  }
+
+  private Segment newSegment() throws IOException {
+    File file = new File(directory, SEGMENT_PREFIX + nextSequence++ + SEGMENT_SUFFIX);
+    Segment segment = new Segment(file, map(file, segmentSize, true));
+    segments.addLast(segment);
+    while (segments.size() > maxSegments) {
+      delete(segments.pollFirst(), "evicted");
+    }
+    return segment;
+  }
+
+  private void delete(Segment segment, String reason) {
+    int discarded = 0;
+    for (int position = segment.readPosition; position < segment.writePosition; ) {
+      int length = segment.buffer.getInt(position + LENGTH);
+      if (length > 0) {
+        discarded += segment.buffer.getInt(position + TRACE_COUNT);
+      }
+      position += HEADER_SIZE + (segment.buffer.get(position + ENDPOINT_LENGTH) & 0xFF);
+      position += Math.abs(length);
+    }
+    if (discarded > 0) {
+      log.debug("Discarding {} spooled traces from {} segment {}", discarded, reason, segment.file);
+    }
+    segment.deleted = true;
+    // the mapping is released when the buffer is collected
+    if (!segment.file.delete()) {
+      log.debug("Could not delete spool segment {}", segment.file);
+    }
+  }
+
+  /** Picks up segments left by a previous process, skipping records which were replayed. */
+  private void recover() throws IOException {
+    File[] files =
+        directory.listFiles(
+            new FilenameFilter() {
+              @Override
+              public boolean accept(File dir, String name) {
+                return null != sequenceOf(name);
+              }
+            });
+    if (null == files) {
+      return;
+    }
+    Arrays.sort(
+        files,
+        new Comparator<File>() {
+          @Override
+          public int compare(File left, File right) {
+            return sequenceOf(left.getName()).compareTo(sequenceOf(right.getName()));
+          }
+        });
+    for (File file : files) {
+      nextSequence = Math.max(nextSequence, sequenceOf(file.getName()) + 1);
+      Segment segment = new Segment(file, map(file, (int) file.length(), false));
+      scan(segment);
+      if (segment.readPosition < segment.writePosition) {
+        segments.addLast(segment);
+      } else {
+        delete(segment, "replayed");
+      }
+    }
+    while (segments.size() > maxSegments) {
+      delete(segments.pollFirst(), "evicted");
+    }
+  }
+
+  private static void scan(Segment segment) {
+    MappedByteBuffer buffer = segment.buffer;
+    int position = 0;
+    boolean replayed = true;
+    while (position + HEADER_SIZE <= segment.capacity()) {
+      int length = buffer.getInt(position + LENGTH);
+      if (length == 0) {
+        break;
+      }
+      int recordSize = HEADER_SIZE + (buffer.get(position + ENDPOINT_LENGTH) & 0xFF);
+      recordSize += Math.abs(length);
+      if (length == Integer.MIN_VALUE || position + recordSize > segment.capacity()) {
+        // corrupt, don't replay or append anything past this point
+        log.debug("Spool segment {} is corrupt after {} bytes", segment.file, position);
+        segment.writePosition = position;
+        segment.full = true;
+        return;
+      }
+      if (replayed && length < 0) {
+        segment.readPosition = position + recordSize;
+      } else {
+        replayed = false;
+      }
+      segment.lastWriteMillis =
+          Math.max(segment.lastWriteMillis, buffer.getLong(position + TIMESTAMP));
+      position += recordSize;
+    }
+    segment.writePosition = position;
+  }
+
+  private static Long sequenceOf(String name) {
+    if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+      try {
+        return Long.parseLong(
+            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+      } catch (NumberFormatException ignored) {
+      }
+    }
+    return null;
+  }
+
+  private static MappedByteBuffer map(File file, int size, boolean truncate) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      if (truncate) {
+        // a stale file must not leave records behind the ones appended to the new segment
+        raf.setLength(0);
+      }
+      raf.setLength(size);
+      // the mapping stays valid after the channel is closed
+      return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+  }
+
+  private static final class Segment {
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private int readPosition;
+    private int writePosition;
+    private long lastWriteMillis;
+    private boolean full;
+    private boolean deleted;
+
+    private Segment(File file, MappedByteBuffer buffer) {
+      this.file = file;
+      this.buffer = buffer;
+    }
+
+    private int capacity() {
+      return full ? writePosition : buffer.capacity();
+    }
+  }
+
+  private static final class SpooledPayload extends Payload {
+    private final Segment segment;
+    private final int position;
+    private final String endpoint;
+    private final long timestampMillis;
+
+    private SpooledPayload(Segment segment, int position, String endpoint, long timestampMillis) {
+      this.segment = segment;
+      this.position = position;
+      this.endpoint = endpoint;
+      this.timestampMillis = timestampMillis;
+    }
+
+    private int recordSize() {
+      return HEADER_SIZE + endpoint.length() + sizeInBytes();
+    }
+
+    @Override
+    int sizeInBytes() {
+      return body.remaining();
+    }
+
+    @Override
+    void writeTo(WritableByteChannel channel) throws IOException {
+      ByteBuffer buffer = body.duplicate();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+
+    @Override
+    RequestBody toRequest() {
+      return msgpackRequestBodyOf(Collections.singletonList(body));
+    }
+  }
+
+  private static final class BufferChannel implements WritableByteChannel {
+    private final ByteBuffer target;
+
+    private BufferChannel(ByteBuffer target) {
+      this.target = target;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      int length = src.remaining();
+      if (length > target.remaining()) {
+        throw new IOException("Payload was larger than its reported size");
+      }
+      target.put(src);
+      return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {}
+  }
+}
@@ -56,6 +56,7 @@ import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.TimeUnit;
 import lombok.Builder;
 import lombok.extern.slf4j.Slf4j;
+import org.jctools.queues.MpmcArrayQueue;
 
 /**
  * Main entrypoint into the tracer implementation. In addition to implementing
@@ -74,6 +75,8 @@ public class CoreTracer implements AgentTracer.TracerAPI {
   private static final String LANG_INTERPRETER_VENDOR_STATSD_TAG = "lang_interpreter_vendor";
   private static final String TRACER_VERSION_STATSD_TAG = "tracer_version";
 
+  private static final int SPAN_CONTEXT_POOL_SIZE = 1024;
+
   private final PendingTraceBuffer pendingTraceBuffer;
 
   /** Default service name if none provided on the trace or span */
@@ -104,6 +107,8 @@ public class CoreTracer implements AgentTracer.TracerAPI {
   private final IdGenerationStrategy idGenerationStrategy;
   private final PendingTrace.Factory pendingTraceFactory;
   private final TraceProcessor traceProcessor = new TraceProcessor();
+  /** Contexts of spans which have been written, null unless span recycling is enabled */
+  private final MpmcArrayQueue<DDSpanContext> spanContextPool;
 
   /**
    * JVM shutdown callback, keeping a reference to it to remove this if DDTracer gets destroyed
@@ -161,6 +166,9 @@ public class CoreTracer implements AgentTracer.TracerAPI {
       taggedHeaders(config.getHeaderTags());
       partialFlushMinSpans(config.getPartialFlushMinSpans());
       strictTraceWrites(config.isTraceStrictWritesEnabled());
+      spanStreamingChunkSize(
+          config.isSpanStreamingEnabled() ? Math.max(1, config.getSpanStreamingChunkSize()) : 0);
+      spanRecycling(config.isTraceSpanRecyclingEnabled());
 
       return this;
     }
@@ -184,7 +192,9 @@ public class CoreTracer implements AgentTracer.TracerAPI {
       final int partialFlushMinSpans,
       final StatsDClient statsDClient,
       final TagInterceptor tagInterceptor,
-      final boolean strictTraceWrites) {
+      final boolean strictTraceWrites,
+      final int spanStreamingChunkSize,
+      final boolean spanRecycling) {
 
     assert localRootSpanTags != null;
     assert defaultSpanTags != null;
@@ -199,6 +209,8 @@ public class CoreTracer implements AgentTracer.TracerAPI {
     this.defaultSpanTags = defaultSpanTags;
     this.serviceNameMappings = serviceNameMappings;
     this.partialFlushMinSpans = partialFlushMinSpans;
+    this.spanContextPool =
+        spanRecycling ? new MpmcArrayQueue<DDSpanContext>(SPAN_CONTEXT_POOL_SIZE) : null;
     this.idGenerationStrategy =
         null == idGenerationStrategy
             ? Config.get().getIdGenerationStrategy()
@@ -230,20 +242,26 @@ public class CoreTracer implements AgentTracer.TracerAPI {
       this.scopeManager = scopeManager;
     }
 
+    // created before the writer, which can compare latencies with the aggregated metrics
+    metricsAggregator = createMetricsAggregator(config);
+
     if (writer == null) {
-      this.writer = WriterFactory.createWriter(config, sampler, this.statsDClient, monitoring);
+      this.writer =
+          WriterFactory.createWriter(
+              config, sampler, this.statsDClient, monitoring, metricsAggregator);
     } else {
       this.writer = writer;
     }
 
     this.pendingTraceBuffer =
         strictTraceWrites ? PendingTraceBuffer.mute() : PendingTraceBuffer.delaying();
-    pendingTraceFactory = new PendingTrace.Factory(this, pendingTraceBuffer, strictTraceWrites);
+    pendingTraceFactory =
+        new PendingTrace.Factory(
+            this, pendingTraceBuffer, strictTraceWrites, spanStreamingChunkSize);
     pendingTraceBuffer.start();
 
     this.writer.start();
 
-    metricsAggregator = createMetricsAggregator(config);
     // Schedule the metrics aggregator to begin reporting after a random delay of 1 to 10 seconds
     // (using milliseconds granularity.) This avoids a fleet of traced applications starting at the
     // same time from sending metrics in sync.
@@ -285,6 +303,13 @@ public class CoreTracer implements AgentTracer.TracerAPI {
     }
   }
 
+  /** Pools the context of a span which has been written, if span recycling is enabled. */
+  void recycle(final DDSpanContext context) {
+    if (null != spanContextPool && context.recycle()) {
+      spanContextPool.offer(context);
+    }
+  }
+
   public String mapServiceName(String serviceName) {
     String mapped = serviceNameMappings.get(serviceName);
     return null == mapped ? serviceName : mapped;
@@ -410,8 +435,9 @@ public class CoreTracer implements AgentTracer.TracerAPI {
    * the first span (root span) of the trace. If the trace is marked as a sample, we report it.
    *
    * @param trace a list of the spans related to the same trace
+   * @param containsRoot whether the list holds the root span of the trace
    */
-  void write(final List<DDSpan> trace) {
+  void write(final List<DDSpan> trace, final boolean containsRoot) {
     if (trace.isEmpty()) {
       return;
     }
@@ -444,15 +470,21 @@ public class CoreTracer implements AgentTracer.TracerAPI {
       setSamplingPriorityIfNecessary(rootSpan);
 
       DDSpan spanToSample = rootSpan == null ? writtenTrace.get(0) : rootSpan;
+      // once a chunk of the trace has been kept, the chunks which follow it must be kept too
+      forceKeep |= spanToSample.isForceKeep();
       spanToSample.forceKeep(forceKeep);
       if (forceKeep || sampler.sample(spanToSample)) {
         writer.write(writtenTrace);
       } else {
-        // with span streaming this won't work - it needs to be changed
-        // to track an effective sampling rate instead, however, tests
-        // checking that a hard reference on a continuation prevents
-        // reporting fail without this, so will need to be fixed first.
-        writer.incrementDropCounts(writtenTrace.size());
+        // partially flushed and streamed traces are written in several chunks, so add up their
+        // spans and count the trace once, when the chunk holding the root span is dropped
+        int droppedSpans =
+            rootSpan == null
+                ? writtenTrace.size()
+                : rootSpan.context().getTrace().dropChunk(writtenTrace.size(), containsRoot);
+        if (droppedSpans > 0) {
+          writer.incrementDropCounts(droppedSpans);
+        }
       }
     }
   }
@@ -672,7 +704,7 @@ public class CoreTracer implements AgentTracer.TracerAPI {
     }
 
     public CoreSpanBuilder asChildOf(final AgentSpan agentSpan) {
-      parent = agentSpan.context();
+      parent = agentSpan;
       return this;
     }
 
@@ -707,12 +739,15 @@ public class CoreTracer implements AgentTracer.TracerAPI {
       final Map<String, String> coreTags;
       final Map<String, String> rootSpanTags;
 
-      final DDSpanContext context;
+      DDSpanContext context;
 
       // FIXME [API] parentContext should be an interface implemented by ExtractedContext,
       // TagContext, DDSpanContext, AgentSpan.Context
       Object parentContext = parent;
-      if (parentContext == null && !ignoreScope) {
+      if (parentContext instanceof AgentSpan) {
+        // resolved as late as possible, a recycled span hands out a detached copy of its context
+        parentContext = ((AgentSpan) parentContext).context();
+      } else if (parentContext == null && !ignoreScope) {
         // use the Scope as parent unless overridden or ignored.
         final AgentSpan activeSpan = scopeManager.activeSpan();
         if (activeSpan != null) {
@@ -783,22 +818,43 @@ public class CoreTracer implements AgentTracer.TracerAPI {
               + (null == coreTags ? 0 : coreTags.size())
               + (null == rootSpanTags ? 0 : rootSpanTags.size());
       // some attributes are inherited from the parent
-      context =
-          new DDSpanContext(
-              traceId,
-              spanId,
-              parentSpanId,
-              parentServiceName,
-              serviceName,
-              operationName,
-              resourceName,
-              samplingPriority,
-              origin,
-              baggage,
-              errorFlag,
-              spanType,
-              tagsSize,
-              parentTrace);
+      context = null == spanContextPool ? null : spanContextPool.poll();
+      if (null == context) {
+        context =
+            new DDSpanContext(
+                traceId,
+                spanId,
+                parentSpanId,
+                parentServiceName,
+                serviceName,
+                operationName,
+                resourceName,
+                samplingPriority,
+                origin,
+                baggage,
+                errorFlag,
+                spanType,
+                tagsSize,
+                parentTrace);
+        if (null != spanContextPool) {
+          context.recyclable();
+        }
+      } else {
+        context.initialize(
+            traceId,
+            spanId,
+            parentSpanId,
+            parentServiceName,
+            serviceName,
+            operationName,
+            resourceName,
+            samplingPriority,
+            origin,
+            baggage,
+            errorFlag,
+            spanType,
+            parentTrace);
+      }
 
       // By setting the tags on the context we apply decorators to any tags that have been set via
       // the builder. This is the order that the tags were added previously, but maybe the `tags`
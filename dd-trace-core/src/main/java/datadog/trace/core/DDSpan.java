@@ -33,6 +33,20 @@ public class DDSpan implements AgentSpan, CoreSpan<DDSpan> {
   /** The context attached to the span */
   private final DDSpanContext context;
 
+  /** The generation of the context when this span was created, see {@link #recycle()} */
+  private final int generation;
+
+  // What the span still reports once its context has been recycled. Written before the context is
+  // handed over, which moves it to the next generation, so they are visible after isRecycled().
+  private PendingTrace recycledTrace;
+  private DDId recycledTraceId;
+  private DDId recycledSpanId;
+  private DDId recycledParentId;
+  private String recycledServiceName;
+
+  /** Stands in for the context once it has been recycled, see {@link #context()} */
+  private volatile DDSpanContext detachedContext;
+
   /**
    * Creation time of the span in microseconds provided by external clock. Must be greater than
    * zero.
@@ -54,6 +68,12 @@ public class DDSpan implements AgentSpan, CoreSpan<DDSpan> {
 
   private boolean forceKeep;
 
+  /**
+   * Set when this span is the first span of a streamed chunk which does not contain the root span,
+   * so that the trace's sampling priority is reported with the chunk.
+   */
+  private volatile boolean samplingPriorityCarrier;
+
   /**
    * Spans should be constructed using the builder, not by calling the constructor directly.
    *
@@ -62,6 +82,7 @@ public class DDSpan implements AgentSpan, CoreSpan<DDSpan> {
    */
   private DDSpan(final long timestampMicro, @Nonnull DDSpanContext context) {
     this.context = context;
+    this.generation = context.getGeneration();
 
     if (timestampMicro <= 0L) {
       // record the start time
@@ -79,6 +100,62 @@ public class DDSpan implements AgentSpan, CoreSpan<DDSpan> {
     return durationNano.get() != 0;
   }
 
+  /**
+   * Returns the context of this span to the tracer's pool, when span recycling is enabled, once the
+   * span has been serialized. The root span's context is only recycled once its trace is complete,
+   * because the rest of the trace refers to it for the sampling priority and origin.
+   *
+   * <p>The span must not be used afterwards. It detects that its context has been reused by another
+   * span and ignores any further changes. Its context is replaced by a detached copy holding only
+   * its ids, service name and trace, so that spans started as its children, for example from a
+   * scope or continuation which outlived it, still join its trace. Its tags, metrics and baggage
+   * are gone. A {@link DDSpanContext} obtained before the span was recycled cannot tell it has been
+   * reused, so it must not be held onto. This is internal API and must not be exposed to users.
+   */
+  public void recycle() {
+    final PendingTrace trace = context.getTrace();
+    if (!isRecycled() && (trace.getRootSpan() != this || trace.isComplete())) {
+      recycledTrace = trace;
+      recycledTraceId = context.getTraceId();
+      recycledSpanId = context.getSpanId();
+      recycledParentId = context.getParentId();
+      recycledServiceName = context.getServiceName();
+      trace.getTracer().recycle(context);
+    }
+  }
+
+  private boolean isRecycled() {
+    return context.getGeneration() != generation;
+  }
+
+  /**
+   * Only suitable for changes which don't touch the context, since the context can be recycled
+   * straight after the check.
+   *
+   * @return true if the change should be ignored because the span has been recycled
+   */
+  private boolean ignoreChange() {
+    if (isRecycled()) {
+      log.debug("Ignoring change to a span which was recycled after being written");
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Stops the context from being recycled until {@link DDSpanContext#endChange()} is called, which
+   * must follow when this returns true.
+   *
+   * @return false if the change should be ignored because the span has been recycled
+   */
+  private boolean beginChange() {
+    if (context.beginChange(generation)) {
+      return true;
+    }
+    log.debug("Ignoring change to a span which was recycled after being written");
+    return false;
+  }
+
   private void finishAndAddToTrace(final long durationNano) {
     // ensure a min duration of 1
     if (this.durationNano.compareAndSet(0, Math.max(1, durationNano))) {
@@ -91,6 +168,9 @@ public class DDSpan implements AgentSpan, CoreSpan<DDSpan> {
 
   @Override
   public final void finish() {
+    if (ignoreChange()) {
+      return;
+    }
     if (startTimeNano > 0) {
       // no external clock was used, so we can rely on nano time
       finishAndAddToTrace(context.getTrace().getCurrentTimeNano() - startTimeNano);
@@ -101,19 +181,34 @@ public class DDSpan implements AgentSpan, CoreSpan<DDSpan> {
 
   @Override
   public final void finish(final long stoptimeMicros) {
+    if (ignoreChange()) {
+      return;
+    }
     context.getTrace().touch(); // Update timestamp
     finishAndAddToTrace(TimeUnit.MICROSECONDS.toNanos(stoptimeMicros - startTimeMicro));
   }
 
   @Override
   public DDSpan setError(final boolean error) {
-    context.setErrorFlag(error);
+    if (beginChange()) {
+      try {
+        context.setErrorFlag(error);
+      } finally {
+        context.endChange();
+      }
+    }
     return this;
   }
 
   @Override
   public DDSpan setMeasured(boolean measured) {
-    context.setMeasured(measured);
+    if (beginChange()) {
+      try {
+        context.setMeasured(measured);
+      } finally {
+        context.endChange();
+      }
+    }
     return this;
   }
 
@@ -127,6 +222,10 @@ public class DDSpan implements AgentSpan, CoreSpan<DDSpan> {
     return forceKeep;
   }
 
+  void carrySamplingPriority() {
+    this.samplingPriorityCarrier = true;
+  }
+
   /**
    * Check if the span is the root parent. It means that the traceId is the same as the spanId. In
    * the context of distributed tracing this will return true if an only if this is the application
@@ -135,7 +234,7 @@ public class DDSpan implements AgentSpan, CoreSpan<DDSpan> {
    * @return true if root, false otherwise
    */
   public final boolean isRootSpan() {
-    return DDId.ZERO.equals(context.getParentId());
+    return DDId.ZERO.equals(context().getParentId());
   }
 
   @Override
@@ -146,7 +245,7 @@ public class DDSpan implements AgentSpan, CoreSpan<DDSpan> {
 
   @Override
   public DDSpan getLocalRootSpan() {
-    return context.getTrace().getRootSpan();
+    return context().getTrace().getRootSpan();
   }
 
   @Override
@@ -181,125 +280,257 @@ public class DDSpan implements AgentSpan, CoreSpan<DDSpan> {
 
   @Override
   public final DDSpan setTag(final String tag, final String value) {
-    context.setTag(tag, value);
+    if (beginChange()) {
+      try {
+        context.setTag(tag, value);
+      } finally {
+        context.endChange();
+      }
+    }
     return this;
   }
 
   @Override
   public final DDSpan setTag(final String tag, final boolean value) {
-    context.setTag(tag, value);
+    if (beginChange()) {
+      try {
+        context.setTag(tag, value);
+      } finally {
+        context.endChange();
+      }
+    }
     return this;
   }
 
   @Override
   public DDSpan setTag(final String tag, final int value) {
-    context.setTag(tag, value);
+    if (beginChange()) {
+      try {
+        context.setTag(tag, value);
+      } finally {
+        context.endChange();
+      }
+    }
     return this;
   }
 
   @Override
   public DDSpan setTag(final String tag, final long value) {
-    context.setTag(tag, value);
+    if (beginChange()) {
+      try {
+        context.setTag(tag, value);
+      } finally {
+        context.endChange();
+      }
+    }
     return this;
   }
 
   @Override
   public DDSpan setTag(final String tag, final double value) {
-    context.setTag(tag, value);
+    if (beginChange()) {
+      try {
+        context.setTag(tag, value);
+      } finally {
+        context.endChange();
+      }
+    }
     return this;
   }
 
   @Override
   public DDSpan setTag(final String tag, final Number value) {
-    context.setTag(tag, value);
+    if (beginChange()) {
+      try {
+        context.setTag(tag, value);
+      } finally {
+        context.endChange();
+      }
+    }
     return this;
   }
 
   @Override
   public DDSpan setMetric(final CharSequence metric, final int value) {
-    context.setMetric(metric, value);
+    if (beginChange()) {
+      try {
+        context.setMetric(metric, value);
+      } finally {
+        context.endChange();
+      }
+    }
     return this;
   }
 
   @Override
   public DDSpan setMetric(CharSequence name, float value) {
-    context.setMetric(name, value);
+    if (beginChange()) {
+      try {
+        context.setMetric(name, value);
+      } finally {
+        context.endChange();
+      }
+    }
     return this;
   }
 
   @Override
   public DDSpan setMetric(final CharSequence metric, final long value) {
-    context.setMetric(metric, value);
+    if (beginChange()) {
+      try {
+        context.setMetric(metric, value);
+      } finally {
+        context.endChange();
+      }
+    }
     return this;
   }
 
   @Override
   public DDSpan setMetric(final CharSequence metric, final double value) {
-    context.setMetric(metric, value);
+    if (beginChange()) {
+      try {
+        context.setMetric(metric, value);
+      } finally {
+        context.endChange();
+      }
+    }
     return this;
   }
 
   @Override
   public DDSpan setFlag(CharSequence name, boolean value) {
-    context.setMetric(name, value ? 1 : 0);
+    if (beginChange()) {
+      try {
+        context.setMetric(name, value ? 1 : 0);
+      } finally {
+        context.endChange();
+      }
+    }
     return this;
   }
 
   @Override
   public DDSpan setTag(final String tag, final CharSequence value) {
-    context.setTag(tag, value);
+    if (beginChange()) {
+      try {
+        context.setTag(tag, value);
+      } finally {
+        context.endChange();
+      }
+    }
     return this;
   }
 
   @Override
   public DDSpan setTag(final String tag, final Object value) {
-    context.setTag(tag, value);
+    if (beginChange()) {
+      try {
+        context.setTag(tag, value);
+      } finally {
+        context.endChange();
+      }
+    }
     return this;
   }
 
   // FIXME [API] this is not on AgentSpan or MutableSpan
   public DDSpan removeTag(final String tag) {
-    context.setTag(tag, null);
+    if (beginChange()) {
+      try {
+        context.setTag(tag, null);
+      } finally {
+        context.endChange();
+      }
+    }
     return this;
   }
 
   @Override
   public Object getTag(final String tag) {
-    return context.getTag(tag);
+    return context().getTag(tag);
   }
 
   @Override
   @Nonnull
   public final DDSpanContext context() {
-    return context;
+    return isRecycled() ? detachedContext() : context;
+  }
+
+  private DDSpanContext detachedContext() {
+    DDSpanContext detached = detachedContext;
+    if (null == detached) {
+      detached =
+          new DDSpanContext(
+              recycledTraceId,
+              recycledSpanId,
+              recycledParentId,
+              null,
+              recycledServiceName,
+              null,
+              null,
+              PrioritySampling.UNSET,
+              null,
+              null,
+              false,
+              null,
+              0,
+              recycledTrace);
+      detachedContext = detached;
+    }
+    return detached;
   }
 
   @Override
   public final String getBaggageItem(final String key) {
-    return context.getBaggageItem(key);
+    return context().getBaggageItem(key);
   }
 
   @Override
   public final DDSpan setBaggageItem(final String key, final String value) {
-    context.setBaggageItem(key, value);
+    if (beginChange()) {
+      try {
+        context.setBaggageItem(key, value);
+      } finally {
+        context.endChange();
+      }
+    }
     return this;
   }
 
   @Override
   public final DDSpan setOperationName(final CharSequence operationName) {
-    context.setOperationName(operationName);
+    if (beginChange()) {
+      try {
+        context.setOperationName(operationName);
+      } finally {
+        context.endChange();
+      }
+    }
     return this;
   }
 
   @Override
   public final DDSpan setServiceName(final String serviceName) {
-    context.setServiceName(serviceName);
+    if (beginChange()) {
+      try {
+        context.setServiceName(serviceName);
+      } finally {
+        context.endChange();
+      }
+    }
     return this;
   }
 
   @Override
   public final DDSpan setResourceName(final CharSequence resourceName) {
-    context.setResourceName(resourceName);
+    if (beginChange()) {
+      try {
+        context.setResourceName(resourceName);
+      } finally {
+        context.endChange();
+      }
+    }
     return this;
   }
 
@@ -310,21 +541,39 @@ public class DDSpan implements AgentSpan, CoreSpan<DDSpan> {
    */
   @Override
   public final DDSpan setSamplingPriority(final int newPriority) {
-    context.setSamplingPriority(newPriority);
+    if (beginChange()) {
+      try {
+        context.setSamplingPriority(newPriority);
+      } finally {
+        context.endChange();
+      }
+    }
     return this;
   }
 
   @Override
   public DDSpan setSamplingPriority(int samplingPriority, CharSequence rate, double sampleRate) {
-    if (context.setSamplingPriority(samplingPriority)) {
-      setMetric(rate, sampleRate);
+    if (beginChange()) {
+      try {
+        if (context.setSamplingPriority(samplingPriority)) {
+          setMetric(rate, sampleRate);
+        }
+      } finally {
+        context.endChange();
+      }
     }
     return this;
   }
 
   @Override
   public final DDSpan setSpanType(final CharSequence type) {
-    context.setSpanType(type);
+    if (beginChange()) {
+      try {
+        context.setSpanType(type);
+      } finally {
+        context.endChange();
+      }
+    }
     return this;
   }
 
@@ -337,7 +586,7 @@ public class DDSpan implements AgentSpan, CoreSpan<DDSpan> {
    */
   @Override
   public Map<CharSequence, Number> getUnsafeMetrics() {
-    return context.getUnsafeMetrics();
+    return context().getUnsafeMetrics();
   }
 
   @Override
@@ -352,52 +601,58 @@ public class DDSpan implements AgentSpan, CoreSpan<DDSpan> {
 
   @Override
   public String getServiceName() {
-    return context.getServiceName();
+    return context().getServiceName();
   }
 
   @Override
   public DDId getTraceId() {
-    return context.getTraceId();
+    return context().getTraceId();
   }
 
   @Override
   public DDId getSpanId() {
-    return context.getSpanId();
+    return context().getSpanId();
   }
 
   @Override
   public DDId getParentId() {
-    return context.getParentId();
+    return context().getParentId();
   }
 
   @Override
   public CharSequence getResourceName() {
-    return context.getResourceName();
+    return context().getResourceName();
   }
 
   @Override
   public CharSequence getOperationName() {
-    return context.getOperationName();
+    return context().getOperationName();
   }
 
   @Override
   public CharSequence getSpanName() {
-    return context.getOperationName();
+    return context().getOperationName();
   }
 
   @Override
   public void setSpanName(final CharSequence spanName) {
-    context.setOperationName(spanName);
+    if (beginChange()) {
+      try {
+        context.setOperationName(spanName);
+      } finally {
+        context.endChange();
+      }
+    }
   }
 
   @Override
   public boolean hasResourceName() {
-    return context.hasResourceName();
+    return context().hasResourceName();
   }
 
   @Override
   public Integer getSamplingPriority() {
-    final int samplingPriority = context.getSamplingPriority();
+    final int samplingPriority = context().getSamplingPriority();
     if (samplingPriority == PrioritySampling.UNSET) {
       return null;
     } else {
@@ -407,39 +662,39 @@ public class DDSpan implements AgentSpan, CoreSpan<DDSpan> {
 
   @Override
   public int samplingPriority() {
-    return context.getSamplingPriority();
+    return context().getSamplingPriority();
   }
 
   @Override
   public String getSpanType() {
-    final CharSequence spanType = context.getSpanType();
+    final CharSequence spanType = context().getSpanType();
     return null == spanType ? null : spanType.toString();
   }
 
   @Override
   public Map<String, Object> getTags() {
     // This is an imutable copy of the tags
-    return context.getTags();
+    return context().getTags();
   }
 
   @Override
   public CharSequence getType() {
-    return context.getSpanType();
+    return context().getSpanType();
   }
 
   @Override
   public void processTagsAndBaggage(final MetadataConsumer consumer) {
-    context.processTagsAndBaggage(consumer);
+    context().processTagsAndBaggage(consumer);
   }
 
   @Override
   public boolean isError() {
-    return context.getErrorFlag();
+    return context().getErrorFlag();
   }
 
   @Override
   public int getError() {
-    return context.getErrorFlag() ? 1 : 0;
+    return context().getErrorFlag() ? 1 : 0;
   }
 
   @Override
@@ -456,25 +711,25 @@ public class DDSpan implements AgentSpan, CoreSpan<DDSpan> {
 
   @Override
   public boolean hasSamplingPriority() {
-    return context.getTrace().getRootSpan() == this;
+    return samplingPriorityCarrier || context().getTrace().getRootSpan() == this;
   }
 
   @Override
   public boolean isMeasured() {
-    return context.isMeasured();
+    return context().isMeasured();
   }
 
   @Override
   public boolean isTopLevel() {
-    return context.isTopLevel();
+    return context().isTopLevel();
   }
 
   public Map<String, String> getBaggage() {
-    return Collections.unmodifiableMap(context.getBaggageItems());
+    return Collections.unmodifiableMap(context().getBaggageItems());
   }
 
   @Override
   public String toString() {
-    return context.toString() + ", duration_ns=" + durationNano;
+    return context().toString() + ", duration_ns=" + durationNano;
   }
 }
@@ -14,6 +14,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -36,21 +37,39 @@ public class DDSpanContext implements AgentSpan.Context {
   private static final Map<CharSequence, Number> EMPTY_METRICS = Collections.emptyMap();
   private static final Map<String, String> EMPTY_BAGGAGE = Collections.emptyMap();
 
+  /** Contexts with more tags than this are not recycled, so pooled tag maps stay small */
+  private static final int MAX_RECYCLED_TAGS = 64;
+
+  private static final AtomicIntegerFieldUpdater<DDSpanContext> CHANGING =
+      AtomicIntegerFieldUpdater.newUpdater(DDSpanContext.class, "changing");
+
+  /**
+   * The number of times this context has been recycled. The fields below are only reassigned when a
+   * recycled context is initialized for a new span, see {@link #initialize}.
+   */
+  private volatile int generation;
+
+  /** Whether this context goes back to the pool once written, set before it is first used */
+  private boolean recyclable;
+
+  /** The number of spans changing this context, or -1 while it is being recycled */
+  private volatile int changing;
+
   /** The collection of all span related to this one */
-  private final PendingTrace trace;
+  private PendingTrace trace;
 
   /** Baggage is associated with the whole trace and shared with other spans */
   private volatile Map<String, String> baggageItems;
 
   // Not Shared with other span contexts
-  private final DDId traceId;
-  private final DDId spanId;
-  private final DDId parentId;
+  private DDId traceId;
+  private DDId spanId;
+  private DDId parentId;
 
-  private final String parentServiceName;
+  private String parentServiceName;
 
-  private final long threadId;
-  private final UTF8BytesString threadName;
+  private long threadId;
+  private UTF8BytesString threadName;
 
   /**
    * Tags are associated to the current span, they will not propagate to the children span.
@@ -61,7 +80,7 @@ public class DDSpanContext implements AgentSpan.Context {
    * rather read and accessed in a serial fashion on thread after thread. The synchronization can
    * then be wrapped around bulk operations to minimize the costly atomic operations.
    */
-  private final Map<String, Object> unsafeTags;
+  private final TagMap<String, Object> unsafeTags;
 
   /** The service name is required, otherwise the span are dropped by the agent */
   private volatile String serviceName;
@@ -77,19 +96,12 @@ public class DDSpanContext implements AgentSpan.Context {
   private volatile boolean measuredFlag;
 
   private volatile boolean topLevel;
-  /**
-   * When true, the samplingPriority cannot be changed. This prevents the sampling flag from
-   * changing after the context has propagated.
-   *
-   * <p>For thread safety, this boolean is only modified or accessed under instance lock.
-   */
-  private boolean samplingPriorityLocked = false;
-
-  private volatile byte samplingPriorityV1 = PrioritySampling.UNSET;
   /** The origin of the trace. (eg. Synthetics) */
-  private final String origin;
-  /** Metrics on the span - access synchronized on the spanId */
-  private volatile Map<CharSequence, Number> metrics = EMPTY_METRICS;
+  private String origin;
+  /** Guards the metrics, the spanId can't be used because it is reassigned when recycled */
+  private final Object metricsLock = new Object();
+  /** Metrics on the span, created on first write - access synchronized on the metricsLock */
+  private volatile TagMap<CharSequence, Number> metrics;
 
   public DDSpanContext(
       final DDId traceId,
@@ -106,6 +118,43 @@ public class DDSpanContext implements AgentSpan.Context {
       final CharSequence spanType,
       final int tagsSize,
       final PendingTrace trace) {
+    // The +1 is the magic number from the tags below that we set at the end
+    this.unsafeTags = new TagMap<>(tagsSize <= 0 ? 3 : (tagsSize + 1));
+    initialize(
+        traceId,
+        spanId,
+        parentId,
+        parentServiceName,
+        serviceName,
+        operationName,
+        resourceName,
+        samplingPriority,
+        origin,
+        baggageItems,
+        errorFlag,
+        spanType,
+        trace);
+  }
+
+  /**
+   * Initializes a new context, or a recycled one for a new span. Recycled contexts are handed over
+   * through the tracer's pool, which publishes the fields written here to the thread the context
+   * was recycled on.
+   */
+  void initialize(
+      final DDId traceId,
+      final DDId spanId,
+      final DDId parentId,
+      final CharSequence parentServiceName,
+      final String serviceName,
+      final CharSequence operationName,
+      final CharSequence resourceName,
+      final int samplingPriority,
+      final String origin,
+      final Map<String, String> baggageItems,
+      final boolean errorFlag,
+      final CharSequence spanType,
+      final PendingTrace trace) {
 
     assert trace != null;
     this.trace = trace;
@@ -124,17 +173,13 @@ public class DDSpanContext implements AgentSpan.Context {
       this.baggageItems = new ConcurrentHashMap<>(baggageItems);
     }
 
-    // The +1 is the magic number from the tags below that we set at the end,
-    // and "* 4 / 3" is to make sure that we don't resize immediately
-    final int capacity = Math.max((tagsSize <= 0 ? 3 : (tagsSize + 1)) * 4 / 3, 8);
-    this.unsafeTags = new HashMap<>(capacity);
-
     setServiceName(serviceName);
     this.operationName = operationName;
     this.resourceName = resourceName;
     this.errorFlag = errorFlag;
     this.spanType = spanType;
     this.origin = origin;
+    this.measuredFlag = false;
 
     if (samplingPriority != PrioritySampling.UNSET) {
       setSamplingPriority(samplingPriority);
@@ -149,6 +194,77 @@ public class DDSpanContext implements AgentSpan.Context {
     this.threadName = THREAD_NAMES.computeIfAbsent(current.getName(), Functions.UTF8_ENCODE);
   }
 
+  /**
+   * Clears this context so it can be initialized for another span, and moves it to the next
+   * generation so spans which still reference it can tell it has been reused. Must only be called
+   * once the span has been written, by the thread which serialized it.
+   *
+   * @return false if the context has too many tags to be worth recycling
+   */
+  boolean recycle() {
+    // a late change from the application may still be in progress, see beginChange
+    if (!CHANGING.compareAndSet(this, 0, -1)) {
+      return false;
+    }
+    try {
+      synchronized (unsafeTags) {
+        if (unsafeTags.size() > MAX_RECYCLED_TAGS) {
+          return false;
+        }
+        ++generation;
+        unsafeTags.clear();
+      }
+      synchronized (metricsLock) {
+        if (null != metrics) {
+          metrics.clear();
+        }
+      }
+      baggageItems = EMPTY_BAGGAGE;
+      return true;
+    } finally {
+      changing = 0;
+    }
+  }
+
+  void recyclable() {
+    this.recyclable = true;
+  }
+
+  int getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Stops this context from being recycled until {@link #endChange()} is called, so a span can
+   * change it without the change leaking into whichever span the context is reused for.
+   *
+   * @return false if the context has already moved on from the span's generation
+   */
+  boolean beginChange(final int generation) {
+    if (!recyclable) {
+      return true;
+    }
+    while (true) {
+      final int current = changing;
+      if (current < 0) {
+        return false;
+      }
+      if (CHANGING.compareAndSet(this, current, current + 1)) {
+        if (generation == this.generation) {
+          return true;
+        }
+        CHANGING.decrementAndGet(this);
+        return false;
+      }
+    }
+  }
+
+  void endChange() {
+    if (recyclable) {
+      CHANGING.decrementAndGet(this);
+    }
+  }
+
   @Override
   public DDId getTraceId() {
     return traceId;
@@ -241,37 +357,21 @@ public class DDSpanContext implements AgentSpan.Context {
       return false;
     }
 
-    if (trace != null) {
-      final DDSpan rootSpan = trace.getRootSpan();
-      if (null != rootSpan && rootSpan.context() != this) {
-        return rootSpan.context().setSamplingPriority(newPriority);
-      }
+    if (trace.setSamplingPriority(newPriority)) {
+      return true;
     }
-    // sync with lockSamplingPriority
-    synchronized (this) {
-      if (samplingPriorityLocked) {
-        if (log.isDebugEnabled()) {
-          log.debug(
-              "samplingPriority locked at {}. Refusing to set to {}",
-              samplingPriorityV1,
-              newPriority);
-        }
-        return false;
-      } else {
-        this.samplingPriorityV1 = (byte) newPriority;
-        return true;
-      }
+    if (log.isDebugEnabled()) {
+      log.debug(
+          "samplingPriority locked at {}. Refusing to set to {}",
+          trace.getSamplingPriority(),
+          newPriority);
     }
+    return false;
   }
 
   /** @return the sampling priority of this span's trace, or null if no priority has been set */
   public int getSamplingPriority() {
-    final DDSpan rootSpan = trace.getRootSpan();
-    if (null != rootSpan && rootSpan.context() != this) {
-      return rootSpan.context().getSamplingPriority();
-    }
-
-    return samplingPriorityV1;
+    return trace.getSamplingPriority();
   }
 
   /**
@@ -284,20 +384,20 @@ public class DDSpanContext implements AgentSpan.Context {
    * @return true if the sampling priority was locked.
    */
   public boolean lockSamplingPriority() {
-    final DDSpan rootSpan = trace.getRootSpan();
-    if (null != rootSpan && rootSpan.context() != this) {
-      return rootSpan.context().lockSamplingPriority();
+    if (trace.lockSamplingPriority()) {
+      return true;
     }
+    log.debug("{} : refusing to lock unset samplingPriority", this);
+    return false;
+  }
 
-    // sync with setSamplingPriority
-    synchronized (this) {
-      if (samplingPriorityV1 == PrioritySampling.UNSET) {
-        log.debug("{} : refusing to lock unset samplingPriority", this);
-      } else if (!samplingPriorityLocked) {
-        samplingPriorityLocked = true;
-      }
-      return samplingPriorityLocked;
-    }
+  /**
+   * Sets the sampling priority even if it has been locked, for decisions which can only be made
+   * once the trace is complete, such as tail sampling. Services the locked priority was propagated
+   * to keep their own decision.
+   */
+  public void forceSamplingPriority(final int newPriority) {
+    trace.forceSamplingPriority(newPriority);
   }
 
   public String getOrigin() {
@@ -344,25 +444,61 @@ public class DDSpanContext implements AgentSpan.Context {
   }
 
   public Map<CharSequence, Number> getUnsafeMetrics() {
-    return metrics;
+    final Map<CharSequence, Number> metrics = this.metrics;
+    return null == metrics ? EMPTY_METRICS : metrics;
   }
 
   public void setMetric(final CharSequence key, final Number value) {
-    if (metrics == EMPTY_METRICS) {
-      // synchronize on spanId to not contend with sample rates being set
-      synchronized (spanId) {
-        if (metrics == EMPTY_METRICS) {
-          metrics = new HashMap<>(4);
-          metrics.put(key, value instanceof Float ? value.doubleValue() : value);
-          return;
-        }
+    if (value instanceof Integer) {
+      setMetric(key, value.intValue());
+    } else if (value instanceof Long) {
+      setMetric(key, value.longValue());
+    } else if (value instanceof Double || value instanceof Float) {
+      setMetric(key, value.doubleValue());
+    } else {
+      synchronized (metricsLock) {
+        writableMetrics().put(key, value);
       }
     }
-    synchronized (spanId) {
-      metrics.put(key, value instanceof Float ? value.doubleValue() : value);
+  }
+
+  public void setMetric(final CharSequence key, final short value) {
+    // shorts aren't widened, so they keep the type they had when boxed
+    synchronized (metricsLock) {
+      writableMetrics().put(key, value);
+    }
+  }
+
+  public void setMetric(final CharSequence key, final int value) {
+    synchronized (metricsLock) {
+      writableMetrics().putInt(key, value);
+    }
+  }
+
+  public void setMetric(final CharSequence key, final long value) {
+    synchronized (metricsLock) {
+      writableMetrics().putLong(key, value);
     }
   }
 
+  public void setMetric(final CharSequence key, final float value) {
+    setMetric(key, (double) value);
+  }
+
+  public void setMetric(final CharSequence key, final double value) {
+    synchronized (metricsLock) {
+      writableMetrics().putDouble(key, value);
+    }
+  }
+
+  /** Must be called while synchronized on the metricsLock */
+  private TagMap<CharSequence, Number> writableMetrics() {
+    if (null == metrics) {
+      metrics = new TagMap<>(4);
+    }
+    return metrics;
+  }
+
   /**
    * Add a tag to the span. Tags are not propagated to the children
    *
@@ -381,6 +517,36 @@ public class DDSpanContext implements AgentSpan.Context {
     }
   }
 
+  public void setTag(final String tag, final int value) {
+    if (trace.getTracer().getTagInterceptor().needsIntercept(tag)) {
+      setTag(tag, (Object) value);
+    } else {
+      synchronized (unsafeTags) {
+        unsafeTags.putInt(tag, value);
+      }
+    }
+  }
+
+  public void setTag(final String tag, final long value) {
+    if (trace.getTracer().getTagInterceptor().needsIntercept(tag)) {
+      setTag(tag, (Object) value);
+    } else {
+      synchronized (unsafeTags) {
+        unsafeTags.putLong(tag, value);
+      }
+    }
+  }
+
+  public void setTag(final String tag, final double value) {
+    if (trace.getTracer().getTagInterceptor().needsIntercept(tag)) {
+      setTag(tag, (Object) value);
+    } else {
+      synchronized (unsafeTags) {
+        unsafeTags.putDouble(tag, value);
+      }
+    }
+  }
+
   void setAllTags(final Map<String, ? extends Object> map) {
     if (map == null || map.isEmpty()) {
       return;
@@ -458,10 +624,14 @@ public class DDSpanContext implements AgentSpan.Context {
             .append(getResourceName())
             .append(" metrics=");
 
-    synchronized (spanId) {
+    synchronized (metricsLock) {
       Map<CharSequence, Number> metricsSnapshot = new TreeMap<>(getUnsafeMetrics());
-      if (samplingPriorityV1 != PrioritySampling.UNSET) {
-        metricsSnapshot.put(PRIORITY_SAMPLING_KEY, samplingPriorityV1);
+      final int samplingPriority = trace.getSamplingPriority();
+      final DDSpan rootSpan = trace.getRootSpan();
+      // the priority is serialized with the root span
+      if (samplingPriority != PrioritySampling.UNSET
+          && (null == rootSpan || rootSpan.context() == this)) {
+        metricsSnapshot.put(PRIORITY_SAMPLING_KEY, samplingPriority);
       }
       s.append(metricsSnapshot);
     }
@@ -1,6 +1,7 @@
 package datadog.trace.core;
 
 import datadog.trace.api.DDId;
+import datadog.trace.api.sampling.PrioritySampling;
 import datadog.trace.bootstrap.instrumentation.api.AgentScope;
 import datadog.trace.bootstrap.instrumentation.api.AgentTrace;
 import datadog.trace.core.monitor.Recording;
@@ -10,6 +11,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import javax.annotation.Nonnull;
 import lombok.extern.slf4j.Slf4j;
 
@@ -21,6 +23,7 @@ import lombok.extern.slf4j.Slf4j;
  *       <ul>
  *         <li>pending ref count == 0 && trace not already written
  *         <li>not root span && size exceeds partial flush
+ *         <li>not root span && span streaming && size reaches the streaming chunk size
  *       </ul>
  *   <li>Delayed Write
  *       <ul>
@@ -30,6 +33,11 @@ import lombok.extern.slf4j.Slf4j;
  * </ul>
  *
  * Delayed write is handled by PendingTraceBuffer. <br>
+ *
+ * <p>When span streaming is enabled, the sampling priority is resolved as soon as the root span is
+ * registered, rather than when the trace is written, and every chunk which does not contain the
+ * root span carries the trace's sampling priority on its first span. This bounds the number of
+ * finished spans held per trace to the streaming chunk size regardless of the trace length.
  */
 @Slf4j
 public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
@@ -38,15 +46,22 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
     private final CoreTracer tracer;
     private final PendingTraceBuffer pendingTraceBuffer;
     private final boolean strictTraceWrites;
+    private final int spanStreamingChunkSize;
 
-    Factory(CoreTracer tracer, PendingTraceBuffer pendingTraceBuffer, boolean strictTraceWrites) {
+    Factory(
+        CoreTracer tracer,
+        PendingTraceBuffer pendingTraceBuffer,
+        boolean strictTraceWrites,
+        int spanStreamingChunkSize) {
       this.tracer = tracer;
       this.pendingTraceBuffer = pendingTraceBuffer;
       this.strictTraceWrites = strictTraceWrites;
+      this.spanStreamingChunkSize = spanStreamingChunkSize;
     }
 
     PendingTrace create(@Nonnull DDId traceId) {
-      return new PendingTrace(tracer, traceId, pendingTraceBuffer, strictTraceWrites);
+      return new PendingTrace(
+          tracer, traceId, pendingTraceBuffer, strictTraceWrites, spanStreamingChunkSize);
     }
   }
 
@@ -54,6 +69,8 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
   private final DDId traceId;
   private final PendingTraceBuffer pendingTraceBuffer;
   private final boolean strictTraceWrites;
+  /** Number of finished spans written as a chunk before the trace completes, 0 if disabled. */
+  private final int spanStreamingChunkSize;
 
   // TODO: consider moving these time fields into DDTracer to ensure that traces have precise
   // relative time
@@ -77,6 +94,24 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
 
   private volatile boolean rootSpanWritten = false;
 
+  /** Whether the chunk holding the root span has been written, guarded by the write lock */
+  private boolean rootChunkWritten = false;
+
+  /** Spans of dropped chunks which haven't been reported yet, guarded by the write lock */
+  private int droppedSpanCount = 0;
+
+  private static final AtomicIntegerFieldUpdater<PendingTrace> SAMPLING_PRIORITY =
+      AtomicIntegerFieldUpdater.newUpdater(PendingTrace.class, "samplingPriority");
+  private static final int PRIORITY_MASK = 0xFF;
+  private static final int PRIORITY_SET = 0x100;
+  private static final int PRIORITY_LOCKED = 0x200;
+
+  /**
+   * The sampling priority of every span in the trace, in the low byte, with flags for whether it
+   * has been set and locked. Kept in one word so that it can be read and updated without a lock.
+   */
+  private volatile int samplingPriority;
+
   /**
    * Updated with the latest nanoTicks each time getCurrentTimeNano is called (at the start and
    * finish of each span).
@@ -87,11 +122,13 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
       @Nonnull CoreTracer tracer,
       @Nonnull DDId traceId,
       @Nonnull PendingTraceBuffer pendingTraceBuffer,
-      boolean strictTraceWrites) {
+      boolean strictTraceWrites,
+      int spanStreamingChunkSize) {
     this.tracer = tracer;
     this.traceId = traceId;
     this.pendingTraceBuffer = pendingTraceBuffer;
     this.strictTraceWrites = strictTraceWrites;
+    this.spanStreamingChunkSize = spanStreamingChunkSize;
 
     startTimeNano = Clock.currentNanoTime();
     startNanoTicks = Clock.currentNanoTicks();
@@ -121,6 +158,11 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
     lastReferenced = Clock.currentNanoTicks();
   }
 
+  @Override
+  public long lastReferenced() {
+    return lastReferenced;
+  }
+
   public boolean lastReferencedNanosAgo(long nanos) {
     long currentNanoTicks = Clock.currentNanoTicks();
     long age = currentNanoTicks - lastReferenced;
@@ -129,11 +171,17 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
 
   void registerSpan(final DDSpan span) {
     if (null == rootSpan) {
+      boolean registeredRoot = false;
       synchronized (this) {
         if (!rootSpanWritten && null == rootSpan) {
           rootSpan = span;
+          registeredRoot = true;
         }
       }
+      if (registeredRoot && spanStreamingChunkSize > 0) {
+        // chunks will be written before the root finishes, so decide now
+        tracer.setSamplingPriorityIfNecessary(span);
+      }
     }
 
     pendingReferenceCount.incrementAndGet();
@@ -152,6 +200,56 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
     return rootSpan;
   }
 
+  /** @return the trace's sampling priority, or {@link PrioritySampling#UNSET} */
+  final int getSamplingPriority() {
+    int state = samplingPriority;
+    return (state & PRIORITY_SET) == 0 ? PrioritySampling.UNSET : (byte) state;
+  }
+
+  /** @return false if the sampling priority has been locked */
+  final boolean setSamplingPriority(int newPriority) {
+    while (true) {
+      int state = samplingPriority;
+      if ((state & PRIORITY_LOCKED) != 0) {
+        return false;
+      }
+      if (SAMPLING_PRIORITY.compareAndSet(
+          this, state, PRIORITY_SET | (newPriority & PRIORITY_MASK))) {
+        return true;
+      }
+    }
+  }
+
+  /** @return whether the sampling priority is locked, it can't be locked before it is set */
+  final boolean lockSamplingPriority() {
+    while (true) {
+      int state = samplingPriority;
+      if ((state & PRIORITY_SET) == 0) {
+        return false;
+      }
+      if ((state & PRIORITY_LOCKED) != 0
+          || SAMPLING_PRIORITY.compareAndSet(this, state, state | PRIORITY_LOCKED)) {
+        return true;
+      }
+    }
+  }
+
+  /** Sets the sampling priority whether or not it has been locked, and keeps it locked if it was */
+  final void forceSamplingPriority(int newPriority) {
+    while (true) {
+      int state = samplingPriority;
+      if (SAMPLING_PRIORITY.compareAndSet(
+          this, state, (state & PRIORITY_LOCKED) | PRIORITY_SET | (newPriority & PRIORITY_MASK))) {
+        return;
+      }
+    }
+  }
+
+  /** @return whether the trace has been written and no spans or continuations are pending */
+  boolean isComplete() {
+    return rootSpanWritten && pendingReferenceCount.get() == 0;
+  }
+
   /** @return Long.MAX_VALUE if no spans finished. */
   public long oldestFinishedTime() {
     long oldest = Long.MAX_VALUE;
@@ -188,6 +286,9 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
     } else if (isRootSpan) {
       // Finished root with pending work ... delay write
       pendingTraceBuffer.enqueue(this);
+    } else if (0 < spanStreamingChunkSize && spanStreamingChunkSize <= size()) {
+      // Streaming spans, write the completed chunk without waiting for the root.
+      streamChunk();
     } else if (0 < partialFlushMinSpans && partialFlushMinSpans < size()) {
       // Trace is getting too big, write anything completed.
       partialFlush();
@@ -199,18 +300,26 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
 
   /** Important to note: may be called multiple times. */
   private void partialFlush() {
-    int size = write(true);
+    int size = write(true, tracer.getPartialFlushMinSpans());
     if (log.isDebugEnabled()) {
       log.debug("t_id={} -> wrote partial trace of size {}", traceId, size);
     }
   }
 
+  /** Important to note: may be called multiple times. */
+  private void streamChunk() {
+    int size = write(true, spanStreamingChunkSize - 1);
+    if (log.isDebugEnabled()) {
+      log.debug("t_id={} -> streamed chunk of size {}", traceId, size);
+    }
+  }
+
   /** Important to note: may be called multiple times. */
   public void write() {
-    write(false);
+    write(false, 0);
   }
 
-  private int write(boolean isPartial) {
+  private int write(boolean isPartial, int partialMinSpans) {
     if (!finishedSpans.isEmpty()) {
       try (Recording recording = tracer.writeTimer()) {
         // Only one writer at a time
@@ -225,18 +334,25 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
           // the completedSpanCount has not yet been incremented. This means that eventually the
           // count(s) will be incremented, and any new spans added during the period that the count
           // was negative will be written by someone even if we don't write them right now.
-          if (size > 0 && (!isPartial || size > tracer.getPartialFlushMinSpans())) {
+          if (size > 0 && (!isPartial || size > partialMinSpans)) {
             List<DDSpan> trace = new ArrayList<>(size);
             final Iterator<DDSpan> it = finishedSpans.iterator();
+            boolean containsRoot = false;
             int i = 0;
             while (it.hasNext()) {
               final DDSpan span = it.next();
               trace.add(span);
+              containsRoot |= span == rootSpan;
               completedSpanCount.decrementAndGet();
               it.remove();
               i++;
             }
-            tracer.write(trace);
+            if (!containsRoot && spanStreamingChunkSize > 0) {
+              // the agent needs a span in each chunk carrying the trace's sampling priority
+              trace.get(0).carrySamplingPriority();
+            }
+            tracer.write(trace, containsRoot);
+            rootChunkWritten |= containsRoot;
             return i;
           }
         }
@@ -245,6 +361,23 @@ public class PendingTrace implements AgentTrace, PendingTraceBuffer.Element {
     return 0;
   }
 
+  /**
+   * Adds the spans of a dropped chunk to the ones dropped before it, so that a trace written in
+   * several chunks is reported as one dropped trace with all of its spans. Called while writing.
+   *
+   * @return the number of spans to report as dropped, 0 until the root span's chunk is dropped
+   */
+  int dropChunk(int spanCount, boolean containsRoot) {
+    droppedSpanCount += spanCount;
+    if (!containsRoot && !rootChunkWritten) {
+      return 0;
+    }
+    // late arrivals after the root span's chunk are reported as they come
+    int dropped = droppedSpanCount;
+    droppedSpanCount = 0;
+    return dropped;
+  }
+
   public int size() {
     return completedSpanCount.get();
   }
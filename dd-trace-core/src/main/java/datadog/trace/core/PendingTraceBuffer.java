@@ -4,6 +4,8 @@ import static datadog.trace.util.AgentThreadFactory.AgentThread.TRACE_MONITOR;
 import static datadog.trace.util.AgentThreadFactory.THREAD_JOIN_TIMOUT_MS;
 import static datadog.trace.util.AgentThreadFactory.newAgentThread;
 
+import datadog.trace.core.util.Clock;
+import java.util.ArrayDeque;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.jctools.queues.MessagePassingQueue;
@@ -15,6 +17,9 @@ public abstract class PendingTraceBuffer implements AutoCloseable {
   public interface Element {
     long oldestFinishedTime();
 
+    /** @return the nano ticks when the element was last referenced */
+    long lastReferenced();
+
     boolean lastReferencedNanosAgo(long nanos);
 
     void write();
@@ -23,7 +28,6 @@ public abstract class PendingTraceBuffer implements AutoCloseable {
   private static class DelayingPendingTraceBuffer extends PendingTraceBuffer {
     private static final long FORCE_SEND_DELAY_MS = TimeUnit.SECONDS.toMillis(5);
     private static final long SEND_DELAY_NS = TimeUnit.MILLISECONDS.toNanos(500);
-    private static final long SLEEP_TIME_MS = 100;
 
     private final MpscBlockingConsumerArrayQueue<Element> queue;
     private final Thread worker;
@@ -99,6 +103,11 @@ public abstract class PendingTraceBuffer implements AutoCloseable {
         return 0;
       }
 
+      @Override
+      public long lastReferenced() {
+        return 0;
+      }
+
       @Override
       public boolean lastReferencedNanosAgo(long nanos) {
         return false;
@@ -108,44 +117,79 @@ public abstract class PendingTraceBuffer implements AutoCloseable {
       public void write() {}
     }
 
-    private final class Worker implements Runnable {
+    /**
+     * Consumes traces from the queue and holds them in a {@link TimerWheel} until their flush
+     * deadline, which is either {@link #SEND_DELAY_NS} after they were last referenced, or {@link
+     * #FORCE_SEND_DELAY_MS} after their oldest span finished, whichever comes first. The worker
+     * only wakes up when a new trace arrives or the earliest deadline in the wheel is reached, so
+     * traces which are too new never delay the traces queued behind them.
+     */
+    private final class Worker implements Runnable, MessagePassingQueue.Consumer<Element> {
+
+      private final TimerWheel wheel = new TimerWheel(Clock.currentNanoTicks());
 
       @Override
       public void run() {
         try {
           while (!closed && !Thread.currentThread().isInterrupted()) {
-
-            Element pendingTrace = queue.take(); // block until available.
-
-            if (pendingTrace instanceof FlushElement) {
-              // Since this is an MPSC queue, the drain needs to be called on the consumer thread
-              queue.drain(WriteDrain.WRITE_DRAIN);
-              flushCounter.incrementAndGet();
-              continue;
-            }
-
-            long oldestFinishedTime = pendingTrace.oldestFinishedTime();
-
-            long finishTimestampMillis = TimeUnit.NANOSECONDS.toMillis(oldestFinishedTime);
-            if (finishTimestampMillis <= System.currentTimeMillis() - FORCE_SEND_DELAY_MS) {
-              // Root span is getting old. Send the trace to avoid being discarded by agent.
-              pendingTrace.write();
-              continue;
-            }
-
-            if (pendingTrace.lastReferencedNanosAgo(SEND_DELAY_NS)) {
-              // Trace has been unmodified long enough, go ahead and write whatever is finished.
-              pendingTrace.write();
-            } else {
-              // Trace is too new.  Requeue it and sleep to avoid a hot loop.
-              enqueue(pendingTrace);
-              Thread.sleep(SLEEP_TIME_MS);
+            long now = Clock.currentNanoTicks();
+            wheel.expire(now, this);
+
+            long delay = wheel.nanosUntilNextDeadline(now);
+            Element pendingTrace =
+                delay < 0
+                    ? queue.take() // block until available.
+                    : queue.poll(delay, TimeUnit.NANOSECONDS);
+            while (null != pendingTrace) {
+              if (pendingTrace instanceof FlushElement) {
+                // Since this is an MPSC queue, the drain needs to be called on the consumer thread
+                queue.drain(WriteDrain.WRITE_DRAIN);
+                wheel.drain(WriteDrain.WRITE_DRAIN);
+                flushCounter.incrementAndGet();
+                break;
+              }
+              schedule(pendingTrace);
+              pendingTrace = queue.poll();
             }
           }
         } catch (InterruptedException e) {
           Thread.currentThread().interrupt();
         }
       }
+
+      /** Called by the wheel for each trace whose deadline has passed. */
+      @Override
+      public void accept(Element pendingTrace) {
+        long oldestFinishedTime = pendingTrace.oldestFinishedTime();
+
+        long finishTimestampMillis = TimeUnit.NANOSECONDS.toMillis(oldestFinishedTime);
+        if (finishTimestampMillis <= System.currentTimeMillis() - FORCE_SEND_DELAY_MS) {
+          // Root span is getting old. Send the trace to avoid being discarded by agent.
+          pendingTrace.write();
+        } else if (pendingTrace.lastReferencedNanosAgo(SEND_DELAY_NS)) {
+          // Trace has been unmodified long enough, go ahead and write whatever is finished.
+          pendingTrace.write();
+        } else {
+          // Trace was referenced since it was scheduled. Push its deadline back.
+          schedule(pendingTrace);
+        }
+      }
+
+      private void schedule(Element pendingTrace) {
+        long deadline = pendingTrace.lastReferenced() + SEND_DELAY_NS;
+        long oldestFinishedTime = pendingTrace.oldestFinishedTime();
+        if (oldestFinishedTime != Long.MAX_VALUE) {
+          // convert the wall clock force send time to nano ticks
+          long forceSendInMillis =
+              TimeUnit.NANOSECONDS.toMillis(oldestFinishedTime)
+                  + FORCE_SEND_DELAY_MS
+                  - System.currentTimeMillis();
+          long forceSendDeadline =
+              Clock.currentNanoTicks() + TimeUnit.MILLISECONDS.toNanos(forceSendInMillis);
+          deadline = Math.min(deadline, forceSendDeadline);
+        }
+        wheel.schedule(pendingTrace, deadline);
+      }
     }
 
     public DelayingPendingTraceBuffer(int bufferSize) {
@@ -154,6 +198,89 @@ public abstract class PendingTraceBuffer implements AutoCloseable {
     }
   }
 
+  /**
+   * A hashed timer wheel of {@link Element}s keyed by their flush deadline in nano ticks. Deadlines
+   * are rounded up to the next {@link #TICK_NS}, and a deadline further away than the wheel covers
+   * is clamped to the last slot; elements are always re-checked when their slot expires, so this
+   * never causes an early write. Scheduling and expiry are O(1) per element, and the wheel is
+   * unbounded, so it holds any number of pending traces. Not thread-safe, it must only be used by
+   * the worker thread.
+   */
+  static final class TimerWheel {
+    static final long TICK_NS = TimeUnit.MILLISECONDS.toNanos(10);
+    // must be a power of two, and should cover SEND_DELAY_NS
+    static final int WHEEL_SIZE = 128;
+    private static final int MASK = WHEEL_SIZE - 1;
+
+    private final ArrayDeque<Element>[] slots;
+    private final long origin;
+    /** The next tick to expire, all earlier ticks have been expired. */
+    private long currentTick;
+
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(long origin) {
+      this.origin = origin;
+      this.slots = new ArrayDeque[WHEEL_SIZE];
+      for (int i = 0; i < WHEEL_SIZE; ++i) {
+        slots[i] = new ArrayDeque<>();
+      }
+    }
+
+    void schedule(Element element, long deadlineNanoTicks) {
+      long relative = deadlineNanoTicks - origin;
+      long tick = relative <= 0 ? 0 : (relative + TICK_NS - 1) / TICK_NS;
+      tick = Math.min(Math.max(tick, currentTick), currentTick + MASK);
+      slots[(int) (tick & MASK)].addLast(element);
+      ++size;
+    }
+
+    /** Hands every element with a deadline at or before {@code nowNanoTicks} to the consumer. */
+    void expire(long nowNanoTicks, MessagePassingQueue.Consumer<Element> consumer) {
+      long nowTick = Math.max(0, (nowNanoTicks - origin) / TICK_NS);
+      while (size > 0 && currentTick <= nowTick) {
+        // take the slot's elements before expiring them, because the consumer may reschedule
+        ArrayDeque<Element> slot = slots[(int) (currentTick & MASK)];
+        int expired = slot.size();
+        ++currentTick;
+        for (int i = 0; i < expired; ++i) {
+          --size;
+          consumer.accept(slot.pollFirst());
+        }
+      }
+      currentTick = Math.max(currentTick, nowTick + 1);
+    }
+
+    /** Hands every element in the wheel to the consumer, regardless of its deadline. */
+    void drain(MessagePassingQueue.Consumer<Element> consumer) {
+      for (ArrayDeque<Element> slot : slots) {
+        Element element;
+        while (null != (element = slot.pollFirst())) {
+          --size;
+          consumer.accept(element);
+        }
+      }
+    }
+
+    /** @return nanos until the earliest deadline in the wheel, or -1 if the wheel is empty */
+    long nanosUntilNextDeadline(long nowNanoTicks) {
+      if (size == 0) {
+        return -1;
+      }
+      for (long tick = currentTick; tick <= currentTick + MASK; ++tick) {
+        if (!slots[(int) (tick & MASK)].isEmpty()) {
+          return Math.max(0, origin + tick * TICK_NS - nowNanoTicks);
+        }
+      }
+      return 0;
+    }
+
+    int size() {
+      return size;
+    }
+  }
+
   static class MutePendingTraceBuffer extends PendingTraceBuffer {
     @Override
     public void start() {}
@@ -0,0 +1,307 @@
+package datadog.trace.core;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A map for span tags and metrics which doesn't allocate an entry per mapping. Keys and values are
+ * stored next to each other in an open addressing array, keys are compared by identity before
+ * equality because they are usually constants, and int, long and double values are stored unboxed.
+ * Primitive values are only boxed when they are read through the {@link Map} interface, which
+ * serialization avoids by using {@link #visit(Visitor)} instead.
+ *
+ * <p>Null keys are not supported, and entries can't be removed while iterating. This class is not
+ * thread-safe.
+ */
+public final class TagMap<K, V> extends AbstractMap<K, V> {
+
+  /** Receives the mappings of a {@link TagMap}, with primitive values unboxed. */
+  public interface Visitor<K> {
+    void visit(K key, Object value);
+
+    /** Receives int and long values. */
+    void visit(K key, long value);
+
+    void visit(K key, double value);
+  }
+
+  // markers stored in place of values which are held in the primitives array
+  private static final Object INT = new Object();
+  private static final Object LONG = new Object();
+  private static final Object DOUBLE = new Object();
+
+  private static final int MIN_CAPACITY = 8;
+
+  // keys at even indexes, each followed by its value
+  private Object[] table;
+  // allocated when the first primitive value is added, indexed by slot
+  private long[] primitives;
+  private int size;
+  private int threshold;
+
+  public TagMap() {
+    this(0);
+  }
+
+  /** @param expectedSize the number of mappings the map can hold without being resized */
+  public TagMap(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (maxSize(capacity) < expectedSize) {
+      capacity <<= 1;
+    }
+    this.table = new Object[capacity << 1];
+    this.threshold = maxSize(capacity);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return indexOf(key) >= 0;
+  }
+
+  @Override
+  public V get(Object key) {
+    int slot = indexOf(key);
+    return slot < 0 ? null : valueAt(slot);
+  }
+
+  @Override
+  public V put(K key, V value) {
+    int slot = slotFor(key);
+    if (null != table[slot << 1]) {
+      V previous = valueAt(slot);
+      table[(slot << 1) + 1] = value;
+      return previous;
+    }
+    table[slot << 1] = key;
+    table[(slot << 1) + 1] = value;
+    added();
+    return null;
+  }
+
+  public void putInt(K key, int value) {
+    putPrimitive(key, INT, value);
+  }
+
+  public void putLong(K key, long value) {
+    putPrimitive(key, LONG, value);
+  }
+
+  public void putDouble(K key, double value) {
+    putPrimitive(key, DOUBLE, Double.doubleToRawLongBits(value));
+  }
+
+  @Override
+  public V remove(Object key) {
+    int slot = indexOf(key);
+    if (slot < 0) {
+      return null;
+    }
+    V previous = valueAt(slot);
+    delete(slot);
+    return previous;
+  }
+
+  @Override
+  public void clear() {
+    if (size > 0) {
+      Arrays.fill(table, null);
+      size = 0;
+    }
+  }
+
+  /** Passes each mapping to the visitor without boxing primitive values. */
+  @SuppressWarnings("unchecked")
+  public void visit(Visitor<? super K> visitor) {
+    for (int i = 0; i < table.length; i += 2) {
+      K key = (K) table[i];
+      if (null != key) {
+        Object value = table[i + 1];
+        if (value == INT || value == LONG) {
+          visitor.visit(key, primitives[i >>> 1]);
+        } else if (value == DOUBLE) {
+          visitor.visit(key, Double.longBitsToDouble(primitives[i >>> 1]));
+        } else {
+          visitor.visit(key, value);
+        }
+      }
+    }
+  }
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    return new EntrySet();
+  }
+
+  private void putPrimitive(K key, Object type, long value) {
+    int slot = slotFor(key);
+    if (null == primitives) {
+      primitives = new long[table.length >>> 1];
+    }
+    primitives[slot] = value;
+    table[(slot << 1) + 1] = type;
+    if (null == table[slot << 1]) {
+      table[slot << 1] = key;
+      added();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private V valueAt(int slot) {
+    Object value = table[(slot << 1) + 1];
+    if (value == INT) {
+      return (V) Integer.valueOf((int) primitives[slot]);
+    }
+    if (value == LONG) {
+      return (V) Long.valueOf(primitives[slot]);
+    }
+    if (value == DOUBLE) {
+      return (V) Double.valueOf(Double.longBitsToDouble(primitives[slot]));
+    }
+    return (V) value;
+  }
+
+  private int indexOf(Object key) {
+    if (null == key) {
+      return -1;
+    }
+    int mask = (table.length >>> 1) - 1;
+    for (int i = home(key, mask); ; i = (i + 1) & mask) {
+      Object candidate = table[i << 1];
+      if (null == candidate) {
+        return -1;
+      }
+      if (candidate == key || candidate.equals(key)) {
+        return i;
+      }
+    }
+  }
+
+  /** @return the index of the key, or of the empty slot it should be added to */
+  private int slotFor(Object key) {
+    int mask = (table.length >>> 1) - 1;
+    for (int i = home(key, mask); ; i = (i + 1) & mask) {
+      Object candidate = table[i << 1];
+      if (null == candidate || candidate == key || candidate.equals(key)) {
+        return i;
+      }
+    }
+  }
+
+  private void added() {
+    if (++size > threshold) {
+      resize(table.length);
+    }
+  }
+
+  private void delete(int slot) {
+    // shift back later keys in the probe sequence which would otherwise become unreachable
+    int mask = (table.length >>> 1) - 1;
+    int hole = slot;
+    for (int i = (slot + 1) & mask; null != table[i << 1]; i = (i + 1) & mask) {
+      int home = home(table[i << 1], mask);
+      if (((i - home) & mask) >= ((i - hole) & mask)) {
+        table[hole << 1] = table[i << 1];
+        table[(hole << 1) + 1] = table[(i << 1) + 1];
+        if (null != primitives) {
+          primitives[hole] = primitives[i];
+        }
+        hole = i;
+      }
+    }
+    table[hole << 1] = null;
+    table[(hole << 1) + 1] = null;
+    --size;
+  }
+
+  private void resize(int capacity) {
+    Object[] oldTable = table;
+    long[] oldPrimitives = primitives;
+    table = new Object[capacity << 1];
+    primitives = null == oldPrimitives ? null : new long[capacity];
+    threshold = maxSize(capacity);
+    int mask = capacity - 1;
+    for (int i = 0; i < oldTable.length; i += 2) {
+      Object key = oldTable[i];
+      if (null != key) {
+        int slot = home(key, mask);
+        while (null != table[slot << 1]) {
+          slot = (slot + 1) & mask;
+        }
+        table[slot << 1] = key;
+        table[(slot << 1) + 1] = oldTable[i + 1];
+        if (null != oldPrimitives) {
+          primitives[slot] = oldPrimitives[i >>> 1];
+        }
+      }
+    }
+  }
+
+  private static int home(Object key, int mask) {
+    int hash = key.hashCode();
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  private static int maxSize(int capacity) {
+    // keep the load factor at or below 0.75 so probe sequences stay short
+    return capacity - (capacity >>> 2);
+  }
+
+  private final class EntrySet extends AbstractSet<Entry<K, V>> {
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public Iterator<Entry<K, V>> iterator() {
+      return new EntryIterator();
+    }
+  }
+
+  private final class EntryIterator implements Iterator<Entry<K, V>> {
+    private int next = advance(0);
+
+    @Override
+    public boolean hasNext() {
+      return next < table.length >>> 1;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Entry<K, V> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      int slot = next;
+      next = advance(slot + 1);
+      return new SimpleImmutableEntry<>((K) table[slot << 1], valueAt(slot));
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("remove");
+    }
+
+    private int advance(int slot) {
+      while (slot < table.length >>> 1 && null == table[slot << 1]) {
+        ++slot;
+      }
+      return slot;
+    }
+  }
+}
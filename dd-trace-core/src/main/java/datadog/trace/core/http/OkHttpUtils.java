@@ -7,10 +7,13 @@ import datadog.trace.common.writer.ddagent.unixdomainsockets.UnixDomainSocketFac
 import datadog.trace.core.DDTraceCoreInfo;
 import datadog.trace.util.AgentProxySelector;
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
+import net.jpountz.lz4.LZ4FrameOutputStream;
 import okhttp3.ConnectionSpec;
 import okhttp3.Dispatcher;
 import okhttp3.HttpUrl;
@@ -19,6 +22,7 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okio.BufferedSink;
+import okio.Okio;
 
 public final class OkHttpUtils {
 
@@ -84,6 +88,59 @@ public final class OkHttpUtils {
     return new ByteBufferRequestBody(buffers);
   }
 
+  /**
+   * Compresses the body into an LZ4 frame as it is written to the request, so the compressed body
+   * is never held in memory. The length of the compressed body isn't known up front, so it is sent
+   * chunked.
+   */
+  public static RequestBody lz4RequestBodyOf(RequestBody body) {
+    return new Lz4RequestBody(body);
+  }
+
+  private static final class Lz4RequestBody extends RequestBody {
+
+    private final RequestBody body;
+
+    private Lz4RequestBody(RequestBody body) {
+      this.body = body;
+    }
+
+    @Override
+    public MediaType contentType() {
+      return body.contentType();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+      BufferedSink compressed =
+          Okio.buffer(
+              Okio.sink(
+                  new LZ4FrameOutputStream(
+                      new NonClosingOutputStream(sink.outputStream()),
+                      LZ4FrameOutputStream.BLOCKSIZE.SIZE_64KB)));
+      body.writeTo(compressed);
+      // writes the end of the frame, but leaves the sink open because okhttp owns it
+      compressed.close();
+    }
+  }
+
+  private static final class NonClosingOutputStream extends FilterOutputStream {
+
+    private NonClosingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      out.write(bytes, offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.flush();
+    }
+  }
+
   private static final class ByteBufferRequestBody extends RequestBody {
 
     private static final MediaType MSGPACK = MediaType.get("application/msgpack");
@@ -111,8 +168,11 @@ public final class OkHttpUtils {
     @Override
     public void writeTo(BufferedSink sink) throws IOException {
       for (ByteBuffer buffer : buffers) {
-        while (buffer.hasRemaining()) {
-          sink.write(buffer);
+        // write from a duplicate so the body can be written again if the request is retried,
+        // and so that (pooled, possibly direct) buffers are read in place rather than copied
+        ByteBuffer toWrite = buffer.duplicate();
+        while (toWrite.hasRemaining()) {
+          sink.write(toWrite);
         }
       }
     }
@@ -10,11 +10,13 @@ import com.timgroup.statsd.StatsDClient;
 import datadog.trace.api.IntFunction;
 import datadog.trace.api.cache.RadixTreeCache;
 import datadog.trace.common.writer.ddagent.DDAgentApi;
+import datadog.trace.common.writer.ddagent.ShedReason;
 import datadog.trace.core.DDSpan;
 import datadog.trace.util.AgentTaskScheduler;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import org.jctools.counters.CountersFactory;
 import org.jctools.counters.FixedSizeStripedLongCounter;
 
@@ -69,9 +71,21 @@ public class HealthMetrics implements AutoCloseable {
   private final FixedSizeStripedLongCounter unsetPriorityDroppedTraces =
       CountersFactory.createFixedSizeStripedCounter(8);
 
+  private final FixedSizeStripedLongCounter[] shedTraces = newShedCounters();
+
   private final FixedSizeStripedLongCounter enqueuedSpans =
       CountersFactory.createFixedSizeStripedCounter(8);
 
+  private final FixedSizeStripedLongCounter bufferPoolHits =
+      CountersFactory.createFixedSizeStripedCounter(8);
+  private final FixedSizeStripedLongCounter bufferPoolMisses =
+      CountersFactory.createFixedSizeStripedCounter(8);
+  private final AtomicLong bufferPoolBytes = new AtomicLong();
+  private final FixedSizeStripedLongCounter bufferPoolExhaustions =
+      CountersFactory.createFixedSizeStripedCounter(8);
+  private final FixedSizeStripedLongCounter bufferPoolWaitMillis =
+      CountersFactory.createFixedSizeStripedCounter(8);
+
   private final StatsDClient statsd;
   private final long interval;
   private final TimeUnit units;
@@ -139,6 +153,11 @@ public class HealthMetrics implements AutoCloseable {
     }
   }
 
+  /** A trace was shed to make room for traces with a higher score. */
+  public void onShedTrace(final ShedReason reason) {
+    shedTraces[reason.ordinal()].inc();
+  }
+
   public void onScheduleFlush(final boolean previousIncomplete) {
     // not recorded
   }
@@ -151,6 +170,26 @@ public class HealthMetrics implements AutoCloseable {
     statsd.count("queue.enqueued.bytes", serializedSizeInBytes, NO_TAGS);
   }
 
+  /** A serialization buffer was reused from the pool. */
+  public void onBufferPoolHit() {
+    bufferPoolHits.inc();
+  }
+
+  /** A serialization buffer was allocated, growing the pool by {@code bufferSize} bytes. */
+  public void onBufferPoolMiss(final int bufferSize) {
+    bufferPoolMisses.inc();
+    bufferPoolBytes.addAndGet(bufferSize);
+  }
+
+  /**
+   * Serialization had to wait for a buffer to be released because all the pooled buffers were
+   * waiting to be sent.
+   */
+  public void onBufferPoolExhausted(final long waitNanos) {
+    bufferPoolExhaustions.inc();
+    bufferPoolWaitMillis.inc(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+  }
+
   public void onFailedSerialize(final List<DDSpan> trace, final Throwable optionalCause) {
     // TODO - DQH - make a new stat for serialization failure -- or maybe count this towards
     // api.errors???
@@ -184,6 +223,15 @@ public class HealthMetrics implements AutoCloseable {
     }
   }
 
+  private static FixedSizeStripedLongCounter[] newShedCounters() {
+    FixedSizeStripedLongCounter[] counters =
+        new FixedSizeStripedLongCounter[ShedReason.values().length];
+    for (int i = 0; i < counters.length; ++i) {
+      counters[i] = CountersFactory.createFixedSizeStripedCounter(8);
+    }
+    return counters;
+  }
+
   @Override
   public void close() {
     if (null != cancellation) {
@@ -227,7 +275,23 @@ public class HealthMetrics implements AutoCloseable {
           target.statsd, "queue.dropped.traces", target.samplerKeepDroppedTraces, SAMPLER_KEEP_TAG);
       reportIfChanged(
           target.statsd, "queue.dropped.traces", target.unsetPriorityDroppedTraces, UNSET_TAG);
+      for (ShedReason reason : ShedReason.values()) {
+        reportIfChanged(
+            target.statsd,
+            "queue.shed.traces",
+            target.shedTraces[reason.ordinal()],
+            reason.getTags());
+      }
       reportIfChanged(target.statsd, "queue.enqueued.spans", target.enqueuedSpans, NO_TAGS);
+      reportIfChanged(target.statsd, "buffer.pool.hit", target.bufferPoolHits, NO_TAGS);
+      reportIfChanged(target.statsd, "buffer.pool.miss", target.bufferPoolMisses, NO_TAGS);
+      long bufferPoolBytes = target.bufferPoolBytes.get();
+      if (bufferPoolBytes > 0) {
+        target.statsd.recordGaugeValue("buffer.pool.size", bufferPoolBytes, NO_TAGS);
+      }
+      reportIfChanged(
+          target.statsd, "buffer.pool.exhausted", target.bufferPoolExhaustions, NO_TAGS);
+      reportIfChanged(target.statsd, "buffer.pool.wait.time", target.bufferPoolWaitMillis, NO_TAGS);
     }
 
     private void reportIfChanged(
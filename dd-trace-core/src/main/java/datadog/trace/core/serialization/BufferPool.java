@@ -0,0 +1,87 @@
+package datadog.trace.core.serialization;
+
+import datadog.trace.core.monitor.HealthMetrics;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of equally sized buffers, either on or off heap. Buffers are allocated on demand
+ * up to the limit, and once the limit is reached {@link #acquire()} blocks until a buffer is
+ * released, which applies back-pressure to whoever is filling the buffers. Hits, misses and
+ * exhaustion of the pool are reported to {@link HealthMetrics}.
+ */
+public final class BufferPool {
+
+  private final int bufferSize;
+  private final int maxBuffers;
+  private final boolean direct;
+  private final BlockingQueue<ByteBuffer> available;
+  private final AtomicInteger allocated = new AtomicInteger();
+  private final HealthMetrics healthMetrics;
+
+  public BufferPool(int bufferSize, int maxBuffers, HealthMetrics healthMetrics) {
+    this(bufferSize, maxBuffers, false, healthMetrics);
+  }
+
+  /**
+   * @param direct whether to allocate direct buffers, which are never copied onto the heap when
+   *     their contents are written to a channel
+   */
+  public BufferPool(int bufferSize, int maxBuffers, boolean direct, HealthMetrics healthMetrics) {
+    this.bufferSize = bufferSize;
+    this.maxBuffers = Math.max(1, maxBuffers);
+    this.direct = direct;
+    this.available = new ArrayBlockingQueue<>(this.maxBuffers);
+    this.healthMetrics = healthMetrics;
+  }
+
+  public int bufferSize() {
+    return bufferSize;
+  }
+
+  public boolean isDirect() {
+    return direct;
+  }
+
+  /** @return the number of buffers allocated so far, never more than the maximum */
+  public int allocatedBuffers() {
+    return allocated.get();
+  }
+
+  /** @return the number of allocated buffers which are not in use */
+  public int availableBuffers() {
+    return available.size();
+  }
+
+  /**
+   * @return an empty buffer, blocking until one is released if all buffers are in use
+   * @throws InterruptedException if interrupted while waiting for a buffer
+   */
+  public ByteBuffer acquire() throws InterruptedException {
+    ByteBuffer buffer = available.poll();
+    if (null != buffer) {
+      healthMetrics.onBufferPoolHit();
+      return buffer;
+    }
+    int count = allocated.get();
+    while (count < maxBuffers) {
+      if (allocated.compareAndSet(count, count + 1)) {
+        healthMetrics.onBufferPoolMiss(bufferSize);
+        return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+      }
+      count = allocated.get();
+    }
+    long start = System.nanoTime();
+    buffer = available.take();
+    healthMetrics.onBufferPoolExhausted(System.nanoTime() - start);
+    return buffer;
+  }
+
+  /** Returns a buffer acquired from this pool, its contents are discarded. */
+  public void release(ByteBuffer buffer) {
+    buffer.clear();
+    available.offer(buffer);
+  }
+}
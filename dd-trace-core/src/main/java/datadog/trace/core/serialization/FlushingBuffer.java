@@ -4,17 +4,43 @@ import java.nio.ByteBuffer;
 
 public final class FlushingBuffer implements StreamingBuffer {
 
-  private final ByteBuffer buffer;
+  private final BufferPool pool;
   private final ByteBufferConsumer consumer;
+  private ByteBuffer buffer;
 
   private int messageCount;
   private int mark;
+  private int flushThreshold = Integer.MAX_VALUE;
 
+  /**
+   * Creates a buffer which is reused after each flush, so the consumer must have finished with the
+   * published buffer when it returns.
+   */
   public FlushingBuffer(int capacity, ByteBufferConsumer consumer) {
+    this.pool = null;
     this.buffer = ByteBuffer.allocate(capacity);
     this.consumer = consumer;
   }
 
+  /**
+   * Creates a buffer which hands each filled buffer over to the consumer and carries on in a fresh
+   * buffer from the pool. The consumer owns the published buffer, and must release it to the pool
+   * once it has finished with it.
+   */
+  public FlushingBuffer(BufferPool pool, ByteBufferConsumer consumer) {
+    this.pool = pool;
+    this.buffer = acquire(pool);
+    this.consumer = consumer;
+  }
+
+  /**
+   * Flushes the buffer as soon as a message ends at or beyond {@code flushThreshold} bytes, rather
+   * than when a message overflows it.
+   */
+  public void setFlushThreshold(int flushThreshold) {
+    this.flushThreshold = flushThreshold;
+  }
+
   @Override
   public boolean isDirty() {
     return mark > 0;
@@ -24,6 +50,9 @@ public final class FlushingBuffer implements StreamingBuffer {
   public void mark() {
     mark = buffer.position();
     ++messageCount;
+    if (mark >= flushThreshold) {
+      flush();
+    }
   }
 
   @Override
@@ -33,7 +62,13 @@ public final class FlushingBuffer implements StreamingBuffer {
     }
     buffer.limit(mark);
     buffer.flip();
-    ByteBuffer toPublish = buffer.slice();
+    ByteBuffer toPublish;
+    if (null == pool) {
+      toPublish = buffer.slice();
+    } else {
+      toPublish = buffer;
+      buffer = acquire(pool);
+    }
     consumer.accept(messageCount, toPublish);
     reset();
     return true;
@@ -89,6 +124,16 @@ public final class FlushingBuffer implements StreamingBuffer {
     this.buffer.put(buffer);
   }
 
+  private static ByteBuffer acquire(BufferPool pool) {
+    try {
+      return pool.acquire();
+    } catch (InterruptedException e) {
+      // shutting down, so don't wait for a buffer to be released
+      Thread.currentThread().interrupt();
+      return ByteBuffer.allocate(pool.bufferSize());
+    }
+  }
+
   private void reset() {
     messageCount = 0;
     buffer.position(0);
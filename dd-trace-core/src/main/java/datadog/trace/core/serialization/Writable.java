@@ -23,6 +23,12 @@ public interface Writable {
 
   void writeBinary(byte[] binary);
 
+  /**
+   * Writes bytes which are already encoded in the format being written, such as a cached key-value
+   * pair, as they are.
+   */
+  void writeEncoded(byte[] encoded);
+
   void writeBinary(byte[] binary, int offset, int length);
 
   /**
@@ -172,6 +172,11 @@ public class MsgPackWriter implements WritableFormatter {
     buffer.put(string.getUtf8Bytes());
   }
 
+  @Override
+  public void writeEncoded(byte[] encoded) {
+    buffer.put(encoded);
+  }
+
   @Override
   public void writeBinary(byte[] binary) {
     writeBinaryHeader(binary.length);
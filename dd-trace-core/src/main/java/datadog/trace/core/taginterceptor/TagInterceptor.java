@@ -1,7 +1,6 @@
 package datadog.trace.core.taginterceptor;
 
 import static datadog.trace.api.DDTags.ANALYTICS_SAMPLE_RATE;
-import static datadog.trace.api.DDTags.SPAN_TYPE;
 import static datadog.trace.api.sampling.PrioritySampling.USER_DROP;
 import static datadog.trace.api.sampling.PrioritySampling.USER_KEEP;
 import static datadog.trace.core.taginterceptor.RuleFlags.Feature.FORCE_MANUAL_DROP;
@@ -47,33 +46,83 @@ public class TagInterceptor {
   }
 
   public boolean interceptTag(DDSpanContext span, String tag, Object value) {
-    switch (tag) {
-      case DDTags.RESOURCE_NAME:
+    Interceptor interceptor = interceptorOf(tag);
+    if (null == interceptor) {
+      return intercept(span, tag, value);
+    }
+    switch (interceptor) {
+      case RESOURCE_NAME:
         return interceptResourceName(span, value);
-      case Tags.DB_STATEMENT:
+      case DB_STATEMENT:
         return interceptDbStatement(span, value);
-      case DDTags.SERVICE_NAME:
-      case "service":
+      case SERVICE_NAME:
         return interceptServiceName(SERVICE_NAME, span, value);
-      case Tags.PEER_SERVICE:
+      case PEER_SERVICE:
         return interceptServiceName(PEER_SERVICE, span, value);
-      case DDTags.MANUAL_KEEP:
+      case MANUAL_KEEP:
         return interceptSamplingPriority(FORCE_MANUAL_KEEP, USER_KEEP, span, value);
-      case DDTags.MANUAL_DROP:
+      case MANUAL_DROP:
         return interceptSamplingPriority(FORCE_MANUAL_DROP, USER_DROP, span, value);
-      case InstrumentationTags.SERVLET_CONTEXT:
+      case SERVLET_CONTEXT:
         return interceptServletContext(span, value);
       case SPAN_TYPE:
         return interceptSpanType(span, value);
       case ANALYTICS_SAMPLE_RATE:
         return interceptAnalyticsSampleRate(span, value);
-      case Tags.ERROR:
+      case ERROR:
         return interceptError(span, value);
       default:
         return intercept(span, tag, value);
     }
   }
 
+  /** @return whether {@link #interceptTag} might intercept values of the tag */
+  public boolean needsIntercept(String tag) {
+    return null != interceptorOf(tag) || splitServiceTags.contains(tag);
+  }
+
+  /** The tags which are always intercepted, besides the split service tags */
+  private enum Interceptor {
+    RESOURCE_NAME,
+    DB_STATEMENT,
+    SERVICE_NAME,
+    PEER_SERVICE,
+    MANUAL_KEEP,
+    MANUAL_DROP,
+    SERVLET_CONTEXT,
+    SPAN_TYPE,
+    ANALYTICS_SAMPLE_RATE,
+    ERROR
+  }
+
+  private static Interceptor interceptorOf(String tag) {
+    switch (tag) {
+      case DDTags.RESOURCE_NAME:
+        return Interceptor.RESOURCE_NAME;
+      case Tags.DB_STATEMENT:
+        return Interceptor.DB_STATEMENT;
+      case DDTags.SERVICE_NAME:
+      case "service":
+        return Interceptor.SERVICE_NAME;
+      case Tags.PEER_SERVICE:
+        return Interceptor.PEER_SERVICE;
+      case DDTags.MANUAL_KEEP:
+        return Interceptor.MANUAL_KEEP;
+      case DDTags.MANUAL_DROP:
+        return Interceptor.MANUAL_DROP;
+      case InstrumentationTags.SERVLET_CONTEXT:
+        return Interceptor.SERVLET_CONTEXT;
+      case DDTags.SPAN_TYPE:
+        return Interceptor.SPAN_TYPE;
+      case DDTags.ANALYTICS_SAMPLE_RATE:
+        return Interceptor.ANALYTICS_SAMPLE_RATE;
+      case Tags.ERROR:
+        return Interceptor.ERROR;
+      default:
+        return null;
+    }
+  }
+
   private boolean intercept(DDSpanContext span, String tag, Object value) {
     if (splitServiceTags.contains(tag)) {
       span.setServiceName(String.valueOf(value));
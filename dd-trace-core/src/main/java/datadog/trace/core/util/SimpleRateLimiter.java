@@ -2,20 +2,34 @@ package datadog.trace.core.util;
 
 import datadog.trace.api.time.SystemTimeSource;
 import datadog.trace.api.time.TimeSource;
-import datadog.trace.util.MathUtils;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Rate limiter that only supports non-blocking retrieval of a single token at a minimum rate of 1
- * per second. Tokens are not smoothed across the second
+ * per second.
+ *
+ * <p>Tokens are released evenly across the second rather than all at once: each token is due one
+ * {@code 1/rate} interval after the previous one, and up to a second's worth of tokens can be taken
+ * in a burst after a quiet period. Only the time the next token is due is stored, so a token is
+ * taken with a single compare and set, and a request which is refused doesn't write at all, so
+ * threads don't contend when the limit is exceeded.
  */
 public class SimpleRateLimiter {
-  private static final long REFILL_INTERVAL = TimeUnit.SECONDS.toNanos(1);
-  private final long capacity;
-  private final AtomicLong tokens;
-  private final AtomicLong lastRefillTime;
+  private static final long WINDOW = TimeUnit.SECONDS.toNanos(1);
+  private static final int ACQUIRED_SHIFT = 32;
+  private static final long TRIED = 1;
+
+  private final long interval;
+  private final long burst;
   private final TimeSource timeSource;
+  // when the next token is due, tokens due up to burst nanos from now can be taken
+  private final AtomicLong nextTokenTime;
+
+  // acquired tokens in the high half and attempts in the low half, for the current window
+  private final AtomicLong counts = new AtomicLong();
+  private final AtomicLong windowStart;
+  private volatile double previousRate = Double.NaN;
 
   public SimpleRateLimiter(long rate) {
     this(rate, SystemTimeSource.INSTANCE);
@@ -23,29 +37,61 @@ public class SimpleRateLimiter {
 
   protected SimpleRateLimiter(long rate, TimeSource timeSource) {
     this.timeSource = timeSource;
-
-    capacity = Math.max(1, rate);
-
-    tokens = new AtomicLong(capacity);
-
-    lastRefillTime = new AtomicLong(timeSource.getNanoTime());
+    long capacity = Math.max(1, rate);
+    interval = WINDOW / capacity;
+    burst = (capacity - 1) * interval;
+    long now = timeSource.getNanoTime();
+    nextTokenTime = new AtomicLong(now);
+    windowStart = new AtomicLong(now);
   }
 
   public boolean tryAcquire() {
     long now = timeSource.getNanoTime();
-    long localRefill = lastRefillTime.get();
-    long timeElapsedSinceLastRefill = now - localRefill;
-
-    // Attempt to refill tokens if an interval has passed
-    // Only refill the tokens if this thread wins a race
-    if (timeElapsedSinceLastRefill > REFILL_INTERVAL) {
-      if (lastRefillTime.compareAndSet(localRefill, now)) {
-        tokens.set(capacity);
-      }
+    boolean acquired = takeToken(now);
+    count(now, acquired);
+    return acquired;
+  }
 
-      return tryAcquire();
+  /**
+   * @return the fraction of attempts which got a token, over the current and previous second, or 1
+   *     if there have not been any
+   */
+  public double getEffectiveRate() {
+    long counts = this.counts.get();
+    long tried = counts & 0xFFFFFFFFL;
+    double previous = previousRate;
+    if (tried == 0) {
+      return Double.isNaN(previous) ? 1 : previous;
     }
+    double current = (counts >>> ACQUIRED_SHIFT) / (double) tried;
+    return Double.isNaN(previous) ? current : (current + previous) / 2;
+  }
 
-    return MathUtils.boundedDecrement(tokens, 0);
+  private boolean takeToken(long now) {
+    while (true) {
+      long next = nextTokenTime.get();
+      // tokens which were not taken while the limiter was idle are not kept
+      long due = Math.max(next, now);
+      if (due - now > burst) {
+        return false;
+      }
+      if (nextTokenTime.compareAndSet(next, due + interval)) {
+        return true;
+      }
+    }
+  }
+
+  private void count(long now, boolean acquired) {
+    long start = windowStart.get();
+    if (now - start >= WINDOW && windowStart.compareAndSet(start, now)) {
+      long counts = this.counts.getAndSet(0);
+      long tried = counts & 0xFFFFFFFFL;
+      // the rate from a window more than a second ago is out of date
+      previousRate =
+          tried == 0 || now - start >= 2 * WINDOW
+              ? Double.NaN
+              : (counts >>> ACQUIRED_SHIFT) / (double) tried;
+    }
+    counts.addAndGet(acquired ? (1L << ACQUIRED_SHIFT) + TRIED : TRIED);
   }
 }
@@ -0,0 +1,128 @@
+package datadog.trace.common.metrics
+
+import datadog.trace.bootstrap.instrumentation.api.UTF8BytesString
+import datadog.trace.test.util.DDSpecification
+
+class AggregateTableTest extends DDSpecification {
+
+  def "entries can be found with the raw values of the key"() {
+    setup:
+    AggregateTable table = new AggregateTable(10, 1)
+    MetricKey key = new MetricKey("resource", "service", "operation", null, 200)
+    Batch batch = new Batch(key)
+
+    expect:
+    table.find("resource", "service", "operation", null, 200) == null
+
+    when:
+    AggregateTable.Entry entry = table.insert(key, batch)
+
+    then:
+    entry.getKey() == key
+    entry.getBatch().is(batch)
+    table.find("resource", "service", "operation", null, 200).is(entry)
+    table.find(UTF8BytesString.create("resource"), new StringBuilder("service"), "operation", "", 200).is(entry)
+    table.find("resource", "service", "operation", null, 500) == null
+    table.find("resource", "service", "operation", "type", 200) == null
+    table.find("other", "service", "operation", null, 200) == null
+  }
+
+  def "entries added by other threads can be found in any stripe"() {
+    setup:
+    AggregateTable table = new AggregateTable(10, 2)
+    AggregateTable.Entry entry = null
+    Thread thread = null
+    // find a thread assigned the other stripe
+    while (null == thread || (thread.getId() & 1) == (Thread.currentThread().getId() & 1)) {
+      thread = new Thread({
+        entry = table.insert(new MetricKey("resource", "service", "operation", "type", 0), new Batch())
+      } as Runnable)
+    }
+    thread.start()
+    thread.join()
+
+    expect:
+    entry != null
+    table.find("resource", "service", "operation", "type", 0) == null
+    table.findInAnyStripe("resource", "service", "operation", "type", 0).is(entry)
+    table.findInAnyStripe("other", "service", "operation", "type", 0) == null
+  }
+
+  def "inserting an existing key returns the existing entry"() {
+    setup:
+    AggregateTable table = new AggregateTable(10, 1)
+    AggregateTable.Entry entry = table.insert(new MetricKey("resource", "service", "operation", "type", 0), new Batch())
+
+    expect:
+    table.insert(new MetricKey("resource", "service", "operation", "type", 0), new Batch()).is(entry)
+  }
+
+  def "a full stripe rejects new keys"() {
+    setup:
+    AggregateTable table = new AggregateTable(2, 1)
+
+    expect:
+    table.insert(new MetricKey("resource0", "service", "operation", "type", 0), new Batch()) != null
+    table.insert(new MetricKey("resource1", "service", "operation", "type", 0), new Batch()) != null
+    table.insert(new MetricKey("resource2", "service", "operation", "type", 0), new Batch()) == null
+    table.find("resource2", "service", "operation", "type", 0) == null
+  }
+
+  def "only retained entries survive a report but retired tables are visited once more"() {
+    setup:
+    AggregateTable table = new AggregateTable(10, 1)
+    List<AggregateTable.Entry> entries = []
+    for (int i = 0; i < 4; ++i) {
+      entries << table.insert(new MetricKey("resource" + i, "service", "operation", "type", 0), new Batch())
+    }
+    List<AggregateTable.Entry> visited = []
+    AggregateTable.EntryVisitor visitor = new AggregateTable.EntryVisitor() {
+        @Override
+        void visit(AggregateTable.Entry entry) {
+          visited << entry
+        }
+      }
+    AggregateTable.EntryFilter evenResources = new AggregateTable.EntryFilter() {
+        @Override
+        boolean retain(AggregateTable.Entry entry) {
+          return entries.indexOf(entry) % 2 == 0
+        }
+      }
+
+    when:
+    table.forEach(visitor)
+
+    then: "entries are visited in the order they were added"
+    visited == entries
+
+    when:
+    visited.clear()
+    table.retain(evenResources)
+    table.forEach(visitor)
+
+    then:
+    visited == entries + [entries[0], entries[2]]
+    table.find("resource0", "service", "operation", "type", 0).is(entries[0])
+    table.find("resource1", "service", "operation", "type", 0) == null
+
+    when:
+    visited.clear()
+    table.retain(evenResources)
+    table.forEach(visitor)
+
+    then:
+    visited == [entries[0], entries[2], entries[0], entries[2]]
+  }
+
+  def "cleared tables are empty"() {
+    setup:
+    AggregateTable table = new AggregateTable(10, 4)
+    table.insert(new MetricKey("resource", "service", "operation", "type", 0), new Batch())
+
+    when:
+    table.clear()
+
+    then:
+    table.find("resource", "service", "operation", "type", 0) == null
+  }
+}
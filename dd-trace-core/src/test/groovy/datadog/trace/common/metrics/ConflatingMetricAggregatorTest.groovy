@@ -1,10 +1,12 @@
 package datadog.trace.common.metrics
 
 import datadog.trace.api.WellKnownTags
+import datadog.trace.bootstrap.instrumentation.api.UTF8BytesString
 import datadog.trace.core.CoreSpan
 import datadog.trace.test.util.DDSpecification
 import spock.lang.Requires
 import spock.lang.Shared
+import spock.util.concurrent.PollingConditions
 
 import java.util.concurrent.CountDownLatch
 
@@ -284,6 +286,92 @@ class ConflatingMetricAggregatorTest extends DDSpecification {
     aggregator.close()
   }
 
+  def "spans published concurrently are all aggregated"() {
+    setup:
+    MetricWriter writer = Mock(MetricWriter)
+    ConflatingMetricsAggregator aggregator = new ConflatingMetricsAggregator(
+      Stub(Sink), writer, 10, queueSize, reportingInterval, SECONDS)
+    long duration = 100
+    int threadCount = 8
+    int spansPerThread = 1000
+    aggregator.start()
+
+    when:
+    CountDownLatch latch = new CountDownLatch(1)
+    List<Thread> publishers = []
+    for (int t = 0; t < threadCount; ++t) {
+      publishers << Thread.start {
+        for (int i = 0; i < spansPerThread; ++i) {
+          aggregator.publish([new SimpleSpan("service" + (i % 2), "operation", "resource", "type", false, true, false, 0, duration)])
+        }
+      }
+    }
+    publishers*.join()
+    aggregator.report()
+    latch.await(2, SECONDS)
+
+    then:
+    1 * writer.startBucket(2, _, SECONDS.toNanos(reportingInterval))
+    for (int i = 0; i < 2; ++i) {
+      1 * writer.add(new MetricKey("resource", "service" + i, "operation", "type", 0), _) >> {
+        MetricKey key, AggregateMetric value ->
+        assert value.getHitCount() == threadCount * spansPerThread / 2
+        assert value.getDuration() == threadCount * spansPerThread * duration / 2
+      }
+    }
+    1 * writer.finishBucket() >> { latch.countDown() }
+
+    cleanup:
+    aggregator.close()
+  }
+
+  def "aggregates are broken down by extra dimensions and overflowing values are collapsed"() {
+    setup:
+    MetricWriter writer = Mock(MetricWriter)
+    MetricDimensions dimensions = new MetricDimensions(["peer.service"], 2)
+    ConflatingMetricsAggregator aggregator = new ConflatingMetricsAggregator(
+      Stub(Sink), writer, dimensions, 10, queueSize, reportingInterval, SECONDS)
+    long duration = 100
+    aggregator.start()
+
+    when:
+    CountDownLatch latch = new CountDownLatch(1)
+    boolean[] overrides = new boolean[peers.size()]
+    for (int i = 0; i < peers.size(); ++i) {
+      overrides[i] = aggregator.publish([
+        new SimpleSpan("service", "operation", "resource", "type", false, true, false, 0, duration)
+        .setTag("peer.service", peers[i])
+      ])
+    }
+    aggregator.report()
+    latch.await(2, SECONDS)
+
+    then:
+    overrides as List == [true, true, true, false, false, false]
+    1 * writer.startBucket(3, _, SECONDS.toNanos(reportingInterval))
+    1 * writer.add(dimensionKey("a"), _) >> {
+      MetricKey key, AggregateMetric value -> assert value.getHitCount() == 2
+    }
+    1 * writer.add(dimensionKey("b"), _) >> {
+      MetricKey key, AggregateMetric value -> assert value.getHitCount() == 1
+    }
+    1 * writer.add(dimensionKey("other"), _) >> {
+      MetricKey key, AggregateMetric value -> assert value.getHitCount() == 3
+    }
+    1 * writer.finishBucket() >> { latch.countDown() }
+
+    cleanup:
+    aggregator.close()
+
+    where:
+    peers = ["a", "b", "c", "a", "d", "c"]
+  }
+
+  def dimensionKey(String peerService) {
+    return new MetricKey("resource", "service", "operation", "type", 0,
+      [UTF8BytesString.create(peerService)] as UTF8BytesString[])
+  }
+
   def "should be resilient to serialization errors"() {
     setup:
     int maxAggregates = 10
@@ -310,6 +398,37 @@ class ConflatingMetricAggregatorTest extends DDSpecification {
     aggregator.close()
   }
 
+  def "spans slower than the 99th percentile of their key are latency outliers"() {
+    setup:
+    ConflatingMetricsAggregator aggregator = new ConflatingMetricsAggregator(
+      Stub(Sink), Stub(MetricWriter), 10, queueSize, reportingInterval, SECONDS)
+    aggregator.start()
+    def slow = new SimpleSpan("service", "operation", "resource", "type", false, true, false, 0, 1000)
+    def typical = new SimpleSpan("service", "operation", "resource", "type", false, true, false, 0, 50)
+    def otherKey = new SimpleSpan("service", "operation", "other", "type", false, true, false, 0, 1000)
+
+    when: "there is no history for the key"
+    for (int i = 1; i <= 100; ++i) {
+      aggregator.publish([new SimpleSpan("service", "operation", "resource", "type", false, true, false, 0, i)])
+    }
+
+    then:
+    !aggregator.isLatencyOutlier(slow)
+
+    when:
+    aggregator.report()
+
+    then:
+    new PollingConditions(timeout: 2).eventually {
+      assert aggregator.isLatencyOutlier(slow)
+    }
+    !aggregator.isLatencyOutlier(typical)
+    !aggregator.isLatencyOutlier(otherKey)
+
+    cleanup:
+    aggregator.close()
+  }
+
   def reportAndWaitUntilEmpty(ConflatingMetricsAggregator aggregator) {
     waitUntilEmpty(aggregator)
     aggregator.report()
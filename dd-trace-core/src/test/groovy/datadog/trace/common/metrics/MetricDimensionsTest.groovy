@@ -0,0 +1,56 @@
+package datadog.trace.common.metrics
+
+import datadog.trace.bootstrap.instrumentation.api.UTF8BytesString
+import datadog.trace.test.util.DDSpecification
+
+class MetricDimensionsTest extends DDSpecification {
+
+  def "resolves tag values in the configured order"() {
+    setup:
+    MetricDimensions dimensions = new MetricDimensions(["peer.service", "db.type", "tenant"], 10)
+    UTF8BytesString[] values = dimensions.newValues()
+    SimpleSpan span = new SimpleSpan("service", "operation", "resource", "type", true, true, false, 0, 0)
+      .setTag("peer.service", "billing")
+      .setTag("tenant", (Object) 42)
+
+    when:
+    dimensions.resolve(span, values)
+
+    then:
+    dimensions.size() == 3
+    values as List == [UTF8BytesString.create("billing"), UTF8BytesString.EMPTY, UTF8BytesString.create("42")]
+  }
+
+  def "values past the cardinality limit are collapsed until reset"() {
+    setup:
+    MetricDimensions dimensions = new MetricDimensions(["tenant"], 2)
+
+    expect:
+    resolve(dimensions, "a") as String == "a"
+    resolve(dimensions, "b") as String == "b"
+    resolve(dimensions, "c").is(MetricDimensions.OTHER)
+    resolve(dimensions, "a") as String == "a"
+    resolve(dimensions, "a").is(resolve(dimensions, "a"))
+
+    when:
+    dimensions.reset()
+
+    then:
+    resolve(dimensions, "c") as String == "c"
+  }
+
+  def "the number of dimensions is bounded"() {
+    setup:
+    List<String> tagKeys = (0..MetricDimensions.MAX_DIMENSIONS).collect { "tag" + it }
+
+    expect:
+    new MetricDimensions(tagKeys, 10).size() == MetricDimensions.MAX_DIMENSIONS
+    MetricDimensions.NONE.newValues().length == 0
+  }
+
+  def resolve(MetricDimensions dimensions, String value) {
+    UTF8BytesString[] values = dimensions.newValues()
+    dimensions.resolve(new SimpleSpan("", "", "", "", true, true, false, 0, 0).setTag("tenant", value), values)
+    return values[0]
+  }
+}
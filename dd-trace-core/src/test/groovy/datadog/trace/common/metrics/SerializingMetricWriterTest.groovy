@@ -2,6 +2,7 @@ package datadog.trace.common.metrics
 
 import datadog.trace.api.WellKnownTags
 import datadog.trace.bootstrap.instrumentation.api.Pair
+import datadog.trace.bootstrap.instrumentation.api.UTF8BytesString
 import datadog.trace.test.util.DDSpecification
 import org.msgpack.core.MessagePack
 import org.msgpack.core.MessageUnpacker
@@ -22,8 +23,8 @@ class SerializingMetricWriterTest extends DDSpecification {
     long startTime = MILLISECONDS.toNanos(System.currentTimeMillis())
     long duration = SECONDS.toNanos(10)
     WellKnownTags wellKnownTags = new WellKnownTags("hostname", "env", "service", "version")
-    ValidatingSink sink = new ValidatingSink(wellKnownTags, startTime, duration, content)
-    SerializingMetricWriter writer = new SerializingMetricWriter(wellKnownTags, sink, 128)
+    ValidatingSink sink = new ValidatingSink(wellKnownTags, dimensions, startTime, duration, content)
+    SerializingMetricWriter writer = new SerializingMetricWriter(wellKnownTags, dimensions, sink, 128)
 
     when:
     writer.startBucket(content.size(), startTime, duration)
@@ -37,6 +38,7 @@ class SerializingMetricWriterTest extends DDSpecification {
 
 
     where:
+    dimensions << [MetricDimensions.NONE, MetricDimensions.NONE, new MetricDimensions(["peer.service", "span.kind"], 10)]
     content << [
       [
         Pair.of(new MetricKey("resource1", "service1", "operation1", "type", 0), new AggregateMetric().recordDurations(10, new AtomicLongArray(1L))),
@@ -44,7 +46,15 @@ class SerializingMetricWriterTest extends DDSpecification {
       ],
       (0..10000).collect({
         i -> Pair.of(new MetricKey("resource" + i, "service" + i, "operation" + i, "type", 0), new AggregateMetric().recordDurations(10, new AtomicLongArray(1L)))
-      })
+      }),
+      [
+        Pair.of(new MetricKey("resource1", "service1", "operation1", "type", 0,
+          [UTF8BytesString.create("db"), UTF8BytesString.create("client")] as UTF8BytesString[]),
+          new AggregateMetric().recordDurations(10, new AtomicLongArray(1L))),
+        Pair.of(new MetricKey("resource1", "service1", "operation1", "type", 0,
+          [MetricDimensions.OTHER, UTF8BytesString.EMPTY] as UTF8BytesString[]),
+          new AggregateMetric().recordDurations(9, new AtomicLongArray(1L)))
+      ]
     ]
   }
 
@@ -52,14 +62,16 @@ class SerializingMetricWriterTest extends DDSpecification {
   class ValidatingSink implements Sink {
 
     private final WellKnownTags wellKnownTags
+    private final MetricDimensions dimensions
     private final long startTimeNanos
     private final long duration
     private boolean validated = false
     private List<Pair<MetricKey, AggregateMetric>> content
 
-    ValidatingSink(WellKnownTags wellKnownTags, long startTimeNanos, long duration,
+    ValidatingSink(WellKnownTags wellKnownTags, MetricDimensions dimensions, long startTimeNanos, long duration,
                    List<Pair<MetricKey, AggregateMetric>> content) {
       this.wellKnownTags = wellKnownTags
+      this.dimensions = dimensions
       this.startTimeNanos = startTimeNanos
       this.duration = duration
       this.content = content
@@ -96,7 +108,7 @@ class SerializingMetricWriterTest extends DDSpecification {
         MetricKey key = pair.getLeft()
         AggregateMetric value = pair.getRight()
         int size = unpacker.unpackMapHeader()
-        assert size == 10
+        assert size == (key.getDimensionCount() > 0 ? 11 : 10)
         int elementCount = 0
         assert unpacker.unpackString() == "Name"
         assert unpacker.unpackString() == key.getOperationName() as String
@@ -128,6 +140,14 @@ class SerializingMetricWriterTest extends DDSpecification {
         assert unpacker.unpackString() == "ErrorSummary"
         validateSketch(unpacker)
         ++elementCount
+        if (key.getDimensionCount() > 0) {
+          assert unpacker.unpackString() == "Tags"
+          assert unpacker.unpackArrayHeader() == key.getDimensionCount()
+          for (int i = 0; i < key.getDimensionCount(); ++i) {
+            assert unpacker.unpackString() == dimensions.getTagKey(i) + ":" + key.getDimension(i)
+          }
+          ++elementCount
+        }
         assert elementCount == size
       }
       validated = true
@@ -16,6 +16,7 @@ class SimpleSpan implements CoreSpan<SimpleSpan> {
 
   private final long duration
   private final long startTime
+  private final Map<String, Object> tags = [:]
 
   SimpleSpan(String serviceName,
              String operationName,
@@ -104,6 +105,7 @@ class SimpleSpan implements CoreSpan<SimpleSpan> {
 
   @Override
   SimpleSpan setTag(String tag, String value) {
+    tags.put(tag, value)
     return this
   }
 
@@ -139,6 +141,7 @@ class SimpleSpan implements CoreSpan<SimpleSpan> {
 
   @Override
   SimpleSpan setTag(String tag, Object value) {
+    tags.put(tag, value)
     return this
   }
 
@@ -149,12 +152,13 @@ class SimpleSpan implements CoreSpan<SimpleSpan> {
 
   @Override
   <U> U getTag(CharSequence name, U defaultValue) {
-    return defaultValue
+    U value = getTag(name)
+    return null == value ? defaultValue : value
   }
 
   @Override
   <U> U getTag(CharSequence name) {
-    return null
+    return (U) tags.get(String.valueOf(name))
   }
 
   @Override
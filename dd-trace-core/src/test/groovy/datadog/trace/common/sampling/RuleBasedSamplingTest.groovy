@@ -8,6 +8,7 @@ import static datadog.trace.api.config.TracerConfig.TRACE_RATE_LIMIT
 import static datadog.trace.api.config.TracerConfig.TRACE_SAMPLE_RATE
 import static datadog.trace.api.config.TracerConfig.TRACE_SAMPLING_OPERATION_RULES
 import static datadog.trace.api.config.TracerConfig.TRACE_SAMPLING_SERVICE_RULES
+import static datadog.trace.api.config.TracerConfig.TRACE_SAMPLING_SERVICE_RULE_LIMITS
 import static datadog.trace.api.sampling.PrioritySampling.SAMPLER_DROP
 import static datadog.trace.api.sampling.PrioritySampling.SAMPLER_KEEP
 
@@ -79,18 +80,18 @@ class RuleBasedSamplingTest extends DDCoreSpecification {
     null              | "xx:1"              | null        | "50"      | null             | null              | 1.0               | SAMPLER_KEEP
 
     // Matching neither with default rate
-    null              | null                | "1"         | "50"      | 1.0              | 50                | null              | SAMPLER_KEEP
+    null              | null                | "1"         | "50"      | 1.0              | 1.0               | null              | SAMPLER_KEEP
     null              | null                | "0"         | "50"      | 0                | null              | null              | SAMPLER_DROP
-    "xx:1"            | null                | "1"         | "50"      | 1.0              | 50                | null              | SAMPLER_KEEP
-    null              | "xx:1"              | "1"         | "50"      | 1.0              | 50                | null              | SAMPLER_KEEP
+    "xx:1"            | null                | "1"         | "50"      | 1.0              | 1.0               | null              | SAMPLER_KEEP
+    null              | "xx:1"              | "1"         | "50"      | 1.0              | 1.0               | null              | SAMPLER_KEEP
     "xx:1"            | null                | "0"         | "50"      | 0                | null              | null              | SAMPLER_DROP
     null              | "xx:1"              | "0"         | "50"      | 0                | null              | null              | SAMPLER_DROP
 
     // Matching service: keep
-    "service:1"       | null                | null        | "50"      | 1.0              | 50                | null              | SAMPLER_KEEP
-    "s.*:1"           | null                | null        | "50"      | 1.0              | 50                | null              | SAMPLER_KEEP
-    ".*e:1"           | null                | null        | "50"      | 1.0              | 50                | null              | SAMPLER_KEEP
-    "[a-z]+:1"        | null                | null        | "50"      | 1.0              | 50                | null              | SAMPLER_KEEP
+    "service:1"       | null                | null        | "50"      | 1.0              | 1.0               | null              | SAMPLER_KEEP
+    "s.*:1"           | null                | null        | "50"      | 1.0              | 1.0               | null              | SAMPLER_KEEP
+    ".*e:1"           | null                | null        | "50"      | 1.0              | 1.0               | null              | SAMPLER_KEEP
+    "[a-z]+:1"        | null                | null        | "50"      | 1.0              | 1.0               | null              | SAMPLER_KEEP
 
     // Matching service: drop
     "service:0"       | null                | null        | "50"      | 0                | null              | null              | SAMPLER_DROP
@@ -99,18 +100,18 @@ class RuleBasedSamplingTest extends DDCoreSpecification {
     "[a-z]+:0"        | null                | null        | "50"      | 0                | null              | null              | SAMPLER_DROP
 
     // Matching service overrides default rate
-    "service:1"       | null                | "0"         | "50"      | 1.0              | 50                | null              | SAMPLER_KEEP
+    "service:1"       | null                | "0"         | "50"      | 1.0              | 1.0               | null              | SAMPLER_KEEP
     "service:0"       | null                | "1"         | "50"      | 0                | null              | null              | SAMPLER_DROP
 
     // multiple services
-    "xxx:0,service:1" | null                | null        | "50"      | 1.0              | 50                | null              | SAMPLER_KEEP
+    "xxx:0,service:1" | null                | null        | "50"      | 1.0              | 1.0               | null              | SAMPLER_KEEP
     "xxx:1,service:0" | null                | null        | "50"      | 0                | null              | null              | SAMPLER_DROP
 
     // Matching operation : keep
-    null              | "operation:1"       | null        | "50"      | 1.0              | 50                | null              | SAMPLER_KEEP
-    null              | "o.*:1"             | null        | "50"      | 1.0              | 50                | null              | SAMPLER_KEEP
-    null              | ".*n:1"             | null        | "50"      | 1.0              | 50                | null              | SAMPLER_KEEP
-    null              | "[a-z]+:1"          | null        | "50"      | 1.0              | 50                | null              | SAMPLER_KEEP
+    null              | "operation:1"       | null        | "50"      | 1.0              | 1.0               | null              | SAMPLER_KEEP
+    null              | "o.*:1"             | null        | "50"      | 1.0              | 1.0               | null              | SAMPLER_KEEP
+    null              | ".*n:1"             | null        | "50"      | 1.0              | 1.0               | null              | SAMPLER_KEEP
+    null              | "[a-z]+:1"          | null        | "50"      | 1.0              | 1.0               | null              | SAMPLER_KEEP
 
     // Matching operation: drop
     null              | "operation:0"       | null        | "50"      | 0                | null              | null              | SAMPLER_DROP
@@ -119,19 +120,19 @@ class RuleBasedSamplingTest extends DDCoreSpecification {
     null              | "[a-z]+:0"          | null        | "50"      | 0                | null              | null              | SAMPLER_DROP
 
     // Matching operation overrides default rate
-    null              | "operation:1"       | "0"         | "50"      | 1.0              | 50                | null              | SAMPLER_KEEP
+    null              | "operation:1"       | "0"         | "50"      | 1.0              | 1.0               | null              | SAMPLER_KEEP
     null              | "operation:0"       | "1"         | "50"      | 0                | null              | null              | SAMPLER_DROP
 
     // multiple operation combinations
-    null              | "xxx:0,operation:1" | null        | "50"      | 1.0              | 50                | null              | SAMPLER_KEEP
+    null              | "xxx:0,operation:1" | null        | "50"      | 1.0              | 1.0               | null              | SAMPLER_KEEP
     null              | "xxx:1,operation:0" | null        | "50"      | 0                | null              | null              | SAMPLER_DROP
 
     // Service and operation name combinations
-    "service:1"       | "operation:0"       | null        | "50"      | 1.0              | 50                | null              | SAMPLER_KEEP
-    "service:1"       | "xxx:0"             | null        | "50"      | 1.0              | 50                | null              | SAMPLER_KEEP
+    "service:1"       | "operation:0"       | null        | "50"      | 1.0              | 1.0               | null              | SAMPLER_KEEP
+    "service:1"       | "xxx:0"             | null        | "50"      | 1.0              | 1.0               | null              | SAMPLER_KEEP
     "service:0"       | "operation:1"       | null        | "50"      | 0                | null              | null              | SAMPLER_DROP
     "service:0"       | "xxx:1"             | null        | "50"      | 0                | null              | null              | SAMPLER_DROP
-    "xxx:0"           | "operation:1"       | null        | "50"      | 1.0              | 50                | null              | SAMPLER_KEEP
+    "xxx:0"           | "operation:1"       | null        | "50"      | 1.0              | 1.0               | null              | SAMPLER_KEEP
     "xxx:1"           | "operation:0"       | null        | "50"      | 0                | null              | null              | SAMPLER_DROP
 
     // There are no tests for ordering within service or operation rules because the rule order in that case is unspecified
@@ -168,7 +169,8 @@ class RuleBasedSamplingTest extends DDCoreSpecification {
     span1.getSamplingPriority() == SAMPLER_KEEP
 
     span2.getUnsafeMetrics().get(RuleBasedSampler.SAMPLING_RULE_RATE) == 1.0
-    span2.getUnsafeMetrics().get(RuleBasedSampler.SAMPLING_LIMIT_RATE) == 1.0
+    // one of the two traces got through
+    span2.getUnsafeMetrics().get(RuleBasedSampler.SAMPLING_LIMIT_RATE) == 0.5
     span2.getUnsafeMetrics().get(RateByServiceSampler.SAMPLING_AGENT_RATE) == null
     span2.getSamplingPriority() == SAMPLER_DROP
 
@@ -206,11 +208,42 @@ class RuleBasedSamplingTest extends DDCoreSpecification {
     span1.getSamplingPriority() == SAMPLER_KEEP
 
     span2.getUnsafeMetrics().get(RuleBasedSampler.SAMPLING_RULE_RATE) == 1.0
-    span2.getUnsafeMetrics().get(RuleBasedSampler.SAMPLING_LIMIT_RATE) == 1.0
+    // one of the two traces got through
+    span2.getUnsafeMetrics().get(RuleBasedSampler.SAMPLING_LIMIT_RATE) == 0.5
     span2.getUnsafeMetrics().get(RateByServiceSampler.SAMPLING_AGENT_RATE) == null
     span2.getSamplingPriority() == SAMPLER_DROP
 
     cleanup:
     tracer.close()
   }
+
+  def "Rules can have their own rate limit"() {
+    setup:
+    def tracer = tracerBuilder().writer(new ListWriter()).build()
+
+    when:
+    Properties properties = new Properties()
+    properties.setProperty(TRACE_SAMPLING_SERVICE_RULES, "service:1,foo:1")
+    properties.setProperty(TRACE_SAMPLING_SERVICE_RULE_LIMITS, "foo:2")
+    properties.setProperty(TRACE_RATE_LIMIT, "1")
+    Sampler sampler = Sampler.Builder.forConfig(properties)
+
+    def spans = ["service", "service", "foo", "foo", "foo"].collect {
+      tracer.buildSpan("operation")
+        .withServiceName(it)
+        .ignoreActiveSpan().start()
+    }
+    // the later spans should be rate limited if there isn't a >1 sec delay between these lines
+    spans.each {
+      ((PrioritySampler) sampler).setSamplingPriority(it)
+    }
+
+    then:
+    spans*.getSamplingPriority() == [SAMPLER_KEEP, SAMPLER_DROP, SAMPLER_KEEP, SAMPLER_KEEP, SAMPLER_DROP]
+    spans[1].getUnsafeMetrics().get(RuleBasedSampler.SAMPLING_LIMIT_RATE) == 0.5
+    spans[4].getUnsafeMetrics().get(RuleBasedSampler.SAMPLING_LIMIT_RATE) == 2 / 3d
+
+    cleanup:
+    tracer.close()
+  }
 }
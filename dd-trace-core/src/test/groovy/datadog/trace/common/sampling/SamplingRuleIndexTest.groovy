@@ -0,0 +1,116 @@
+package datadog.trace.common.sampling
+
+import datadog.trace.core.CoreSpan
+import datadog.trace.test.util.DDSpecification
+
+import static datadog.trace.common.sampling.SamplingRule.AlwaysMatchesSamplingRule
+import static datadog.trace.common.sampling.SamplingRule.OperationSamplingRule
+import static datadog.trace.common.sampling.SamplingRule.ServiceSamplingRule
+
+class SamplingRuleIndexTest extends DDSpecification {
+
+  def "the first matching rule is found"() {
+    setup:
+    def rules = [
+      service("billing"),
+      operation("servlet\\.request"),
+      service("pay.*-api"),
+      service("payments-api"),
+      operation("jdbc\\..*"),
+      service("a.c"),
+      service("(checkout|cart)-.*"),
+      operation(".*\\.query"),
+      service(".*"),
+    ]
+    def index = new SamplingRuleIndex(rules)
+
+    expect:
+    index.firstMatch(span(serviceName, operationName)) == (expected < 0 ? null : rules[expected])
+    // the second lookup is served from the cache
+    index.firstMatch(span(serviceName, operationName)) == (expected < 0 ? null : rules[expected])
+
+    where:
+    serviceName    | operationName      | expected
+    "billing"      | "servlet.request"  | 0
+    "other"        | "servlet.request"  | 1
+    "other"        | "servletXrequest"  | 8
+    "payments-api" | "jdbc.query"       | 2
+    "payapi"       | "jdbc.query"       | 4
+    "pay-api"      | "x"                | 2
+    "pay-api-v2"   | "x"                | 8
+    "abc"          | "x"                | 5
+    "abbc"         | "x"                | 8
+    "cart-api"     | "x"                | 6
+    "cart-api"     | "jdbc.query"       | 4
+    "other"        | "mongo.query"      | 7
+    null           | "mongo.query"      | 7
+    null           | "x"                | -1
+    "a\nc"         | "x"                | -1
+  }
+
+  def "literal rules take priority by position"() {
+    setup:
+    def rules = [
+      service("fo.*"),
+      service("foo"),
+      service("foo"),
+      new AlwaysMatchesSamplingRule(new DeterministicSampler(1)),
+      service("bar"),
+    ]
+    def index = new SamplingRuleIndex(rules)
+
+    expect:
+    index.firstMatch(span("foo", "x")) == rules[0]
+    index.firstMatch(span("bar", "x")) == rules[3]
+  }
+
+  def "rules of other types are tried in order"() {
+    setup:
+    def custom = new SamplingRule(new DeterministicSampler(1)) {
+        boolean matches(CoreSpan span) {
+          return span.getTag("custom") != null
+        }
+      }
+    def rules = [service("foo"), custom, service(".*")]
+    def index = new SamplingRuleIndex(rules)
+    def tagged = span("bar", "x", "yes")
+
+    expect:
+    index.firstMatch(span("foo", "x")) == rules[0]
+    index.firstMatch(tagged) == rules[1]
+    index.firstMatch(span("bar", "x")) == rules[2]
+  }
+
+  def "only literals and wildcards are compiled"() {
+    expect:
+    SamplingRuleIndex.compile(regex) == (tokens as int[])
+
+    where:
+    regex       | tokens
+    "foo"       | ['f', 'o', 'o'].collect { (int) it.charAt(0) }
+    "a\\.b"     | [(int) 'a'.charAt(0), (int) '.'.charAt(0), (int) 'b'.charAt(0)]
+    "a.b"       | [(int) 'a'.charAt(0), -1, (int) 'b'.charAt(0)]
+    "a.*"       | [(int) 'a'.charAt(0), -2]
+    "a+"        | null
+    "[ab]"      | null
+    "a|b"       | null
+    "\\d"       | null
+    "a.*?"      | null
+  }
+
+  CoreSpan span(String service, String operation, String custom = null) {
+    return Stub(CoreSpan) {
+      getServiceName() >> service
+      getOperationName() >> operation
+      getTag("custom") >> custom
+    }
+  }
+
+  static SamplingRule service(String regex) {
+    return new ServiceSamplingRule(regex, new DeterministicSampler(1))
+  }
+
+  static SamplingRule operation(String regex) {
+    return new OperationSamplingRule(regex, new DeterministicSampler(1))
+  }
+}
@@ -21,6 +21,7 @@ import datadog.trace.core.serialization.ByteBufferConsumer
 import datadog.trace.core.serialization.FlushingBuffer
 import datadog.trace.core.serialization.msgpack.MsgPackWriter
 import datadog.trace.core.test.DDCoreSpecification
+import net.jpountz.lz4.LZ4FrameInputStream
 import okhttp3.HttpUrl
 import okhttp3.OkHttpClient
 import org.msgpack.jackson.dataformat.MessagePackFactory
@@ -28,6 +29,7 @@ import spock.lang.Shared
 import spock.lang.Timeout
 
 import java.nio.ByteBuffer
+import java.nio.channels.Channels
 import java.util.concurrent.RejectedExecutionException
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicLong
@@ -180,6 +182,57 @@ class DDAgentApiTest extends DDCoreSpecification {
     agentVersion << ["v0.3/traces", "v0.4/traces", "v0.4/traces"]
   }
 
+  def "payloads are compressed once the agent advertises lz4"() {
+    setup:
+    def agent = httpServer {
+      handlers {
+        get("info") {
+          response.status(200).send('{"endpoints": ["/v0.4/traces"], "content_encodings": ["lz4"]}')
+        }
+        put("v0.4/traces") {
+          if (request.getHeader("Content-Encoding") != "lz4") {
+            response.status(400).send("not compressed")
+          } else {
+            response.status(200).send()
+          }
+        }
+      }
+    }
+    def (discovery, client) = createAgentApi(agent.address.toString(), "lz4")
+    def traces = [[buildSpan(1L, "service.name", "my-service")]]
+    def payload = prepareTraces("v0.4/traces", traces)
+    def uncompressed = prepareTraces("v0.4/traces", traces)
+
+    when:
+    discovery.discover()
+    def response = client.sendSerializedTraces(payload)
+
+    then:
+    response.success()
+    decompress(agent.lastRequest.body) == bodyOf(uncompressed)
+
+    cleanup:
+    agent.close()
+  }
+
+  def "payloads are sent uncompressed until the agent advertises lz4"() {
+    setup:
+    def agent = newAgent("v0.4/traces")
+    def (discovery, client) = createAgentApi(agent.address.toString(), "lz4")
+    def payload = prepareTraces("v0.4/traces", [])
+
+    when:
+    discovery.discover()
+    def response = client.sendSerializedTraces(payload)
+
+    then:
+    response.success()
+    agent.lastRequest.headers.get("Content-Encoding") == null
+
+    cleanup:
+    agent.close()
+  }
+
   def "Api ResponseListeners see 200 responses"() {
     setup:
     def agentResponse = new AtomicReference<Map>(null)
@@ -406,11 +459,24 @@ class DDAgentApiTest extends DDCoreSpecification {
     }
   }
 
-  def createAgentApi(String url) {
+  def createAgentApi(String url, String compression = null) {
     HttpUrl agentUrl = HttpUrl.get(url)
     OkHttpClient client = OkHttpUtils.buildHttpClient(agentUrl, null, 1000)
     DDAgentFeaturesDiscovery discovery = new DDAgentFeaturesDiscovery(client, monitoring, agentUrl, true)
-    return [discovery, new DDAgentApi(client, agentUrl, discovery, monitoring, false)]
+    return [discovery, new DDAgentApi(client, agentUrl, discovery, monitoring, false, compression)]
+  }
+
+  static byte[] decompress(byte[] compressed) {
+    def input = new LZ4FrameInputStream(new ByteArrayInputStream(compressed))
+    def out = new ByteArrayOutputStream()
+    out << input
+    return out.toByteArray()
+  }
+
+  static byte[] bodyOf(Payload payload) {
+    def out = new ByteArrayOutputStream()
+    payload.writeTo(Channels.newChannel(out))
+    return out.toByteArray()
   }
 
   DDSpan buildSpan(long timestamp, String tag, String value) {
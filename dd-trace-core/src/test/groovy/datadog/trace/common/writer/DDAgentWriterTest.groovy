@@ -45,6 +45,28 @@ class DDAgentWriterTest extends DDCoreSpecification {
     writer != null
   }
 
+  def "payloads are only sent asynchronously with more than one serialization buffer"() {
+    setup:
+    def writer = DDAgentWriter.builder()
+      .featureDiscovery(discovery)
+      .agentApi(api)
+      .serializationBuffers(buffers)
+      .build()
+
+    expect:
+    writer.dispatcher.sender.isAsync() == async
+
+    cleanup:
+    writer.close()
+
+    where:
+    buffers | async
+    0       | false
+    1       | false
+    2       | true
+    4       | true
+  }
+
   def "test writer.start"() {
     when:
     writer.start()
@@ -3,6 +3,7 @@ package datadog.trace.common.writer
 import com.timgroup.statsd.NoOpStatsDClient
 import datadog.trace.api.DDId
 import datadog.trace.api.sampling.PrioritySampling
+import datadog.trace.common.writer.ddagent.AdaptiveFlushController
 import datadog.trace.common.writer.ddagent.DDAgentApi
 import datadog.trace.common.writer.ddagent.DDAgentFeaturesDiscovery
 import datadog.trace.common.writer.ddagent.Payload
@@ -38,7 +39,12 @@ class PayloadDispatcherTest extends DDSpecification {
       flushed.set(true)
       return DDAgentApi.Response.success(200)
     }
-    PayloadDispatcher dispatcher = new PayloadDispatcher(discovery, api, healthMetrics, monitoring)
+    PayloadDispatcher dispatcher = PayloadDispatcher.builder()
+      .featuresDiscovery(discovery)
+      .api(api)
+      .healthMetrics(healthMetrics)
+      .monitoring(monitoring)
+      .build()
     List<DDSpan> trace = [realSpan()]
     when:
     while (!flushed.get()) {
@@ -57,7 +63,12 @@ class PayloadDispatcherTest extends DDSpecification {
     HealthMetrics healthMetrics = Mock(HealthMetrics)
     DDAgentFeaturesDiscovery discovery = Mock(DDAgentFeaturesDiscovery)
     DDAgentApi api = Mock(DDAgentApi)
-    PayloadDispatcher dispatcher = new PayloadDispatcher(discovery, api, healthMetrics, monitoring)
+    PayloadDispatcher dispatcher = PayloadDispatcher.builder()
+      .featuresDiscovery(discovery)
+      .api(api)
+      .healthMetrics(healthMetrics)
+      .monitoring(monitoring)
+      .build()
     List<DDSpan> trace = [realSpan()]
     when:
     for (int i = 0; i < traceCount; ++i) {
@@ -84,7 +95,12 @@ class PayloadDispatcherTest extends DDSpecification {
     HealthMetrics healthMetrics = Mock(HealthMetrics)
     DDAgentFeaturesDiscovery discovery = Mock(DDAgentFeaturesDiscovery)
     DDAgentApi api = Mock(DDAgentApi)
-    PayloadDispatcher dispatcher = new PayloadDispatcher(discovery, api, healthMetrics, monitoring)
+    PayloadDispatcher dispatcher = PayloadDispatcher.builder()
+      .featuresDiscovery(discovery)
+      .api(api)
+      .healthMetrics(healthMetrics)
+      .monitoring(monitoring)
+      .build()
     List<DDSpan> trace = [realSpan()]
     when:
     for (int i = 0; i < traceCount; ++i) {
@@ -111,7 +127,12 @@ class PayloadDispatcherTest extends DDSpecification {
     HealthMetrics healthMetrics = Mock(HealthMetrics)
     DDAgentApi api = Mock(DDAgentApi)
     DDAgentFeaturesDiscovery discovery = Mock(DDAgentFeaturesDiscovery)
-    PayloadDispatcher dispatcher = new PayloadDispatcher(discovery, api, healthMetrics, monitoring)
+    PayloadDispatcher dispatcher = PayloadDispatcher.builder()
+      .featuresDiscovery(discovery)
+      .api(api)
+      .healthMetrics(healthMetrics)
+      .monitoring(monitoring)
+      .build()
     List<DDSpan> trace = [realSpan()]
     discovery.getTraceEndpoint() >> null
     when:
@@ -120,6 +141,29 @@ class PayloadDispatcherTest extends DDSpecification {
     1 * healthMetrics.onFailedPublish(PrioritySampling.UNSET)
   }
 
+  def "shards share the discovery of the agent"() {
+    setup:
+    HealthMetrics healthMetrics = Mock(HealthMetrics)
+    DDAgentApi api = Mock(DDAgentApi)
+    DDAgentFeaturesDiscovery discovery = Mock(DDAgentFeaturesDiscovery)
+    PayloadDispatcher dispatcher = PayloadDispatcher.builder()
+      .featuresDiscovery(discovery)
+      .api(api)
+      .healthMetrics(healthMetrics)
+      .monitoring(monitoring)
+      .build()
+    def shards = [dispatcher, dispatcher.newShard(), dispatcher.newShard()]
+    List<DDSpan> trace = [realSpan()]
+
+    when:
+    shards.each { it.addTrace(trace) }
+
+    then:
+    1 * discovery.discover()
+    _ * discovery.getTraceEndpoint() >> "v0.4/traces"
+    0 * healthMetrics.onFailedPublish(_)
+  }
+
   def "trace and span counts are reset after access"() {
     setup:
     HealthMetrics healthMetrics = Mock(HealthMetrics)
@@ -127,7 +171,12 @@ class PayloadDispatcherTest extends DDSpecification {
     DDAgentFeaturesDiscovery discovery = Mock(DDAgentFeaturesDiscovery) {
       it.getTraceEndpoint() >> "v0.4/traces"
     }
-    PayloadDispatcher dispatcher = new PayloadDispatcher(discovery, api, healthMetrics, monitoring)
+    PayloadDispatcher dispatcher = PayloadDispatcher.builder()
+      .featuresDiscovery(discovery)
+      .api(api)
+      .healthMetrics(healthMetrics)
+      .monitoring(monitoring)
+      .build()
 
     when:
     dispatcher.addTrace([])
@@ -144,6 +193,42 @@ class PayloadDispatcherTest extends DDSpecification {
     newPayload.droppedTraces() == 0
   }
 
+  @Timeout(5)
+  def "adaptive dispatcher flushes at a trace boundary once the target size is reached"() {
+    setup:
+    HealthMetrics healthMetrics = Mock(HealthMetrics)
+    DDAgentFeaturesDiscovery discovery = Mock(DDAgentFeaturesDiscovery)
+    discovery.getTraceEndpoint() >> traceEndpoint
+    DDAgentApi api = Mock(DDAgentApi)
+    List<Integer> sizes = []
+    api.sendSerializedTraces(_) >> { Payload payload ->
+      sizes << payload.sizeInBytes()
+      return DDAgentApi.Response.success(200)
+    }
+    PayloadDispatcher dispatcher = PayloadDispatcher.builder()
+      .featuresDiscovery(discovery)
+      .api(api)
+      .healthMetrics(healthMetrics)
+      .monitoring(monitoring)
+      .adaptiveFlush(true)
+      .build()
+    List<DDSpan> trace = [realSpan()]
+
+    when: "the interval is too short for the target to exceed its minimum"
+    dispatcher.addTrace(trace)
+    dispatcher.flushIntervalNanos(1)
+    dispatcher.flush()
+    while (sizes.size() < 2) {
+      dispatcher.addTrace(trace)
+    }
+
+    then: "the payload is far smaller than the buffer"
+    sizes[1] >= AdaptiveFlushController.MIN_TARGET_SIZE
+    sizes[1] < 2 * AdaptiveFlushController.MIN_TARGET_SIZE
+
+    where:
+    traceEndpoint << ["v0.5/traces", "v0.4/traces"]
+  }
 
   def realSpan() {
     CoreTracer tracer = Mock(CoreTracer)
@@ -1,18 +1,27 @@
 package datadog.trace.common.writer
 
+import datadog.trace.api.DDId
+import datadog.trace.common.metrics.MetricsAggregator
 import datadog.trace.common.writer.ddagent.FlushEvent
+import datadog.trace.common.writer.ddagent.PayloadDispatcher
 import datadog.trace.common.writer.ddagent.PrioritizationStrategy
 import datadog.trace.core.DDSpan
+import datadog.trace.core.monitor.HealthMetrics
 import datadog.trace.test.util.DDSpecification
+import org.jctools.queues.MpscBlockingConsumerArrayQueue
 
 import java.util.concurrent.TimeUnit
 
 import static datadog.trace.api.sampling.PrioritySampling.SAMPLER_DROP
 import static datadog.trace.api.sampling.PrioritySampling.SAMPLER_KEEP
 import static datadog.trace.api.sampling.PrioritySampling.UNSET
+import static datadog.trace.api.sampling.PrioritySampling.USER_DROP
 import static datadog.trace.api.sampling.PrioritySampling.USER_KEEP
 import static datadog.trace.common.writer.ddagent.Prioritization.ENSURE_TRACE
 import static datadog.trace.common.writer.ddagent.Prioritization.FAST_LANE
+import static datadog.trace.common.writer.ddagent.Prioritization.SCORED
+import static datadog.trace.common.writer.ddagent.ShedReason.ERROR
+import static datadog.trace.common.writer.ddagent.ShedReason.SAMPLED
 
 class PrioritizationTest extends DDSpecification {
 
@@ -124,4 +133,172 @@ class PrioritizationTest extends DDSpecification {
     FAST_LANE | true
     FAST_LANE | false
   }
+
+  def "scored strategy sends kept traces to the primary queue, dropped traces to the secondary queue"() {
+    setup:
+    Queue<Object> primary = new MpscBlockingConsumerArrayQueue<>(4)
+    Queue<Object> secondary = new MpscBlockingConsumerArrayQueue<>(4)
+    PrioritizationStrategy scored = SCORED.create(primary, secondary, { dropping },
+    Stub(MetricsAggregator), Mock(HealthMetrics), Mock(PayloadDispatcher))
+    def trace = [span(1)]
+
+    when:
+    boolean published = scored.publish(trace[0], priority, trace)
+
+    then:
+    published == publish
+    primary.size() == primaryCount
+    secondary.size() == secondaryCount
+
+    where:
+    priority     | dropping | publish | primaryCount | secondaryCount
+    UNSET        | false    | true    | 1            | 0
+    SAMPLER_KEEP | false    | true    | 1            | 0
+    USER_KEEP    | false    | true    | 1            | 0
+    SAMPLER_DROP | false    | true    | 0            | 1
+    USER_DROP    | false    | true    | 0            | 1
+    SAMPLER_DROP | true     | false   | 0            | 0
+  }
+
+  def "scored strategy sheds the lowest scoring traces when the primary queue is full"() {
+    setup:
+    Queue<Object> primary = new MpscBlockingConsumerArrayQueue<>(2)
+    HealthMetrics healthMetrics = Mock(HealthMetrics)
+    PayloadDispatcher dispatcher = Mock(PayloadDispatcher)
+    PrioritizationStrategy scored = SCORED.create(primary, null, { false },
+    Stub(MetricsAggregator), healthMetrics, dispatcher)
+    def queued = [[span(1)], [span(2)]]
+    def error = [span(3, 1)]
+    def plain = [span(4), span(4)]
+    def manual = [span(5)]
+    def late = [span(6)]
+
+    when: "the primary queue is filled"
+    queued.each { assert scored.publish(it[0], SAMPLER_KEEP, it) }
+
+    then:
+    0 * healthMetrics._
+
+    when: "the reserve is filled"
+    boolean errorPublished = scored.publish(error[0], SAMPLER_KEEP, error)
+    boolean plainPublished = scored.publish(plain[0], SAMPLER_KEEP, plain)
+
+    then:
+    errorPublished
+    plainPublished
+    0 * healthMetrics._
+
+    when: "a higher scoring trace is published"
+    boolean manualPublished = scored.publish(manual[0], USER_KEEP, manual)
+
+    then: "the lowest scoring reserved trace is shed"
+    manualPublished
+    1 * healthMetrics.onShedTrace(SAMPLED)
+    1 * healthMetrics.onFailedPublish(SAMPLER_KEEP)
+    1 * dispatcher.onDroppedTrace(2)
+    0 * healthMetrics._
+    0 * dispatcher._
+
+    when: "a trace which scores no higher than any reserved trace is published"
+    boolean latePublished = scored.publish(late[0], SAMPLER_KEEP, late)
+
+    then: "it is shed and left to the writer to count as dropped"
+    !latePublished
+    1 * healthMetrics.onShedTrace(SAMPLED)
+    0 * healthMetrics._
+    0 * dispatcher._
+
+    when: "the primary queue is consumed"
+    def consumed = [primary.poll(), primary.poll()]
+    scored.drain()
+    consumed += [primary.poll(), primary.poll()]
+
+    then: "the reserved traces are sent highest scoring first"
+    consumed == queued + [manual, error]
+    primary.isEmpty()
+  }
+
+  def "scored strategy can be created without an aggregator or dispatcher"() {
+    setup:
+    Queue<Object> primary = new MpscBlockingConsumerArrayQueue<>(2)
+    PrioritizationStrategy scored = SCORED.create(primary, null, { false })
+    def traces = (1..5).collect { [span(it)] }
+
+    when: "more traces are published than the primary queue and the reserve hold"
+    def published = traces.collect { scored.publish(it[0], SAMPLER_KEEP, it) }
+
+    then: "the newest of the equally scored reserved traces is shed"
+    published == [true, true, true, true, false]
+    primary.poll() == traces[0]
+    primary.poll() == traces[1]
+  }
+
+  def "scored strategy keeps the chunks of a trace together and in order"() {
+    setup:
+    Queue<Object> primary = new MpscBlockingConsumerArrayQueue<>(4)
+    HealthMetrics healthMetrics = Mock(HealthMetrics)
+    PrioritizationStrategy scored = SCORED.create(primary, null, { false },
+    Stub(MetricsAggregator), healthMetrics, Mock(PayloadDispatcher))
+    def queued = (1..4).collect { [span(it)] }
+    def first = [span(5)]
+    def other = [span(6)]
+    def second = [span(5, 1)]
+    def lowest = [span(7), span(7)]
+
+    when:
+    queued.each { assert scored.publish(it[0], SAMPLER_KEEP, it) }
+    [first, other, second, lowest].each { assert scored.publish(it[0], SAMPLER_KEEP, it) }
+    scored.publish(lowest[0], SAMPLER_KEEP, [span(7)])
+
+    then: "the error in the second chunk promotes the first, and shedding takes every chunk"
+    2 * healthMetrics.onShedTrace(SAMPLED)
+    1 * healthMetrics.onFailedPublish(SAMPLER_KEEP)
+
+    when:
+    4.times { primary.poll() }
+    scored.drain()
+
+    then:
+    poll(primary) == [first, second, other]
+  }
+
+  def "scored strategy sheds traces without latency outliers first"() {
+    setup:
+    Queue<Object> primary = new MpscBlockingConsumerArrayQueue<>(2)
+    MetricsAggregator metricsAggregator = Stub(MetricsAggregator)
+    HealthMetrics healthMetrics = Mock(HealthMetrics)
+    PrioritizationStrategy scored = SCORED.create(primary, null, { false },
+    metricsAggregator, healthMetrics, Mock(PayloadDispatcher))
+    def slow = [span(1)]
+    metricsAggregator.isLatencyOutlier(slow[0]) >> true
+    def queued = (2..5).collect { [span(it)] }
+
+    when:
+    queued.each { scored.publish(it[0], SAMPLER_KEEP, it) }
+    scored.publish(slow[0], SAMPLER_KEEP, slow)
+    primary.clear()
+    scored.drain()
+
+    then:
+    poll(primary) == [slow, queued[2]]
+    1 * healthMetrics.onShedTrace(SAMPLED)
+    0 * healthMetrics.onShedTrace(ERROR)
+  }
+
+  static List<Object> poll(Queue<Object> queue) {
+    List<Object> polled = []
+    Object next
+    while ((next = queue.poll()) != null) {
+      polled << next
+    }
+    return polled
+  }
+
+  DDSpan span(long traceId, int error = 0) {
+    DDSpan span = Stub(DDSpan)
+    span.getTraceId() >> DDId.from(traceId)
+    span.getError() >> error
+    span.isTopLevel() >> true
+    return span
+  }
 }
@@ -0,0 +1,294 @@
+package datadog.trace.common.writer
+
+import datadog.trace.api.sampling.PrioritySampling
+import datadog.trace.common.metrics.MetricsAggregator
+import datadog.trace.core.DDSpan
+import datadog.trace.core.test.DDCoreSpecification
+import datadog.trace.core.util.SimpleRateLimiter
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS
+
+class TailSamplingWriterTest extends DDCoreSpecification {
+
+  def tracer = tracerBuilder().writer(new ListWriter()).build()
+  def written = new ListWriter()
+  def baseline = Stub(SimpleRateLimiter)
+  def metricsAggregator = Stub(MetricsAggregator) {
+    isEnabled() >> true
+  }
+
+  def cleanup() {
+    tracer?.close()
+  }
+
+  def "interesting traces are kept and the rest dropped"() {
+    setup:
+    baseline.tryAcquire() >> false
+    def writer = newWriter(["http.status_code": "500", "customer": "*"])
+    def ordinary = finished(root("ordinary"), 10)
+    def error = root("error")
+    error.setError(true)
+    finished(error, 10)
+    def slow = finished(root("slow"), 200)
+    def status = root("status")
+    status.setTag("http.status_code", "500")
+    finished(status, 10)
+    def okStatus = root("ok")
+    okStatus.setTag("http.status_code", "200")
+    finished(okStatus, 10)
+    def customer = root("customer")
+    customer.setTag("customer", "acme")
+    finished(customer, 10)
+
+    when:
+    [ordinary, error, slow, status, okStatus, customer].each {
+      writer.write([it])
+    }
+
+    then:
+    written == [[error], [slow], [status], [customer]]
+  }
+
+  def "ordinary traces are kept up to the baseline rate"() {
+    setup:
+    baseline.tryAcquire() >>> [true, false]
+    def writer = newWriter()
+    def first = finished(root("first"), 10)
+    def second = finished(root("second"), 10)
+
+    when:
+    writer.write([first])
+    writer.write([second])
+
+    then:
+    written == [[first]]
+  }
+
+  def "kept traces which were to be dropped are given a keep priority"() {
+    setup:
+    baseline.tryAcquire() >> false
+    def writer = newWriter()
+    def slow = root("slow")
+    slow.setSamplingPriority(PrioritySampling.SAMPLER_DROP)
+    slow.context().lockSamplingPriority()
+    finished(slow, 200)
+
+    when:
+    writer.write([slow])
+
+    then:
+    written == [[slow]]
+    slow.samplingPriority() == PrioritySampling.SAMPLER_KEEP
+  }
+
+  def "user decisions are respected"() {
+    setup:
+    baseline.tryAcquire() >> true
+    def writer = newWriter()
+    def kept = root("kept")
+    kept.setSamplingPriority(PrioritySampling.USER_KEEP)
+    finished(kept, 10)
+    def dropped = root("dropped")
+    dropped.setSamplingPriority(PrioritySampling.USER_DROP)
+    dropped.setError(true)
+    finished(dropped, 10)
+
+    when:
+    writer.write([kept])
+    writer.write([dropped])
+
+    then:
+    written == [[kept]]
+  }
+
+  def "chunks are held until the root span is written"() {
+    setup:
+    baseline.tryAcquire() >> false
+    def writer = newWriter()
+    def root = root("root")
+    def child = finished(child(root, "child"), 10)
+
+    when:
+    writer.write([child])
+
+    then:
+    written.isEmpty()
+
+    when:
+    root.setError(true)
+    writer.write([finished(root, 10)])
+
+    then:
+    written == [[child], [root]]
+  }
+
+  def "held chunks are dropped with their trace"() {
+    setup:
+    baseline.tryAcquire() >> false
+    def writer = newWriter()
+    def root = root("root")
+    def child = finished(child(root, "child"), 10)
+
+    when:
+    writer.write([child])
+    writer.write([finished(root, 10)])
+
+    then:
+    written.isEmpty()
+  }
+
+  def "once a chunk matches the rest of the trace is sent straight away"() {
+    setup:
+    baseline.tryAcquire() >> false
+    def writer = newWriter()
+    def root = root("root")
+    def first = finished(child(root, "first"), 10)
+    def slow = finished(child(root, "slow"), 200)
+    def last = finished(child(root, "last"), 10)
+
+    when:
+    writer.write([first])
+    writer.write([slow])
+    writer.write([last])
+
+    then:
+    written == [[first], [slow], [last]]
+
+    when:
+    writer.write([finished(root, 10)])
+
+    then:
+    written == [[first], [slow], [last], [root]]
+  }
+
+  def "the oldest held trace is sent undecided when the buffer is full"() {
+    setup:
+    baseline.tryAcquire() >> false
+    def writer = newWriter([:], 2)
+    def roots = (1..3).collect { root("root" + it) }
+    def children = roots.collect { finished(child(it, "child"), 10) }
+
+    when:
+    children.each {
+      writer.write([it])
+    }
+
+    then:
+    written == [[children[0]]]
+  }
+
+  def "held chunks are sent undecided when the writer is flushed"() {
+    setup:
+    baseline.tryAcquire() >> false
+    def writer = newWriter()
+    def root = root("root")
+    def child = finished(child(root, "child"), 10)
+
+    when:
+    writer.write([child])
+    writer.flush()
+
+    then:
+    written == [[child]]
+  }
+
+  def "held chunks are sent undecided before the delegate is closed"() {
+    setup:
+    baseline.tryAcquire() >> false
+    def delegate = Mock(Writer)
+    def writer = newWriter(delegate)
+    def root = root("root")
+    def child = finished(child(root, "child"), 10)
+
+    when:
+    writer.write([child])
+    writer.close()
+
+    then:
+    1 * delegate.write([child])
+
+    then:
+    1 * delegate.close()
+    0 * delegate._
+  }
+
+  def "a dropped trace is counted once with the spans of all its chunks"() {
+    setup:
+    baseline.tryAcquire() >> false
+    def delegate = Mock(Writer)
+    def writer = newWriter(delegate)
+    def root = root("root")
+    def first = finished(child(root, "first"), 10)
+    def second = finished(child(root, "second"), 10)
+
+    when:
+    writer.write([first])
+    writer.write([second])
+    writer.write([finished(root, 10)])
+
+    then:
+    1 * delegate.incrementDropCounts(3)
+    0 * delegate._
+  }
+
+  def "a trace the user dropped is counted once with the spans of all its chunks"() {
+    setup:
+    def delegate = Mock(Writer)
+    def writer = newWriter(delegate)
+    def root = root("root")
+    root.setSamplingPriority(PrioritySampling.USER_DROP)
+    def first = finished(child(root, "first"), 10)
+    def second = finished(child(root, "second"), 10)
+
+    when:
+    writer.write([first, second])
+    writer.write([finished(root, 10)])
+
+    then:
+    1 * delegate.incrementDropCounts(3)
+    0 * delegate._
+  }
+
+  def "every trace is sent while the metrics aggregator is disabled"() {
+    setup:
+    baseline.tryAcquire() >> false
+    def enabled = true
+    metricsAggregator = Stub(MetricsAggregator) {
+      isEnabled() >> { enabled }
+    }
+    def writer = newWriter()
+    def ordinary = finished(root("ordinary"), 10)
+    def child = finished(child(root("root"), "child"), 10)
+
+    when:
+    writer.write([child])
+    enabled = false
+    writer.write([ordinary])
+
+    then:
+    written == [[child], [ordinary]]
+  }
+
+  TailSamplingWriter newWriter(Map<String, String> tags = [:], int bufferSize = 16) {
+    return new TailSamplingWriter(
+      written, metricsAggregator, 100, MILLISECONDS, tags, baseline, bufferSize)
+  }
+
+  TailSamplingWriter newWriter(Writer delegate) {
+    return new TailSamplingWriter(delegate, metricsAggregator, 100, MILLISECONDS, [:], baseline, 16)
+  }
+
+  DDSpan root(String name) {
+    return tracer.buildSpan(name).withStartTimestamp(1000).start()
+  }
+
+  DDSpan child(DDSpan parent, String name) {
+    return tracer.buildSpan(name).asChildOf(parent).withStartTimestamp(1000).start()
+  }
+
+  static DDSpan finished(DDSpan span, long durationMillis) {
+    // set the duration directly, so the trace is not written to the tracer's writer
+    span.@durationNano.set(MILLISECONDS.toNanos(durationMillis))
+    return span
+  }
+}
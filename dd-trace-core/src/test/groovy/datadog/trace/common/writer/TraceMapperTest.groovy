@@ -33,7 +33,7 @@ class TraceMapperTest extends DDCoreSpecification {
     ByteBuffer dictionaryBytes = traceMapper.dictionary.slice()
 
     MessageUnpacker dictionaryUnpacker = MessagePack.newDefaultUnpacker(dictionaryBytes)
-    int dictionaryLength = traceMapper.encoding.size()
+    int dictionaryLength = traceMapper.dictionary.messageCount()
     String[] dictionary = new String[dictionaryLength]
     for (int i = 0; i < dictionary.length; ++i) {
       dictionary[i] = dictionaryUnpacker.unpackString()
@@ -1,9 +1,18 @@
 package datadog.trace.common.writer
 
 import com.timgroup.statsd.NoOpStatsDClient
+import datadog.trace.api.DDId
+import datadog.trace.common.writer.ddagent.DDAgentApi
+import datadog.trace.common.writer.ddagent.DDAgentFeaturesDiscovery
+import datadog.trace.common.writer.ddagent.DroppingPolicy
+import datadog.trace.common.writer.ddagent.Payload
 import datadog.trace.common.writer.ddagent.PayloadDispatcher
+import datadog.trace.common.writer.ddagent.PayloadSender
 import datadog.trace.common.writer.ddagent.TraceProcessingWorker
+import datadog.trace.core.CoreTracer
 import datadog.trace.core.DDSpan
+import datadog.trace.core.DDSpanContext
+import datadog.trace.core.PendingTrace
 import datadog.trace.core.monitor.HealthMetrics
 import datadog.trace.core.monitor.Monitoring
 import datadog.trace.test.util.DDSpecification
@@ -19,6 +28,7 @@ import static datadog.trace.api.sampling.PrioritySampling.UNSET
 import static datadog.trace.api.sampling.PrioritySampling.USER_DROP
 import static datadog.trace.api.sampling.PrioritySampling.USER_KEEP
 import static datadog.trace.common.writer.ddagent.Prioritization.FAST_LANE
+import static datadog.trace.common.writer.ddagent.Prioritization.SCORED
 
 class TraceProcessingWorkerTest extends DDSpecification {
 
@@ -38,15 +48,16 @@ class TraceProcessingWorkerTest extends DDSpecification {
   def "heartbeats should be triggered automatically when enabled"() {
     setup:
     AtomicInteger flushCount = new AtomicInteger()
-    TraceProcessingWorker worker = new TraceProcessingWorker(10, Stub(HealthMetrics),
-      monitoring,
-      flushCountingPayloadDispatcher(flushCount),
-      {
-        false
-      },
-      FAST_LANE,
-      1,
-      TimeUnit.NANOSECONDS) // stop heartbeats from being throttled
+    TraceProcessingWorker worker = TraceProcessingWorker.builder()
+      .capacity(10)
+      .healthMetrics(Stub(HealthMetrics))
+      .monitoring(monitoring)
+      .dispatcher(flushCountingPayloadDispatcher(flushCount))
+      .droppingPolicy({ false } as DroppingPolicy)
+      .prioritization(FAST_LANE)
+      .flushInterval(1)
+      .timeUnit(TimeUnit.NANOSECONDS) // stop heartbeats from being throttled
+      .build()
 
     when: "processor is started"
     worker.start()
@@ -63,15 +74,16 @@ class TraceProcessingWorkerTest extends DDSpecification {
   def "heartbeats should occur at least once per second when not throttled"() {
     setup:
     AtomicInteger flushCount = new AtomicInteger()
-    TraceProcessingWorker worker = new TraceProcessingWorker(10, Stub(HealthMetrics),
-      monitoring,
-      flushCountingPayloadDispatcher(flushCount),
-      {
-        false
-      },
-      FAST_LANE,
-      1,
-      TimeUnit.NANOSECONDS) // stop heartbeats from being throttled
+    TraceProcessingWorker worker = TraceProcessingWorker.builder()
+      .capacity(10)
+      .healthMetrics(Stub(HealthMetrics))
+      .monitoring(monitoring)
+      .dispatcher(flushCountingPayloadDispatcher(flushCount))
+      .droppingPolicy({ false } as DroppingPolicy)
+      .prioritization(FAST_LANE)
+      .flushInterval(1)
+      .timeUnit(TimeUnit.NANOSECONDS) // stop heartbeats from being throttled
+      .build()
     def timeConditions = new PollingConditions(timeout: 1, initialDelay: 1, factor: 1.25)
 
     when: "processor is started"
@@ -89,26 +101,28 @@ class TraceProcessingWorkerTest extends DDSpecification {
   def "a flush should clear the primary queue"() {
     setup:
     AtomicInteger flushCount = new AtomicInteger()
-    TraceProcessingWorker worker = new TraceProcessingWorker(10, Stub(HealthMetrics),
-      monitoring,
-      flushCountingPayloadDispatcher(flushCount),
-      {
-        false
-      },
-      FAST_LANE,
-      100, TimeUnit.SECONDS) // prevent heartbeats from helping the flush happen
+    TraceProcessingWorker worker = TraceProcessingWorker.builder()
+      .capacity(10)
+      .healthMetrics(Stub(HealthMetrics))
+      .monitoring(monitoring)
+      .dispatcher(flushCountingPayloadDispatcher(flushCount))
+      .droppingPolicy({ false } as DroppingPolicy)
+      .prioritization(FAST_LANE)
+      .flushInterval(100)
+      .timeUnit(TimeUnit.SECONDS) // prevent heartbeats from helping the flush happen
+      .build()
 
     when: "there is pending work it is completed before a flush"
     // processing this span will throw an exception, but it should be caught
     // and not disrupt the flush
-    worker.primaryQueue.offer([Mock(DDSpan)])
+    worker.shards[0].primaryQueue.offer([Mock(DDSpan)])
     worker.start()
     boolean flushed = worker.flush(10, TimeUnit.SECONDS)
 
     then: "the flush succeeds, triggers a dispatch, and the queue is empty"
     flushed
     flushCount.get() == 1
-    worker.primaryQueue.isEmpty()
+    worker.shards[0].primaryQueue.isEmpty()
 
     cleanup:
     worker.close()
@@ -131,11 +145,16 @@ class TraceProcessingWorkerTest extends DDSpecification {
       // right one
       errorReported.incrementAndGet()
     }
-    TraceProcessingWorker worker = new TraceProcessingWorker(10, healthMetrics,
-      monitoring, throwingDispatcher, {
-      false
-    }, FAST_LANE,
-      100, TimeUnit.SECONDS) // prevent heartbeats from helping the flush happen
+    TraceProcessingWorker worker = TraceProcessingWorker.builder()
+      .capacity(10)
+      .healthMetrics(healthMetrics)
+      .monitoring(monitoring)
+      .dispatcher(throwingDispatcher)
+      .droppingPolicy({ false } as DroppingPolicy)
+      .prioritization(FAST_LANE)
+      .flushInterval(100)
+      .timeUnit(TimeUnit.SECONDS) // prevent heartbeats from helping the flush happen
+      .build()
     worker.start()
 
     when: "a trace is processed but can't be passed on"
@@ -161,10 +180,16 @@ class TraceProcessingWorkerTest extends DDSpecification {
       acceptedCount.getAndIncrement()
     }
     HealthMetrics healthMetrics = Mock(HealthMetrics)
-    TraceProcessingWorker worker = new TraceProcessingWorker(10, healthMetrics, monitoring,
-      countingDispatcher, {
-      false
-    }, FAST_LANE, 100, TimeUnit.SECONDS)
+    TraceProcessingWorker worker = TraceProcessingWorker.builder()
+      .capacity(10)
+      .healthMetrics(healthMetrics)
+      .monitoring(monitoring)
+      .dispatcher(countingDispatcher)
+      .droppingPolicy({ false } as DroppingPolicy)
+      .prioritization(FAST_LANE)
+      .flushInterval(100)
+      .timeUnit(TimeUnit.SECONDS)
+      .build()
     // prevent heartbeats from helping the flush happen
     worker.start()
 
@@ -209,18 +234,60 @@ class TraceProcessingWorkerTest extends DDSpecification {
 
   }
 
+  def "reserved traces are sent once publishing stops"() {
+    setup:
+    AtomicInteger acceptedCount = new AtomicInteger()
+    PayloadDispatcher countingDispatcher = Mock(PayloadDispatcher)
+    countingDispatcher.addTrace(_) >> {
+      acceptedCount.getAndIncrement()
+    }
+    TraceProcessingWorker worker = TraceProcessingWorker.builder()
+      .capacity(10)
+      .healthMetrics(Stub(HealthMetrics))
+      .monitoring(monitoring)
+      .dispatcher(countingDispatcher)
+      .droppingPolicy({ false } as DroppingPolicy)
+      .prioritization(SCORED)
+      .flushInterval(100)
+      .timeUnit(TimeUnit.SECONDS)
+      .build()
+
+    when: "more traces are published than fit in the queue before the worker starts"
+    int submitted = 0
+    for (int i = 0; i < 25; ++i) {
+      DDSpan span = realSpan(DDId.from(i + 1))
+      submitted += worker.publish(span, SAMPLER_KEEP, [span]) ? 1 : 0
+    }
+    worker.start()
+
+    then: "the reserved traces are sent without another trace being published or a flush"
+    submitted == 25
+    conditions.eventually {
+      assert acceptedCount.get() == 25
+    }
+
+    cleanup:
+    worker.close()
+  }
+
   def "flush of full queue after worker thread stopped will not flush but will return"() {
     setup:
     PayloadDispatcher countingDispatcher = Mock(PayloadDispatcher)
     HealthMetrics healthMetrics = Mock(HealthMetrics)
-    TraceProcessingWorker worker = new TraceProcessingWorker(10, healthMetrics, monitoring,
-      countingDispatcher, {
-      false
-    }, FAST_LANE, 100, TimeUnit.SECONDS)
+    TraceProcessingWorker worker = TraceProcessingWorker.builder()
+      .capacity(10)
+      .healthMetrics(healthMetrics)
+      .monitoring(monitoring)
+      .dispatcher(countingDispatcher)
+      .droppingPolicy({ false } as DroppingPolicy)
+      .prioritization(FAST_LANE)
+      .flushInterval(100)
+      .timeUnit(TimeUnit.SECONDS)
+      .build()
     worker.start()
     worker.close()
     int queueSize = 0
-    while (worker.primaryQueue.offer([Mock(DDSpan)])) {
+    while (worker.shards[0].primaryQueue.offer([Mock(DDSpan)])) {
       queueSize++
     }
 
@@ -230,4 +297,85 @@ class TraceProcessingWorkerTest extends DDSpecification {
     !flushed
   }
 
+  def "sharded worker sends every trace before a flush completes"() {
+    setup:
+    AtomicInteger sentCount = new AtomicInteger()
+    HealthMetrics healthMetrics = Mock(HealthMetrics)
+    DDAgentFeaturesDiscovery discovery = Mock(DDAgentFeaturesDiscovery) {
+      it.getTraceEndpoint() >> traceEndpoint
+    }
+    DDAgentApi api = Mock(DDAgentApi) {
+      it.sendSerializedTraces(_) >> { Payload payload ->
+        sentCount.addAndGet(payload.traceCount())
+        return DDAgentApi.Response.success(200)
+      }
+    }
+    PayloadSender sender = new PayloadSender(api, healthMetrics, 2)
+    PayloadDispatcher dispatcher = PayloadDispatcher.builder()
+      .featuresDiscovery(discovery)
+      .api(api)
+      .healthMetrics(healthMetrics)
+      .monitoring(monitoring)
+      .sender(sender)
+      .bufferCount(2)
+      .build()
+    TraceProcessingWorker worker = TraceProcessingWorker.builder()
+      .capacity(1024)
+      .healthMetrics(healthMetrics)
+      .monitoring(monitoring)
+      .dispatcher(dispatcher)
+      .droppingPolicy({ false } as DroppingPolicy)
+      .prioritization(FAST_LANE)
+      .flushInterval(100)
+      .timeUnit(TimeUnit.SECONDS)
+      .shardCount(shards)
+      .build()
+    worker.start()
+
+    when: "traces are submitted"
+    int submitted = 0
+    for (int i = 0; i < traceCount; ++i) {
+      DDSpan span = realSpan(DDId.from(i + 1))
+      submitted += worker.publish(span, SAMPLER_KEEP, [span]) ? 1 : 0
+    }
+    boolean flushed = worker.flush(5, TimeUnit.SECONDS)
+
+    then: "the flush only completes once all the serialized traces have been sent"
+    flushed
+    submitted == traceCount
+    sentCount.get() == submitted
+    0 * healthMetrics.onFailedSerialize(_, _)
+
+    cleanup:
+    worker.close()
+
+    where:
+    traceEndpoint | shards | traceCount
+    "v0.4/traces" | 1      | 100
+    "v0.4/traces" | 4      | 100
+    "v0.5/traces" | 1      | 100
+    "v0.5/traces" | 4      | 100
+  }
+
+  def realSpan(DDId traceId) {
+    CoreTracer tracer = Mock(CoreTracer)
+    tracer.mapServiceName(_) >> { String serviceName -> serviceName }
+    PendingTrace trace = Mock(PendingTrace)
+    trace.getTracer() >> tracer
+    return new DDSpan(0, new DDSpanContext(
+      traceId,
+      DDId.from(1),
+      DDId.ZERO,
+      null,
+      "",
+      "",
+      "",
+      UNSET,
+      "",
+      [:],
+      false,
+      "",
+      0,
+      trace))
+  }
 }
@@ -0,0 +1,67 @@
+package datadog.trace.common.writer.ddagent
+
+import datadog.trace.test.util.DDSpecification
+
+import static datadog.trace.common.writer.ddagent.AdaptiveFlushController.MAX_INTERVAL_MULTIPLE
+import static datadog.trace.common.writer.ddagent.AdaptiveFlushController.MIN_TARGET_SIZE
+import static java.util.concurrent.TimeUnit.MILLISECONDS
+import static java.util.concurrent.TimeUnit.SECONDS
+
+class AdaptiveFlushControllerTest extends DDSpecification {
+
+  static final long INTERVAL = SECONDS.toNanos(1)
+  static final int BUFFER_SIZE = 5 << 20
+
+  def sender = Stub(PayloadSender)
+
+  def "flush interval is only stretched when the agent is slow"() {
+    setup:
+    sender.averageLatencyNanos() >> MILLISECONDS.toNanos(latencyMillis)
+    def controller = new AdaptiveFlushController(BUFFER_SIZE, sender)
+
+    expect:
+    controller.flushIntervalNanos(INTERVAL) == MILLISECONDS.toNanos(intervalMillis)
+
+    where:
+    latencyMillis | intervalMillis
+    0             | 1000
+    10            | 1000
+    250           | 1000
+    500           | 2000
+    2000          | 1000 * MAX_INTERVAL_MULTIPLE
+  }
+
+  def "target size follows the rate the payloads are serialized at"() {
+    setup:
+    def controller = new AdaptiveFlushController(BUFFER_SIZE, sender)
+
+    when: "nothing has been observed"
+    int initial = controller.targetSize(INTERVAL)
+
+    then:
+    initial == MIN_TARGET_SIZE
+
+    when: "a few spans a second are serialized"
+    controller.onPayload(1000, 10, INTERVAL)
+
+    then:
+    controller.targetSize(INTERVAL) == MIN_TARGET_SIZE
+
+    when: "a burst fills a payload quickly"
+    for (int i = 0; i < 20; ++i) {
+      controller.onPayload(4 << 20, 10_000, MILLISECONDS.toNanos(500))
+    }
+    int target = controller.targetSize(INTERVAL)
+
+    then: "the payloads grow, leaving headroom in the buffer"
+    target == BUFFER_SIZE - (BUFFER_SIZE >> 3)
+
+    when: "the load falls"
+    for (int i = 0; i < 40; ++i) {
+      controller.onPayload(100_000, 1000, INTERVAL)
+    }
+
+    then:
+    Math.abs(controller.targetSize(INTERVAL) - 100_000) < 1000
+  }
+}
@@ -28,6 +28,7 @@ class DDAgentFeaturesDiscoveryTest extends DDSpecification {
 
   static final String INFO_RESPONSE = loadJsonFile("agent-info.json")
   static final String INFO_WITH_CLIENT_DROPPING_RESPONSE = loadJsonFile("agent-info-with-client-dropping.json")
+  static final String INFO_WITH_LZ4_RESPONSE = loadJsonFile("agent-info-with-lz4.json")
 
   def "test parse /info response"() {
     setup:
@@ -61,6 +62,27 @@ class DDAgentFeaturesDiscoveryTest extends DDSpecification {
     features.supportsDropping()
   }
 
+  def "test parse /info response with content encodings"() {
+    setup:
+    OkHttpClient client = Mock(OkHttpClient)
+    DDAgentFeaturesDiscovery features = new DDAgentFeaturesDiscovery(client, monitoring, agentUrl, true)
+
+    when: "/info available"
+    features.discover()
+
+    then:
+    1 * client.newCall(_) >> { Request request -> infoResponse(request, json) }
+    features.getTraceEndpoint() == "v0.5/traces"
+    features.supportsContentEncoding("lz4") == lz4
+    features.supportsContentEncoding("LZ4") == lz4
+    !features.supportsContentEncoding("zstd")
+
+    where:
+    json                   | lz4
+    INFO_RESPONSE          | false
+    INFO_WITH_LZ4_RESPONSE | true
+  }
+
   def "test fallback when /info not found"() {
     setup:
     OkHttpClient client = Mock(OkHttpClient)
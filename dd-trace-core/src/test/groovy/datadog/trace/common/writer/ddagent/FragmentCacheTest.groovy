@@ -0,0 +1,49 @@
+package datadog.trace.common.writer.ddagent
+
+import datadog.trace.bootstrap.instrumentation.api.UTF8BytesString
+import datadog.trace.test.util.DDSpecification
+
+class FragmentCacheTest extends DDSpecification {
+
+  def "values are encoded once"() {
+    setup:
+    def cache = new FragmentCache(1)
+    def value = UTF8BytesString.create("value")
+
+    when:
+    def first = cache.get(value)
+
+    then:
+    first == FragmentCache.encode("value".bytes)
+    cache.get(value).is(first)
+  }
+
+  def "colliding values are not cached until the cache is cleared"() {
+    setup:
+    def cache = new FragmentCache(1)
+    def first = new String("first")
+    def second = new String("second")
+    cache.get(first)
+
+    expect:
+    cache.get(second) == null
+    cache.get(first) != null
+
+    when:
+    cache.clear()
+
+    then:
+    cache.get(second) == FragmentCache.encode("second".bytes)
+    cache.get(first) == null
+  }
+
+  def "long values are not cached"() {
+    setup:
+    def cache = new FragmentCache(1)
+
+    expect:
+    cache.get("x" * 129) == null
+    cache.get("é" * 100) == null
+    cache.get("x" * 128) != null
+  }
+}
@@ -3,6 +3,7 @@ package datadog.trace.common.writer.ddagent
 import datadog.trace.api.DDId
 import datadog.trace.api.DDTags
 import datadog.trace.api.IdGenerationStrategy
+import datadog.trace.bootstrap.instrumentation.api.Tags
 import datadog.trace.bootstrap.instrumentation.api.UTF8BytesString
 import datadog.trace.core.CoreSpan
 import datadog.trace.core.Metadata
@@ -13,6 +14,10 @@ import java.util.concurrent.TimeUnit
 
 class TraceGenerator {
 
+  // the same instances are reused, as service names and tag values mostly are by the tracer
+  private static final String[] SERVICES = (0..9).collect { "service-" + it } as String[]
+  private static final UTF8BytesString[] COMPONENTS = (0..3).collect { UTF8BytesString.create("component-" + it) } as UTF8BytesString[]
+
   static List<List<CoreSpan>> generateRandomTraces(int howMany, boolean lowCardinality) {
     List<List<CoreSpan>> traces = new ArrayList<>(howMany)
     for (int i = 0; i < howMany; ++i) {
@@ -46,6 +51,10 @@ class TraceGenerator {
       tags.put("tag." + i, ThreadLocalRandom.current().nextBoolean() ? "foo" : randomString(2000))
       tags.put("tag.1." + i, lowCardinality ? "y" : UUID.randomUUID())
     }
+    if (ThreadLocalRandom.current().nextBoolean()) {
+      tags.put(Tags.COMPONENT, COMPONENTS[ThreadLocalRandom.current().nextInt(COMPONENTS.length)])
+      tags.put(Tags.SPAN_KIND, ThreadLocalRandom.current().nextBoolean() ? Tags.SPAN_KIND_CLIENT : Tags.SPAN_KIND_SERVER)
+    }
     Map<String, Number> metrics = new HashMap<>()
     int metricCount = ThreadLocalRandom.current().nextInt(0, 20)
     for (int i = 0; i < metricCount; ++i) {
@@ -54,7 +63,7 @@ class TraceGenerator {
         : ThreadLocalRandom.current().nextDouble())
     }
     return new PojoSpan(
-      "service-" + ThreadLocalRandom.current().nextInt(lowCardinality ? 1 : 10),
+      SERVICES[ThreadLocalRandom.current().nextInt(lowCardinality ? 1 : 10)],
       "operation-" + ThreadLocalRandom.current().nextInt(lowCardinality ? 1 : 100),
       UTF8BytesString.create("resource-" + ThreadLocalRandom.current().nextInt(lowCardinality ? 1 : 100)),
       DDId.from(traceId),
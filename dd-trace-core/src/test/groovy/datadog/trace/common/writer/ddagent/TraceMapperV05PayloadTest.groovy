@@ -1,6 +1,7 @@
 package datadog.trace.common.writer.ddagent
 
 import datadog.trace.api.DDId
+import datadog.trace.bootstrap.instrumentation.api.UTF8BytesString
 import datadog.trace.core.serialization.ByteBufferConsumer
 import datadog.trace.core.serialization.FlushingBuffer
 import datadog.trace.core.serialization.msgpack.MsgPackWriter
@@ -134,6 +135,44 @@ class TraceMapperV05PayloadTest extends DDSpecification {
     100 << 10  | 100 << 10      | 1000       | false
   }
 
+  def "strings interned in earlier payloads are added to the dictionary of each payload"() {
+    setup:
+    // the same instances are written to every payload
+    Map<String, Object> tags = ["component": UTF8BytesString.create("component"), "tag": "value"]
+    List<TraceGenerator.PojoSpan> trace = (1..5).collect {
+      new TraceGenerator.PojoSpan(
+        "service",
+        "operation",
+        UTF8BytesString.create("resource"),
+        DDId.from(1),
+        DDId.from(it),
+        DDId.ZERO,
+        10000,
+        100,
+        0,
+        Collections.emptyMap(),
+        Collections.emptyMap(),
+        tags,
+        "type",
+        false)
+    }
+    List<List<TraceGenerator.PojoSpan>> traces = Collections.nCopies(200, trace)
+    TraceMapperV0_5 traceMapper = new TraceMapperV0_5(10 << 10)
+    PayloadVerifier verifier = new PayloadVerifier(traces, traceMapper)
+    MsgPackWriter packer = new MsgPackWriter(new FlushingBuffer(4 << 10, verifier))
+
+    when:
+    for (List<TraceGenerator.PojoSpan> t : traces) {
+      if (!packer.format(t, traceMapper)) {
+        packer.flush()
+      }
+    }
+    packer.flush()
+
+    then:
+    verifier.verifyTracesConsumed()
+  }
+
   private static final class PayloadVerifier implements ByteBufferConsumer, WritableByteChannel {
 
     private final List<List<TraceGenerator.PojoSpan>> expectedTraces
@@ -0,0 +1,222 @@
+package datadog.trace.common.writer.ddagent
+
+import datadog.trace.core.monitor.HealthMetrics
+import datadog.trace.test.util.DDSpecification
+
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import java.nio.file.Files
+import java.util.concurrent.TimeUnit
+
+class TraceSpoolTest extends DDSpecification {
+
+  File directory = Files.createTempDirectory("spool").toFile()
+
+  def discovery = Mock(DDAgentFeaturesDiscovery)
+  def api = Mock(DDAgentApi)
+  def healthMetrics = Mock(HealthMetrics)
+
+  def setup() {
+    discovery.getTraceEndpoint() >> "v0.4/traces"
+    discovery.isAgentReachable() >> true
+  }
+
+  def cleanup() {
+    directory.deleteDir()
+  }
+
+  def "spooled payloads are replayed in order once the agent is reachable"() {
+    setup:
+    def spool = newSpool()
+    def sent = []
+    api.sendSerializedTraces(_) >> { Payload payload ->
+      sent << [payload.traceCount(), payload.droppedTraces(), bytesOf(payload)]
+      return DDAgentApi.Response.success(200)
+    }
+
+    when:
+    spool.append(payload(1, 100, (byte) 1).withDroppedTraces(7))
+    spool.append(payload(2, 200, (byte) 2))
+    spool.replay()
+
+    then:
+    sent.size() == 2
+    sent[0][0] == 1
+    sent[0][1] == 7
+    sent[0][2] == bytesOf(payload(1, 100, (byte) 1))
+    sent[1][0] == 2
+    sent[1][2] == bytesOf(payload(2, 200, (byte) 2))
+
+    when: "everything has been replayed"
+    spool.replay()
+
+    then:
+    sent.size() == 2
+  }
+
+  def "payloads are kept until they can be sent"() {
+    setup:
+    def spool = newSpool()
+    def responses = [DDAgentApi.Response.failed(new IOException()), DDAgentApi.Response.success(200)]
+    int attempts = 0
+    api.sendSerializedTraces(_) >> {
+      return responses[attempts++]
+    }
+    spool.append(payload(1, 100, (byte) 1))
+
+    when:
+    spool.replay()
+
+    then:
+    attempts == 1
+
+    when:
+    spool.replay()
+    spool.replay()
+
+    then:
+    attempts == 2
+  }
+
+  def "payloads rejected by the agent are discarded"() {
+    setup:
+    def spool = newSpool()
+    int attempts = 0
+    api.sendSerializedTraces(_) >> {
+      attempts++
+      return DDAgentApi.Response.failed(400)
+    }
+    spool.append(payload(1, 100, (byte) 1))
+
+    when:
+    spool.replay()
+    spool.replay()
+
+    then:
+    attempts == 1
+  }
+
+  def "nothing is replayed while the agent is unreachable"() {
+    setup:
+    def unreachable = Mock(DDAgentFeaturesDiscovery)
+    unreachable.getTraceEndpoint() >> "v0.4/traces"
+    unreachable.isAgentReachable() >> false
+    def spool = new TraceSpool(directory, 4 << 20, 60, TimeUnit.SECONDS, api, unreachable, healthMetrics)
+    spool.append(payload(1, 100, (byte) 1))
+
+    when:
+    spool.replay()
+
+    then:
+    1 * unreachable.discover()
+    0 * api.sendSerializedTraces(_)
+  }
+
+  def "payloads survive a restart and are not replayed twice"() {
+    setup:
+    int sent = 0
+    api.sendSerializedTraces(_) >> {
+      sent++
+      return DDAgentApi.Response.success(200)
+    }
+    def first = newSpool()
+    first.append(payload(1, 100, (byte) 1))
+    first.replay()
+    first.append(payload(2, 100, (byte) 2))
+    first.close()
+
+    when:
+    def second = newSpool()
+    second.replay()
+
+    then:
+    sent == 2
+
+    when:
+    newSpool().replay()
+
+    then:
+    sent == 2
+  }
+
+  def "oldest segments are evicted when the spool is full"() {
+    setup:
+    // a 1MB spool has a single 1MB segment
+    def spool = new TraceSpool(directory, 1 << 20, 60, TimeUnit.SECONDS, api, discovery, healthMetrics)
+    def sent = []
+    api.sendSerializedTraces(_) >> { Payload payload ->
+      sent << payload.traceCount()
+      return DDAgentApi.Response.success(200)
+    }
+
+    when:
+    spool.append(payload(1, 600 << 10, (byte) 1))
+    spool.append(payload(2, 600 << 10, (byte) 2))
+    spool.replay()
+
+    then:
+    sent == [2]
+    directory.listFiles().length == 1
+  }
+
+  def "payloads which are too large or too old are not replayed"() {
+    setup:
+    def spool = new TraceSpool(directory, 1 << 20, 0, TimeUnit.SECONDS, api, discovery, healthMetrics)
+
+    expect:
+    !spool.append(payload(1, 2 << 20, (byte) 1))
+
+    when:
+    spool.append(payload(1, 100, (byte) 1))
+    Thread.sleep(5)
+    spool.replay()
+
+    then:
+    0 * api.sendSerializedTraces(_)
+  }
+
+  def "payloads serialized for another endpoint are discarded"() {
+    setup:
+    def v5 = Mock(DDAgentFeaturesDiscovery)
+    v5.getTraceEndpoint() >> "v0.5/traces"
+    v5.isAgentReachable() >> true
+    newSpool().append(payload(1, 100, (byte) 1))
+    def spool = new TraceSpool(directory, 4 << 20, 60, TimeUnit.SECONDS, api, v5, healthMetrics)
+
+    when:
+    spool.replay()
+
+    then:
+    0 * api.sendSerializedTraces(_)
+  }
+
+  def "only failures which might succeed later are spooled"() {
+    expect:
+    TraceSpool.isRetriable(response) == retriable
+
+    where:
+    response                                         | retriable
+    DDAgentApi.Response.failed(new IOException())    | true
+    DDAgentApi.Response.failed(404)                  | true
+    DDAgentApi.Response.failed(503)                  | true
+    DDAgentApi.Response.failed(429)                  | true
+    DDAgentApi.Response.failed(400)                  | false
+    DDAgentApi.Response.failed(413)                  | false
+  }
+
+  TraceSpool newSpool() {
+    return new TraceSpool(directory, 4 << 20, 60, TimeUnit.SECONDS, api, discovery, healthMetrics)
+  }
+
+  static Payload payload(int traceCount, int size, byte content) {
+    byte[] body = new byte[size]
+    Arrays.fill(body, content)
+    return new TraceMapperV0_4().newPayload().withBody(traceCount, ByteBuffer.wrap(body))
+  }
+
+  static byte[] bytesOf(Payload payload) {
+    def out = new ByteArrayOutputStream()
+    payload.writeTo(Channels.newChannel(out))
+    return out.toByteArray()
+  }
+}
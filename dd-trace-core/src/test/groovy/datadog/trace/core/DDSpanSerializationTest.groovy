@@ -81,7 +81,7 @@ class DDSpanSerializationTest extends DDCoreSpecification {
     packer.format(Collections.singletonList(span), traceMapper)
     packer.flush()
     def dictionaryUnpacker = MessagePack.newDefaultUnpacker(traceMapper.dictionary.slice())
-    String[] dictionary = new String[traceMapper.encoding.size()]
+    String[] dictionary = new String[traceMapper.dictionary.messageCount()]
     for (int i = 0; i < dictionary.length; ++i) {
       dictionary[i] = dictionaryUnpacker.unpackString()
     }
@@ -225,7 +225,7 @@ class DDSpanSerializationTest extends DDCoreSpecification {
     int spanCount = unpacker.unpackArrayHeader()
     int size = unpacker.unpackArrayHeader()
     def dictionaryUnpacker = MessagePack.newDefaultUnpacker(mapper.dictionary.slice())
-    String[] dictionary = new String[mapper.encoding.size()]
+    String[] dictionary = new String[mapper.dictionary.messageCount()]
     for (int i = 0; i < dictionary.length; ++i) {
       dictionary[i] = dictionaryUnpacker.unpackString()
     }
@@ -10,6 +10,7 @@ import datadog.trace.core.propagation.ExtractedContext
 import datadog.trace.core.propagation.TagContext
 import datadog.trace.core.test.DDCoreSpecification
 
+import java.util.concurrent.CountDownLatch
 import java.util.concurrent.TimeUnit
 
 class DDSpanTest extends DDCoreSpecification {
@@ -181,6 +182,65 @@ class DDSpanTest extends DDCoreSpecification {
     !child2.hasSamplingPriority()
   }
 
+  def "sampling priority is held by the trace"() {
+    setup:
+    def parent = tracer.buildSpan("testParent").start()
+    def child = tracer.buildSpan("testChild").asChildOf(parent).start()
+
+    when:
+    child.setSamplingPriority(PrioritySampling.USER_KEEP)
+
+    then:
+    parent.getSamplingPriority() == PrioritySampling.USER_KEEP
+
+    when:
+    parent.context().lockSamplingPriority()
+
+    then:
+    !child.context().setSamplingPriority(PrioritySampling.SAMPLER_DROP)
+    child.getSamplingPriority() == PrioritySampling.USER_KEEP
+
+    when:
+    child.context().forceSamplingPriority(PrioritySampling.SAMPLER_DROP)
+
+    then:
+    parent.getSamplingPriority() == PrioritySampling.SAMPLER_DROP
+    !parent.context().setSamplingPriority(PrioritySampling.USER_KEEP)
+
+    cleanup:
+    child.finish()
+    parent.finish()
+  }
+
+  def "spans racing to set and lock the sampling priority agree on it"() {
+    setup:
+    def parent = tracer.buildSpan("testParent").start()
+    def children = (1..8).collect {
+      tracer.buildSpan("testChild").asChildOf(parent).start()
+    }
+    def start = new CountDownLatch(1)
+    def locked = new int[children.size()]
+
+    when:
+    def threads = children.withIndex().collect { child, i ->
+      Thread.start {
+        start.await()
+        child.context().setSamplingPriority(i % 2 == 0 ? PrioritySampling.SAMPLER_KEEP : PrioritySampling.SAMPLER_DROP)
+        child.context().lockSamplingPriority()
+        locked[i] = child.context().getSamplingPriority()
+      }
+    }
+    start.countDown()
+    threads*.join()
+
+    then:
+    locked.every { it == parent.getSamplingPriority() }
+
+    cleanup:
+    children*.finish()
+    parent.finish()
+  }
+
   def "origin set only on root span"() {
     setup:
     def parent = tracer.buildSpan("testParent").asChildOf(extractedContext).start().context()
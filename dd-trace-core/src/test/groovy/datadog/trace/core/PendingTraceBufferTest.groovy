@@ -8,7 +8,9 @@ import datadog.trace.context.TraceScope
 import datadog.trace.core.jfr.DDNoopScopeEventFactory
 import datadog.trace.core.monitor.Monitoring
 import datadog.trace.core.scopemanager.ContinuableScopeManager
+import datadog.trace.core.util.Clock
 import datadog.trace.test.util.DDSpecification
+import org.jctools.queues.MessagePassingQueue
 import spock.lang.Subject
 import spock.lang.Timeout
 
@@ -26,7 +28,7 @@ class PendingTraceBufferTest extends DDSpecification {
 
   def tracer = Mock(CoreTracer)
   def scopeManager = new ContinuableScopeManager(10, new DDNoopScopeEventFactory(), new NoOpStatsDClient(), true, true)
-  def factory = new PendingTrace.Factory(tracer, bufferSpy, false)
+  def factory = new PendingTrace.Factory(tracer, bufferSpy, false, 0)
   List<TraceScope.Continuation> continuations = []
 
   def cleanup() {
@@ -85,7 +87,7 @@ class PendingTraceBufferTest extends DDSpecification {
 
     then:
     trace.pendingReferenceCount.get() == 0
-    1 * tracer.write({ it.size() == 1 })
+    1 * tracer.write({ it.size() == 1 }, true)
     1 * tracer.writeTimer() >> Monitoring.DISABLED.newTimer("")
     _ * tracer.getPartialFlushMinSpans() >> 10
     0 * _
@@ -116,7 +118,7 @@ class PendingTraceBufferTest extends DDSpecification {
     then:
     trace.size() == 0
     trace.pendingReferenceCount.get() == 0
-    1 * tracer.write({ it.size() == 2 })
+    1 * tracer.write({ it.size() == 2 }, true)
     1 * tracer.writeTimer() >> Monitoring.DISABLED.newTimer("")
     _ * tracer.getPartialFlushMinSpans() >> 10
     0 * _
@@ -144,7 +146,7 @@ class PendingTraceBufferTest extends DDSpecification {
     then:
     1 * bufferSpy.enqueue(_)
     1 * tracer.writeTimer() >> Monitoring.DISABLED.newTimer("")
-    1 * tracer.write({ it.size() == 1 })
+    1 * tracer.write({ it.size() == 1 }, true)
     _ * tracer.getPartialFlushMinSpans() >> 10
     _ * tracer.mapServiceName(_)
     0 * _
@@ -191,7 +193,7 @@ class PendingTraceBufferTest extends DDSpecification {
     trace.pendingReferenceCount.get() == 0
     trace.rootSpanWritten
     1 * tracer.writeTimer() >> Monitoring.DISABLED.newTimer("")
-    1 * tracer.write({ it.size() == 2 }) >> {
+    1 * tracer.write({ it.size() == 2 }, true) >> {
       latch.countDown()
     }
     _ * tracer.getPartialFlushMinSpans() >> 10
@@ -216,7 +218,7 @@ class PendingTraceBufferTest extends DDSpecification {
     trace.pendingReferenceCount.get() == 0
     trace.rootSpanWritten
     1 * tracer.writeTimer() >> Monitoring.DISABLED.newTimer("")
-    1 * tracer.write({ it.size() == 1 }) >> {
+    1 * tracer.write({ it.size() == 1 }, true) >> {
       parentLatch.countDown()
     }
     _ * tracer.getPartialFlushMinSpans() >> 10
@@ -234,7 +236,7 @@ class PendingTraceBufferTest extends DDSpecification {
     1 * bufferSpy.enqueue(trace)
     _ * tracer.getPartialFlushMinSpans() >> 10
     1 * tracer.writeTimer() >> Monitoring.DISABLED.newTimer("")
-    1 * tracer.write({ it.size() == 1 }) >> {
+    1 * tracer.write({ it.size() == 1 }, false) >> {
       childLatch.countDown()
     }
     _ * tracer.mapServiceName(_)
@@ -252,6 +254,11 @@ class PendingTraceBufferTest extends DDSpecification {
         return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis())
       }
 
+      @Override
+      long lastReferenced() {
+        return Clock.currentNanoTicks()
+      }
+
       @Override
       boolean lastReferencedNanosAgo(long nanos) {
         return false
@@ -278,6 +285,75 @@ class PendingTraceBufferTest extends DDSpecification {
     counter.get() == 3
   }
 
+  def "timer wheel expires elements at their deadline"() {
+    setup:
+    def tick = PendingTraceBuffer.TimerWheel.TICK_NS
+    def wheel = new PendingTraceBuffer.TimerWheel(0)
+    def expired = []
+    def consumer = new MessagePassingQueue.Consumer<PendingTraceBuffer.Element>() {
+        @Override
+        void accept(PendingTraceBuffer.Element e) {
+          expired << e
+        }
+      }
+    def first = Mock(PendingTraceBuffer.Element)
+    def second = Mock(PendingTraceBuffer.Element)
+    def late = Mock(PendingTraceBuffer.Element)
+
+    when:
+    wheel.schedule(second, 5 * tick)
+    wheel.schedule(first, 2 * tick - 1)
+    wheel.schedule(late, 1000 * tick)
+
+    then:
+    wheel.size() == 3
+    wheel.nanosUntilNextDeadline(0) == 2 * tick
+
+    when:
+    wheel.expire(2 * tick - 1, consumer)
+
+    then:
+    expired == []
+
+    when:
+    wheel.expire(2 * tick, consumer)
+
+    then:
+    expired == [first]
+    wheel.nanosUntilNextDeadline(2 * tick) == 3 * tick
+
+    when: "deadlines beyond the wheel are clamped to its last slot"
+    wheel.expire(1000 * tick, consumer)
+
+    then:
+    expired == [first, second, late]
+    wheel.size() == 0
+    wheel.nanosUntilNextDeadline(1000 * tick) == -1
+  }
+
+  def "timer wheel drains all elements"() {
+    setup:
+    def wheel = new PendingTraceBuffer.TimerWheel(0)
+    def drained = []
+    def elements = (1..100).collect { Mock(PendingTraceBuffer.Element) }
+
+    when:
+    elements.eachWithIndex { element, i ->
+      wheel.schedule(element, i * PendingTraceBuffer.TimerWheel.TICK_NS)
+    }
+    wheel.drain(new MessagePassingQueue.Consumer<PendingTraceBuffer.Element>() {
+        @Override
+        void accept(PendingTraceBuffer.Element e) {
+          drained << e
+        }
+      })
+
+    then:
+    drained.size() == 100
+    drained.containsAll(elements)
+    wheel.size() == 0
+  }
+
   def addContinuation(DDSpan span) {
     def scope = scopeManager.activate(span, ScopeSource.INSTRUMENTATION, true)
     continuations << scope.capture()
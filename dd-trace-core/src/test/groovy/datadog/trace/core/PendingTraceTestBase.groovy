@@ -2,7 +2,10 @@ package datadog.trace.core
 
 import ch.qos.logback.classic.Level
 import ch.qos.logback.classic.Logger
+import datadog.trace.api.sampling.PrioritySampling
+import datadog.trace.common.sampling.Sampler
 import datadog.trace.common.writer.ListWriter
+import datadog.trace.common.writer.Writer
 import datadog.trace.core.test.DDCoreSpecification
 import org.slf4j.LoggerFactory
 
@@ -10,6 +13,8 @@ import java.util.concurrent.CountDownLatch
 import java.util.concurrent.TimeUnit
 
 import static datadog.trace.api.config.TracerConfig.PARTIAL_FLUSH_MIN_SPANS
+import static datadog.trace.api.config.TracerConfig.SPAN_STREAMING_CHUNK_SIZE
+import static datadog.trace.api.config.TracerConfig.SPAN_STREAMING_ENABLED
 
 abstract class PendingTraceTestBase extends DDCoreSpecification {
 
@@ -204,6 +209,90 @@ abstract class PendingTraceTestBase extends DDCoreSpecification {
     quickTracer.close()
   }
 
+  def "span streaming writes chunks before the root finishes"() {
+    when:
+    injectSysConfig(SPAN_STREAMING_ENABLED, "true")
+    injectSysConfig(SPAN_STREAMING_CHUNK_SIZE, "2")
+    def streamingTracer = tracerBuilder().writer(writer).build()
+    def rootSpan = streamingTracer.buildSpan("root").start()
+    def trace = rootSpan.context().trace
+    def child1 = streamingTracer.buildSpan("child1").asChildOf(rootSpan).start()
+    def child2 = streamingTracer.buildSpan("child2").asChildOf(rootSpan).start()
+    def child3 = streamingTracer.buildSpan("child3").asChildOf(rootSpan).start()
+
+    then: "sampling priority is decided when the trace starts"
+    rootSpan.samplingPriority() != PrioritySampling.UNSET
+
+    when:
+    child1.finish()
+
+    then:
+    trace.finishedSpans.asList() == [child1]
+    writer == []
+
+    when:
+    child2.finish()
+    writer.waitForTraces(1)
+
+    then:
+    trace.finishedSpans.isEmpty()
+    writer == [[child2, child1]]
+    child2.hasSamplingPriority()
+    !child1.hasSamplingPriority()
+
+    when:
+    child3.finish()
+    rootSpan.finish()
+    writer.waitForTraces(2)
+
+    then:
+    trace.pendingReferenceCount.get() == 0
+    trace.finishedSpans.isEmpty()
+    writer == [[child2, child1], [rootSpan, child3]]
+    !child3.hasSamplingPriority()
+
+    cleanup:
+    streamingTracer.close()
+  }
+
+  def "dropped streamed trace is counted once"() {
+    setup:
+    injectSysConfig(SPAN_STREAMING_ENABLED, "true")
+    injectSysConfig(SPAN_STREAMING_CHUNK_SIZE, "2")
+    def mockWriter = Mock(Writer)
+    def streamingTracer = tracerBuilder().writer(mockWriter).sampler({ false } as Sampler).build()
+    def rootSpan = streamingTracer.buildSpan("root").start()
+    def child1 = streamingTracer.buildSpan("child1").asChildOf(rootSpan).start()
+    def child2 = streamingTracer.buildSpan("child2").asChildOf(rootSpan).start()
+
+    when:
+    child1.finish()
+    child2.finish()
+
+    then:
+    0 * mockWriter._
+
+    when:
+    rootSpan.finish()
+
+    then:
+    1 * mockWriter.incrementDropCounts(3)
+    0 * mockWriter._
+
+    when:
+    def lateChild = streamingTracer.buildSpan("late").asChildOf(rootSpan).start()
+    lateChild.finish()
+    // late arrivals are buffered rather than written when they finish
+    rootSpan.context().trace.write()
+
+    then:
+    1 * mockWriter.incrementDropCounts(1)
+    0 * mockWriter._
+
+    cleanup:
+    streamingTracer.close()
+  }
+
   def "partial flush concurrency test"() {
     // reduce logging noise
     def logger = (Logger) LoggerFactory.getLogger("datadog.trace")
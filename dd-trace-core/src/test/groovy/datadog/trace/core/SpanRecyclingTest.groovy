@@ -0,0 +1,171 @@
+package datadog.trace.core
+
+import datadog.trace.common.writer.ListWriter
+import datadog.trace.core.test.DDCoreSpecification
+
+class SpanRecyclingTest extends DDCoreSpecification {
+
+  def writer = new ListWriter()
+  def tracer = tracerBuilder().writer(writer).spanRecycling(true).build()
+
+  def cleanup() {
+    tracer?.close()
+  }
+
+  def "recycled context is reused by the next span"() {
+    setup:
+    def root = tracer.buildSpan("root").start()
+    def child = tracer.buildSpan("child").asChildOf(root).start()
+    child.setTag("foo", "bar")
+    child.setMetric("baz", 1)
+    child.finish()
+    def context = child.context()
+    def childSpanId = child.getSpanId()
+
+    when:
+    child.recycle()
+    def next = tracer.buildSpan("next").asChildOf(root).start()
+
+    then:
+    next.context().is(context)
+    next.getOperationName() == "next"
+    next.getTags()["foo"] == null
+    next.context().getUnsafeMetrics().isEmpty()
+    next.getParentId() == root.getSpanId()
+    next.getSpanId() != childSpanId
+
+    cleanup:
+    next.finish()
+    root.finish()
+  }
+
+  def "recycled span ignores changes"() {
+    setup:
+    def root = tracer.buildSpan("root").start()
+    def child = tracer.buildSpan("child").asChildOf(root).start()
+    child.finish()
+    child.recycle()
+    def next = tracer.buildSpan("next").asChildOf(root).start()
+
+    when:
+    child.setTag("foo", "bar")
+    child.setResourceName("resource")
+    child.finish()
+
+    then:
+    next.getTags()["foo"] == null
+    next.getResourceName() == "next"
+    !next.isFinished()
+
+    cleanup:
+    next.finish()
+    root.finish()
+  }
+
+  def "context is not recycled while a span is changing it"() {
+    setup:
+    def root = tracer.buildSpan("root").start()
+    def child = tracer.buildSpan("child").asChildOf(root).start()
+    def context = child.context()
+    child.finish()
+
+    when:
+    def changing = context.beginChange(context.getGeneration())
+    child.recycle()
+    def next = tracer.buildSpan("next").asChildOf(root).start()
+    context.endChange()
+    child.setTag("foo", "bar")
+
+    then:
+    changing
+    !next.context().is(context)
+    child.getTags()["foo"] == "bar"
+    next.getTags()["foo"] == null
+
+    when:
+    def generation = context.getGeneration()
+    child.recycle()
+
+    then:
+    !context.beginChange(generation)
+    tracer.buildSpan("other").asChildOf(root).start().context().is(context)
+
+    cleanup:
+    next.finish()
+    root.finish()
+  }
+
+  def "recycled span still parents its children in its own trace"() {
+    setup:
+    def root = tracer.buildSpan("root").start()
+    def child = tracer.buildSpan("child").asChildOf(root).start()
+    def childSpanId = child.getSpanId()
+    def scope = tracer.activateSpan(child)
+    child.finish()
+    child.recycle()
+    def next = tracer.buildSpan("next").ignoreActiveSpan().start()
+
+    when:
+    def fromSpan = tracer.buildSpan("from span").asChildOf(child).start()
+    def fromScope = tracer.buildSpan("from scope").start()
+
+    then:
+    !child.context().is(next.context())
+    child.getSpanId() == childSpanId
+    child.getParentId() == root.getSpanId()
+    child.getTraceId() == root.getTraceId()
+    fromSpan.getTraceId() == root.getTraceId()
+    fromSpan.getParentId() == childSpanId
+    fromSpan.context().getTrace().is(root.context().getTrace())
+    fromScope.getTraceId() == root.getTraceId()
+    fromScope.getParentId() == childSpanId
+
+    cleanup:
+    fromScope.finish()
+    fromSpan.finish()
+    scope.close()
+    next.finish()
+    root.finish()
+  }
+
+  def "root context is only recycled once its trace is complete"() {
+    setup:
+    def root = tracer.buildSpan("root").start()
+    def child = tracer.buildSpan("child").asChildOf(root).start()
+    def rootContext = root.context()
+
+    when:
+    root.recycle()
+
+    then:
+    !tracer.buildSpan("other").start().context().is(rootContext)
+
+    when:
+    child.finish()
+    root.finish()
+    writer.waitForTraces(1)
+    root.recycle()
+
+    then:
+    tracer.buildSpan("other").start().context().is(rootContext)
+  }
+
+  def "contexts are not recycled when recycling is disabled"() {
+    setup:
+    def plainTracer = tracerBuilder().writer(new ListWriter()).build()
+    def span = plainTracer.buildSpan("span").start()
+    def context = span.context()
+    span.finish()
+
+    when:
+    span.recycle()
+    span.setTag("foo", "bar")
+
+    then:
+    span.getTags()["foo"] == "bar"
+    !plainTracer.buildSpan("next").start().context().is(context)
+
+    cleanup:
+    plainTracer.close()
+  }
+}
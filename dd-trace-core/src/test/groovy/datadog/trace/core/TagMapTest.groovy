@@ -0,0 +1,111 @@
+package datadog.trace.core
+
+import datadog.trace.test.util.DDSpecification
+
+class TagMapTest extends DDSpecification {
+
+  def "primitive values keep their type when read"() {
+    setup:
+    TagMap<String, Object> map = new TagMap<>()
+
+    when:
+    map.putInt("int", 1)
+    map.putLong("long", 2L)
+    map.putDouble("double", 3.5d)
+    map.put("string", "value")
+
+    then:
+    map.size() == 4
+    map.get("int") instanceof Integer
+    map.get("int") == 1
+    map.get("long") instanceof Long
+    map.get("long") == 2L
+    map.get("double") instanceof Double
+    map.get("double") == 3.5d
+    map.get("string") == "value"
+    map == [int: 1, long: 2L, double: 3.5d, string: "value"]
+  }
+
+  def "values are replaced regardless of how they were stored"() {
+    setup:
+    TagMap<String, Object> map = new TagMap<>()
+    map.put("key", "value")
+
+    when:
+    map.putLong("key", 10L)
+
+    then:
+    map.size() == 1
+    map.get("key") == 10L
+
+    when:
+    def previous = map.put("key", "other")
+
+    then:
+    previous == 10L
+    map.size() == 1
+    map.get("key") == "other"
+  }
+
+  def "visitor receives unboxed values"() {
+    setup:
+    TagMap<String, Object> map = new TagMap<>()
+    map.putInt("int", 1)
+    map.putLong("long", 2L)
+    map.putDouble("double", 3.5d)
+    map.put("string", "value")
+    def visited = [:]
+    def visitor = new TagMap.Visitor<String>() {
+        @Override
+        void visit(String key, Object value) {
+          visited.put(key, value)
+        }
+
+        @Override
+        void visit(String key, long value) {
+          visited.put(key, "long:" + value)
+        }
+
+        @Override
+        void visit(String key, double value) {
+          visited.put(key, "double:" + value)
+        }
+      }
+
+    when:
+    map.visit(visitor)
+
+    then:
+    visited == [int: "long:1", long: "long:2", double: "double:3.5", string: "value"]
+  }
+
+  def "map grows and keys stay reachable after removals"() {
+    setup:
+    TagMap<String, Object> map = new TagMap<>()
+    Map<String, Object> expected = new HashMap<>()
+
+    when:
+    for (int i = 0; i < 1000; ++i) {
+      map.putLong("key" + i, i)
+      expected.put("key" + i, (long) i)
+    }
+    for (int i = 0; i < 1000; i += 3) {
+      assert map.remove("key" + i) == (long) i
+      expected.remove("key" + i)
+    }
+
+    then:
+    map.size() == expected.size()
+    map == expected
+    expected.keySet().every { map.containsKey(it) }
+    !map.containsKey("key0")
+    map.remove("key0") == null
+
+    when:
+    map.clear()
+
+    then:
+    map.isEmpty()
+    map.get("key1") == null
+  }
+}
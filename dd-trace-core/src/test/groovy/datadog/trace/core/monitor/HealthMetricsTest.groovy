@@ -116,6 +116,46 @@ class HealthMetricsTest extends DDSpecification {
     bytes = ThreadLocalRandom.current().nextInt(10000)
   }
 
+  def "test onBufferPoolExhausted"() {
+    setup:
+    def statsD = Mock(StatsDClient)
+    def healthMetrics = new HealthMetrics(statsD, 100, TimeUnit.MILLISECONDS)
+    healthMetrics.start()
+
+    when:
+    healthMetrics.onBufferPoolExhausted(TimeUnit.MILLISECONDS.toNanos(5))
+    healthMetrics.onBufferPoolExhausted(TimeUnit.MILLISECONDS.toNanos(7))
+    Thread.sleep(110)
+
+    then:
+    1 * statsD.count('buffer.pool.exhausted', 2)
+    1 * statsD.count('buffer.pool.wait.time', 12)
+    0 * _
+    cleanup:
+    healthMetrics.close()
+  }
+
+  def "test onBufferPoolHit and onBufferPoolMiss"() {
+    setup:
+    def statsD = Mock(StatsDClient)
+    def healthMetrics = new HealthMetrics(statsD, 100, TimeUnit.MILLISECONDS)
+    healthMetrics.start()
+
+    when:
+    healthMetrics.onBufferPoolMiss(16)
+    healthMetrics.onBufferPoolMiss(16)
+    healthMetrics.onBufferPoolHit()
+    Thread.sleep(110)
+
+    then:
+    1 * statsD.count('buffer.pool.hit', 1)
+    1 * statsD.count('buffer.pool.miss', 2)
+    (1.._) * statsD.recordGaugeValue('buffer.pool.size', 32)
+    0 * _
+    cleanup:
+    healthMetrics.close()
+  }
+
   def "test onFailedSerialize"() {
     when:
     healthMetrics.onFailedSerialize(null, null)
@@ -0,0 +1,129 @@
+package datadog.trace.core.serialization
+
+import datadog.trace.core.monitor.HealthMetrics
+import datadog.trace.core.serialization.msgpack.MsgPackWriter
+import datadog.trace.test.util.DDSpecification
+import spock.lang.Timeout
+
+import java.nio.ByteBuffer
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class BufferPoolTest extends DDSpecification {
+
+  def "buffers are allocated on demand and reused once released"() {
+    setup:
+    HealthMetrics healthMetrics = Mock(HealthMetrics)
+    BufferPool pool = new BufferPool(16, 2, healthMetrics)
+
+    when:
+    ByteBuffer first = pool.acquire()
+    ByteBuffer second = pool.acquire()
+    first.putInt(1)
+    pool.release(first)
+    ByteBuffer third = pool.acquire()
+
+    then:
+    first.capacity() == 16
+    !first.is(second)
+    third.is(first)
+    third.position() == 0
+    third.limit() == 16
+    pool.allocatedBuffers() == 2
+    pool.availableBuffers() == 0
+    2 * healthMetrics.onBufferPoolMiss(16)
+    1 * healthMetrics.onBufferPoolHit()
+    0 * healthMetrics.onBufferPoolExhausted(_)
+  }
+
+  def "direct pools allocate off heap buffers"() {
+    setup:
+    BufferPool pool = new BufferPool(16, 1, direct, Mock(HealthMetrics))
+
+    when:
+    ByteBuffer buffer = pool.acquire()
+
+    then:
+    pool.isDirect() == direct
+    buffer.isDirect() == direct
+    buffer.capacity() == 16
+
+    where:
+    direct << [true, false]
+  }
+
+  @Timeout(10)
+  def "acquire blocks until a buffer is released when the pool is exhausted"() {
+    setup:
+    HealthMetrics healthMetrics = Mock(HealthMetrics)
+    BufferPool pool = new BufferPool(16, 1, healthMetrics)
+    ByteBuffer buffer = pool.acquire()
+    CountDownLatch acquired = new CountDownLatch(1)
+    ByteBuffer reacquired = null
+    Thread waiter = Thread.start {
+      reacquired = pool.acquire()
+      acquired.countDown()
+    }
+
+    when:
+    boolean acquiredBeforeRelease = acquired.await(100, TimeUnit.MILLISECONDS)
+    pool.release(buffer)
+    boolean acquiredAfterRelease = acquired.await(5, TimeUnit.SECONDS)
+    waiter.join()
+
+    then:
+    !acquiredBeforeRelease
+    acquiredAfterRelease
+    reacquired.is(buffer)
+    1 * healthMetrics.onBufferPoolExhausted({ it > 0 })
+  }
+
+  @Timeout(5)
+  def "pooled flushing buffer hands over the filled buffer and continues in a fresh one"() {
+    setup:
+    BufferPool pool = new BufferPool(64, 2, Mock(HealthMetrics))
+    List<ByteBuffer> published = []
+    List<Integer> counts = []
+    FlushingBuffer buffer = new FlushingBuffer(pool, new ByteBufferConsumer() {
+        @Override
+        void accept(int messageCount, ByteBuffer data) {
+          counts << messageCount
+          published << data
+        }
+      })
+    MsgPackWriter writer = new MsgPackWriter(buffer)
+    Mapper<String> mapper = new Mapper<String>() {
+        @Override
+        void map(String data, Writable packer) {
+          packer.writeString(data, null)
+        }
+      }
+
+    when:
+    writer.format("first", mapper)
+    writer.flush()
+
+    then:
+    counts == [1]
+    published[0].remaining() == 6
+
+    when: "the first buffer is released while the second is filled"
+    pool.release(published[0])
+    writer.format("second", mapper)
+    writer.flush()
+
+    then:
+    counts == [1, 1]
+    !published[1].is(published[0])
+    published[1].remaining() == 7
+
+    when:
+    pool.release(published[1])
+    writer.format("third", mapper)
+    writer.flush()
+
+    then: "serialization continues into the released buffer"
+    published[2].is(published[0])
+    published[2].remaining() == 6
+  }
+}
@@ -6,13 +6,17 @@ import datadog.trace.api.config.GeneralConfig
 import datadog.trace.api.env.CapturedEnvironment
 import datadog.trace.api.sampling.PrioritySampling
 import datadog.trace.bootstrap.instrumentation.api.AgentSpan
+import datadog.trace.bootstrap.instrumentation.api.InstrumentationTags
 import datadog.trace.bootstrap.instrumentation.api.Tags
 import datadog.trace.common.sampling.AllSampler
 import datadog.trace.common.writer.ListWriter
 import datadog.trace.common.writer.LoggingWriter
 import datadog.trace.core.CoreSpan
+import datadog.trace.core.DDSpanContext
 import datadog.trace.core.test.DDCoreSpecification
 
+import java.lang.reflect.Modifier
+
 import static datadog.trace.api.ConfigDefaults.DEFAULT_SERVICE_NAME
 import static datadog.trace.api.DDTags.ANALYTICS_SAMPLE_RATE
 import static datadog.trace.api.config.TracerConfig.SPLIT_BY_TAGS
@@ -544,4 +548,27 @@ class TagInterceptorTest extends DDCoreSpecification {
     cleanup:
     tracer.close()
   }
+
+  def "every tag which is intercepted needs intercepting"() {
+    setup:
+    def interceptor = new TagInterceptor(false, "my-service", Collections.singleton("sn.tag1"), new RuleFlags())
+    def tags = [DDTags, Tags, InstrumentationTags].collectMany { type ->
+      type.fields.findAll { Modifier.isStatic(it.modifiers) && it.type == String }.collect { it.get(null) }
+    } + ["service", "sn.tag1"]
+
+    when:
+    def intercepted = tags.findAll { tag ->
+      boolean changed = false
+      def span = Stub(DDSpanContext) {
+        getServiceName() >> ""
+        _ >> { changed = true; false }
+      }
+      interceptor.interceptTag(span, tag, "value") || changed
+    }
+
+    then:
+    intercepted.containsAll([DDTags.RESOURCE_NAME, InstrumentationTags.SERVLET_CONTEXT, "sn.tag1"])
+    intercepted.findAll { !interceptor.needsIntercept(it) } == []
+    (tags - intercepted).findAll { interceptor.needsIntercept(it) } == []
+  }
 }
@@ -40,4 +40,69 @@ class SimpleRateLimiterTest extends DDSpecification {
     where:
     rate << [10, 100, 1000]
   }
+
+  def "tokens are released evenly across the second"() {
+    setup:
+    def timeSource = new ControllableTimeSource()
+    def limiter = new SimpleRateLimiter(10, timeSource)
+    10.times {
+      limiter.tryAcquire()
+    }
+
+    expect:
+    !limiter.tryAcquire()
+
+    when:
+    timeSource.advance(TimeUnit.MILLISECONDS.toNanos(50))
+
+    then:
+    !limiter.tryAcquire()
+
+    when:
+    timeSource.advance(TimeUnit.MILLISECONDS.toNanos(50))
+
+    then:
+    limiter.tryAcquire()
+    !limiter.tryAcquire()
+
+    when:
+    timeSource.advance(TimeUnit.MILLISECONDS.toNanos(300))
+
+    then:
+    3.times {
+      assert limiter.tryAcquire(): "failed for $it"
+    }
+    !limiter.tryAcquire()
+  }
+
+  def "effective rate is the fraction of attempts which got a token"() {
+    setup:
+    def timeSource = new ControllableTimeSource()
+    def limiter = new SimpleRateLimiter(10, timeSource)
+
+    expect:
+    limiter.getEffectiveRate() == 1
+
+    when:
+    40.times {
+      limiter.tryAcquire()
+    }
+
+    then:
+    limiter.getEffectiveRate() == 0.25
+
+    when: "the next second starts"
+    timeSource.advance(TimeUnit.SECONDS.toNanos(1))
+    limiter.tryAcquire()
+
+    then: "it is averaged with the previous second"
+    limiter.getEffectiveRate() == (0.25 + 1) / 2
+
+    when: "a second passes without attempts"
+    timeSource.advance(TimeUnit.SECONDS.toNanos(2))
+    limiter.tryAcquire()
+
+    then:
+    limiter.getEffectiveRate() == 1
+  }
 }
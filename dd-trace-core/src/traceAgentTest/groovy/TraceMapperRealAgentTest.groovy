@@ -40,7 +40,12 @@ class TraceMapperRealAgentTest extends DDSpecification {
   def "send random traces"() {
     setup:
     HealthMetrics healthMetrics = Mock(HealthMetrics)
-    PayloadDispatcher dispatcher = new PayloadDispatcher(v05 ? v05Discovery : v04Discovery, v05 ? v05Api : v04Api, healthMetrics, monitoring)
+    PayloadDispatcher dispatcher = PayloadDispatcher.builder()
+      .featuresDiscovery(v05 ? v05Discovery : v04Discovery)
+      .api(v05 ? v05Api : v04Api)
+      .healthMetrics(healthMetrics)
+      .monitoring(monitoring)
+      .build()
     List<List<CoreSpan>> traces = generateRandomTraces(traceCount, lowCardinality)
     when:
     for (List<CoreSpan> trace : traces) {
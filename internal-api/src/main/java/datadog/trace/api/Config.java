@@ -40,6 +40,9 @@ import static datadog.trace.api.ConfigDefaults.DEFAULT_SCOPE_DEPTH_LIMIT;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_SERIALVERSIONUID_FIELD_INJECTION;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_SERVICE_NAME;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_SITE;
+import static datadog.trace.api.ConfigDefaults.DEFAULT_SPAN_STREAMING_CHUNK_SIZE;
+import static datadog.trace.api.ConfigDefaults.DEFAULT_SPAN_STREAMING_ENABLED;
+import static datadog.trace.api.ConfigDefaults.DEFAULT_TRACE_ADAPTIVE_FLUSH_ENABLED;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_TRACE_AGENT_PORT;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_TRACE_AGENT_V05_ENABLED;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_TRACE_ANALYTICS_ENABLED;
@@ -50,6 +53,16 @@ import static datadog.trace.api.ConfigDefaults.DEFAULT_TRACE_METHODS;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_TRACE_RATE_LIMIT;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_TRACE_REPORT_HOSTNAME;
 import static datadog.trace.api.ConfigDefaults.DEFAULT_TRACE_RESOLVER_ENABLED;
+import static datadog.trace.api.ConfigDefaults.DEFAULT_TRACE_SERIALIZATION_BUFFERS;
+import static datadog.trace.api.ConfigDefaults.DEFAULT_TRACE_SERIALIZATION_DIRECT_BUFFERS;
+import static datadog.trace.api.ConfigDefaults.DEFAULT_TRACE_SERIALIZATION_SHARDS;
+import static datadog.trace.api.ConfigDefaults.DEFAULT_TRACE_SPAN_RECYCLING_ENABLED;
+import static datadog.trace.api.ConfigDefaults.DEFAULT_TRACE_SPOOL_MAX_AGE;
+import static datadog.trace.api.ConfigDefaults.DEFAULT_TRACE_SPOOL_MAX_SIZE;
+import static datadog.trace.api.ConfigDefaults.DEFAULT_TRACE_TAIL_SAMPLING_BASELINE_RATE;
+import static datadog.trace.api.ConfigDefaults.DEFAULT_TRACE_TAIL_SAMPLING_BUFFER_SIZE;
+import static datadog.trace.api.ConfigDefaults.DEFAULT_TRACE_TAIL_SAMPLING_ENABLED;
+import static datadog.trace.api.ConfigDefaults.DEFAULT_TRACE_TAIL_SAMPLING_LATENCY_THRESHOLD;
 import static datadog.trace.api.DDTags.HOST_TAG;
 import static datadog.trace.api.DDTags.INTERNAL_HOST_NAME;
 import static datadog.trace.api.DDTags.LANGUAGE_TAG_KEY;
@@ -74,7 +87,9 @@ import static datadog.trace.api.config.GeneralConfig.SERVICE_NAME;
 import static datadog.trace.api.config.GeneralConfig.SITE;
 import static datadog.trace.api.config.GeneralConfig.TAGS;
 import static datadog.trace.api.config.GeneralConfig.TRACER_METRICS_BUFFERING_ENABLED;
+import static datadog.trace.api.config.GeneralConfig.TRACER_METRICS_DIMENSION_CARDINALITY;
 import static datadog.trace.api.config.GeneralConfig.TRACER_METRICS_ENABLED;
+import static datadog.trace.api.config.GeneralConfig.TRACER_METRICS_EXTRA_DIMENSIONS;
 import static datadog.trace.api.config.GeneralConfig.TRACER_METRICS_MAX_AGGREGATES;
 import static datadog.trace.api.config.GeneralConfig.TRACER_METRICS_MAX_PENDING;
 import static datadog.trace.api.config.GeneralConfig.VERSION;
@@ -122,7 +137,9 @@ import static datadog.trace.api.config.TraceInstrumentationConfig.KAFKA_CLIENT_P
 import static datadog.trace.api.config.TraceInstrumentationConfig.LEGACY_CONTEXT_FIELD_INJECTION;
 import static datadog.trace.api.config.TraceInstrumentationConfig.LOGS_INJECTION_ENABLED;
 import static datadog.trace.api.config.TraceInstrumentationConfig.LOGS_MDC_TAGS_INJECTION_ENABLED;
+import static datadog.trace.api.config.TraceInstrumentationConfig.MUZZLE_THREADS;
 import static datadog.trace.api.config.TraceInstrumentationConfig.OSGI_SEARCH_DEPTH;
+import static datadog.trace.api.config.TraceInstrumentationConfig.RESOLVER_CACHE_DIR;
 import static datadog.trace.api.config.TraceInstrumentationConfig.RESOLVER_USE_LOADCLASS;
 import static datadog.trace.api.config.TraceInstrumentationConfig.RUNTIME_CONTEXT_FIELD_INJECTION;
 import static datadog.trace.api.config.TraceInstrumentationConfig.SERIALVERSIONUID_FIELD_INJECTION;
@@ -154,8 +171,12 @@ import static datadog.trace.api.config.TracerConfig.SCOPE_DEPTH_LIMIT;
 import static datadog.trace.api.config.TracerConfig.SCOPE_INHERIT_ASYNC_PROPAGATION;
 import static datadog.trace.api.config.TracerConfig.SCOPE_STRICT_MODE;
 import static datadog.trace.api.config.TracerConfig.SERVICE_MAPPING;
+import static datadog.trace.api.config.TracerConfig.SPAN_STREAMING_CHUNK_SIZE;
+import static datadog.trace.api.config.TracerConfig.SPAN_STREAMING_ENABLED;
 import static datadog.trace.api.config.TracerConfig.SPAN_TAGS;
 import static datadog.trace.api.config.TracerConfig.SPLIT_BY_TAGS;
+import static datadog.trace.api.config.TracerConfig.TRACE_ADAPTIVE_FLUSH_ENABLED;
+import static datadog.trace.api.config.TracerConfig.TRACE_AGENT_COMPRESSION;
 import static datadog.trace.api.config.TracerConfig.TRACE_AGENT_PORT;
 import static datadog.trace.api.config.TracerConfig.TRACE_AGENT_URL;
 import static datadog.trace.api.config.TracerConfig.TRACE_ANALYTICS_ENABLED;
@@ -164,8 +185,22 @@ import static datadog.trace.api.config.TracerConfig.TRACE_REPORT_HOSTNAME;
 import static datadog.trace.api.config.TracerConfig.TRACE_RESOLVER_ENABLED;
 import static datadog.trace.api.config.TracerConfig.TRACE_SAMPLE_RATE;
 import static datadog.trace.api.config.TracerConfig.TRACE_SAMPLING_OPERATION_RULES;
+import static datadog.trace.api.config.TracerConfig.TRACE_SAMPLING_OPERATION_RULE_LIMITS;
 import static datadog.trace.api.config.TracerConfig.TRACE_SAMPLING_SERVICE_RULES;
+import static datadog.trace.api.config.TracerConfig.TRACE_SAMPLING_SERVICE_RULE_LIMITS;
+import static datadog.trace.api.config.TracerConfig.TRACE_SERIALIZATION_BUFFERS;
+import static datadog.trace.api.config.TracerConfig.TRACE_SERIALIZATION_DIRECT_BUFFERS;
+import static datadog.trace.api.config.TracerConfig.TRACE_SERIALIZATION_SHARDS;
+import static datadog.trace.api.config.TracerConfig.TRACE_SPAN_RECYCLING_ENABLED;
+import static datadog.trace.api.config.TracerConfig.TRACE_SPOOL_DIR;
+import static datadog.trace.api.config.TracerConfig.TRACE_SPOOL_MAX_AGE;
+import static datadog.trace.api.config.TracerConfig.TRACE_SPOOL_MAX_SIZE;
 import static datadog.trace.api.config.TracerConfig.TRACE_STRICT_WRITES_ENABLED;
+import static datadog.trace.api.config.TracerConfig.TRACE_TAIL_SAMPLING_BASELINE_RATE;
+import static datadog.trace.api.config.TracerConfig.TRACE_TAIL_SAMPLING_BUFFER_SIZE;
+import static datadog.trace.api.config.TracerConfig.TRACE_TAIL_SAMPLING_ENABLED;
+import static datadog.trace.api.config.TracerConfig.TRACE_TAIL_SAMPLING_LATENCY_THRESHOLD;
+import static datadog.trace.api.config.TracerConfig.TRACE_TAIL_SAMPLING_TAGS;
 import static datadog.trace.api.config.TracerConfig.WRITER_TYPE;
 
 import datadog.trace.api.config.GeneralConfig;
@@ -288,6 +323,8 @@ public class Config {
   @Getter private final boolean scopeInheritAsyncPropagation;
   @Getter private final int partialFlushMinSpans;
   @Getter private final boolean traceStrictWritesEnabled;
+  @Getter private final boolean spanStreamingEnabled;
+  @Getter private final int spanStreamingChunkSize;
   @Getter private final boolean runtimeContextFieldInjection;
   @Getter private final boolean legacyContextFieldInjection;
   @Getter private final boolean serialVersionUIDFieldInjection;
@@ -313,6 +350,8 @@ public class Config {
   @Getter private final boolean tracerMetricsBufferingEnabled;
   @Getter private final int tracerMetricsMaxAggregates;
   @Getter private final int tracerMetricsMaxPending;
+  @Getter private final List<String> tracerMetricsExtraDimensions;
+  @Getter private final int tracerMetricsDimensionCardinality;
 
   @Getter private final boolean logsInjectionEnabled;
   @Getter private final boolean logsMDCTagsInjectionEnabled;
@@ -329,6 +368,8 @@ public class Config {
 
   @Getter private final Map<String, String> traceSamplingServiceRules;
   @Getter private final Map<String, String> traceSamplingOperationRules;
+  @Getter private final Map<String, String> traceSamplingServiceRuleLimits;
+  @Getter private final Map<String, String> traceSamplingOperationRuleLimits;
   @Getter private final Double traceSampleRate;
   @Getter private final int traceRateLimit;
 
@@ -364,6 +405,20 @@ public class Config {
   @Getter private final boolean tempJarsCleanOnBoot;
 
   @Getter private final boolean traceAgentV05Enabled;
+  @Getter private final int traceSerializationShards;
+  @Getter private final int traceSerializationBuffers;
+  @Getter private final boolean traceSerializationDirectBuffers;
+  @Getter private final boolean traceSpanRecyclingEnabled;
+  @Getter private final String traceSpoolDir;
+  @Getter private final int traceSpoolMaxSize;
+  @Getter private final int traceSpoolMaxAge;
+  @Getter private final boolean traceAdaptiveFlushEnabled;
+  @Getter private final String traceAgentCompression;
+  @Getter private final boolean traceTailSamplingEnabled;
+  @Getter private final int traceTailSamplingLatencyThreshold;
+  @Getter private final Map<String, String> traceTailSamplingTags;
+  @Getter private final int traceTailSamplingBaselineRate;
+  @Getter private final int traceTailSamplingBufferSize;
 
   @Getter private final boolean debugEnabled;
   @Getter private final String configFile;
@@ -373,6 +428,8 @@ public class Config {
   @Getter private final boolean internalExitOnFailure;
 
   @Getter private final boolean resolverUseLoadClassEnabled;
+  @Getter private final String resolverCacheDir;
+  @Getter private final int muzzleThreads;
 
   @Getter private final String jdbcPreparedStatementClassName;
   @Getter private final String jdbcConnectionClassName;
@@ -561,6 +618,12 @@ public class Config {
 
     traceStrictWritesEnabled = configProvider.getBoolean(TRACE_STRICT_WRITES_ENABLED, false);
 
+    spanStreamingEnabled =
+        configProvider.getBoolean(SPAN_STREAMING_ENABLED, DEFAULT_SPAN_STREAMING_ENABLED);
+
+    spanStreamingChunkSize =
+        configProvider.getInteger(SPAN_STREAMING_CHUNK_SIZE, DEFAULT_SPAN_STREAMING_CHUNK_SIZE);
+
     runtimeContextFieldInjection =
         configProvider.getBoolean(
             RUNTIME_CONTEXT_FIELD_INJECTION, DEFAULT_RUNTIME_CONTEXT_FIELD_INJECTION);
@@ -608,6 +671,9 @@ public class Config {
         configProvider.getBoolean(TRACER_METRICS_BUFFERING_ENABLED, false);
     tracerMetricsMaxAggregates = configProvider.getInteger(TRACER_METRICS_MAX_AGGREGATES, 1000);
     tracerMetricsMaxPending = configProvider.getInteger(TRACER_METRICS_MAX_PENDING, 2048);
+    tracerMetricsExtraDimensions = configProvider.getList(TRACER_METRICS_EXTRA_DIMENSIONS);
+    tracerMetricsDimensionCardinality =
+        configProvider.getInteger(TRACER_METRICS_DIMENSION_CARDINALITY, 100);
 
     logsInjectionEnabled =
         configProvider.getBoolean(LOGS_INJECTION_ENABLED, DEFAULT_LOGS_INJECTION_ENABLED);
@@ -618,6 +684,40 @@ public class Config {
     traceAgentV05Enabled =
         configProvider.getBoolean(ENABLE_TRACE_AGENT_V05, DEFAULT_TRACE_AGENT_V05_ENABLED);
 
+    traceSerializationShards =
+        configProvider.getInteger(TRACE_SERIALIZATION_SHARDS, DEFAULT_TRACE_SERIALIZATION_SHARDS);
+
+    traceSerializationBuffers =
+        configProvider.getInteger(TRACE_SERIALIZATION_BUFFERS, DEFAULT_TRACE_SERIALIZATION_BUFFERS);
+
+    traceSerializationDirectBuffers =
+        configProvider.getBoolean(
+            TRACE_SERIALIZATION_DIRECT_BUFFERS, DEFAULT_TRACE_SERIALIZATION_DIRECT_BUFFERS);
+    traceSpanRecyclingEnabled =
+        configProvider.getBoolean(
+            TRACE_SPAN_RECYCLING_ENABLED, DEFAULT_TRACE_SPAN_RECYCLING_ENABLED);
+
+    traceSpoolDir = configProvider.getString(TRACE_SPOOL_DIR);
+    traceSpoolMaxSize =
+        configProvider.getInteger(TRACE_SPOOL_MAX_SIZE, DEFAULT_TRACE_SPOOL_MAX_SIZE);
+    traceSpoolMaxAge = configProvider.getInteger(TRACE_SPOOL_MAX_AGE, DEFAULT_TRACE_SPOOL_MAX_AGE);
+    traceAdaptiveFlushEnabled =
+        configProvider.getBoolean(
+            TRACE_ADAPTIVE_FLUSH_ENABLED, DEFAULT_TRACE_ADAPTIVE_FLUSH_ENABLED);
+    traceAgentCompression = configProvider.getString(TRACE_AGENT_COMPRESSION);
+    traceTailSamplingEnabled =
+        configProvider.getBoolean(TRACE_TAIL_SAMPLING_ENABLED, DEFAULT_TRACE_TAIL_SAMPLING_ENABLED);
+    traceTailSamplingLatencyThreshold =
+        configProvider.getInteger(
+            TRACE_TAIL_SAMPLING_LATENCY_THRESHOLD, DEFAULT_TRACE_TAIL_SAMPLING_LATENCY_THRESHOLD);
+    traceTailSamplingTags = configProvider.getMergedMap(TRACE_TAIL_SAMPLING_TAGS);
+    traceTailSamplingBaselineRate =
+        configProvider.getInteger(
+            TRACE_TAIL_SAMPLING_BASELINE_RATE, DEFAULT_TRACE_TAIL_SAMPLING_BASELINE_RATE);
+    traceTailSamplingBufferSize =
+        configProvider.getInteger(
+            TRACE_TAIL_SAMPLING_BUFFER_SIZE, DEFAULT_TRACE_TAIL_SAMPLING_BUFFER_SIZE);
+
     traceAnnotations = configProvider.getString(TRACE_ANNOTATIONS, DEFAULT_TRACE_ANNOTATIONS);
 
     traceMethods = configProvider.getString(TRACE_METHODS, DEFAULT_TRACE_METHODS);
@@ -631,6 +731,10 @@ public class Config {
 
     traceSamplingServiceRules = configProvider.getMergedMap(TRACE_SAMPLING_SERVICE_RULES);
     traceSamplingOperationRules = configProvider.getMergedMap(TRACE_SAMPLING_OPERATION_RULES);
+    traceSamplingServiceRuleLimits =
+        configProvider.getMergedMap(TRACE_SAMPLING_SERVICE_RULE_LIMITS);
+    traceSamplingOperationRuleLimits =
+        configProvider.getMergedMap(TRACE_SAMPLING_OPERATION_RULE_LIMITS);
     traceSampleRate = configProvider.getDouble(TRACE_SAMPLE_RATE);
     traceRateLimit = configProvider.getInteger(TRACE_RATE_LIMIT, DEFAULT_TRACE_RATE_LIMIT);
 
@@ -731,6 +835,8 @@ public class Config {
     internalExitOnFailure = configProvider.getBoolean(INTERNAL_EXIT_ON_FAILURE, false);
 
     resolverUseLoadClassEnabled = configProvider.getBoolean(RESOLVER_USE_LOADCLASS, true);
+    resolverCacheDir = configProvider.getString(RESOLVER_CACHE_DIR);
+    muzzleThreads = configProvider.getInteger(MUZZLE_THREADS, 0);
 
     // Setting this last because we have a few places where this can come from
     apiKey = tmpApiKey;
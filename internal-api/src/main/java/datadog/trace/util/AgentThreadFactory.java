@@ -15,8 +15,13 @@ public final class AgentThreadFactory implements ThreadFactory {
     TRACE_STARTUP("dd-agent-startup-datadog-tracer"),
     TRACE_MONITOR("dd-trace-monitor"),
     TRACE_PROCESSOR("dd-trace-processor"),
+    TRACE_SENDER("dd-trace-sender"),
+    TRACE_SPOOL_REPLAYER("dd-trace-spool-replayer"),
     TRACE_CASSANDRA_ASYNC_SESSION("dd-cassandra-session-executor"),
 
+    RESOLVER_CACHE_WRITER("dd-resolver-cache-writer"),
+    MUZZLE_VERIFIER("dd-muzzle-verifier"),
+
     METRICS_AGGREGATOR("dd-metrics-aggregator"),
 
     JMX_STARTUP("dd-agent-startup-jmxfetch"),